@@ -0,0 +1,48 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following renders the dye of a FluidSnapshot into a Processing window. Instead of drawing a rectangle per cell it
+writes one pixel per cell into a fluid_size x fluid_size PImage and then draws that image scaled up to the window
+in a single call. The colour of every amount of dye (clamped to 0 - 255) is looked up in a precomputed 256 entry
+palette for both the greyscale and the colour mode (see DyePalette, which FrameExporter uses as well). Nothing in
+fluid-core depends on this class.
+*/
+
+package fluid2d;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PImage;
+
+public class FluidRenderer {
+    public PImage image;  // One pixel per cell of the fluid
+    public int[] grey_palette = DyePalette.grey();  // Colour of every amount of dye in greyscale mode
+    public int[] color_palette = DyePalette.color();  // Colour of every amount of dye in colour mode
+
+    public FluidRenderer(PApplet applet, int fluid_size){
+        this.image = applet.createImage(fluid_size, fluid_size, PConstants.RGB);
+    }
+
+    public void render(PApplet applet, FluidSnapshot snapshot, boolean color_mode, int width, int height){
+        /*
+        Draw the dye of the snapshot so it fills a width x height area at the top left of the window
+        */
+        int[] palette = color_mode ? this.color_palette : this.grey_palette;
+        PImage image = this.image;
+        image.loadPixels();
+        int[] pixels = image.pixels;
+        double[] dye = snapshot.dye;
+        for (int index = 0; index < dye.length; index++){
+            pixels[index] = palette[DyePalette.index(dye[index])];
+        }
+        image.updatePixels();
+
+        // Upscale with a single blit (Main turns smoothing off so every cell stays a solid block)
+        applet.image(image, 0, 0, width, height);
+    }
+}
@@ -0,0 +1,200 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+// Author: Kavan Lam (1003038802)
+// Date: Dec 21, 2020
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is the starting point for executing the simulation. Here we setup our Processing
+environment which will be used for rendering and displaying the fluid. The fluid properties come
+from SimulationConfig and may be modified there to produce different behaviours for the fluid.
+The FluidSolver runs on its own thread (see SimulationLoop) at config.simulation_rate steps per second and every
+frame we render the newest snapshot of the dye with FluidRenderer. Mouse and keyboard input is queued and applied
+by the simulation thread in between steps so nothing here ever touches the fluid directly.
+*/
+
+package fluid2d;
+
+import processing.core.PApplet;
+
+public class Main extends PApplet{
+    /* Hyperparameters (Feel free to change these accordingly) */
+    // Fluid and Simulation Constants (see SimulationConfig)
+    public SimulationConfig config = new SimulationConfig();
+
+    // Display Constants
+    public int screen_size = config.fluid_size;  // This will also be the fluid size (the size of the fluid we are simulating)
+    public int screen_scale = 4;  // Upscale factor so we can get a better look at the fluid
+
+    /* Realtime simulation options */
+    public boolean color_mode = false;  // Press C on the keyboard to toggle color mode (default is greyscale)
+    public double splat_radius = 2.0;  // Radius of the Gaussian splats of dye and velocity added by the keys and the mouse (see SplatBatch)
+    public double key_dye = 1500;  // Total dye of the splat shot by an arrow key
+    public double key_velocity = 15;  // Total velocity of the splat shot by an arrow key
+    public double drag_dye = 255;  // Total dye of every mouse drag event (shared by the splats of its stroke)
+
+    /* The other parameters */
+    public FluidSolver solver;
+    public SimulationLoop simulation;  // Steps the solver on its own thread
+    public FluidRenderer renderer;
+    public int[] prev_mouse_location = {-1, -1};  // Used for ability to drag mouse to add dye
+    public int[] mouse_drag_velocity = {0, 0};  // Used for ability to drag mouse to add dye
+
+    public static void main(String[] args){
+        String[] processingArgs = {"2D Fluid Simulation"};
+        Main main_simulation_loop;
+
+        // Ensure screen size is large enough (the solver refuses to start otherwise)
+        try {
+            main_simulation_loop = new Main();
+        } catch (IllegalArgumentException e){
+            System.out.println("Simulation will has been terminated since the configuration is invalid (" + e.getMessage() + ")");
+            return;
+        }
+
+        // Print some information to the user
+        System.out.println("Simulation starting. Enjoy!!!");
+        System.out.println("Click and drag to add dye.");
+        System.out.println("Use the arrow keys to shot dye in a certain direction.");
+        System.out.println("Press C to toggle color mode.");
+        System.out.println("Press V to reset the simulation.");
+
+        // Start the Processing rendering and simulation
+        PApplet.runSketch(processingArgs, main_simulation_loop);
+    }
+
+    public Main(){
+        // Create and initialize our fluid
+        this.solver = new FluidSolver(this.config);
+        this.simulation = new SimulationLoop(this.solver);
+    }
+
+    public void settings(){
+        // Create the display
+        size(screen_size * screen_scale, screen_size * screen_scale);
+
+        // The fluid is drawn as a single upscaled image which should not be blurred
+        noSmooth();
+    }
+
+    public void setup(){
+        // Sets the title for the Processing window
+        surface.setTitle("2D Fluid Simulation");
+        this.renderer = new FluidRenderer(this, this.solver.fluid.fluid_size);
+
+        // Start advancing the fluid
+        this.simulation.start();
+    }
+
+    public void draw(){
+        /*
+        This is the render loop. The fluid is advanced by the simulation thread, here we only draw the newest
+        state it has published.
+         */
+
+        // Time the frame (only when config.metrics is set, see SimulationMetrics)
+        SimulationMetrics metrics = this.solver.metrics;
+        long frame_start = metrics.begin();
+
+        if (this.simulation.failure != null){
+            println("The simulation has stopped: " + this.simulation.failure);
+            noLoop();
+            return;
+        }
+        FluidSnapshot snapshot = this.simulation.snapshots.read();
+
+        // Draw/render the 2D fluid (one pixel per particle, scaled up to the window). The image covers the whole
+        // window so the previous frame does not need to be cleared first.
+        long render_start = metrics.begin();
+        this.renderer.render(this, snapshot, this.color_mode, this.screen_size * this.screen_scale, this.screen_size * this.screen_scale);
+        metrics.recordFrame(snapshot.step, frame_start, render_start);
+    }
+
+    public void keyPressed(){
+        // Detect dye reset and color mode toggle
+        if (key == 'C' || key == 'c'){
+            this.color_mode = !this.color_mode;
+        } else if (key == 'V' || key == 'v'){
+            // Remove all the dye from the simulation to reset
+            this.simulation.sources.clear_dye();
+        }
+
+        // Detect if arrow keys are pressed to shoot a blob of dye. The Gaussian splat adds the same total dye and
+        // velocity as the single cell the keys used to fill.
+        int temp = (int)(this.screen_size / 2.0);
+        double weight = SplatBatch.totalWeight(this.splat_radius, SplatBatch.GAUSSIAN);
+        double dye = this.key_dye / weight;
+        double speed = this.key_velocity / weight;
+        if (keyCode == UP){  // Shot dye upwards
+            this.simulation.sources.splat(this.screen_size - 3, temp, this.splat_radius, dye, 0, -speed, SplatBatch.GAUSSIAN);
+        } else if (keyCode == DOWN){  // Shot dye downwards
+            this.simulation.sources.splat(3, temp, this.splat_radius, dye, 0, speed, SplatBatch.GAUSSIAN);
+        } else if (keyCode == RIGHT){  // Shot dye towards the right
+            this.simulation.sources.splat(temp, 3, this.splat_radius, dye, speed, 0, SplatBatch.GAUSSIAN);
+        }  else if (keyCode == LEFT){  // Shot dye towards the left
+            this.simulation.sources.splat(temp, this.screen_size - 3, this.splat_radius, dye, -speed, 0, SplatBatch.GAUSSIAN);
+        }
+    }
+
+    public void mouseDragged(){
+        /*
+        Here we detect the moused begin clicked and dragged. Doing so will add dye to the fluid so
+        you can see it move!
+         */
+
+        // Deal with the mouse location
+        int[] mouse_position = {0, 0};
+        mouse_position[0] = (mouseX / this.screen_scale);
+        mouse_position[1] = (mouseY / this.screen_scale);
+
+        if (mouse_position[0] > (this.screen_size - 2) || mouse_position[0] < 0 || mouse_position[1] > (this.screen_size - 2) || mouse_position[1] < 0){
+            return;
+        }
+
+        if (this.prev_mouse_location[0] == -1){
+            this.prev_mouse_location[0] = mouse_position[0];
+            this.prev_mouse_location[1] = mouse_position[1];
+        }
+
+        // Add sources of dye and fluid velocity
+        this.mouse_drag_velocity[0] = mouse_position[0] - this.prev_mouse_location[0];
+        this.mouse_drag_velocity[1] = mouse_position[1] - this.prev_mouse_location[1];
+        // Splats along the whole way from the previous position so fast drags leave a continuous trail. The stroke adds
+        // the same total dye and velocity as the single cell a drag event used to fill.
+        double weight = SplatBatch.totalWeight(this.splat_radius, SplatBatch.GAUSSIAN);
+        this.simulation.sources.stroke(this.prev_mouse_location[1], this.prev_mouse_location[0], mouse_position[1], mouse_position[0],
+                this.splat_radius, this.drag_dye / weight, this.mouse_drag_velocity[0] / weight, this.mouse_drag_velocity[1] / weight, SplatBatch.GAUSSIAN);
+
+        // Need to store prev mouse position so we can compute velocity next time
+        this.prev_mouse_location = mouse_position;
+    }
+
+    public void dispose(){
+        /*
+        Called by Processing when the window closes. Closing the solver completes the metrics file (if any).
+        */
+        this.simulation.stop();
+        if (this.solver.metrics.enabled){
+            System.out.println(this.solver.metrics.memory.summary());
+        }
+        this.solver.close();
+        super.dispose();
+    }
+
+    public void mouseReleased(){
+        this.prev_mouse_location[0] = -1;
+        this.prev_mouse_location[1] = -1;
+    }
+
+    public int idx(int row, int col, int fluid_size){
+        /*
+        Converts a 2D index into a 1D index assuming a row wise flattening
+        */
+        return col + (row * fluid_size);
+    }
+}
+
+
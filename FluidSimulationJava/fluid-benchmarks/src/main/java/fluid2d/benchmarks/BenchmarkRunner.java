@@ -0,0 +1,43 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is the entry point of benchmarks.jar. It accepts the usual JMH command line and always adds the
+GC profiler, so every result comes with the allocation rate (gc.alloc.rate.norm is the bytes allocated per call).
+Nothing here needs a display so the benchmarks run on headless Linux machines.
+
+Example:
+    java -jar fluid-benchmarks/target/benchmarks.jar
+    java -jar fluid-benchmarks/target/benchmarks.jar ExplicitOperatorBenchmark -p fluid_size=64,256
+    java -jar fluid-benchmarks/target/benchmarks.jar -l
+*/
+
+package fluid2d.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions command_line = new CommandLineOptions(args);
+        if (command_line.shouldHelp() || command_line.shouldList() || command_line.shouldListWithParams() || command_line.shouldListProfilers()
+                || command_line.shouldListResultFormats()){
+            // Let JMH print what was asked for
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        Options options = new OptionsBuilder()
+                .parent(command_line)
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
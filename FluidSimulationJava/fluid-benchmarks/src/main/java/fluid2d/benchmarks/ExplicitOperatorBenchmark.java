@@ -0,0 +1,67 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following benchmarks the FluidOperations2D operators that do a fixed amount of work per cell (advection and
+set_boundary_values) for every grid size. Both write into preallocated arrays, so the GC profiler should report
+(close to) no allocation.
+*/
+
+package fluid2d.benchmarks;
+
+import fluid2d.FluidOperations2D;
+import fluid2d.SimulationConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ExplicitOperatorBenchmark {
+    @Param({"64", "256", "1024", "2048"})
+    public int fluid_size;
+
+    SimulationConfig config = new SimulationConfig();
+    double[] u;
+    double[] v;
+    double[] dye;
+    double[] array_new;
+
+    @Setup
+    public void setup(){
+        double[][] fields = Fields.swirl(this.fluid_size);
+        this.u = fields[0];
+        this.v = fields[1];
+        this.dye = fields[2];
+        this.array_new = new double[this.fluid_size * this.fluid_size];
+    }
+
+    @Benchmark
+    public double[] advection(){
+        FluidOperations2D.advection(this.array_new, this.dye, 3, this.config.time_step, this.fluid_size, this.u, this.v);
+        return this.array_new;
+    }
+
+    @Benchmark
+    public double[] setBoundaryValues(){
+        return FluidOperations2D.set_boundary_values(1, this.u, this.fluid_size);
+    }
+}
@@ -0,0 +1,44 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following creates the fluid state the operator benchmarks work on. Running the simulation to get a realistic
+state takes far too long on the larger grids, so a smooth swirl of velocity with a blob of dye in the middle is
+written straight into the arrays instead. It is the same for every run so the results stay comparable.
+*/
+
+package fluid2d.benchmarks;
+
+import fluid2d.FluidOperations2D;
+
+public class Fields {
+    public static double[][] swirl(int fluid_size){
+        /*
+        Returns {u, v, dye} with consistent border values
+        */
+        double[] u = new double[fluid_size * fluid_size];
+        double[] v = new double[fluid_size * fluid_size];
+        double[] dye = new double[fluid_size * fluid_size];
+        double centre = 0.5 * (fluid_size - 1);
+
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                double x = (col - centre) / centre;
+                double y = (row - centre) / centre;
+                double falloff = Math.exp(-4.0 * (x * x + y * y));
+                u[index] = -y * falloff * 5.0 / fluid_size;
+                v[index] = x * falloff * 5.0 / fluid_size;
+                dye[index] = 100.0 * falloff;
+            }
+        }
+        FluidOperations2D.set_boundary_values(1, u, fluid_size);
+        FluidOperations2D.set_boundary_values(2, v, fluid_size);
+        FluidOperations2D.set_boundary_values(3, dye, fluid_size);
+        return new double[][]{u, v, dye};
+    }
+}
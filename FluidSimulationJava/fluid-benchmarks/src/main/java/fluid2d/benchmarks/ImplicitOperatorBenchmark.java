@@ -0,0 +1,77 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following benchmarks the FluidOperations2D operators that solve a linear system (diffusion and pressure
+projection) with the Gauss-Seidel solver for every grid size and number of iterations. Both write into
+preallocated arrays, so the GC profiler should report (close to) no allocation.
+*/
+
+package fluid2d.benchmarks;
+
+import fluid2d.FluidOperations2D;
+import fluid2d.SimulationConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ImplicitOperatorBenchmark {
+    @Param({"64", "256", "1024", "2048"})
+    public int fluid_size;
+
+    @Param({"10", "30"})
+    public int iterations;
+
+    SimulationConfig config = new SimulationConfig();
+    double[] u;
+    double[] v;
+    double[] dye;
+    double[] array_new;
+    double[] divergence;
+    double[] pressure;
+
+    @Setup
+    public void setup(){
+        double[][] fields = Fields.swirl(this.fluid_size);
+        this.u = fields[0];
+        this.v = fields[1];
+        this.dye = fields[2];
+        this.array_new = new double[this.fluid_size * this.fluid_size];
+        this.divergence = new double[this.fluid_size * this.fluid_size];
+        this.pressure = new double[this.fluid_size * this.fluid_size];
+    }
+
+    @Benchmark
+    public double[] diffusion(){
+        FluidOperations2D.diffusion(this.array_new, this.dye, 3, this.config.time_step, this.fluid_size, this.config.diffusion_rate, this.iterations);
+        return this.array_new;
+    }
+
+    @Benchmark
+    public double[] pressureProjection(){
+        // Projecting updates u and v in place, which only changes how much divergence is left (not the work done)
+        FluidOperations2D.pressureProjection(this.u, this.v, this.divergence, this.pressure, this.fluid_size, this.config.time_step,
+                this.config.density, this.iterations);
+        return this.pressure;
+    }
+}
@@ -0,0 +1,85 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following benchmarks a full FluidSolver step for every grid size and number of solver iterations.
+options holds extra SimulationConfig parameters as name=value pairs separated by commas, so every execution
+mode can be measured from the command line, e.g.
+    java -jar fluid-benchmarks/target/benchmarks.jar StepBenchmark -p fluid_size=1024 -p options=fused=true,interleaved=true
+*/
+
+package fluid2d.benchmarks;
+
+import fluid2d.FluidSolver;
+import fluid2d.SimulationConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class StepBenchmark {
+    @Param({"64", "256", "1024", "2048"})
+    public int fluid_size;
+
+    @Param({"10", "30"})
+    public int iterations;
+
+    @Param({""})
+    public String options;
+
+    FluidSolver solver;
+
+    @Setup
+    public void setup(){
+        SimulationConfig config = new SimulationConfig();
+        config.fluid_size = this.fluid_size;
+        config.gauss_seidel_iter = this.iterations;
+        for (String option : this.options.split(",")){
+            if (option.isEmpty()){
+                continue;
+            }
+            String[] parts = option.split("=", 2);
+            if (parts.length != 2 || !config.set(parts[0], parts[1])){
+                throw new IllegalArgumentException("Expected options of the form name=value but got " + option);
+            }
+        }
+        this.solver = new FluidSolver(config);
+
+        // Shoot in some dye and velocity like Headless does
+        int size = this.fluid_size;
+        this.solver.fluid.add_dye(1500, size - 3, size / 2);
+        this.solver.fluid.add_v(-15, size - 3, size / 2);
+        this.solver.fluid.add_u(5, size / 2, 3);
+    }
+
+    @TearDown
+    public void tearDown(){
+        this.solver.close();
+    }
+
+    @Benchmark
+    public FluidSolver step(){
+        this.solver.step();
+        return this.solver;
+    }
+}
@@ -0,0 +1,228 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following saves the complete state of a simulation to a file and restores it, so a long run can be stopped
+and resumed later. The file holds a fixed size header with the fluid parameters and the step counter followed by
+u, v, the dye and both pressures (so warm started solves continue exactly as before) as raw doubles in native byte
+order, one field after the other. The file is written and read through memory mapped regions of a FileChannel and
+whole rows are copied in bulk, so there is no per cell overhead for the default fluid layout.
+
+The fields are always stored in double precision with u and v in separate fields, so a checkpoint can be restored
+into any precision, layout or storage (see Fluid2D). Resuming a double precision simulation with the same settings
+gives exactly the same results as never having stopped it.
+*/
+
+package fluid2d;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class Checkpoint {
+    public static final long MAGIC = 0x464C5549444B5054L;  // "FLUIDKPT"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 128;
+    private static final long MAX_MAPPED_BYTES = 1L << 30;  // Fields are mapped in pieces of at most this many bytes
+
+    // The fields in the order they are stored
+    private static final int U = 0;
+    private static final int V = 1;
+    private static final int DYE = 2;
+    private static final int PRESSURE = 3;
+    private static final int PRESSURE_ADVECTED = 4;
+    private static final int FIELDS = 5;
+
+    public static void save(FluidSolver solver, Path file){
+        /*
+        Write the state of the solver to file (replacing whatever was there)
+        */
+        Fluid2D fluid = solver.fluid;
+        long field_bytes = (long) fluid.fluid_size * fluid.fluid_size * Double.BYTES;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(fluid.fluid_size);
+            header.putDouble(fluid.density);
+            header.putDouble(fluid.viscosity);
+            header.putDouble(fluid.diffusion_rate);
+            header.putDouble(solver.config.time_step);
+            header.putLong(solver.step_count);
+            header.putDouble(solver.simulated_time);
+            header.putInt(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 1);  // Byte order of the fields
+            header.force();
+
+            for (int field = 0; field < FIELDS; field++){
+                transfer(channel, FileChannel.MapMode.READ_WRITE, HEADER_BYTES + field * field_bytes, fluid, field, true);
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not write the checkpoint " + file, e);
+        }
+    }
+
+    public static FluidSolver restore(Path file, SimulationConfig config){
+        /*
+        Create a solver from a checkpoint. The fluid parameters (fluid_size, density, viscosity, diffusion_rate and
+        time_step) come from the checkpoint, everything else (solvers, threads, precision, ...) from config.
+        */
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+            if (channel.size() < HEADER_BYTES){
+                throw new IllegalArgumentException(file + " is not a checkpoint");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getLong() != MAGIC){
+                throw new IllegalArgumentException(file + " is not a checkpoint");
+            }
+            int version = header.getInt();
+            if (version != VERSION){
+                throw new IllegalArgumentException("Unsupported checkpoint version " + version + " in " + file);
+            }
+            SimulationConfig restored = config.copy();
+            restored.fluid_size = header.getInt();
+            restored.density = header.getDouble();
+            restored.viscosity = header.getDouble();
+            restored.diffusion_rate = header.getDouble();
+            restored.time_step = header.getDouble();
+            long step_count = header.getLong();
+            double simulated_time = header.getDouble();
+            boolean little_endian = header.getInt() == 0;
+            if (little_endian != (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN)){
+                throw new IllegalArgumentException("The checkpoint " + file + " was written on a machine with a different byte order");
+            }
+
+            long field_bytes = (long) restored.fluid_size * restored.fluid_size * Double.BYTES;
+            if (channel.size() < HEADER_BYTES + FIELDS * field_bytes){
+                throw new IllegalArgumentException("The checkpoint " + file + " is truncated");
+            }
+            FluidSolver solver = new FluidSolver(restored);
+            for (int field = 0; field < FIELDS; field++){
+                transfer(channel, FileChannel.MapMode.READ_ONLY, HEADER_BYTES + field * field_bytes, solver.fluid, field, false);
+            }
+            solver.step_count = step_count;
+            solver.simulated_time = simulated_time;
+            return solver;
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not read the checkpoint " + file, e);
+        }
+    }
+
+    private static void transfer(FileChannel channel, FileChannel.MapMode mode, long position, Fluid2D fluid, int field, boolean save) throws IOException {
+        /*
+        Copy a field between the fluid and the file starting at position, mapping a piece of the file at a time
+        */
+        int fluid_size = fluid.fluid_size;
+        long row_bytes = (long) fluid_size * Double.BYTES;
+        int rows_per_piece = (int) Math.max(1, Math.min(fluid_size, MAX_MAPPED_BYTES / row_bytes));
+        for (int first_row = 0; first_row < fluid_size; first_row += rows_per_piece){
+            int rows = Math.min(rows_per_piece, fluid_size - first_row);
+            MappedByteBuffer piece = channel.map(mode, position + first_row * row_bytes, rows * row_bytes);
+            DoubleBuffer doubles = piece.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            for (int row = 0; row < rows; row++){
+                if (save){
+                    saveRow(fluid, field, first_row + row, doubles, row * fluid_size);
+                } else {
+                    restoreRow(fluid, field, first_row + row, doubles, row * fluid_size);
+                }
+            }
+            if (save){
+                piece.force();
+            }
+        }
+    }
+
+    private static void saveRow(Fluid2D fluid, int field, int row, DoubleBuffer out, int out_index){
+        int fluid_size = fluid.fluid_size;
+        if (fluid.off_heap){
+            Field2D source = offHeapField(fluid, field);
+            out.put(out_index, source.rowChunk(row), source.rowOffset(row), fluid_size);
+        } else if (fluid.single_precision){
+            float[] source = floatArray(fluid, field);
+            for (int col = 0; col < fluid_size; col++){
+                out.put(out_index + col, source[row * fluid_size + col]);
+            }
+        } else if (fluid.interleaved && field <= V){
+            for (int col = 0; col < fluid_size; col++){
+                out.put(out_index + col, fluid.uv[2 * (row * fluid_size + col) + field]);
+            }
+        } else {
+            out.put(out_index, doubleArray(fluid, field), row * fluid_size, fluid_size);
+        }
+    }
+
+    private static void restoreRow(Fluid2D fluid, int field, int row, DoubleBuffer in, int in_index){
+        int fluid_size = fluid.fluid_size;
+        if (fluid.off_heap){
+            Field2D destination = offHeapField(fluid, field);
+            destination.rowChunk(row).put(destination.rowOffset(row), in, in_index, fluid_size);
+        } else if (fluid.single_precision){
+            float[] destination = floatArray(fluid, field);
+            for (int col = 0; col < fluid_size; col++){
+                destination[row * fluid_size + col] = (float) in.get(in_index + col);
+            }
+        } else if (fluid.interleaved && field <= V){
+            for (int col = 0; col < fluid_size; col++){
+                fluid.uv[2 * (row * fluid_size + col) + field] = in.get(in_index + col);
+            }
+        } else {
+            in.get(in_index, doubleArray(fluid, field), row * fluid_size, fluid_size);
+        }
+    }
+
+    private static double[] doubleArray(Fluid2D fluid, int field){
+        switch (field){
+            case U:
+                return fluid.u;
+            case V:
+                return fluid.v;
+            case DYE:
+                return fluid.dye;
+            case PRESSURE:
+                return fluid.pressure;
+            default:
+                return fluid.pressure_advected;
+        }
+    }
+
+    private static float[] floatArray(Fluid2D fluid, int field){
+        switch (field){
+            case U:
+                return fluid.u_float;
+            case V:
+                return fluid.v_float;
+            case DYE:
+                return fluid.dye_float;
+            case PRESSURE:
+                return fluid.pressure_float;
+            default:
+                return fluid.pressure_advected_float;
+        }
+    }
+
+    private static Field2D offHeapField(Fluid2D fluid, int field){
+        switch (field){
+            case U:
+                return fluid.u_field;
+            case V:
+                return fluid.v_field;
+            case DYE:
+                return fluid.dye_field;
+            case PRESSURE:
+                return fluid.pressure_field;
+            default:
+                return fluid.pressure_advected_field;
+        }
+    }
+}
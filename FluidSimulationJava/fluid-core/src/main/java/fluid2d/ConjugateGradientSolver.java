@@ -0,0 +1,344 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is a matrix free preconditioned conjugate gradient solver. The matrix is never stored, instead it is
+applied by setting the border of a vector with FluidOperations2D.set_boundary_values and evaluating the 5 point
+stencil. A border cell is always +/- the interior cell next to it, so the border only changes the diagonal of
+the cells along the walls and the matrix stays symmetric which is what conjugate gradient requires.
+
+Two preconditioners are available
+    Jacobi: divide by the diagonal (cheap and every cell is independent)
+    Modified incomplete Cholesky, MIC(0): a much better approximation of the matrix but applying it means a
+    forward and a backward substitution which have to visit the cells in order
+The MIC(0) factor follows Bridson's "Fluid Simulation for Computer Graphics" (tuning 0.97, safety 0.25).
+*/
+
+package fluid2d;
+
+import java.util.Arrays;
+
+public class ConjugateGradientSolver implements LinearSolver {
+    public static final double MIC_TUNING = 0.97;
+    public static final double MIC_SAFETY = 0.25;
+
+    ParallelOperations2D parallel;  // null to run on the calling thread
+    boolean incomplete_cholesky;  // false for the Jacobi preconditioner
+
+    // Work vectors
+    double[] residual;
+    double[] search;  // The search direction
+    double[] product;  // Matrix times the search direction
+    double[] preconditioned;  // The preconditioner applied to the residual
+    double[] precon;  // Either 1 / diagonal or the inverse diagonal of the MIC(0) factor
+    RowsKernel kernel = new RowsKernel();  // Reused for every loop on the bands
+
+    // The system the precon array was built for
+    double precon_alpha = Double.NaN;
+    double precon_beta = Double.NaN;
+    int precon_type = -1;
+
+    public ConjugateGradientSolver(int fluid_size, ParallelOperations2D parallel, boolean incomplete_cholesky){
+        this.parallel = parallel;
+        this.incomplete_cholesky = incomplete_cholesky;
+        this.residual = new double[fluid_size * fluid_size];
+        this.search = new double[fluid_size * fluid_size];
+        this.product = new double[fluid_size * fluid_size];
+        this.preconditioned = new double[fluid_size * fluid_size];
+        this.precon = new double[fluid_size * fluid_size];
+    }
+
+    public void solve(double[] x, double[] rhs, double alpha, double beta, int boundary_type, int fluid_size, int max_iterations, double tolerance, SolveStats stats){
+        // Only look at the residual when someone is interested in it
+        boolean measure = tolerance > 0.0 || stats != null;
+        double rhs_norm = measure ? LinearSolver.maxAbs(rhs, fluid_size) : 0.0;
+        if (measure && rhs_norm == 0.0){
+            // x = 0 solves the system exactly
+            Arrays.fill(x, 0.0);
+            if (stats != null){
+                stats.record(0, 0.0, true);
+            }
+            return;
+        }
+        double threshold = tolerance * rhs_norm;
+
+        if (alpha != this.precon_alpha || beta != this.precon_beta || boundary_type != this.precon_type){
+            buildPreconditioner(alpha, beta, boundary_type, fluid_size);
+        }
+
+        // residual = rhs - A x
+        applyMatrix(x, this.product, alpha, beta, boundary_type, fluid_size);
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                this.residual[index] = rhs[index] - this.product[index];
+            }
+        }
+        if (alpha == 0.0 && boundary_type == 0){
+            // Only the part of the residual that is not a constant can be removed (see MultigridSolver.makeConsistent)
+            removeMean(this.residual, fluid_size);
+        }
+
+        int iteration = 0;
+        double residual = measure ? LinearSolver.maxAbs(this.residual, fluid_size) : Double.NaN;
+        boolean converged = tolerance > 0.0 && residual <= threshold;  // A warm started solve may not need to do anything
+
+        applyPreconditioner(this.residual, this.preconditioned, beta, fluid_size);
+        System.arraycopy(this.preconditioned, 0, this.search, 0, this.search.length);
+        double rho = dot(this.residual, this.preconditioned, fluid_size);
+
+        while (!converged && iteration < max_iterations && rho != 0.0){
+            applyMatrix(this.search, this.product, alpha, beta, boundary_type, fluid_size);
+            double search_product = dot(this.search, this.product, fluid_size);
+            if (search_product == 0.0){
+                break;
+            }
+            double step = rho / search_product;
+            axpy(step, this.search, x, fluid_size);
+            axpy(-step, this.product, this.residual, fluid_size);
+            iteration++;
+
+            if (tolerance > 0.0 || (stats != null && iteration == max_iterations)){
+                residual = LinearSolver.maxAbs(this.residual, fluid_size);
+                if (tolerance > 0.0 && residual <= threshold){
+                    converged = true;
+                    break;
+                }
+            }
+
+            applyPreconditioner(this.residual, this.preconditioned, beta, fluid_size);
+            double rho_new = dot(this.residual, this.preconditioned, fluid_size);
+            double ratio = rho_new / rho;
+            rho = rho_new;
+
+            // search = preconditioned + ratio * search
+            for (int row = 1; row < fluid_size - 1; row++){
+                for (int col = 1; col < fluid_size - 1; col++){
+                    int index = FluidOperations2D.idx(row, col, fluid_size);
+                    this.search[index] = this.preconditioned[index] + ratio * this.search[index];
+                }
+            }
+        }
+
+        FluidOperations2D.set_boundary_values(boundary_type, x, fluid_size);
+        if (stats != null){
+            if (iteration < max_iterations && !converged){
+                // Stopped because the search direction vanished
+                residual = LinearSolver.maxAbs(this.residual, fluid_size);
+            }
+            stats.record(iteration, residual / rhs_norm, converged);
+        }
+    }
+
+
+    private void applyMatrix(double[] vector, double[] result, double alpha, double beta, int boundary_type, int fluid_size){
+        /*
+        result = A vector for the interior cells (the border of vector is set first)
+        */
+        FluidOperations2D.set_boundary_values(boundary_type, vector, fluid_size);
+        double diagonal = alpha + 4.0 * beta;
+        if (this.parallel == null){
+            stencilRows(vector, result, diagonal, beta, 1, fluid_size - 1, fluid_size);
+        } else {
+            this.kernel.set(false, vector, result, diagonal, beta, fluid_size);
+            this.parallel.forEachBand(fluid_size, this.kernel);
+        }
+    }
+
+    private static void stencilRows(double[] vector, double[] result, double diagonal, double beta, int row_start, int row_end, int fluid_size){
+        for (int row = row_start; row < row_end; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                result[index] = diagonal * vector[index] - beta * (vector[index - fluid_size] + vector[index + fluid_size] + vector[index - 1] + vector[index + 1]);
+            }
+        }
+    }
+
+
+    private void buildPreconditioner(double alpha, double beta, int boundary_type, int fluid_size){
+        /*
+        Work out the diagonal of every interior cell including the contribution of the border, then either invert
+        it (Jacobi) or compute the MIC(0) factor row by row
+        */
+        double diagonal = alpha + 4.0 * beta;
+        double horizontal_wall = (boundary_type == 1) ? -1.0 : 1.0;  // Sign of the left/right border cells
+        double vertical_wall = (boundary_type == 2) ? -1.0 : 1.0;  // Sign of the top/bottom border cells
+
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                double cell_diagonal = diagonal;
+                if (col == 1){
+                    cell_diagonal -= beta * horizontal_wall;
+                }
+                if (col == fluid_size - 2){
+                    cell_diagonal -= beta * horizontal_wall;
+                }
+                if (row == 1){
+                    cell_diagonal -= beta * vertical_wall;
+                }
+                if (row == fluid_size - 2){
+                    cell_diagonal -= beta * vertical_wall;
+                }
+
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                if (!this.incomplete_cholesky){
+                    this.precon[index] = (cell_diagonal != 0.0) ? 1.0 / cell_diagonal : 0.0;
+                    continue;
+                }
+
+                // Off diagonal entries are -beta between interior cells and 0 towards the border. The factor only
+                // needs the cells to the left and above which have already been done.
+                double e = cell_diagonal;
+                if (col > 1){
+                    double left = this.precon[index - 1];
+                    e -= (beta * left) * (beta * left);
+                    if (row < fluid_size - 2){
+                        e -= MIC_TUNING * beta * beta * left * left;
+                    }
+                }
+                if (row > 1){
+                    double up = this.precon[index - fluid_size];
+                    e -= (beta * up) * (beta * up);
+                    if (col < fluid_size - 2){
+                        e -= MIC_TUNING * beta * beta * up * up;
+                    }
+                }
+                if (e < MIC_SAFETY * cell_diagonal){
+                    e = cell_diagonal;
+                }
+                this.precon[index] = (e > 0.0) ? 1.0 / Math.sqrt(e) : 0.0;
+            }
+        }
+
+        this.precon_alpha = alpha;
+        this.precon_beta = beta;
+        this.precon_type = boundary_type;
+    }
+
+
+    private void applyPreconditioner(double[] r, double[] z, double beta, int fluid_size){
+        if (!this.incomplete_cholesky){
+            if (this.parallel == null){
+                scaleRows(r, z, 1, fluid_size - 1, fluid_size);
+            } else {
+                this.kernel.set(true, r, z, 0.0, 0.0, fluid_size);
+                this.parallel.forEachBand(fluid_size, this.kernel);
+            }
+            return;
+        }
+
+        // Solve L q = r (q is stored in z)
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                double t = r[index];
+                if (col > 1){
+                    t += beta * this.precon[index - 1] * z[index - 1];
+                }
+                if (row > 1){
+                    t += beta * this.precon[index - fluid_size] * z[index - fluid_size];
+                }
+                z[index] = t * this.precon[index];
+            }
+        }
+
+        // Solve L^T z = q
+        for (int row = fluid_size - 2; row >= 1; row--){
+            for (int col = fluid_size - 2; col >= 1; col--){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                double t = z[index];
+                if (col < fluid_size - 2){
+                    t += beta * this.precon[index] * z[index + 1];
+                }
+                if (row < fluid_size - 2){
+                    t += beta * this.precon[index] * z[index + fluid_size];
+                }
+                z[index] = t * this.precon[index];
+            }
+        }
+    }
+
+    private void scaleRows(double[] r, double[] z, int row_start, int row_end, int fluid_size){
+        for (int row = row_start; row < row_end; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                z[index] = r[index] * this.precon[index];
+            }
+        }
+    }
+
+
+    private static double dot(double[] a, double[] b, int fluid_size){
+        /*
+        Interior dot product. This stays on one thread so the order of the additions (and the result) never
+        depends on the number of threads.
+        */
+        double sum = 0.0;
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                sum += a[index] * b[index];
+            }
+        }
+        return sum;
+    }
+
+    private static void axpy(double a, double[] x, double[] y, int fluid_size){
+        // y += a * x
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                y[index] += a * x[index];
+            }
+        }
+    }
+
+    private static void removeMean(double[] array, int fluid_size){
+        double sum = 0.0;
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                sum += array[FluidOperations2D.idx(row, col, fluid_size)];
+            }
+        }
+        double mean = sum / ((double) (fluid_size - 2) * (fluid_size - 2));
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                array[FluidOperations2D.idx(row, col, fluid_size)] -= mean;
+            }
+        }
+    }
+
+
+    private class RowsKernel implements ParallelOperations2D.RowKernel {
+        /*
+        Either applies the matrix (stencilRows) or the Jacobi preconditioner (scaleRows) to a vector
+        */
+        boolean scale;
+        double[] vector;
+        double[] result;
+        double diagonal;
+        double beta;
+        int fluid_size;
+
+        void set(boolean scale, double[] vector, double[] result, double diagonal, double beta, int fluid_size){
+            this.scale = scale;
+            this.vector = vector;
+            this.result = result;
+            this.diagonal = diagonal;
+            this.beta = beta;
+            this.fluid_size = fluid_size;
+        }
+
+        public void run(int row_start, int row_end){
+            if (this.scale){
+                scaleRows(this.vector, this.result, row_start, row_end, this.fluid_size);
+            } else {
+                stencilRows(this.vector, this.result, this.diagonal, this.beta, row_start, row_end, this.fluid_size);
+            }
+        }
+    }
+}
@@ -0,0 +1,509 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following advances the fluid with several JVMs on the same machine. The rows of the fluid are split into
+horizontal strips, one per worker process (see StripWorker), and the workers exchange the rows along the borders of
+their strips over local sockets. This process is the coordinator: it starts the workers, hands them the inputs of
+every step, combines the reductions of the linear solves (largest right hand side, residual and change) and gathers
+the fluid when it is needed.
+
+Every worker does exactly the arithmetic of the single process simulation so the results are identical to
+FluidSolver with the same configuration. By default the Gauss-Seidel sweeps keep the row by row ordering and are
+pipelined over the strips, which gives the results of the original simulation but lets the strips overlap only
+partly. With deterministic=true the sweeps use red-black ordering like FluidSolver with deterministic=true and
+every strip sweeps at the same time (see StripWorker). Only the single threaded double precision simulation on the
+heap with the gauss_seidel solvers is supported.
+
+Example:
+    java -cp fluid-core/target/classes fluid2d.DistributedSolver --processes=4 --fluid_size=1024 --steps=200 --compare=true
+    java -cp fluid-core/target/classes fluid2d.DistributedSolver --processes=8 --fluid_size=2048 --deterministic=true --compare=true
+    java -cp fluid-core/target/classes fluid2d.DistributedSolver --processes=2 --jvm_args=-Xmx2g --fluid_size=4096 --steps=20
+*/
+
+package fluid2d;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class DistributedSolver implements AutoCloseable {
+    public static final long CONNECT_TIMEOUT_MS = 60_000;  // How long we wait for the workers to start
+
+    public SimulationConfig config;
+    public int processes;
+    public int[] strip_first;  // First and last row of the strip of every worker
+    public int[] strip_last;
+    public SplatBatch splats;  // Sources added to the fluid at the start of the next step
+
+    // Statistics of the linear solves, same as in FluidSolver
+    public SolveStats diffuse_u_stats = new SolveStats("diffuse_u");
+    public SolveStats diffuse_v_stats = new SolveStats("diffuse_v");
+    public SolveStats project_stats = new SolveStats("project");
+    public SolveStats project_advected_stats = new SolveStats("project_advected");
+    public SolveStats diffuse_dye_stats = new SolveStats("diffuse_dye");
+
+    public long step_count = 0;
+    public double simulated_time = 0.0;
+    public long reductions = 0;  // Number of reductions combined so far
+
+    private final Process[] workers;
+    private final StripLink[] links;
+    private double[] sources = new double[64];  // Inputs for the next step (type, amount, row, col)
+    private int source_count = 0;
+    private double[] gather_buffer = new double[0];
+    private boolean closed = false;
+
+    public DistributedSolver(SimulationConfig config, int processes, String... jvm_args){
+        validate(config, processes);
+        this.config = config;
+        this.processes = processes;
+        this.splats = new SplatBatch(config.fluid_size);
+
+        // Split the rows as evenly as possible
+        this.strip_first = new int[processes];
+        this.strip_last = new int[processes];
+        int row = 0;
+        for (int strip = 0; strip < processes; strip++){
+            int rows = config.fluid_size / processes + ((strip < config.fluid_size % processes) ? 1 : 0);
+            this.strip_first[strip] = row;
+            this.strip_last[strip] = row + rows - 1;
+            row += rows;
+        }
+
+        this.workers = new Process[processes];
+        this.links = new StripLink[processes];
+        try (ServerSocketChannel server = ServerSocketChannel.open()){
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            server.bind(new InetSocketAddress(loopback, 0));
+            String port = Integer.toString(server.socket().getLocalPort());
+            String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+            for (int rank = 0; rank < processes; rank++){
+                List<String> command = new ArrayList<>();
+                command.add(java);
+                command.addAll(Arrays.asList(jvm_args));
+                command.add("-cp");
+                command.add(System.getProperty("java.class.path"));
+                command.add(StripWorker.class.getName());
+                command.add(port);
+                command.add(Integer.toString(rank));
+                this.workers[rank] = new ProcessBuilder(command).inheritIO().start();
+            }
+
+            // Every worker connects and tells us its rank and the port its neighbour below connects to
+            int[] ports = new int[processes];
+            server.configureBlocking(false);
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+            for (int connected = 0; connected < processes; ){
+                SocketChannel channel = server.accept();
+                if (channel == null){
+                    checkWorkers();
+                    if (System.currentTimeMillis() > deadline){
+                        throw new IllegalStateException("Only " + connected + " of " + processes + " workers connected within " + CONNECT_TIMEOUT_MS + " ms");
+                    }
+                    Thread.sleep(5);
+                    continue;
+                }
+                channel.configureBlocking(true);
+                StripLink link = new StripLink(channel, false);
+                int rank = (int) link.receiveDouble();
+                ports[rank] = (int) link.receiveDouble();
+                this.links[rank] = link;
+                connected++;
+            }
+
+            // Send every worker the configuration, the strips and the port of the strip above
+            SimulationConfig worker_config = config.copy();
+            worker_config.metrics = false;
+            worker_config.metrics_file = "";
+            double[] strips = new double[2 * processes + 1];
+            for (int strip = 0; strip < processes; strip++){
+                strips[strip] = this.strip_first[strip];
+                strips[processes + strip] = this.strip_last[strip];
+            }
+            for (int rank = 0; rank < processes; rank++){
+                strips[2 * processes] = (rank > 0) ? ports[rank - 1] : 0;
+                this.links[rank].sendString(worker_config.toString());
+                this.links[rank].send((double) processes);
+                this.links[rank].send(strips);
+            }
+            for (StripLink link : this.links){
+                expect(link.receiveDouble(), StripWorker.DONE);
+            }
+        } catch (IOException e){
+            close();
+            throw new UncheckedIOException("Could not start the workers", e);
+        } catch (InterruptedException e){
+            close();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while starting the workers", e);
+        } catch (RuntimeException e){
+            close();
+            throw e;
+        }
+    }
+
+    public static void validate(SimulationConfig config, int processes){
+        /*
+        Ensure the configuration is one the workers can run
+        */
+        config.validate();
+        if (config.threads > 1 || config.simd || config.singlePrecision() || config.fused || config.active_tiles
+                || !config.storage.equals("heap") || !config.diffusion_solver.equals("gauss_seidel") || !config.pressure_solver.equals("gauss_seidel")){
+            throw new IllegalArgumentException("DistributedSolver only supports the single threaded double precision simulation on the heap with the gauss_seidel solvers");
+        }
+        if (processes < 1){
+            throw new IllegalArgumentException("processes must be >= 1 but was " + processes);
+        }
+        if (config.fluid_size < 2 * processes){
+            throw new IllegalArgumentException("fluid_size " + config.fluid_size + " is too small for " + processes + " processes (every strip needs 2 rows)");
+        }
+    }
+
+    private void checkWorkers(){
+        for (int rank = 0; rank < this.workers.length; rank++){
+            if (this.workers[rank] != null && !this.workers[rank].isAlive()){
+                throw new IllegalStateException("Worker " + rank + " exited with code " + this.workers[rank].exitValue());
+            }
+        }
+    }
+
+    private static void expect(double message, double expected){
+        if (message != expected){
+            throw new IllegalStateException("Unexpected message " + message + " from a worker (expected " + expected + ")");
+        }
+    }
+
+    private void addSource(int type, double amount, int row, int col){
+        if (4 * (this.source_count + 1) > this.sources.length){
+            this.sources = Arrays.copyOf(this.sources, 2 * this.sources.length);
+        }
+        int offset = 4 * this.source_count++;
+        this.sources[offset] = type;
+        this.sources[offset + 1] = amount;
+        this.sources[offset + 2] = row;
+        this.sources[offset + 3] = col;
+    }
+
+    public void add_u(double amount, int row, int col){
+        addSource(StripWorker.SOURCE_U, amount, row, col);
+    }
+
+    public void add_v(double amount, int row, int col){
+        addSource(StripWorker.SOURCE_V, amount, row, col);
+    }
+
+    public void add_dye(double amount, int row, int col){
+        addSource(StripWorker.SOURCE_DYE, amount, row, col);
+    }
+
+    public void clear_dye(){
+        addSource(StripWorker.SOURCE_CLEAR_DYE, 0.0, 0, 0);
+    }
+
+    public void step(){
+        /*
+        Advance the fluid by one step (the inputs added since the last step are applied first, like with FluidSolver)
+        */
+        if (!this.splats.isEmpty()){
+            this.splats.apply(this);
+        }
+        for (StripLink link : this.links){
+            link.send(StripWorker.STEP, this.source_count);
+            link.send(this.sources, 0, 4 * this.source_count);
+        }
+        this.source_count = 0;
+
+        // Serve the reductions until every worker is done
+        double[] stats = new double[3 * StripWorker.SOLVES];
+        while (true){
+            double message = this.links[0].receiveDouble();
+            for (int rank = 1; rank < this.processes; rank++){
+                expect(this.links[rank].receiveDouble(), message);
+            }
+            if (message == StripWorker.REDUCE){
+                double largest = Double.NEGATIVE_INFINITY;
+                for (StripLink link : this.links){
+                    largest = Math.max(largest, link.receiveDouble());
+                }
+                for (StripLink link : this.links){
+                    link.send(largest);
+                }
+                this.reductions++;
+            } else if (message == StripWorker.DONE){
+                for (StripLink link : this.links){
+                    link.receive(stats, 0, stats.length);  // Identical on every worker
+                }
+                break;
+            } else {
+                throw new IllegalStateException("Unexpected message " + message + " from the workers");
+            }
+        }
+        SolveStats[] solves = solveStats();
+        for (int solve = 0; solve < solves.length; solve++){
+            solves[solve].record((int) stats[3 * solve], stats[3 * solve + 1], stats[3 * solve + 2] != 0.0);
+        }
+        this.step_count++;
+        this.simulated_time += this.config.time_step;
+    }
+
+    public void step(int n){
+        for (int i = 0; i < n; i++){
+            step();
+        }
+    }
+
+    public SolveStats[] solveStats(){
+        return new SolveStats[]{this.diffuse_u_stats, this.diffuse_v_stats, this.project_stats, this.project_advected_stats, this.diffuse_dye_stats};
+    }
+
+    public void copy_dye(double[] destination){
+        /*
+        Copy the dye of every cell into destination
+        */
+        gather(null, null, destination);
+    }
+
+    public void copy_velocity(double[] u_destination, double[] v_destination){
+        /*
+        Copy both velocities of every cell into u_destination and v_destination
+        */
+        gather(u_destination, v_destination, null);
+    }
+
+    public void gather(double[] u_destination, double[] v_destination, double[] dye_destination){
+        /*
+        Collect the strips of every worker (any destination can be null)
+        */
+        int fluid_size = this.config.fluid_size;
+        for (StripLink link : this.links){
+            link.send(StripWorker.GATHER);
+        }
+        for (int rank = 0; rank < this.processes; rank++){
+            int start = this.strip_first[rank] * fluid_size;
+            int size = (this.strip_last[rank] - this.strip_first[rank] + 1) * fluid_size;
+            if (this.gather_buffer.length < size){
+                this.gather_buffer = new double[size];
+            }
+            for (double[] destination : new double[][]{u_destination, v_destination, dye_destination}){
+                StripLink link = this.links[rank];
+                if (destination != null){
+                    link.receive(destination, start, size);
+                } else {
+                    link.receive(this.gather_buffer, 0, size);
+                }
+            }
+        }
+    }
+
+    public void load(FluidSolver solver){
+        /*
+        Continue from the state of a single process simulation (the velocities, the dye and the warm start pressures)
+        */
+        if (solver.config.fluid_size != this.config.fluid_size || solver.fluid.pressure == null){
+            throw new IllegalArgumentException("Can only load a heap double precision fluid of size " + this.config.fluid_size);
+        }
+        int fluid_size = this.config.fluid_size;
+        Fluid2D fluid = solver.fluid;
+        for (int rank = 0; rank < this.processes; rank++){
+            int start = this.strip_first[rank] * fluid_size;
+            int size = (this.strip_last[rank] - this.strip_first[rank] + 1) * fluid_size;
+            StripLink link = this.links[rank];
+            link.send(StripWorker.SCATTER);
+            for (double[] array : new double[][]{fluid.u, fluid.v, fluid.dye, fluid.pressure, fluid.pressure_advected}){
+                link.send(array, start, size);
+            }
+        }
+        this.step_count = solver.step_count;
+        this.simulated_time = solver.simulated_time;
+    }
+
+    public void clear(){
+        /*
+        Empty the fluid and reset the step counters
+        */
+        for (StripLink link : this.links){
+            link.send(StripWorker.CLEAR);
+        }
+        this.source_count = 0;
+        this.splats.clear();
+        this.step_count = 0;
+        this.simulated_time = 0.0;
+        for (SolveStats stats : solveStats()){
+            stats.reset();
+        }
+    }
+
+    public void close(){
+        /*
+        Stop every worker (they are killed if they do not stop on their own)
+        */
+        if (this.closed){
+            return;
+        }
+        this.closed = true;
+        for (StripLink link : this.links){
+            if (link != null){
+                try {
+                    link.send(StripWorker.STOP);
+                } catch (UncheckedIOException e){
+                    // The worker is already gone
+                }
+                link.close();
+            }
+        }
+        for (Process worker : this.workers){
+            if (worker == null){
+                continue;
+            }
+            try {
+                if (!worker.waitFor(10, TimeUnit.SECONDS)){
+                    worker.destroyForcibly();
+                }
+            } catch (InterruptedException e){
+                worker.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void main(String[] args){
+        SimulationConfig config = new SimulationConfig();
+        int processes = 2;
+        int warmup = 20;
+        int steps = 200;
+        int inject_every = 20;
+        boolean compare = false;  // Also run the single process simulation and report the largest difference
+        String jvm_args = "";  // Space separated arguments for the worker JVMs
+
+        try {
+            for (int i = 0; i < args.length; i++){
+                String arg = args[i];
+                if (arg.equals("-h") || arg.equals("--help")){
+                    printUsage();
+                    return;
+                }
+                if (!arg.startsWith("--")){
+                    throw new IllegalArgumentException("Unexpected argument " + arg);
+                }
+
+                // Support both --name=value and --name value
+                String name;
+                String value;
+                int equals = arg.indexOf('=');
+                if (equals >= 0){
+                    name = arg.substring(2, equals);
+                    value = arg.substring(equals + 1);
+                } else {
+                    if (i + 1 >= args.length){
+                        throw new IllegalArgumentException("Missing value for " + arg);
+                    }
+                    name = arg.substring(2);
+                    value = args[++i];
+                }
+
+                if (config.set(name, value)){
+                    continue;
+                }
+                switch (name){
+                    case "processes":
+                        processes = Integer.parseInt(value);
+                        break;
+                    case "warmup":
+                        warmup = Integer.parseInt(value);
+                        break;
+                    case "steps":
+                        steps = Integer.parseInt(value);
+                        break;
+                    case "inject_every":
+                        inject_every = Integer.parseInt(value);
+                        break;
+                    case "compare":
+                        compare = Boolean.parseBoolean(value);
+                        break;
+                    case "jvm_args":
+                        jvm_args = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option --" + name);
+                }
+            }
+            validate(config, processes);
+        } catch (IllegalArgumentException e){
+            System.out.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+
+        InputScript script = InputScript.standard(inject_every);
+        System.out.println("Running the simulation in " + processes + " processes with " + config);
+        double[] dye = new double[config.fluid_size * config.fluid_size];
+        try (DistributedSolver solver = new DistributedSolver(config, processes, jvm_args.isBlank() ? new String[0] : jvm_args.trim().split("\\s+"))){
+            for (int rank = 0; rank < processes; rank++){
+                System.out.printf("  worker %d: rows %d to %d%n", rank, solver.strip_first[rank], solver.strip_last[rank]);
+            }
+            for (int i = 0; i < warmup; i++){
+                script.apply(solver);
+                solver.step();
+            }
+            for (SolveStats stats : solver.solveStats()){
+                stats.reset();
+            }
+            long start_reductions = solver.reductions;
+            long start = System.nanoTime();
+            for (int i = 0; i < steps; i++){
+                script.apply(solver);
+                solver.step();
+            }
+            double elapsed_seconds = (System.nanoTime() - start) / 1e9;
+            double cells = (double) (config.fluid_size - 2) * (config.fluid_size - 2);
+            System.out.printf("Steps: %d in %.3f s%n", steps, elapsed_seconds);
+            System.out.printf("Throughput: %.2f steps/s (%.3f ms/step, %.2f Mcells/s), %.1f reductions/step%n",
+                    steps / elapsed_seconds, 1000.0 * elapsed_seconds / steps, steps * cells / elapsed_seconds / 1e6,
+                    (double) (solver.reductions - start_reductions) / Math.max(1, steps));
+            for (SolveStats stats : solver.solveStats()){
+                System.out.println("  " + stats);
+            }
+            solver.copy_dye(dye);
+        }
+
+        if (compare){
+            FluidSolver single = new FluidSolver(config);
+            long start = System.nanoTime();
+            for (int i = 0; i < warmup + steps; i++){
+                script.apply(single);
+                single.step();
+            }
+            double elapsed_seconds = (System.nanoTime() - start) / 1e9;
+            double[] expected = new double[dye.length];
+            single.fluid.copy_dye(expected);
+            single.close();
+            double difference = 0.0;
+            for (int index = 0; index < dye.length; index++){
+                difference = Math.max(difference, Math.abs(dye[index] - expected[index]));
+            }
+            System.out.printf("Single process: %.2f steps/s%n", (warmup + steps) / elapsed_seconds);
+            System.out.printf("Largest dye difference to the single process simulation: %.3e%n", difference);
+        }
+    }
+
+    private static void printUsage(){
+        System.out.println("Usage: java fluid2d.DistributedSolver [--name=value ...]");
+        System.out.println("Simulation parameters: --fluid_size --density --viscosity --diffusion_rate --time_step --gauss_seidel_iter --solver_tolerance --warm_start --deterministic (red-black sweeps)");
+        System.out.println("Run options: --processes (default 2) --warmup (steps, default 20) --steps (default 200) --inject_every (default 20, 0 disables)"
+                + " --compare (default false) --jvm_args (arguments for the worker JVMs, e.g. -Xmx2g)");
+    }
+}
@@ -0,0 +1,88 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following maps an amount of dye to a colour the same way the window does. Main draws every cell with
+fill(amount) in greyscale mode and with fill(amount, amount, 100) in HSB mode with a range of 100 in colour mode,
+where amount is clamped to 0 - 255 and Processing clamps it again to the range of the colour mode. The conversion
+below is the one Processing uses (in float arithmetic) so both palettes are identical to the colours computed by
+Processing itself, which lets FluidRenderer and FrameExporter share them without fluid-core depending on
+Processing. Colours are 0xAARRGGBB with an opaque alpha.
+*/
+
+package fluid2d;
+
+public class DyePalette {
+    public static final int SIZE = 256;  // Amounts of dye are clamped to 0 - 255
+
+    public static int[] grey(){
+        int[] palette = new int[SIZE];
+        for (int amount = 0; amount < SIZE; amount++){
+            int level = (int) (255 * (amount / 255.0f));
+            palette[amount] = 0xFF000000 | (level << 16) | (level << 8) | level;
+        }
+        return palette;
+    }
+
+    public static int[] color(){
+        int[] palette = new int[SIZE];
+        for (int amount = 0; amount < SIZE; amount++){
+            float value = Math.min(amount, 100);
+            palette[amount] = hsb(value / 100.0f, value / 100.0f, 1.0f);
+        }
+        return palette;
+    }
+
+    public static int[] palette(boolean color_mode){
+        return color_mode ? color() : grey();
+    }
+
+    public static int index(double dye){
+        /*
+        The palette entry of an amount of dye
+        */
+        return Math.max(0, Math.min((int) dye, SIZE - 1));
+    }
+
+    private static int hsb(float hue, float saturation, float brightness){
+        float red;
+        float green;
+        float blue;
+        if (saturation == 0){
+            red = brightness;
+            green = brightness;
+            blue = brightness;
+        } else {
+            float which = (hue - (int) hue) * 6.0f;
+            float f = which - (int) which;
+            float p = brightness * (1.0f - saturation);
+            float q = brightness * (1.0f - saturation * f);
+            float t = brightness * (1.0f - (saturation * (1.0f - f)));
+            switch ((int) which){
+                case 0:
+                    red = brightness; green = t; blue = p;
+                    break;
+                case 1:
+                    red = q; green = brightness; blue = p;
+                    break;
+                case 2:
+                    red = p; green = brightness; blue = t;
+                    break;
+                case 3:
+                    red = p; green = q; blue = brightness;
+                    break;
+                case 4:
+                    red = t; green = p; blue = brightness;
+                    break;
+                default:
+                    red = brightness; green = p; blue = q;
+                    break;
+            }
+        }
+        return 0xFF000000 | ((int) (255 * red) << 16) | ((int) (255 * green) << 8) | (int) (255 * blue);
+    }
+}
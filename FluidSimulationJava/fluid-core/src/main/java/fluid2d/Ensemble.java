@@ -0,0 +1,356 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following runs many independent simulations at once, typically a sweep over a grid of parameters to tune a scene.
+Every parameter in SimulationConfig can be given a comma separated list of values and one run is made for every
+combination (so --viscosity=1e-5,1e-4 --time_step=0.1,0.2 makes 4 runs). Every run starts from an empty fluid,
+gets the same inputs from an InputScript and is advanced for the same number of steps.
+
+The runs are spread over a fixed number of workers (one per core by default) with a work stealing ForkJoinPool, so
+the runs keep every core busy until the last ones finish. The script and the base configuration are shared by every
+run. Each worker keeps its solver (and its buffers) between runs and resets it for the next run when the grid only
+varies parameters that do not change what a solver allocates (see FluidSolver.reset). The runs do not share any
+mutable state, so they scale almost linearly with the number of cores as long as the grids fit in the caches.
+
+Each run reports its throughput, the p50 and p95 of its step times, the total dye and the largest divergence and
+speed at the end, the average solver iterations and whether it stayed finite. A run that blows up (the dye becomes
+NaN or infinite) is stopped early. The summary of every run is printed and written to --output as CSV.
+
+Example:
+    java -cp fluid-core/target/classes fluid2d.Ensemble --fluid_size=128 --viscosity=0,1e-5,1e-4 --time_step=0.05,0.1,0.2 --steps=500
+    java -cp fluid-core/target/classes fluid2d.Ensemble --fluid_size=256 --gauss_seidel_iter=10,20,40 --script=scene.txt --output=sweep.csv
+*/
+
+package fluid2d;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public class Ensemble {
+    public static final int CHECK_EVERY = 50;  // Steps between the checks whether a run has blown up
+
+    public SimulationConfig base;
+    public List<String> axis_names = new ArrayList<>();  // The parameters that vary between the runs
+    public List<String[]> axis_values = new ArrayList<>();
+    public InputScript script;
+    public int steps;
+    public int workers;
+
+    public static class Worker {
+        /*
+        What a worker keeps between the runs it does
+        */
+        FluidSolver solver;
+        long[] step_times = new long[0];
+        double[] u = new double[0];
+        double[] v = new double[0];
+    }
+
+    public static class RunSummary {
+        public int run;
+        public String[] values;  // The value of every axis in this run
+        public SimulationConfig config;
+        public long steps;  // Steps actually taken (fewer than requested if the run blew up)
+        public double seconds;
+        public double cpu_seconds;  // CPU time of the worker thread during the run (NaN when the JVM can not tell)
+        public double p50_ms;
+        public double p95_ms;
+        public double total_dye;
+        public double max_divergence;
+        public double max_speed;
+        public double diffusion_iterations;  // Average iterations per diffusion solve
+        public double pressure_iterations;  // Average iterations per pressure solve
+        public double pressure_residual;  // Relative residual of the last pressure solve
+        public boolean stable;
+
+        public double stepsPerSecond(){
+            return (this.seconds > 0.0) ? this.steps / this.seconds : 0.0;
+        }
+    }
+
+    public Ensemble(SimulationConfig base, InputScript script, int steps, int workers){
+        if (steps < 1 || workers < 1){
+            throw new IllegalArgumentException("steps and workers must be >= 1");
+        }
+        if (!base.metrics_file.isEmpty()){
+            throw new IllegalArgumentException("metrics_file can not be used for an ensemble, every run would write the same file");
+        }
+        this.base = base;
+        this.script = script;
+        this.steps = steps;
+        this.workers = workers;
+    }
+
+    public void addAxis(String name, String[] values){
+        /*
+        Make a run for every one of the values of the named SimulationConfig parameter (and every other axis)
+        */
+        if (!this.base.copy().set(name, values[0])){
+            throw new IllegalArgumentException("Unknown parameter " + name);
+        }
+        this.axis_names.add(name);
+        this.axis_values.add(values);
+    }
+
+    public List<RunSummary> plan(){
+        /*
+        One (not yet run) summary per combination of the axis values, every configuration is validated up front
+        */
+        List<RunSummary> runs = new ArrayList<>();
+        int[] position = new int[this.axis_names.size()];
+        while (true){
+            RunSummary run = new RunSummary();
+            run.run = runs.size();
+            run.values = new String[position.length];
+            run.config = this.base.copy();
+            for (int axis = 0; axis < position.length; axis++){
+                run.values[axis] = this.axis_values.get(axis)[position[axis]];
+                run.config.set(this.axis_names.get(axis), run.values[axis]);
+            }
+            try {
+                run.config.validate();
+            } catch (IllegalArgumentException e){
+                throw new IllegalArgumentException("Run " + run.run + " (" + label(run) + "): " + e.getMessage(), e);
+            }
+            runs.add(run);
+
+            // Advance to the next combination, the last axis changes fastest
+            int axis = position.length - 1;
+            while (axis >= 0 && ++position[axis] == this.axis_values.get(axis).length){
+                position[axis] = 0;
+                axis--;
+            }
+            if (axis < 0){
+                return runs;
+            }
+        }
+    }
+
+    public List<RunSummary> run(){
+        /*
+        Do every run and return their summaries in the order of plan()
+        */
+        List<RunSummary> runs = plan();
+        ConcurrentLinkedQueue<Worker> all_workers = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> {
+            Worker worker = new Worker();
+            all_workers.add(worker);
+            return worker;
+        });
+
+        ForkJoinPool pool = new ForkJoinPool(this.workers);
+        try {
+            List<Callable<RunSummary>> tasks = new ArrayList<>();
+            for (RunSummary run : runs){
+                tasks.add(() -> runOne(run, workers.get()));
+            }
+            for (Future<RunSummary> result : pool.invokeAll(tasks)){
+                result.get();
+            }
+        } catch (ExecutionException e){
+            throw new IllegalStateException("A run of the ensemble failed", e.getCause());
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running the ensemble", e);
+        } finally {
+            pool.shutdown();
+            for (Worker worker : all_workers){
+                if (worker.solver != null){
+                    worker.solver.close();
+                }
+            }
+        }
+        return runs;
+    }
+
+    private RunSummary runOne(RunSummary run, Worker worker){
+        SimulationConfig config = run.config;
+        if (worker.solver != null && worker.solver.config.sameLayout(config)){
+            worker.solver.reset(config);
+        } else {
+            if (worker.solver != null){
+                worker.solver.close();
+            }
+            worker.solver = new FluidSolver(config);
+        }
+        FluidSolver solver = worker.solver;
+        if (worker.step_times.length < this.steps){
+            worker.step_times = new long[this.steps];
+        }
+        long[] step_times = worker.step_times;
+
+        run.stable = true;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long cpu_start = threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+        long start = System.nanoTime();
+        int taken = 0;
+        while (taken < this.steps){
+            this.script.apply(solver);
+            long step_start = System.nanoTime();
+            solver.step();
+            step_times[taken++] = System.nanoTime() - step_start;
+            if (taken % CHECK_EVERY == 0 && !Double.isFinite(solver.fluid.total_dye())){
+                run.stable = false;
+                break;
+            }
+        }
+        run.seconds = (System.nanoTime() - start) / 1e9;
+        run.cpu_seconds = (cpu_start >= 0) ? (threads.getCurrentThreadCpuTime() - cpu_start) / 1e9 : Double.NaN;
+        run.steps = taken;
+
+        Arrays.sort(step_times, 0, taken);
+        run.p50_ms = step_times[(taken - 1) / 2] / 1e6;
+        run.p95_ms = step_times[(int) Math.ceil(0.95 * taken) - 1] / 1e6;
+
+        run.total_dye = solver.fluid.total_dye();
+        run.max_divergence = solver.fluid.max_divergence();
+        int cells = config.fluid_size * config.fluid_size;
+        if (worker.u.length != cells){
+            worker.u = new double[cells];
+            worker.v = new double[cells];
+        }
+        solver.fluid.copy_velocity(worker.u, worker.v);
+        double max_speed = 0.0;
+        for (int index = 0; index < cells; index++){
+            max_speed = Math.max(max_speed, Math.hypot(worker.u[index], worker.v[index]));
+        }
+        run.max_speed = max_speed;
+        run.stable = run.stable && Double.isFinite(run.total_dye) && Double.isFinite(max_speed);
+
+        run.diffusion_iterations = (solver.diffuse_u_stats.averageIterations() + solver.diffuse_v_stats.averageIterations()
+                + solver.diffuse_dye_stats.averageIterations()) / 3.0;
+        run.pressure_iterations = (solver.project_stats.averageIterations() + solver.project_advected_stats.averageIterations()) / 2.0;
+        run.pressure_residual = solver.project_advected_stats.residual;
+        return run;
+    }
+
+    public String label(RunSummary run){
+        StringBuilder label = new StringBuilder();
+        for (int axis = 0; axis < this.axis_names.size(); axis++){
+            label.append((axis == 0) ? "" : " ").append(this.axis_names.get(axis)).append('=').append(run.values[axis]);
+        }
+        return (label.length() == 0) ? "base" : label.toString();
+    }
+
+    public void writeCsv(List<RunSummary> runs, Path file){
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))){
+            StringBuilder header = new StringBuilder("run");
+            for (String name : this.axis_names){
+                header.append(',').append(name);
+            }
+            header.append(",steps,seconds,cpu_seconds,steps_per_second,p50_ms,p95_ms,total_dye,max_divergence,max_speed,diffusion_iterations,pressure_iterations,pressure_residual,stable");
+            out.println(header);
+            for (RunSummary run : runs){
+                StringBuilder line = new StringBuilder().append(run.run);
+                for (String value : run.values){
+                    line.append(',').append(value);
+                }
+                line.append(',').append(run.steps).append(',').append(run.seconds).append(',').append(run.cpu_seconds).append(',').append(run.stepsPerSecond())
+                        .append(',').append(run.p50_ms).append(',').append(run.p95_ms).append(',').append(run.total_dye)
+                        .append(',').append(run.max_divergence).append(',').append(run.max_speed)
+                        .append(',').append(run.diffusion_iterations).append(',').append(run.pressure_iterations)
+                        .append(',').append(run.pressure_residual).append(',').append(run.stable);
+                out.println(line);
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not write the ensemble summary " + file, e);
+        }
+    }
+
+    public static void main(String[] args){
+        SimulationConfig config = new SimulationConfig();
+        List<String[]> axes = new ArrayList<>();
+        String script_file = "";
+        int inject_every = 20;
+        int steps = 200;
+        int workers = Runtime.getRuntime().availableProcessors();
+        String output = "";
+
+        Ensemble ensemble;
+        List<RunSummary> planned;
+        try {
+            for (String arg : args){
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0){
+                    throw new IllegalArgumentException("Unexpected argument " + arg);
+                }
+                String name = arg.substring(2, equals);
+                String value = arg.substring(equals + 1);
+                switch (name){
+                    case "script":
+                        script_file = value;
+                        continue;
+                    case "inject_every":
+                        inject_every = Integer.parseInt(value);
+                        continue;
+                    case "steps":
+                        steps = Integer.parseInt(value);
+                        continue;
+                    case "workers":
+                        workers = Integer.parseInt(value);
+                        continue;
+                    case "output":
+                        output = value;
+                        continue;
+                    default:
+                        break;
+                }
+                if (value.contains(",")){
+                    axes.add(new String[]{name, value});
+                } else if (!config.set(name, value)){
+                    throw new IllegalArgumentException("Unknown option --" + name);
+                }
+            }
+            InputScript script = script_file.isEmpty() ? InputScript.standard(inject_every) : InputScript.load(Path.of(script_file));
+            ensemble = new Ensemble(config, script, steps, workers);
+            for (String[] axis : axes){
+                ensemble.addAxis(axis[0], axis[1].split(","));
+            }
+            planned = ensemble.plan();
+        } catch (IllegalArgumentException e){
+            System.out.println(e.getMessage());
+            System.out.println("Usage: java fluid2d.Ensemble [--name=value or --name=value1,value2,... for any SimulationConfig parameter]"
+                    + " [--steps=N (default 200)] [--workers=N (default one per core)] [--script=file] [--inject_every=N (default 20, without a script)] [--output=summary.csv]");
+            System.exit(1);
+            return;
+        }
+
+        System.out.println("Running " + planned.size() + " runs of " + steps + " steps on " + workers + " workers with " + config);
+        long start = System.nanoTime();
+        List<RunSummary> runs = ensemble.run();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        double cpu_seconds = 0.0;
+        for (RunSummary run : runs){
+            cpu_seconds += run.cpu_seconds;
+            System.out.printf("%4d %s: %.1f steps/s (p50 %.3f ms, p95 %.3f ms), dye %.4g, divergence %.3e, speed %.3e, iterations %.1f/%.1f%s%n",
+                    run.run, ensemble.label(run), run.stepsPerSecond(), run.p50_ms, run.p95_ms, run.total_dye, run.max_divergence, run.max_speed,
+                    run.diffusion_iterations, run.pressure_iterations, run.stable ? "" : " UNSTABLE after " + run.steps + " steps");
+        }
+        // With perfect scaling every worker spends the whole time on the CPU doing runs
+        System.out.printf("%d runs in %.3f s (%.2f runs/s), %.1f CPU seconds on %d workers (%.1f cores busy on average)%n", runs.size(), elapsed,
+                runs.size() / elapsed, cpu_seconds, workers, cpu_seconds / elapsed);
+        if (!output.isEmpty()){
+            ensemble.writeCsv(runs, Path.of(output));
+            System.out.println("Wrote the summary to " + output);
+        }
+    }
+}
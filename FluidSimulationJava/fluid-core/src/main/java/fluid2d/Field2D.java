@@ -0,0 +1,172 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following stores a fluid_size x fluid_size field of doubles outside of the Java heap, either in direct memory
+or in a memory mapped file. It is used by Fluid2D for grids that are too large for double arrays, which can not
+hold more than 2^31 cells (about 46k per side) and would otherwise put several GB of every field on the GC heap.
+
+A single buffer can not be larger than 2 GB either, so the field is split into chunks of whole rows with each
+chunk in its own DoubleBuffer. Cells are addressed with long indices (or a long row and column). The operations
+in FieldOperations2D work a row at a time using rowChunk and rowOffset so the inner loops only use int offsets.
+The memory is allocated once when the field is created and released when the field is garbage collected, so the
+footprint of a simulation is known up front. Direct memory is limited by -XX:MaxDirectMemorySize (by default the
+maximum heap size), memory mapped files are only limited by the disk and are paged in and out by the OS.
+*/
+
+package fluid2d;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class Field2D {
+    public static final long MAX_CHUNK_CELLS = 1L << 27;  // 1 GB of doubles per chunk
+
+    public final int fluid_size;
+    public final long cells;
+    public final int rows_per_chunk;
+    private final DoubleBuffer[] chunks;
+    private final MappedByteBuffer[] mapped;  // The buffers behind the chunks of a memory mapped field (null otherwise)
+
+    private Field2D(int fluid_size, Path directory){
+        this.fluid_size = fluid_size;
+        this.cells = (long) fluid_size * fluid_size;
+        this.rows_per_chunk = (int) Math.max(1, Math.min(fluid_size, MAX_CHUNK_CELLS / fluid_size));
+        int chunk_count = (fluid_size + this.rows_per_chunk - 1) / this.rows_per_chunk;
+        this.chunks = new DoubleBuffer[chunk_count];
+        this.mapped = (directory != null) ? new MappedByteBuffer[chunk_count] : null;
+
+        FileChannel channel = null;
+        try {
+            if (directory != null){
+                Path file = Files.createTempFile(directory, "fluid", ".field");
+                file.toFile().deleteOnExit();
+                channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            for (int chunk = 0; chunk < chunk_count; chunk++){
+                int rows = Math.min(this.rows_per_chunk, fluid_size - chunk * this.rows_per_chunk);
+                long bytes = (long) rows * fluid_size * Double.BYTES;
+                ByteBuffer buffer;
+                if (channel != null){
+                    long position = (long) chunk * this.rows_per_chunk * fluid_size * Double.BYTES;
+                    this.mapped[chunk] = channel.map(FileChannel.MapMode.READ_WRITE, position, bytes);
+                    buffer = this.mapped[chunk];
+                } else {
+                    buffer = ByteBuffer.allocateDirect((int) bytes);
+                }
+                this.chunks[chunk] = buffer.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not map a field in " + directory, e);
+        } finally {
+            if (channel != null){
+                try {
+                    channel.close();  // The mappings stay valid after the channel is closed
+                } catch (IOException e){
+                    // Nothing useful to do here
+                }
+            }
+        }
+    }
+
+    public static Field2D direct(int fluid_size){
+        /*
+        A field in direct memory (starts out as all zeros)
+        */
+        return new Field2D(fluid_size, null);
+    }
+
+    public static Field2D mapped(int fluid_size, Path directory){
+        /*
+        A field in a temporary file in the given directory that is mapped into memory (starts out as all zeros).
+        The file is deleted when the JVM exits.
+        */
+        return new Field2D(fluid_size, directory);
+    }
+
+    public DoubleBuffer rowChunk(long row){
+        /*
+        The buffer holding the given row. The row starts at rowOffset(row) in that buffer.
+        */
+        return this.chunks[(int) (row / this.rows_per_chunk)];
+    }
+
+    public int rowOffset(long row){
+        return (int) (row % this.rows_per_chunk) * this.fluid_size;
+    }
+
+    public double get(long row, long col){
+        return this.chunks[(int) (row / this.rows_per_chunk)].get((int) (row % this.rows_per_chunk) * this.fluid_size + (int) col);
+    }
+
+    public void set(long row, long col, double value){
+        this.chunks[(int) (row / this.rows_per_chunk)].put((int) (row % this.rows_per_chunk) * this.fluid_size + (int) col, value);
+    }
+
+    public void add(long row, long col, double amount){
+        DoubleBuffer chunk = this.chunks[(int) (row / this.rows_per_chunk)];
+        int offset = (int) (row % this.rows_per_chunk) * this.fluid_size + (int) col;
+        chunk.put(offset, chunk.get(offset) + amount);
+    }
+
+    public double get(long index){
+        return get(index / this.fluid_size, index % this.fluid_size);
+    }
+
+    public void set(long index, double value){
+        set(index / this.fluid_size, index % this.fluid_size, value);
+    }
+
+    public void fill(double value){
+        for (DoubleBuffer chunk : this.chunks){
+            for (int offset = 0; offset < chunk.capacity(); offset++){
+                chunk.put(offset, value);
+            }
+        }
+    }
+
+    public void copyFrom(Field2D other){
+        /*
+        Make this field a copy of another field of the same size
+        */
+        if (other.fluid_size != this.fluid_size){
+            throw new IllegalArgumentException("Can only copy a field of the same size");
+        }
+        for (long row = 0; row < this.fluid_size; row++){
+            DoubleBuffer source = other.rowChunk(row);
+            DoubleBuffer destination = rowChunk(row);
+            int source_offset = other.rowOffset(row);
+            int destination_offset = rowOffset(row);
+            for (int col = 0; col < this.fluid_size; col++){
+                destination.put(destination_offset + col, source.get(source_offset + col));
+            }
+        }
+    }
+
+    public boolean isMapped(){
+        return this.mapped != null;
+    }
+
+    public void flush(){
+        /*
+        Write the changes of a memory mapped field to its file (does nothing for direct memory)
+        */
+        if (this.mapped != null){
+            for (MappedByteBuffer buffer : this.mapped){
+                buffer.force();
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following provides the operations of FluidOperations2D (with Gauss-Seidel for the linear solves) for fields
+stored in a Field2D. Rows are addressed with longs so grids with more than 2^31 cells work. Every loop goes a row
+at a time and fetches the buffers and offsets of the rows it needs once per row, the cells within a row use int
+offsets. The arithmetic is done in exactly the same order as FluidOperations2D and GaussSeidelSolver so a fluid
+stored in fields gives exactly the same results as one stored in arrays.
+*/
+
+package fluid2d;
+
+import java.nio.DoubleBuffer;
+
+public class FieldOperations2D {
+    public static void diffusion(Field2D array_new, Field2D array, int diffuse_type, double time_step, double diffusion_rate,
+                                 int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        Same as FluidOperations2D.diffusion. The result is written into array_new which must not be the same field as array.
+        */
+        double diffusion_factor = diffusionFactor(diffusion_rate, time_step, array.fluid_size);
+
+        if (warm_start){
+            array_new.copyFrom(array);
+            set_boundary_values(diffuse_type, array_new);
+        } else {
+            array_new.fill(0.0);
+        }
+        solve(array_new, array, 1.0, diffusion_factor, diffuse_type, solver_iter, tolerance, stats);
+    }
+
+    static double diffusionFactor(double diffusion_rate, double time_step, int fluid_size){
+        /*
+        Same factor as FluidOperations2D.diffusion, but the number of cells is computed in double since it does not
+        fit in an int above 46341 cells per side
+        */
+        return diffusion_rate * time_step * ((double) (fluid_size - 2) * (fluid_size - 2));
+    }
+
+    public static void pressureProjection(Field2D u, Field2D v, Field2D divergence, Field2D pressure, double time_step, double density,
+                                          int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        Same as FluidOperations2D.pressureProjection. u and v are updated in place.
+        */
+        if (!warm_start){
+            pressure.fill(0.0);
+        }
+        int fluid_size = u.fluid_size;
+        double particle_spacing = 1.0 / fluid_size;
+
+        // First compute the divergence of the velocity field at each cell
+        double divergence_scale = -0.5 * particle_spacing * density / time_step;
+        for (long row = 1; row < fluid_size - 1; row++){
+            DoubleBuffer u_row = u.rowChunk(row);
+            int u_offset = u.rowOffset(row);
+            DoubleBuffer v_above = v.rowChunk(row - 1);
+            int v_above_offset = v.rowOffset(row - 1);
+            DoubleBuffer v_below = v.rowChunk(row + 1);
+            int v_below_offset = v.rowOffset(row + 1);
+            DoubleBuffer divergence_row = divergence.rowChunk(row);
+            int divergence_offset = divergence.rowOffset(row);
+            for (int col = 1; col < fluid_size - 1; col++){
+                divergence_row.put(divergence_offset + col, divergence_scale * ((u_row.get(u_offset + col + 1) - u_row.get(u_offset + col - 1)) +
+                        (v_below.get(v_below_offset + col) - v_above.get(v_above_offset + col))));
+            }
+        }
+        set_boundary_values(0, divergence);
+
+        // Now compute the pressures
+        solve(pressure, divergence, 0.0, 1.0, 0, solver_iter, tolerance, stats);
+
+        // Finally update the velocities
+        double gradient_scale = (time_step / density) * (0.5 / particle_spacing);
+        for (long row = 1; row < fluid_size - 1; row++){
+            DoubleBuffer u_row = u.rowChunk(row);
+            int u_offset = u.rowOffset(row);
+            DoubleBuffer v_row = v.rowChunk(row);
+            int v_offset = v.rowOffset(row);
+            DoubleBuffer pressure_row = pressure.rowChunk(row);
+            int pressure_offset = pressure.rowOffset(row);
+            DoubleBuffer pressure_above = pressure.rowChunk(row - 1);
+            int pressure_above_offset = pressure.rowOffset(row - 1);
+            DoubleBuffer pressure_below = pressure.rowChunk(row + 1);
+            int pressure_below_offset = pressure.rowOffset(row + 1);
+            for (int col = 1; col < fluid_size - 1; col++){
+                u_row.put(u_offset + col, u_row.get(u_offset + col) - gradient_scale * (pressure_row.get(pressure_offset + col + 1) - pressure_row.get(pressure_offset + col - 1)));
+                v_row.put(v_offset + col, v_row.get(v_offset + col) - gradient_scale * (pressure_below.get(pressure_below_offset + col) - pressure_above.get(pressure_above_offset + col)));
+            }
+        }
+        set_boundary_values(1, u);
+        set_boundary_values(2, v);
+    }
+
+    public static void advection(Field2D array_new, Field2D array, int advect_type, double time_step, Field2D u, Field2D v){
+        /*
+        Same as FluidOperations2D.advection. The result is written into array_new which must not be the same field as array, u or v.
+        */
+        int fluid_size = array.fluid_size;
+        double scaled_time_step = time_step * (fluid_size - 2);
+
+        for (long row = 1; row < fluid_size - 1; row++){
+            DoubleBuffer u_row = u.rowChunk(row);
+            DoubleBuffer v_row = v.rowChunk(row);
+            int velocity_offset = u.rowOffset(row);
+            DoubleBuffer new_row = array_new.rowChunk(row);
+            int new_offset = array_new.rowOffset(row);
+            for (int col = 1; col < fluid_size - 1; col++){
+                // Compute the cell of where the fluid particle would have came from (clamped to the simulation border)
+                double other_row = row - (scaled_time_step * v_row.get(velocity_offset + col));
+                double other_col = col - (scaled_time_step * u_row.get(velocity_offset + col));
+                if (other_row < 0.5){
+                    other_row = 0.5;
+                } else if (other_row > ((fluid_size - 2) + 0.5)){
+                    other_row = ((fluid_size - 2) + 0.5);
+                }
+                if (other_col < 0.5){
+                    other_col = 0.5;
+                } else if (other_col > ((fluid_size - 2) + 0.5)){
+                    other_col = ((fluid_size - 2) + 0.5);
+                }
+
+                long neighbour_row_1 = (long) Math.floor(other_row);
+                long neighbour_row_2 = neighbour_row_1 + 1;
+                long neighbour_col_1 = (long) Math.floor(other_col);
+                long neighbour_col_2 = neighbour_col_1 + 1;
+
+                double weight_row_1 = other_row - neighbour_row_1;
+                double weight_row_2 = 1 - weight_row_1;
+                double weight_col_1 = other_col - neighbour_col_1;
+                double weight_col_2 = 1 - weight_col_1;
+
+                // Linearly interpolate the advected quantity
+                double value = weight_col_2 * (weight_row_2 * (array.get(neighbour_row_1, neighbour_col_1)) + weight_row_1 * (array.get(neighbour_row_2, neighbour_col_1)));
+                value += weight_col_1 * (weight_row_2 * (array.get(neighbour_row_1, neighbour_col_2)) + weight_row_1 * (array.get(neighbour_row_2, neighbour_col_2)));
+                new_row.put(new_offset + col, value);
+            }
+        }
+        set_boundary_values(advect_type, array_new);
+    }
+
+    public static void set_boundary_values(int diffuse_type, Field2D array_new){
+        /*
+        Same as FluidOperations2D.set_boundary_values
+        */
+        long last = array_new.fluid_size - 1;
+        for (long index = 1; index < last; index++){
+            // Left and right border
+            if (diffuse_type == 1){
+                array_new.set(index, 0, -1.0 * array_new.get(index, 1));
+                array_new.set(index, last, -1.0 * array_new.get(index, last - 1));
+            } else {
+                array_new.set(index, 0, array_new.get(index, 1));
+                array_new.set(index, last, array_new.get(index, last - 1));
+            }
+
+            // Top and bottom border
+            if (diffuse_type == 2){
+                array_new.set(0, index, -1.0 * array_new.get(1, index));
+                array_new.set(last, index, -1.0 * array_new.get(last - 1, index));
+            } else {
+                array_new.set(0, index, array_new.get(1, index));
+                array_new.set(last, index, array_new.get(last - 1, index));
+            }
+        }
+
+        // The 4 corners are the average of their two closest non diagonal neighbours
+        array_new.set(0, 0, (array_new.get(1, 0) + array_new.get(0, 1)) * 0.5);
+        array_new.set(last, 0, (array_new.get(last - 1, 0) + array_new.get(last, 1)) * 0.5);
+        array_new.set(0, last, (array_new.get(0, last - 1) + array_new.get(1, last)) * 0.5);
+        array_new.set(last, last, (array_new.get(last - 1, last) + array_new.get(last, last - 1)) * 0.5);
+    }
+
+    public static void solve(Field2D x, Field2D rhs, double alpha, double beta, int boundary_type, int max_iterations, double tolerance, SolveStats stats){
+        /*
+        Same as GaussSeidelSolver.solve for fields
+        */
+        int fluid_size = x.fluid_size;
+        double diagonal = alpha + 4.0 * beta;
+
+        boolean measure = tolerance > 0.0 || stats != null;
+        double rhs_norm = measure ? maxAbs(rhs) : 0.0;
+        if (measure && rhs_norm == 0.0){
+            x.fill(0.0);
+            if (stats != null){
+                stats.record(0, 0.0, true);
+            }
+            return;
+        }
+        double threshold = tolerance * rhs_norm;
+        if (tolerance > 0.0){
+            double initial = residualNorm(x, rhs, alpha, beta);
+            if (initial <= threshold){
+                if (stats != null){
+                    stats.record(0, initial / rhs_norm, true);
+                }
+                return;
+            }
+        }
+
+        int iteration = 0;
+        double residual = Double.NaN;
+        boolean converged = false;
+        while (iteration < max_iterations){
+            double change = 0.0;
+            for (long row = 1; row < fluid_size - 1; row++){
+                DoubleBuffer above = x.rowChunk(row - 1);
+                int above_offset = x.rowOffset(row - 1);
+                DoubleBuffer current = x.rowChunk(row);
+                int offset = x.rowOffset(row);
+                DoubleBuffer below = x.rowChunk(row + 1);
+                int below_offset = x.rowOffset(row + 1);
+                DoubleBuffer rhs_row = rhs.rowChunk(row);
+                int rhs_offset = rhs.rowOffset(row);
+                for (int col = 1; col < fluid_size - 1; col++){
+                    double value = (rhs_row.get(rhs_offset + col) + beta * (above.get(above_offset + col) + below.get(below_offset + col)
+                            + current.get(offset + col - 1) + current.get(offset + col + 1))) / diagonal;
+                    change = Math.max(change, Math.abs(value - current.get(offset + col)));
+                    current.put(offset + col, value);
+                }
+            }
+
+            set_boundary_values(boundary_type, x);
+            iteration++;
+
+            residual = diagonal * change;
+            if (tolerance > 0.0 && residual <= threshold){
+                converged = true;
+                break;
+            }
+        }
+
+        if (stats != null){
+            stats.record(iteration, residual / rhs_norm, converged);
+        }
+    }
+
+    public static double maxAbs(Field2D field){
+        /*
+        Largest absolute value over the interior cells
+        */
+        int fluid_size = field.fluid_size;
+        double largest = 0.0;
+        for (long row = 1; row < fluid_size - 1; row++){
+            DoubleBuffer current = field.rowChunk(row);
+            int offset = field.rowOffset(row);
+            for (int col = 1; col < fluid_size - 1; col++){
+                largest = Math.max(largest, Math.abs(current.get(offset + col)));
+            }
+        }
+        return largest;
+    }
+
+    public static double residualNorm(Field2D x, Field2D rhs, double alpha, double beta){
+        /*
+        Largest absolute residual over the interior cells (the border of x must already be set)
+        */
+        int fluid_size = x.fluid_size;
+        double diagonal = alpha + 4.0 * beta;
+        double largest = 0.0;
+        for (long row = 1; row < fluid_size - 1; row++){
+            DoubleBuffer above = x.rowChunk(row - 1);
+            int above_offset = x.rowOffset(row - 1);
+            DoubleBuffer current = x.rowChunk(row);
+            int offset = x.rowOffset(row);
+            DoubleBuffer below = x.rowChunk(row + 1);
+            int below_offset = x.rowOffset(row + 1);
+            DoubleBuffer rhs_row = rhs.rowChunk(row);
+            int rhs_offset = rhs.rowOffset(row);
+            for (int col = 1; col < fluid_size - 1; col++){
+                double residual = rhs_row.get(rhs_offset + col) - (diagonal * current.get(offset + col) - beta * (above.get(above_offset + col)
+                        + below.get(below_offset + col) + current.get(offset + col - 1) + current.get(offset + col + 1)));
+                largest = Math.max(largest, Math.abs(residual));
+            }
+        }
+        return largest;
+    }
+}
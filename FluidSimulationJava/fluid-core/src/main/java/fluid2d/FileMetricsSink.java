@@ -0,0 +1,131 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following writes the metrics of every step to a file, one step per line. Files ending in .json or .jsonl get
+a JSON object per line, anything else is written as CSV with a header line. Times are in nanoseconds. Lines are
+buffered so the file is only complete once the sink is closed (FluidSolver.close does that).
+*/
+
+package fluid2d;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class FileMetricsSink implements MetricsSink {
+    public Path path;
+    public boolean json;
+    private BufferedWriter writer;
+    private StringBuilder line = new StringBuilder(512);  // Reused for every line
+    private boolean header_written = false;
+
+    public FileMetricsSink(String path){
+        this.path = Paths.get(path);
+        String lower = path.toLowerCase();
+        this.json = lower.endsWith(".json") || lower.endsWith(".jsonl");
+        try {
+            this.writer = Files.newBufferedWriter(this.path, StandardCharsets.UTF_8);
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not open the metrics file " + path, e);
+        }
+    }
+
+    public synchronized void record(StepMetrics metrics){
+        StringBuilder line = this.line;
+        line.setLength(0);
+        if (this.json){
+            appendJson(line, metrics);
+        } else {
+            if (!this.header_written){
+                appendCsvHeader(line, metrics);
+                this.header_written = true;
+            }
+            appendCsv(line, metrics);
+        }
+        try {
+            this.writer.append(line);
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not write to the metrics file " + this.path, e);
+        }
+    }
+
+    private static void appendCsvHeader(StringBuilder line, StepMetrics metrics){
+        line.append("step,simulated_time,step_nanos");
+        for (int stage : metrics.stages){
+            line.append(',').append(SimulationMetrics.STAGE_NAMES[stage]).append("_nanos");
+        }
+        for (String name : metrics.solve_names){
+            line.append(',').append(name).append("_iterations,").append(name).append("_residual");
+        }
+        line.append(",total_dye,max_divergence,frame_nanos,render_nanos,frame_budget_nanos,over_budget\n");
+    }
+
+    private static void appendCsv(StringBuilder line, StepMetrics metrics){
+        line.append(metrics.step).append(',').append(metrics.simulated_time).append(',').append(metrics.step_nanos);
+        for (int stage : metrics.stages){
+            line.append(',').append(metrics.stage_nanos[stage]);
+        }
+        for (int i = 0; i < metrics.solve_names.length; i++){
+            line.append(',').append(metrics.solve_iterations[i]).append(',').append(metrics.solve_residuals[i]);
+        }
+        line.append(',').append(metrics.total_dye).append(',').append(metrics.max_divergence)
+                .append(',').append(metrics.frame_nanos).append(',').append(metrics.render_nanos)
+                .append(',').append(metrics.frame_budget_nanos).append(',').append(metrics.over_budget).append('\n');
+    }
+
+    private static void appendJson(StringBuilder line, StepMetrics metrics){
+        line.append("{\"step\":").append(metrics.step)
+                .append(",\"simulated_time\":").append(metrics.simulated_time)
+                .append(",\"step_nanos\":").append(metrics.step_nanos)
+                .append(",\"stage_nanos\":{");
+        for (int i = 0; i < metrics.stages.length; i++){
+            int stage = metrics.stages[i];
+            line.append(i == 0 ? "\"" : ",\"").append(SimulationMetrics.STAGE_NAMES[stage]).append("\":").append(metrics.stage_nanos[stage]);
+        }
+        line.append("},\"solves\":{");
+        for (int i = 0; i < metrics.solve_names.length; i++){
+            line.append(i == 0 ? "\"" : ",\"").append(metrics.solve_names[i])
+                    .append("\":{\"iterations\":").append(metrics.solve_iterations[i])
+                    .append(",\"residual\":");
+            appendJsonNumber(line, metrics.solve_residuals[i]);
+            line.append('}');
+        }
+        line.append("},\"total_dye\":");
+        appendJsonNumber(line, metrics.total_dye);
+        line.append(",\"max_divergence\":");
+        appendJsonNumber(line, metrics.max_divergence);
+        line.append(",\"frame_nanos\":").append(metrics.frame_nanos)
+                .append(",\"render_nanos\":").append(metrics.render_nanos)
+                .append(",\"frame_budget_nanos\":").append(metrics.frame_budget_nanos)
+                .append(",\"over_budget\":").append(metrics.over_budget)
+                .append("}\n");
+    }
+
+    private static void appendJsonNumber(StringBuilder line, double value){
+        /*
+        JSON has no NaN or infinity (a blown up simulation produces both) so those are written as null
+        */
+        if (Double.isFinite(value)){
+            line.append(value);
+        } else {
+            line.append("null");
+        }
+    }
+
+    public synchronized void close(){
+        try {
+            this.writer.close();
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not close the metrics file " + this.path, e);
+        }
+    }
+}
@@ -0,0 +1,481 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following are the operations of FluidOperations2D for a fluid stored in single precision (float) arrays.
+Every loop of the simulation is limited by how fast the arrays can be read from memory, so storing half as many
+bytes per cell makes a step considerably faster on large grids (and a vector register holds twice as many floats
+as doubles). The results are of course less accurate than in double precision but the difference is invisible
+at the dye amounts the simulation deals with.
+
+Only the Gauss-Seidel and Jacobi methods are available for the linear solves. Like the double precision version,
+Gauss-Seidel uses the original row by row ordering on a single thread and red-black ordering when a
+ParallelOperations2D is given. When that ParallelOperations2D has simd set, the row kernels in VectorOperations2D
+are used instead of the scalar ones below.
+*/
+
+package fluid2d;
+
+import java.util.Arrays;
+
+public class FloatOperations2D {
+    ParallelOperations2D parallel;  // null to run everything on the calling thread
+    boolean simd;  // Use the kernels in VectorOperations2D
+    float[] scratch;  // Holds every other sweep of the Jacobi method
+
+    // Kernels reused for every loop on the bands
+    ProjectionKernel projection = new ProjectionKernel();
+    AdvectionKernel advection = new AdvectionKernel();
+    SweepKernel sweep = new SweepKernel();
+
+    public FloatOperations2D(int fluid_size, ParallelOperations2D parallel){
+        this.parallel = parallel;
+        this.simd = (parallel != null) && parallel.simd;
+        this.scratch = new float[fluid_size * fluid_size];
+    }
+
+
+    public void diffusion(float[] array_new, float[] array, int diffuse_type, double time_step, int fluid_size, double diffusion_rate,
+                          boolean jacobi, int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        Same as FluidOperations2D.diffusion (array_new must not be the same array as array)
+        */
+        float diffusion_factor = (float) (diffusion_rate * time_step * ((fluid_size - 2) * (fluid_size - 2)));
+
+        if (warm_start){
+            System.arraycopy(array, 0, array_new, 0, array_new.length);
+            set_boundary_values(diffuse_type, array_new, fluid_size);
+        } else {
+            Arrays.fill(array_new, 0.0f);
+        }
+        solve(array_new, array, 1.0f, diffusion_factor, diffuse_type, fluid_size, jacobi, solver_iter, tolerance, stats);
+    }
+
+
+    public void pressureProjection(float[] u, float[] v, float[] divergence, float[] pressure, int fluid_size, double time_step, double density,
+                                   boolean jacobi, int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        Same as FluidOperations2D.pressureProjection
+        */
+        if (!warm_start){
+            Arrays.fill(pressure, 0.0f);
+        }
+        divergence(u, v, divergence, fluid_size, (float) time_step, (float) density);
+        solve(pressure, divergence, 0.0f, 1.0f, 0, fluid_size, jacobi, solver_iter, tolerance, stats);
+        pressureGradient(u, v, pressure, fluid_size, (float) time_step, (float) density);
+    }
+
+
+    public void divergence(float[] u, float[] v, float[] divergence, int fluid_size, float time_step, float density){
+        if (this.parallel == null){
+            divergenceRows(u, v, divergence, fluid_size, time_step, density, 1, fluid_size - 1);
+        } else {
+            this.projection.set(false, u, v, divergence, fluid_size, time_step, density);
+            this.parallel.forEachBand(fluid_size, this.projection);
+        }
+        set_boundary_values(0, divergence, fluid_size);
+    }
+
+
+    public void pressureGradient(float[] u, float[] v, float[] pressure, int fluid_size, float time_step, float density){
+        if (this.parallel == null){
+            pressureGradientRows(u, v, pressure, fluid_size, time_step, density, 1, fluid_size - 1);
+        } else {
+            this.projection.set(true, u, v, pressure, fluid_size, time_step, density);
+            this.parallel.forEachBand(fluid_size, this.projection);
+        }
+        set_boundary_values(1, u, fluid_size);
+        set_boundary_values(2, v, fluid_size);
+    }
+
+
+    public void advection(float[] array_new, float[] array, int advect_type, double time_step, int fluid_size, float[] u, float[] v){
+        /*
+        Same as FluidOperations2D.advection
+        */
+        float step = (float) time_step;
+        if (this.parallel == null){
+            advectRows(array_new, array, step, fluid_size, u, v, 1, fluid_size - 1);
+        } else {
+            this.advection.set(array_new, array, step, fluid_size, u, v);
+            this.parallel.forEachBand(fluid_size, this.advection);
+        }
+        set_boundary_values(advect_type, array_new, fluid_size);
+    }
+
+
+    public void solve(float[] x, float[] rhs, float alpha, float beta, int boundary_type, int fluid_size, boolean jacobi, int max_iterations, double tolerance, SolveStats stats){
+        /*
+        Solve (alpha + 4 * beta) * x - beta * (sum of the 4 neighbours of x) = rhs (see LinearSolver) with either the
+        Jacobi or the Gauss-Seidel method, stopping early once the relative residual is below the tolerance
+        */
+        float diagonal = alpha + 4.0f * beta;
+
+        boolean measure = tolerance > 0.0 || stats != null;
+        double rhs_norm = measure ? maxAbs(rhs, fluid_size) : 0.0;
+        if (measure && rhs_norm == 0.0){
+            Arrays.fill(x, 0.0f);
+            if (stats != null){
+                stats.record(0, 0.0, true);
+            }
+            return;
+        }
+        double threshold = tolerance * rhs_norm;
+        if (tolerance > 0.0 && !jacobi){
+            double initial = residualNorm(x, rhs, alpha, beta, fluid_size);
+            if (initial <= threshold){
+                if (stats != null){
+                    stats.record(0, initial / rhs_norm, true);
+                }
+                return;
+            }
+        }
+
+        float[] source = x;
+        float[] target = this.scratch;
+        int iteration = 0;
+        double residual = Double.NaN;
+        boolean converged = false;
+        while (iteration < max_iterations){
+            float change;
+            if (jacobi){
+                change = jacobiPass(target, source, rhs, beta, diagonal, fluid_size);
+                set_boundary_values(boundary_type, target, fluid_size);
+                float[] temp = source;
+                source = target;
+                target = temp;
+            } else {
+                change = gaussSeidelPass(x, rhs, beta, diagonal, fluid_size);
+                set_boundary_values(boundary_type, x, fluid_size);
+            }
+            iteration++;
+
+            residual = (double) diagonal * change;
+            if (tolerance > 0.0 && residual <= threshold){
+                converged = true;
+                break;
+            }
+        }
+
+        if (source != x){
+            System.arraycopy(source, 0, x, 0, x.length);
+        }
+        if (stats != null){
+            stats.record(iteration, residual / rhs_norm, converged);
+        }
+    }
+
+    private float gaussSeidelPass(float[] x, float[] rhs, float beta, float diagonal, int fluid_size){
+        /*
+        One Gauss-Seidel sweep, row by row on a single thread or red-black on the bands
+        */
+        if (this.parallel == null){
+            return gaussSeidelSweep(x, rhs, beta, diagonal, fluid_size);
+        }
+        double change = 0.0;
+        for (int color = 0; color < 2; color++){
+            this.sweep.set(false, x, x, rhs, beta, diagonal, color, fluid_size);
+            change = Math.max(change, this.parallel.maxOverBands(fluid_size, this.sweep));
+        }
+        return (float) change;
+    }
+
+    private float jacobiPass(float[] x_new, float[] x, float[] rhs, float beta, float diagonal, int fluid_size){
+        if (this.parallel == null){
+            return jacobiSweep(x_new, x, rhs, beta, diagonal, 1, fluid_size - 1, fluid_size);
+        }
+        this.sweep.set(true, x_new, x, rhs, beta, diagonal, 0, fluid_size);
+        return (float) this.parallel.maxOverBands(fluid_size, this.sweep);
+    }
+
+
+    public static float gaussSeidelSweep(float[] x, float[] rhs, float beta, float diagonal, int fluid_size){
+        /*
+        One row by row Gauss-Seidel sweep over the interior cells, returns the largest change of a cell
+        */
+        float change = 0.0f;
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                float value = (rhs[index] + beta * (x[index - fluid_size] + x[index + fluid_size] + x[index - 1] + x[index + 1])) / diagonal;
+                change = Math.max(change, Math.abs(value - x[index]));
+                x[index] = value;
+            }
+        }
+        return change;
+    }
+
+
+    public static float redBlackSweep(float[] x, float[] rhs, float rhs_scale, float neighbour_scale, float diagonal, int color, int row_start, int row_end, int fluid_size){
+        /*
+        Same as ParallelOperations2D.redBlackSweep
+        */
+        float change = 0.0f;
+        for (int row = row_start; row < row_end; row++){
+            int col_start = 1 + ((row + 1 + color) & 1);
+            for (int col = col_start; col < fluid_size - 1; col += 2){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                float value = (rhs_scale * rhs[index] + neighbour_scale * (x[index - fluid_size] + x[index + fluid_size]
+                        + x[index - 1] + x[index + 1])) / diagonal;
+                change = Math.max(change, Math.abs(value - x[index]));
+                x[index] = value;
+            }
+        }
+        return change;
+    }
+
+
+    public static float jacobiSweep(float[] x_new, float[] x, float[] rhs, float beta, float diagonal, int row_start, int row_end, int fluid_size){
+        /*
+        Same as JacobiSolver.sweep
+        */
+        float change = 0.0f;
+        for (int row = row_start; row < row_end; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                x_new[index] = (rhs[index] + beta * (x[index - fluid_size] + x[index + fluid_size] + x[index - 1] + x[index + 1])) / diagonal;
+                change = Math.max(change, Math.abs(x_new[index] - x[index]));
+            }
+        }
+        return change;
+    }
+
+
+    public static void divergenceRows(float[] u, float[] v, float[] divergence, int fluid_size, float time_step, float density, int row_start, int row_end){
+        /*
+        Same as FluidOperations2D.divergenceRows
+        */
+        float particle_spacing = 1.0f / fluid_size;
+        float divergence_scale = -0.5f * particle_spacing * density / time_step;
+
+        for (int row = row_start; row < row_end; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                divergence[index] = divergence_scale * ((u[index + 1] - u[index - 1]) + (v[index + fluid_size] - v[index - fluid_size]));
+            }
+        }
+    }
+
+
+    public static void pressureGradientRows(float[] u, float[] v, float[] pressure, int fluid_size, float time_step, float density, int row_start, int row_end){
+        /*
+        Same as FluidOperations2D.pressureGradientRows
+        */
+        float particle_spacing = 1.0f / fluid_size;
+        float gradient_scale = (time_step / density) * (0.5f / particle_spacing);
+
+        for (int row = row_start; row < row_end; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                u[index] -= gradient_scale * (pressure[index + 1] - pressure[index - 1]);
+                v[index] -= gradient_scale * (pressure[index + fluid_size] - pressure[index - fluid_size]);
+            }
+        }
+    }
+
+
+    public static void advectRows(float[] array_new, float[] array, float time_step, int fluid_size, float[] u, float[] v, int row_start, int row_end){
+        /*
+        Same as FluidOperations2D.advectRows
+        */
+        float scaled_time_step = time_step * (fluid_size - 2);
+        for (int row = row_start; row < row_end; row++){
+            advectColumns(array_new, array, scaled_time_step, fluid_size, u, v, row, 1, fluid_size - 1);
+        }
+    }
+
+
+    public static void advectColumns(float[] array_new, float[] array, float scaled_time_step, int fluid_size, float[] u, float[] v, int row, int col_start, int col_end){
+        /*
+        Same as FluidOperations2D.advectColumns
+        */
+        float upper_limit = (fluid_size - 2) + 0.5f;
+        for (int col = col_start; col < col_end; col++){
+            int index = FluidOperations2D.idx(row, col, fluid_size);
+            float other_row = Math.min(Math.max(row - (scaled_time_step * v[index]), 0.5f), upper_limit);
+            float other_col = Math.min(Math.max(col - (scaled_time_step * u[index]), 0.5f), upper_limit);
+
+            // The positions are positive so converting to int is the same as Math.floor
+            int neighbour_row_1 = (int) other_row;
+            int neighbour_col_1 = (int) other_col;
+            float weight_row_1 = other_row - neighbour_row_1;
+            float weight_row_2 = 1 - weight_row_1;
+            float weight_col_1 = other_col - neighbour_col_1;
+            float weight_col_2 = 1 - weight_col_1;
+
+            int corner = FluidOperations2D.idx(neighbour_row_1, neighbour_col_1, fluid_size);
+            array_new[index] = weight_col_2 * (weight_row_2 * array[corner] + weight_row_1 * array[corner + fluid_size])
+                    + weight_col_1 * (weight_row_2 * array[corner + 1] + weight_row_1 * array[corner + fluid_size + 1]);
+        }
+    }
+
+
+    public static float[] set_boundary_values(int diffuse_type, float[] array_new, int fluid_size){
+        /*
+        Same as FluidOperations2D.set_boundary_values
+        */
+        for (int index = 1; index < fluid_size - 1; index++){
+            // Left and right border
+            if (diffuse_type == 1){
+                array_new[FluidOperations2D.idx(index, 0, fluid_size)] = -1.0f * array_new[FluidOperations2D.idx(index, 1, fluid_size)];
+                array_new[FluidOperations2D.idx(index, fluid_size - 1, fluid_size)] = -1.0f * array_new[FluidOperations2D.idx(index, fluid_size - 2, fluid_size)];
+            } else {
+                array_new[FluidOperations2D.idx(index, 0, fluid_size)] = array_new[FluidOperations2D.idx(index, 1, fluid_size)];
+                array_new[FluidOperations2D.idx(index, fluid_size - 1, fluid_size)] = array_new[FluidOperations2D.idx(index, fluid_size - 2, fluid_size)];
+            }
+
+            // Top and bottom border
+            if (diffuse_type == 2){
+                array_new[FluidOperations2D.idx(0, index, fluid_size)] = -1.0f * array_new[FluidOperations2D.idx(1, index, fluid_size)];
+                array_new[FluidOperations2D.idx(fluid_size - 1, index, fluid_size)] = -1.0f * array_new[FluidOperations2D.idx(fluid_size - 2, index, fluid_size)];
+            } else {
+                array_new[FluidOperations2D.idx(0, index, fluid_size)] = array_new[FluidOperations2D.idx(1, index, fluid_size)];
+                array_new[FluidOperations2D.idx(fluid_size - 1, index, fluid_size)] = array_new[FluidOperations2D.idx(fluid_size - 2, index, fluid_size)];
+            }
+        }
+
+        // The 4 corners are the average of their two closest non diagonal neighbours
+        int last = fluid_size - 1;
+        array_new[FluidOperations2D.idx(0, 0, fluid_size)] = (array_new[FluidOperations2D.idx(1, 0, fluid_size)] + array_new[FluidOperations2D.idx(0, 1, fluid_size)]) * 0.5f;
+        array_new[FluidOperations2D.idx(last, 0, fluid_size)] = (array_new[FluidOperations2D.idx(last - 1, 0, fluid_size)] + array_new[FluidOperations2D.idx(last, 1, fluid_size)]) * 0.5f;
+        array_new[FluidOperations2D.idx(0, last, fluid_size)] = (array_new[FluidOperations2D.idx(0, last - 1, fluid_size)] + array_new[FluidOperations2D.idx(1, last, fluid_size)]) * 0.5f;
+        array_new[FluidOperations2D.idx(last, last, fluid_size)] = (array_new[FluidOperations2D.idx(last - 1, last, fluid_size)] + array_new[FluidOperations2D.idx(last, last - 1, fluid_size)]) * 0.5f;
+
+        return array_new;
+    }
+
+
+    public static double maxAbs(float[] array, int fluid_size){
+        /*
+        Largest absolute value over the interior cells
+        */
+        float largest = 0.0f;
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                largest = Math.max(largest, Math.abs(array[FluidOperations2D.idx(row, col, fluid_size)]));
+            }
+        }
+        return largest;
+    }
+
+
+    public static double residualNorm(float[] x, float[] rhs, float alpha, float beta, int fluid_size){
+        /*
+        Same as LinearSolver.residualNorm (the border of x must already be set)
+        */
+        double diagonal = alpha + 4.0 * beta;
+        double largest = 0.0;
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                double residual = rhs[index] - (diagonal * x[index] - beta * ((double) x[index - fluid_size] + x[index + fluid_size] + x[index - 1] + x[index + 1]));
+                largest = Math.max(largest, Math.abs(residual));
+            }
+        }
+        return largest;
+    }
+
+
+    private class ProjectionKernel implements ParallelOperations2D.RowKernel {
+        /*
+        The divergence or the pressure gradient loop of the pressure projection
+        */
+        boolean gradient;
+        float[] u;
+        float[] v;
+        float[] field;  // The divergence or the pressure
+        int fluid_size;
+        float time_step;
+        float density;
+
+        void set(boolean gradient, float[] u, float[] v, float[] field, int fluid_size, float time_step, float density){
+            this.gradient = gradient;
+            this.u = u;
+            this.v = v;
+            this.field = field;
+            this.fluid_size = fluid_size;
+            this.time_step = time_step;
+            this.density = density;
+        }
+
+        public void run(int row_start, int row_end){
+            if (this.gradient && simd){
+                VectorOperations2D.pressureGradientRows(this.u, this.v, this.field, this.fluid_size, this.time_step, this.density, row_start, row_end);
+            } else if (this.gradient){
+                pressureGradientRows(this.u, this.v, this.field, this.fluid_size, this.time_step, this.density, row_start, row_end);
+            } else if (simd){
+                VectorOperations2D.divergenceRows(this.u, this.v, this.field, this.fluid_size, this.time_step, this.density, row_start, row_end);
+            } else {
+                divergenceRows(this.u, this.v, this.field, this.fluid_size, this.time_step, this.density, row_start, row_end);
+            }
+        }
+    }
+
+
+    private class AdvectionKernel implements ParallelOperations2D.RowKernel {
+        float[] array_new;
+        float[] array;
+        float time_step;
+        int fluid_size;
+        float[] u;
+        float[] v;
+
+        void set(float[] array_new, float[] array, float time_step, int fluid_size, float[] u, float[] v){
+            this.array_new = array_new;
+            this.array = array;
+            this.time_step = time_step;
+            this.fluid_size = fluid_size;
+            this.u = u;
+            this.v = v;
+        }
+
+        public void run(int row_start, int row_end){
+            if (simd){
+                VectorOperations2D.advectRows(this.array_new, this.array, this.time_step, this.fluid_size, this.u, this.v, row_start, row_end);
+            } else {
+                advectRows(this.array_new, this.array, this.time_step, this.fluid_size, this.u, this.v, row_start, row_end);
+            }
+        }
+    }
+
+
+    private class SweepKernel implements ParallelOperations2D.RowMaximum {
+        /*
+        One color of a red-black Gauss-Seidel sweep (x_new is x) or a Jacobi sweep
+        */
+        boolean jacobi;
+        float[] x_new;
+        float[] x;
+        float[] rhs;
+        float beta;
+        float diagonal;
+        int color;
+        int fluid_size;
+
+        void set(boolean jacobi, float[] x_new, float[] x, float[] rhs, float beta, float diagonal, int color, int fluid_size){
+            this.jacobi = jacobi;
+            this.x_new = x_new;
+            this.x = x;
+            this.rhs = rhs;
+            this.beta = beta;
+            this.diagonal = diagonal;
+            this.color = color;
+            this.fluid_size = fluid_size;
+        }
+
+        public double run(int row_start, int row_end){
+            if (this.jacobi && simd){
+                return VectorOperations2D.jacobiSweep(this.x_new, this.x, this.rhs, this.beta, this.diagonal, row_start, row_end, this.fluid_size);
+            } else if (this.jacobi){
+                return jacobiSweep(this.x_new, this.x, this.rhs, this.beta, this.diagonal, row_start, row_end, this.fluid_size);
+            } else if (simd){
+                return VectorOperations2D.redBlackSweep(this.x, this.rhs, 1.0f, this.beta, this.diagonal, this.color, row_start, row_end, this.fluid_size);
+            }
+            return redBlackSweep(this.x, this.rhs, 1.0f, this.beta, this.diagonal, this.color, row_start, row_end, this.fluid_size);
+        }
+    }
+}
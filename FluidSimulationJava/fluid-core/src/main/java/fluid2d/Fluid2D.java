@@ -0,0 +1,554 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+// Author: Kavan Lam (1003038802)
+// Date: Dec 21, 2020
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following models a fluid in 2 dimensions on a particle per particle basis where each pixel
+represents one fluid particle.
+*/
+
+package fluid2d;
+
+public class Fluid2D {
+    // The fluid properties
+    int fluid_size;
+    double density;
+    double viscosity;
+    double diffusion_rate;
+
+    // Create the arrays to store the fluid state
+    // Each array is a 1D row wise flatten version of the 2D counter part
+    // fluid_size - 2 is used since there is a 1px thick border containing our fluid
+    double[] u; // Velocities in the horizontal direction
+    double[] v;  // Velocities in the vertical direction
+    double[] dye;  // Amount of fluid
+
+    // Back buffers for the arrays above. An operation reads the front array, writes the back array
+    // and then the two are swapped so that advancing the fluid never allocates new arrays
+    double[] u_prev;
+    double[] v_prev;
+    double[] dye_prev;
+
+    // Scratch space used by the pressure projection. Each of the two projections in a step keeps its own
+    // pressure so it can be used as the initial guess for the same projection in the next step
+    double[] divergence;
+    double[] pressure;  // Projection after the velocities are diffused
+    double[] pressure_advected;  // Projection after the velocities are advected
+
+    // With interleaved set u and v (and their back buffers) live in a single array holding u and v of every
+    // cell next to each other (uv[2 * index] is u and uv[2 * index + 1] is v) and u, v, u_prev and v_prev are null.
+    // Only FusedOperations2D works with this layout.
+    boolean interleaved;
+    double[] uv;
+    double[] uv_prev;
+
+    // Single precision versions of every array above. A fluid stores its state in either the double
+    // or the float arrays (see single_precision), the other set is null.
+    boolean single_precision;
+    float[] u_float;
+    float[] v_float;
+    float[] dye_float;
+    float[] u_prev_float;
+    float[] v_prev_float;
+    float[] dye_prev_float;
+    float[] divergence_float;
+    float[] pressure_float;
+    float[] pressure_advected_float;
+
+    // Off heap versions of the double arrays above (see Field2D) for grids too large for arrays. When off_heap is
+    // set the fluid is stored in these fields and every array is null. Only FieldOperations2D works with them.
+    boolean off_heap;
+    Field2D u_field;
+    Field2D v_field;
+    Field2D dye_field;
+    Field2D u_prev_field;
+    Field2D v_prev_field;
+    Field2D dye_prev_field;
+    Field2D divergence_field;
+    Field2D pressure_field;
+    Field2D pressure_advected_field;
+
+    // Other parameters
+    int gauss_seidel_iter;
+
+    public Fluid2D(int fluid_size, double density, double viscosity, double diffusion_rate, int gauss_seidel_iter){
+        this(fluid_size, density, viscosity, diffusion_rate, gauss_seidel_iter, false);
+    }
+
+    public Fluid2D(int fluid_size, double density, double viscosity, double diffusion_rate, int gauss_seidel_iter, boolean single_precision){
+        this(fluid_size, density, viscosity, diffusion_rate, gauss_seidel_iter, single_precision, false);
+    }
+
+    public Fluid2D(int fluid_size, double density, double viscosity, double diffusion_rate, int gauss_seidel_iter, boolean single_precision, boolean interleaved){
+        this(fluid_size, density, viscosity, diffusion_rate, gauss_seidel_iter, single_precision, interleaved, "heap", "");
+    }
+
+    public Fluid2D(int fluid_size, double density, double viscosity, double diffusion_rate, int gauss_seidel_iter, boolean single_precision, boolean interleaved,
+                   String storage, String storage_dir){
+        /*
+        storage is heap (arrays), offheap (Field2D in direct memory) or mapped (Field2D in memory mapped files in
+        storage_dir, or the temporary directory when storage_dir is empty)
+        */
+        if (single_precision && interleaved){
+            throw new IllegalArgumentException("The interleaved layout is only available in double precision");
+        }
+        if (!storage.equals("heap") && (single_precision || interleaved)){
+            throw new IllegalArgumentException("Off heap storage is only available in double precision without the interleaved layout");
+        }
+        this.fluid_size = fluid_size;
+        this.density = density;
+        this.viscosity = viscosity;
+        this.diffusion_rate = diffusion_rate;
+        this.gauss_seidel_iter = gauss_seidel_iter;
+        this.single_precision = single_precision;
+        this.interleaved = interleaved;
+
+        if (!storage.equals("heap")){
+            this.off_heap = true;
+            java.nio.file.Path directory = null;
+            if (storage.equals("mapped")){
+                directory = java.nio.file.Paths.get(storage_dir.isEmpty() ? System.getProperty("java.io.tmpdir") : storage_dir);
+            } else if (!storage.equals("offheap")){
+                throw new IllegalArgumentException("storage must be heap, offheap or mapped but was " + storage);
+            }
+            this.u_field = createField(fluid_size, directory);
+            this.v_field = createField(fluid_size, directory);
+            this.dye_field = createField(fluid_size, directory);
+            this.u_prev_field = createField(fluid_size, directory);
+            this.v_prev_field = createField(fluid_size, directory);
+            this.dye_prev_field = createField(fluid_size, directory);
+            this.divergence_field = createField(fluid_size, directory);
+            this.pressure_field = createField(fluid_size, directory);
+            this.pressure_advected_field = createField(fluid_size, directory);
+            return;
+        }
+
+        if (single_precision){
+            this.u_float = new float[fluid_size * fluid_size];
+            this.v_float = new float[fluid_size * fluid_size];
+            this.dye_float = new float[fluid_size * fluid_size];
+
+            this.u_prev_float = new float[fluid_size * fluid_size];
+            this.v_prev_float = new float[fluid_size * fluid_size];
+            this.dye_prev_float = new float[fluid_size * fluid_size];
+
+            this.divergence_float = new float[fluid_size * fluid_size];
+            this.pressure_float = new float[fluid_size * fluid_size];
+            this.pressure_advected_float = new float[fluid_size * fluid_size];
+            return;
+        }
+
+        if (interleaved){
+            this.uv = new double[2 * fluid_size * fluid_size];
+            this.uv_prev = new double[2 * fluid_size * fluid_size];
+        } else {
+            this.u = new double[fluid_size * fluid_size];
+            this.v = new double[fluid_size * fluid_size];
+            this.u_prev = new double[fluid_size * fluid_size];
+            this.v_prev = new double[fluid_size * fluid_size];
+        }
+        this.dye = new double[fluid_size * fluid_size];
+        this.dye_prev = new double[fluid_size * fluid_size];
+
+        this.divergence = new double[fluid_size * fluid_size];
+        this.pressure = new double[fluid_size * fluid_size];
+        this.pressure_advected = new double[fluid_size * fluid_size];
+    }
+
+    private static Field2D createField(int fluid_size, java.nio.file.Path directory){
+        return (directory == null) ? Field2D.direct(fluid_size) : Field2D.mapped(fluid_size, directory);
+    }
+
+    public void swap_u(){
+        /*
+        Make the back buffer of the horizontal velocities the current one
+        */
+        double[] temp = this.u;
+        this.u = this.u_prev;
+        this.u_prev = temp;
+
+        Field2D temp_field = this.u_field;
+        this.u_field = this.u_prev_field;
+        this.u_prev_field = temp_field;
+
+        float[] temp_float = this.u_float;
+        this.u_float = this.u_prev_float;
+        this.u_prev_float = temp_float;
+    }
+
+    public void swap_v(){
+        /*
+        Make the back buffer of the vertical velocities the current one
+        */
+        double[] temp = this.v;
+        this.v = this.v_prev;
+        this.v_prev = temp;
+
+        Field2D temp_field = this.v_field;
+        this.v_field = this.v_prev_field;
+        this.v_prev_field = temp_field;
+
+        float[] temp_float = this.v_float;
+        this.v_float = this.v_prev_float;
+        this.v_prev_float = temp_float;
+    }
+
+    public void swap_uv(){
+        /*
+        Make the back buffers of both velocities the current ones (whichever layout they are stored in)
+        */
+        swap_u();
+        swap_v();
+
+        double[] temp = this.uv;
+        this.uv = this.uv_prev;
+        this.uv_prev = temp;
+    }
+
+    public void swap_dye(){
+        /*
+        Make the back buffer of the dye the current one
+        */
+        double[] temp = this.dye;
+        this.dye = this.dye_prev;
+        this.dye_prev = temp;
+
+        Field2D temp_field = this.dye_field;
+        this.dye_field = this.dye_prev_field;
+        this.dye_prev_field = temp_field;
+
+        float[] temp_float = this.dye_float;
+        this.dye_float = this.dye_prev_float;
+        this.dye_prev_float = temp_float;
+    }
+
+    public void add_u(double amount, int row, int col){
+        /*
+        Add some velocity in the horizontal direction to a particular location
+        */
+        if (this.off_heap){
+            this.u_field.add(row, col, amount);
+            return;
+        }
+        int index = col + (row * this.fluid_size);
+        if (this.single_precision){
+            this.u_float[index] += (float) amount;
+        } else if (this.interleaved){
+            this.uv[2 * index] += amount;
+        } else {
+            this.u[index] += amount;
+        }
+    }
+
+    public void add_v(double amount, int row, int col){
+        /*
+        Add some velocity in the vertical direction to a particular location
+        */
+        if (this.off_heap){
+            this.v_field.add(row, col, amount);
+            return;
+        }
+        int index = col + (row * this.fluid_size);
+        if (this.single_precision){
+            this.v_float[index] += (float) amount;
+        } else if (this.interleaved){
+            this.uv[2 * index + 1] += amount;
+        } else {
+            this.v[index] += amount;
+        }
+    }
+
+    public void add_dye(double amount, int row, int col){
+        /*
+        Add some dye/fluid to a particular location on the simulation grid
+        */
+        if (this.off_heap){
+            this.dye_field.add(row, col, amount);
+            return;
+        }
+        int index = col + (row * this.fluid_size);
+        if (this.single_precision){
+            this.dye_float[index] += (float) amount;
+        } else {
+            this.dye[index] += amount;
+        }
+    }
+
+    public void add_row(int row, double[] dye_delta, double[] u_delta, double[] v_delta){
+        /*
+        Add the deltas (fluid_size values each for the given row, any can be null) to the dye and the velocities of
+        the row in a single pass. Used by SplatBatch.
+        */
+        int fluid_size = this.fluid_size;
+        if (this.off_heap){
+            for (int col = 0; col < fluid_size; col++){
+                if (dye_delta != null){
+                    this.dye_field.add(row, col, dye_delta[col]);
+                }
+                if (u_delta != null){
+                    this.u_field.add(row, col, u_delta[col]);
+                }
+                if (v_delta != null){
+                    this.v_field.add(row, col, v_delta[col]);
+                }
+            }
+            return;
+        }
+        // The heap arrays have fewer than 2^31 cells, so the offset of every row fits in an int
+        int offset = Math.toIntExact((long) row * fluid_size);
+        if (this.single_precision){
+            if (dye_delta != null){
+                for (int col = 0; col < fluid_size; col++){
+                    this.dye_float[offset + col] += (float) dye_delta[col];
+                }
+            }
+            if (u_delta != null){
+                for (int col = 0; col < fluid_size; col++){
+                    this.u_float[offset + col] += (float) u_delta[col];
+                }
+            }
+            if (v_delta != null){
+                for (int col = 0; col < fluid_size; col++){
+                    this.v_float[offset + col] += (float) v_delta[col];
+                }
+            }
+        } else {
+            if (dye_delta != null){
+                for (int col = 0; col < fluid_size; col++){
+                    this.dye[offset + col] += dye_delta[col];
+                }
+            }
+            if (this.interleaved){
+                for (int col = 0; col < fluid_size; col++){
+                    if (u_delta != null){
+                        this.uv[2 * (offset + col)] += u_delta[col];
+                    }
+                    if (v_delta != null){
+                        this.uv[2 * (offset + col) + 1] += v_delta[col];
+                    }
+                }
+            } else {
+                if (u_delta != null){
+                    for (int col = 0; col < fluid_size; col++){
+                        this.u[offset + col] += u_delta[col];
+                    }
+                }
+                if (v_delta != null){
+                    for (int col = 0; col < fluid_size; col++){
+                        this.v[offset + col] += v_delta[col];
+                    }
+                }
+            }
+        }
+    }
+
+    public double get_u(int row, int col){
+        /*
+        Horizontal velocity at a particular location (works for every precision, layout and storage)
+        */
+        if (this.off_heap){
+            return this.u_field.get(row, col);
+        }
+        int index = col + (row * this.fluid_size);
+        if (this.single_precision){
+            return this.u_float[index];
+        }
+        return this.interleaved ? this.uv[2 * index] : this.u[index];
+    }
+
+    public double get_v(int row, int col){
+        /*
+        Vertical velocity at a particular location (works for every precision, layout and storage)
+        */
+        if (this.off_heap){
+            return this.v_field.get(row, col);
+        }
+        int index = col + (row * this.fluid_size);
+        if (this.single_precision){
+            return this.v_float[index];
+        }
+        return this.interleaved ? this.uv[2 * index + 1] : this.v[index];
+    }
+
+    public double get_dye(int row, int col){
+        /*
+        Amount of dye at a particular location (works for both precisions and every storage)
+        */
+        if (this.off_heap){
+            return this.dye_field.get(row, col);
+        }
+        int index = col + (row * this.fluid_size);
+        return this.single_precision ? this.dye_float[index] : this.dye[index];
+    }
+
+    public void clear_dye(){
+        /*
+        Remove all of the dye from the simulation
+        */
+        if (this.off_heap){
+            this.dye_field.fill(0.0);
+        } else if (this.single_precision){
+            java.util.Arrays.fill(this.dye_float, 0.0f);
+        } else {
+            java.util.Arrays.fill(this.dye, 0.0);
+        }
+    }
+
+    public void clear(){
+        /*
+        Remove all the velocity and dye (and every other value) from the simulation without allocating new arrays
+        */
+        if (this.off_heap){
+            for (Field2D field : new Field2D[]{this.u_field, this.v_field, this.dye_field, this.u_prev_field, this.v_prev_field,
+                    this.dye_prev_field, this.divergence_field, this.pressure_field, this.pressure_advected_field}){
+                field.fill(0.0);
+            }
+            return;
+        }
+        for (double[] array : new double[][]{this.u, this.v, this.dye, this.u_prev, this.v_prev, this.dye_prev, this.divergence,
+                this.pressure, this.pressure_advected, this.uv, this.uv_prev}){
+            if (array != null){
+                java.util.Arrays.fill(array, 0.0);
+            }
+        }
+        for (float[] array : new float[][]{this.u_float, this.v_float, this.dye_float, this.u_prev_float, this.v_prev_float,
+                this.dye_prev_float, this.divergence_float, this.pressure_float, this.pressure_advected_float}){
+            if (array != null){
+                java.util.Arrays.fill(array, 0.0f);
+            }
+        }
+    }
+
+    public void copy_from(Fluid2D other){
+        /*
+        Make the state of this fluid (velocities, dye and pressures) a copy of the other fluid, which must have the
+        same size, precision and layout
+        */
+        if (other.fluid_size != this.fluid_size || other.single_precision != this.single_precision || other.interleaved != this.interleaved
+                || other.off_heap != this.off_heap){
+            throw new IllegalArgumentException("Can only copy a fluid with the same size, precision, layout and storage");
+        }
+        if (this.off_heap){
+            this.u_field.copyFrom(other.u_field);
+            this.v_field.copyFrom(other.v_field);
+            this.dye_field.copyFrom(other.dye_field);
+            this.pressure_field.copyFrom(other.pressure_field);
+            this.pressure_advected_field.copyFrom(other.pressure_advected_field);
+            return;
+        }
+        copy(other.u, this.u);
+        copy(other.v, this.v);
+        copy(other.uv, this.uv);
+        copy(other.dye, this.dye);
+        copy(other.pressure, this.pressure);
+        copy(other.pressure_advected, this.pressure_advected);
+        copy(other.u_float, this.u_float);
+        copy(other.v_float, this.v_float);
+        copy(other.dye_float, this.dye_float);
+        copy(other.pressure_float, this.pressure_float);
+        copy(other.pressure_advected_float, this.pressure_advected_float);
+    }
+
+    private static void copy(Object source, Object destination){
+        if (source != null){
+            System.arraycopy(source, 0, destination, 0, java.lang.reflect.Array.getLength(source));
+        }
+    }
+
+    public void copy_dye(double[] destination){
+        /*
+        Copy the dye of every cell into destination (works for both precisions and every storage)
+        */
+        if (this.off_heap){
+            for (int index = 0; index < destination.length; index++){
+                destination[index] = this.dye_field.get(index);
+            }
+        } else if (this.single_precision){
+            float[] dye = this.dye_float;
+            for (int index = 0; index < dye.length; index++){
+                destination[index] = dye[index];
+            }
+        } else {
+            System.arraycopy(this.dye, 0, destination, 0, this.dye.length);
+        }
+    }
+
+    public void copy_velocity(double[] u_destination, double[] v_destination){
+        /*
+        Copy both velocities of every cell into u_destination and v_destination (works for every precision, layout and storage)
+        */
+        long cells = (long) this.fluid_size * this.fluid_size;
+        if (cells > u_destination.length || cells > v_destination.length){
+            throw new IllegalArgumentException("The destinations are too small for the " + cells + " cells of the fluid");
+        }
+        if (this.off_heap){
+            for (int index = 0; index < cells; index++){
+                u_destination[index] = this.u_field.get(index);
+                v_destination[index] = this.v_field.get(index);
+            }
+        } else if (this.single_precision){
+            for (int index = 0; index < cells; index++){
+                u_destination[index] = this.u_float[index];
+                v_destination[index] = this.v_float[index];
+            }
+        } else if (this.interleaved){
+            for (int index = 0; index < cells; index++){
+                u_destination[index] = this.uv[2 * index];
+                v_destination[index] = this.uv[2 * index + 1];
+            }
+        } else {
+            System.arraycopy(this.u, 0, u_destination, 0, this.u.length);
+            System.arraycopy(this.v, 0, v_destination, 0, this.v.length);
+        }
+    }
+
+    public double total_dye(){
+        /*
+        Sum of the dye over the whole grid. Only the sources and the boundaries change it so a sudden jump means
+        something has gone wrong.
+        */
+        double total = 0.0;
+        if (this.off_heap){
+            for (long row = 0; row < this.fluid_size; row++){
+                for (long col = 0; col < this.fluid_size; col++){
+                    total += this.dye_field.get(row, col);
+                }
+            }
+        } else if (this.single_precision){
+            for (float amount : this.dye_float){
+                total += amount;
+            }
+        } else {
+            for (double amount : this.dye){
+                total += amount;
+            }
+        }
+        return total;
+    }
+
+    public double max_divergence(){
+        /*
+        Largest absolute divergence (du/dx + dv/dy with central differences) of the velocity over the interior
+        cells. The pressure projection should keep this close to 0.
+        */
+        int size = this.fluid_size;
+        double scale = 0.5 * size;  // 1 / (2 * particle_spacing)
+        double max = 0.0;
+        for (int row = 1; row < size - 1; row++){
+            for (int col = 1; col < size - 1; col++){
+                double divergence = scale * ((get_u(row, col + 1) - get_u(row, col - 1)) + (get_v(row + 1, col) - get_v(row - 1, col)));
+                max = Math.max(max, Math.abs(divergence));
+            }
+        }
+        return max;
+    }
+
+    public static void main(String[] args){
+        System.out.println("Executing Fluid2D.java will do nothing. Please start the simulation via Main.java");
+    }
+}
@@ -0,0 +1,92 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following are the Java Flight Recorder events SimulationMetrics emits when metrics are enabled. They show up
+under "Fluid Simulation" in JDK Mission Control next to the GC and JIT events. Start a recording with
+    java -XX:StartFlightRecording=filename=fluid.jfr -cp fluid-core/target/classes fluid2d.Headless --metrics=true
+The durations are measured by SimulationMetrics and stored in a field since JFR only times events between
+begin() and end().
+*/
+
+package fluid2d;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+public class FluidEvents {
+    @Name("fluid2d.Stage")
+    @Label("Simulation Stage")
+    @Description("A single operation of a simulation step")
+    @Category("Fluid Simulation")
+    public static class StageEvent extends Event {
+        @Label("Stage")
+        public String stage;
+
+        @Label("Step")
+        public long step;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        public long time;
+    }
+
+    @Name("fluid2d.Step")
+    @Label("Simulation Step")
+    @Description("A whole simulation step with its health signals")
+    @Category("Fluid Simulation")
+    public static class StepEvent extends Event {
+        @Label("Step")
+        public long step;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        public long time;
+
+        @Label("Solver Iterations")
+        @Description("Iterations of every linear solve in the step added together")
+        public int iterations;
+
+        @Label("Largest Residual")
+        @Description("Largest relative residual left by a linear solve in the step")
+        public double residual;
+
+        @Label("Total Dye")
+        public double total_dye;
+
+        @Label("Max Divergence")
+        public double max_divergence;
+    }
+
+    @Name("fluid2d.Frame")
+    @Label("Frame")
+    @Description("A rendered frame (a step and the drawing of the fluid)")
+    @Category("Fluid Simulation")
+    public static class FrameEvent extends Event {
+        @Label("Step")
+        public long step;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        public long time;
+
+        @Label("Render")
+        @Timespan(Timespan.NANOSECONDS)
+        public long render;
+
+        @Label("Budget")
+        @Timespan(Timespan.NANOSECONDS)
+        public long budget;
+
+        @Label("Over Budget")
+        public boolean over_budget;
+    }
+}
@@ -0,0 +1,311 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+// Author: Kavan Lam (1003038802)
+// Date: Dec 21, 2020
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following provides the required functions to advance a fluid forward
+in time. The operations range from diffusion to pressure projection.
+Each operation writes into arrays supplied by the caller so that a time step does not allocate.
+*/
+
+package fluid2d;
+
+import java.util.Arrays;
+
+public class FluidOperations2D {
+    static final LinearSolver GAUSS_SEIDEL = new GaussSeidelSolver(null);  // The solver used when none is given
+
+    public static int idx(int row, int col, int fluid_size){
+        /*
+        Converts a 2D index into a 1D index assuming a row wise flattening
+        */
+        return col + (row * fluid_size);
+    }
+
+
+    public static Object[] pressureProjection(double[]u, double[]v, int fluid_size, double time_step, double density, int gauss_seidel_iter){
+        /*
+        Allocating version of pressure projection kept for convenience. The simulation loop uses the
+        version below that works with the scratch buffers owned by Fluid2D.
+        */
+        double[] divergence = new double[fluid_size * fluid_size];
+        double[] pressure = new double[fluid_size * fluid_size];
+        pressureProjection(u, v, divergence, pressure, fluid_size, time_step, density, gauss_seidel_iter);
+
+        return new Object[]{u, v};
+    }
+
+
+    public static void pressureProjection(double[] u, double[] v, double[] divergence, double[] pressure, int fluid_size, double time_step, double density, int gauss_seidel_iter){
+        /*
+        Pressure projection using the Gauss-Seidel method for the pressure solve
+        */
+        pressureProjection(u, v, divergence, pressure, fluid_size, time_step, density, GAUSS_SEIDEL, gauss_seidel_iter);
+    }
+
+
+    public static void pressureProjection(double[] u, double[] v, double[] divergence, double[] pressure, int fluid_size, double time_step, double density, LinearSolver solver, int solver_iter){
+        /*
+        Pressure projection with the given solver using exactly solver_iter iterations starting from zero pressure
+        */
+        pressureProjection(u, v, divergence, pressure, fluid_size, time_step, density, solver, solver_iter, 0.0, false, null);
+    }
+
+
+    public static void pressureProjection(double[] u, double[] v, double[] divergence, double[] pressure, int fluid_size, double time_step, double density,
+                                          LinearSolver solver, int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        Apply a simplified version of pressure projection that does not use the staggered grid.
+        This function is required to keep the simulation mass conserving or in other words
+        enforce the fact that we are simulating a incompressible fluid.
+        u and v are updated in place. divergence and pressure are scratch buffers supplied by the
+        caller so that no memory is allocated here. With warm_start the pressure left in the pressure
+        array (e.g. by the previous frame) is used as the initial guess, otherwise the solve starts from zero.
+        The solve stops early once the relative residual drops below tolerance (0 to always use every iteration).
+        */
+        if (!warm_start){
+            Arrays.fill(pressure, 0.0);
+        }
+
+        // First compute the divergence of the velocity field at each cell
+        divergence(u, v, divergence, fluid_size, time_step, density);
+
+        // Now compute the pressures by solving the linear system 4 * p - (sum of neighbouring p) = divergence
+        solver.solve(pressure, divergence, 0.0, 1.0, 0, fluid_size, solver_iter, tolerance, stats);
+
+        // Finally update the velocities
+        pressureGradient(u, v, pressure, fluid_size, time_step, density);
+    }
+
+
+    public static void divergence(double[] u, double[] v, double[] divergence, int fluid_size, double time_step, double density){
+        /*
+        Compute the right hand side of the pressure equation (including its border values)
+        */
+        divergenceRows(u, v, divergence, fluid_size, time_step, density, 1, fluid_size - 1);
+        set_boundary_values(0, divergence, fluid_size);
+    }
+
+
+    public static void pressureGradient(double[] u, double[] v, double[] pressure, int fluid_size, double time_step, double density){
+        /*
+        Subtract the pressure gradient from the velocities and fix up their border values
+        */
+        pressureGradientRows(u, v, pressure, fluid_size, time_step, density, 1, fluid_size - 1);
+        set_boundary_values(1, u, fluid_size);
+        set_boundary_values(2, v, fluid_size);
+    }
+
+
+    public static void divergenceRows(double[] u, double[] v, double[] divergence, int fluid_size, double time_step, double density, int row_start, int row_end){
+        /*
+        Compute the (scaled) divergence of the velocity field for the interior cells of the rows in
+        [row_start, row_end). This is the right hand side of the pressure equation.
+        */
+        double particle_spacing = 1.0 / fluid_size;
+        double divergence_scale = -0.5 * particle_spacing * density / time_step;
+
+        for (int row = row_start; row < row_end; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                divergence[idx(row, col, fluid_size)] = divergence_scale * ((u[idx(row, col + 1, fluid_size)] - u[idx(row, col - 1, fluid_size)]) +
+                        (v[idx(row + 1, col, fluid_size)] - v[idx(row - 1, col, fluid_size)]));
+            }
+        }
+    }
+
+
+    public static void pressureGradientRows(double[] u, double[] v, double[] pressure, int fluid_size, double time_step, double density, int row_start, int row_end){
+        /*
+        Subtract the pressure gradient from the velocities of the interior cells of the rows in [row_start, row_end)
+        */
+        double particle_spacing = 1.0 / fluid_size;
+        double gradient_scale = (time_step / density) * (0.5 / particle_spacing);
+
+        for (int row = row_start; row < row_end; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                u[idx(row, col, fluid_size)] -= gradient_scale * (pressure[idx(row, col + 1, fluid_size)] - pressure[idx(row, col - 1, fluid_size)]);
+                v[idx(row, col, fluid_size)] -= gradient_scale * (pressure[idx(row + 1, col, fluid_size)] - pressure[idx(row - 1, col, fluid_size)]);
+            }
+        }
+    }
+
+
+    public static double[] diffusion(double[] array, int diffuse_type, double time_step, int fluid_size, double diffusion_rate, int gauss_seidel_iter){
+        /*
+        Allocating version of diffusion that returns the diffused quantity in a new array
+        */
+        double[] array_new = new double[fluid_size * fluid_size];
+        diffusion(array_new, array, diffuse_type, time_step, fluid_size, diffusion_rate, gauss_seidel_iter);
+
+        return array_new;
+    }
+
+
+    public static void diffusion(double[] array_new, double[] array, int diffuse_type, double time_step, int fluid_size, double diffusion_rate, int gauss_seidel_iter){
+        /*
+        Diffusion using the Gauss-Seidel method for the linear solve
+        */
+        diffusion(array_new, array, diffuse_type, time_step, fluid_size, diffusion_rate, GAUSS_SEIDEL, gauss_seidel_iter);
+    }
+
+
+    public static void diffusion(double[] array_new, double[] array, int diffuse_type, double time_step, int fluid_size, double diffusion_rate, LinearSolver solver, int solver_iter){
+        /*
+        Diffusion with the given solver using exactly solver_iter iterations starting from zero
+        */
+        diffusion(array_new, array, diffuse_type, time_step, fluid_size, diffusion_rate, solver, solver_iter, 0.0, false, null);
+    }
+
+
+    public static void diffusion(double[] array_new, double[] array, int diffuse_type, double time_step, int fluid_size, double diffusion_rate,
+                                 LinearSolver solver, int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        Diffuse some physical quantity throughout the fluid. This could be
+        the horizontal velocities (diffuse_type = 1) or vertical velocities (diffuse_type = 2)
+        or the dye (diffuse_type = 3). The new values are computed by solving a linear system with
+        the given solver. The result is written into array_new which must not be the same array as array.
+        With warm_start the solve starts from the quantity itself, which is the previous frame's solution
+        carried forward by the rest of the step and only differs from the answer by the (small) amount of
+        diffusion. Otherwise the solve starts from zero. The solve stops early once the relative residual
+        drops below tolerance (0 to always use every iteration).
+        */
+        double diffusion_factor = diffusion_rate * time_step * ((fluid_size - 2) * (fluid_size - 2));  // The factor should scale up with the fluid size
+
+        // Diffuse the quantity stored in array by solving (1 + 4 * factor) * new - factor * (sum of neighbouring new) = array
+        if (warm_start){
+            System.arraycopy(array, 0, array_new, 0, array_new.length);
+            set_boundary_values(diffuse_type, array_new, fluid_size);
+        } else {
+            Arrays.fill(array_new, 0.0);
+        }
+        solver.solve(array_new, array, 1.0, diffusion_factor, diffuse_type, fluid_size, solver_iter, tolerance, stats);
+    }
+
+
+    public static double[] advection(double[] array, int advect_type, double time_step, int fluid_size, double[] u, double[] v){
+        /*
+        Allocating version of advection that returns the advected quantity in a new array
+        */
+        double[] array_new = new double[fluid_size * fluid_size];
+        advection(array_new, array, advect_type, time_step, fluid_size, u, v);
+
+        return array_new;
+    }
+
+
+    public static void advection(double[] array_new, double[] array, int advect_type, double time_step, int fluid_size, double[] u, double[] v){
+        /*
+        Applies advection to some physical quantity based u and v which are the
+        horizontal and vertical velocities of the fluid system. If the physical quantity
+        is dye then advect_type = 3. If the physical quantity is horizontal velocity then
+        advect_type = 1 and advect_type = 2 for vertical velocity. The result is written into
+        array_new which must not be the same array as array, u or v.
+         */
+
+        // Advect the quantity stored in array
+        advectRows(array_new, array, time_step, fluid_size, u, v, 1, fluid_size - 1);
+        set_boundary_values(advect_type, array_new, fluid_size);
+    }
+
+
+    public static void advectRows(double[] array_new, double[] array, double time_step, int fluid_size, double[] u, double[] v, int row_start, int row_end){
+        /*
+        Advect the interior cells of the rows in [row_start, row_end) without touching the border.
+        The rows are independent of each other so different ranges may be processed concurrently.
+        */
+        double scaled_time_step = time_step * (fluid_size - 2);  // The time step scales with the fluid size
+
+        for (int row = row_start; row < row_end; row++){
+            advectColumns(array_new, array, scaled_time_step, fluid_size, u, v, row, 1, fluid_size - 1);
+        }
+    }
+
+
+    public static void advectColumns(double[] array_new, double[] array, double scaled_time_step, int fluid_size, double[] u, double[] v, int row, int col_start, int col_end){
+        /*
+        Advect the cells of a single row in the columns [col_start, col_end)
+        */
+        for (int col = col_start; col < col_end; col++){
+            // Compute the cell of where the fluid particle would have came from
+            double other_row = row - (scaled_time_step * v[idx(row, col, fluid_size)]);
+            double other_col = col - (scaled_time_step * u[idx(row, col, fluid_size)]);
+
+            // Clamp the other row and col so that it lies within the simulation border
+            // All indices are relative to the cell center so a particle has 0.5 space to move within a cell
+            // i.e if you are on the last row then you can still move 0.5 down further and still be in the fluid border
+            if (other_row < 0.5){
+                other_row = 0.5;
+            } else if (other_row > ((fluid_size - 2) + 0.5)){
+                other_row = ((fluid_size - 2) + 0.5);
+            }
+
+            if (other_col < 0.5){
+                other_col = 0.5;
+            } else if (other_col > ((fluid_size - 2) + 0.5)){
+                other_col = ((fluid_size - 2) + 0.5);
+            }
+
+            // We employ a linear interpolation so we need the neighbouring particles
+            int neighbour_row_1 = (int) Math.floor(other_row);
+            int neighbour_row_2 = neighbour_row_1 + 1;
+            int neighbour_col_1 = (int) Math.floor(other_col);
+            int neighbour_col_2 = neighbour_col_1 + 1;
+
+            // Get the weights for the interpolation
+            double weight_row_1 = other_row - neighbour_row_1;
+            double weight_row_2 = 1 - weight_row_1;
+            double weight_col_1 = other_col - neighbour_col_1;
+            double weight_col_2 = 1 - weight_col_1;
+
+            // Linearly interpolate the advected quantity
+            array_new[idx(row, col, fluid_size)] = weight_col_2 * (weight_row_2 * (array[idx(neighbour_row_1, neighbour_col_1, fluid_size)]) + weight_row_1 * (array[idx(neighbour_row_2, neighbour_col_1, fluid_size)]));
+            array_new[idx(row, col, fluid_size)] += weight_col_1 * (weight_row_2 * (array[idx(neighbour_row_1, neighbour_col_2, fluid_size)]) + weight_row_1 * (array[idx(neighbour_row_2, neighbour_col_2, fluid_size)]));
+        }
+    }
+
+
+    public static double[] set_boundary_values(int diffuse_type, double[] array_new, int fluid_size){
+        // Set all of the boarder values that are non corners
+        for (int index = 1; index < fluid_size - 1; index++) {
+            // Left and right border
+            if (diffuse_type == 1) {
+                array_new[idx(index, 0, fluid_size)] = -1.0 * array_new[idx(index, 1, fluid_size)];
+                array_new[idx(index, fluid_size - 1, fluid_size)] = -1.0 * array_new[idx(index, fluid_size - 2, fluid_size)];
+            } else {
+                array_new[idx(index, 0, fluid_size)] = array_new[idx(index, 1, fluid_size)];
+                array_new[idx(index, fluid_size - 1, fluid_size)] = array_new[idx(index, fluid_size - 2, fluid_size)];
+            }
+
+            // Top and bottom border
+            if (diffuse_type == 2) {
+                array_new[idx(0, index, fluid_size)] = -1.0 * array_new[idx(1, index, fluid_size)];
+                array_new[idx(fluid_size - 1, index, fluid_size)] = -1.0 * array_new[idx(fluid_size - 2, index, fluid_size)];
+            } else {
+                array_new[idx(0, index, fluid_size)] = array_new[idx(1, index, fluid_size)];
+                array_new[idx(fluid_size - 1, index, fluid_size)] = array_new[idx(fluid_size - 2, index, fluid_size)];
+            }
+        }
+
+        // Set the value for the 4 corners (just average of the two closest non diagonal neighbours)
+        // Top left
+        array_new[idx(0, 0, fluid_size)] = (array_new[idx(1, 0, fluid_size)] + array_new[idx(0, 1, fluid_size)]) * 0.5;
+        // Bottom left
+        array_new[idx(fluid_size - 1, 0, fluid_size)] = (array_new[idx(fluid_size - 2, 0, fluid_size)] + array_new[idx(fluid_size - 1, 1, fluid_size)]) * 0.5;
+        // Top right
+        array_new[idx(0, fluid_size - 1, fluid_size)] = (array_new[idx(0, fluid_size - 2, fluid_size)] + array_new[idx(1, fluid_size - 1, fluid_size)]) * 0.5;
+        // Bottom right
+        array_new[idx(fluid_size - 1, fluid_size - 1, fluid_size)] = (array_new[idx(fluid_size - 2, fluid_size - 1, fluid_size)] + array_new[idx(fluid_size - 1, fluid_size - 2, fluid_size)]) * 0.5;
+
+        return array_new;
+    }
+
+
+    public static void main(String[] args){
+        System.out.println("Executing FluidOperations2D.java will do nothing. Please start the simulation via Main.java");
+    }
+}
@@ -0,0 +1,44 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is a copy of the state of a Fluid2D after a step. The simulation thread fills one in after every
+step and hands it to the renderer through a SnapshotBuffer so the renderer never reads arrays that are being
+written. Snapshots are always stored in double precision with u and v in separate arrays.
+*/
+
+package fluid2d;
+
+public class FluidSnapshot {
+    public int fluid_size;
+    public double[] dye;
+    public double[] u;  // null unless the velocities are captured as well
+    public double[] v;
+    public long step = 0;  // step_count of the solver the snapshot was taken from (0 before the first step)
+    public double simulated_time = 0.0;
+
+    public FluidSnapshot(int fluid_size, boolean velocity){
+        this.fluid_size = fluid_size;
+        this.dye = new double[fluid_size * fluid_size];
+        if (velocity){
+            this.u = new double[fluid_size * fluid_size];
+            this.v = new double[fluid_size * fluid_size];
+        }
+    }
+
+    public void capture(FluidSolver solver){
+        /*
+        Copy the current state of the solver's fluid into this snapshot
+        */
+        solver.fluid.copy_dye(this.dye);
+        if (this.u != null){
+            solver.fluid.copy_velocity(this.u, this.v);
+        }
+        this.step = solver.step_count;
+        this.simulated_time = solver.simulated_time;
+    }
+}
@@ -0,0 +1,459 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is the headless simulation engine. It owns a Fluid2D and advances it forward in time
+using the operations in FluidOperations2D. Nothing in here depends on Processing so the solver can be
+driven by Main for interactive use or by Headless for batch runs and throughput measurements.
+*/
+
+package fluid2d;
+
+import java.time.Duration;
+
+public class FluidSolver {
+    public SimulationConfig config;
+    public Fluid2D fluid;
+    public SplatBatch splats;  // Sources added to the fluid at the start of the next step
+    public ParallelOperations2D parallel;  // null when the fluid is advanced with the original sequential operations
+    public LinearSolver diffusion_solver;  // Solves the implicit diffusion of u, v and the dye (null in single precision, when fused or off heap)
+    public LinearSolver pressure_solver;  // Solves for the pressure in the pressure projection (null in single precision, when fused or off heap)
+    public FloatOperations2D float_operations;  // Advances a fluid stored in single precision (null otherwise)
+    public FusedOperations2D fused;  // Advances the fluid with fused passes (null unless config.fused)
+    public SparseOperations2D sparse;  // Only advances the active tiles of the fluid (null unless config.active_tiles)
+    public FluidSolver dense_check;  // Runs the dense step next to the sparse one (null unless config.active_tiles_check)
+    public int diffusion_iter;  // Iterations given to each solver (sweeps, conjugate gradient steps or multigrid cycles)
+    public int pressure_iter;
+
+    // How the linear solves of the latest step went (and the average number of iterations they needed)
+    public SolveStats diffuse_u_stats = new SolveStats("diffuse_u");
+    public SolveStats diffuse_v_stats = new SolveStats("diffuse_v");
+    public SolveStats project_stats = new SolveStats("project");
+    public SolveStats project_advected_stats = new SolveStats("project_advected");
+    public SolveStats diffuse_dye_stats = new SolveStats("diffuse_dye");
+
+    // Bookkeeping
+    public long step_count = 0;  // Number of steps taken since the fluid was created
+    public double simulated_time = 0.0;  // step_count * time_step
+    public double active_tiles_error = 0.0;  // Largest difference between the sparse and the dense step in the latest step
+    public double max_active_tiles_error = 0.0;  // and over every step
+
+    // Per stage timings and health signals (see SimulationMetrics, does nothing unless config.metrics is set)
+    public SimulationMetrics metrics;
+
+    public FluidSolver(SimulationConfig config){
+        config.validate();
+        this.config = config;
+        this.fluid = new Fluid2D(config.fluid_size, config.density, config.viscosity, config.diffusion_rate, config.gauss_seidel_iter,
+                config.singlePrecision(), config.interleaved,
+                config.storage, config.storage_dir);
+        this.splats = new SplatBatch(config.fluid_size);
+        if (config.threads > 1 || config.deterministic || config.simd){
+            this.parallel = new ParallelOperations2D(config.threads, config.deterministic, config.simd);
+        }
+        if (config.singlePrecision()){
+            this.float_operations = new FloatOperations2D(config.fluid_size, this.parallel);
+        } else if (config.fused){
+            this.fused = new FusedOperations2D(config.fluid_size, config.sweep_block);
+        } else if (!this.fluid.off_heap){  // Off heap fluids are advanced by FieldOperations2D
+            this.diffusion_solver = LinearSolver.create(config.diffusion_solver, config.fluid_size, this.parallel);
+            this.pressure_solver = LinearSolver.create(config.pressure_solver, config.fluid_size, this.parallel);
+        }
+        if (config.active_tiles){
+            this.sparse = new SparseOperations2D(config.fluid_size, config.tile_size, config.active_threshold);
+        }
+        if (config.active_tiles_check){
+            SimulationConfig dense = config.copy();
+            dense.active_tiles = false;
+            dense.active_tiles_check = false;
+            dense.metrics = false;
+            dense.metrics_file = "";
+            this.dense_check = new FluidSolver(dense);
+        }
+        this.diffusion_iter = config.solverIterations(config.diffusion_solver);
+        this.pressure_iter = config.solverIterations(config.pressure_solver);
+        this.metrics = new SimulationMetrics(config);
+    }
+
+    public void step(){
+        /*
+        Advance the fluid forward in time by a single time step
+        */
+        SimulationMetrics metrics = this.metrics;
+        long step_start = metrics.begin();
+        if (!this.splats.isEmpty()){
+            this.splats.apply(this.fluid);
+        }
+        if (this.dense_check != null){
+            // Start the dense step from exactly the same state so the difference is the error of a single step
+            this.dense_check.fluid.copy_from(this.fluid);
+            this.dense_check.step();
+        }
+        if (this.fluid.off_heap){
+            stepOffHeap();
+        } else if (this.float_operations != null){
+            stepSinglePrecision();
+        } else if (this.fused != null){
+            stepFused();
+        } else {
+            stepDefault();
+        }
+        this.step_count++;
+        this.simulated_time += this.config.time_step;
+        if (this.dense_check != null){
+            Fluid2D dense = this.dense_check.fluid;
+            this.active_tiles_error = Math.max(maxDifference(this.fluid.u, dense.u), Math.max(maxDifference(this.fluid.v, dense.v),
+                    maxDifference(this.fluid.dye, dense.dye)));
+            this.max_active_tiles_error = Math.max(this.max_active_tiles_error, this.active_tiles_error);
+        }
+        metrics.endStep(this, step_start);
+    }
+
+    private static double maxDifference(double[] a, double[] b){
+        double largest = 0.0;
+        for (int index = 0; index < a.length; index++){
+            largest = Math.max(largest, Math.abs(a[index] - b[index]));
+        }
+        return largest;
+    }
+
+    private void stepDefault(){
+        /*
+        The original simulation step with the operations of FluidOperations2D (or ParallelOperations2D)
+        */
+        double time_step = this.config.time_step;
+        Fluid2D fluid = this.fluid;
+        SimulationMetrics metrics = this.metrics;
+        long start;
+
+        if (this.sparse != null){
+            this.sparse.update(fluid, time_step);
+        }
+
+        // Every operation writes into a back buffer which is then swapped in so nothing is allocated
+        // First we deal with the velocities
+        start = metrics.begin();
+        diffuse(fluid.u_prev, fluid.u, 1, time_step, fluid.viscosity, this.diffuse_u_stats);
+        fluid.swap_u();
+        metrics.end(SimulationMetrics.DIFFUSE_U, start);
+        start = metrics.begin();
+        diffuse(fluid.v_prev, fluid.v, 2, time_step, fluid.viscosity, this.diffuse_v_stats);
+        fluid.swap_v();
+        metrics.end(SimulationMetrics.DIFFUSE_V, start);
+
+        start = metrics.begin();
+        project(fluid.pressure, time_step, this.project_stats);
+        metrics.end(SimulationMetrics.PROJECT, start);
+
+        // Note that v is advected with the already advected u (this matches the original simulation loop)
+        start = metrics.begin();
+        advect(fluid.u_prev, fluid.u, 1, time_step);
+        fluid.swap_u();
+        metrics.end(SimulationMetrics.ADVECT_U, start);
+        start = metrics.begin();
+        advect(fluid.v_prev, fluid.v, 2, time_step);
+        fluid.swap_v();
+        metrics.end(SimulationMetrics.ADVECT_V, start);
+
+        start = metrics.begin();
+        project(fluid.pressure_advected, time_step, this.project_advected_stats);
+        metrics.end(SimulationMetrics.PROJECT_ADVECTED, start);
+
+        // Now deal with the dye
+        start = metrics.begin();
+        diffuse(fluid.dye_prev, fluid.dye, 3, time_step, fluid.diffusion_rate, this.diffuse_dye_stats);
+        fluid.swap_dye();
+        metrics.end(SimulationMetrics.DIFFUSE_DYE, start);
+        start = metrics.begin();
+        advect(fluid.dye_prev, fluid.dye, 3, time_step);
+        fluid.swap_dye();
+        metrics.end(SimulationMetrics.ADVECT_DYE, start);
+    }
+
+    private void stepSinglePrecision(){
+        /*
+        Same as step for a fluid stored in float arrays
+        */
+        SimulationConfig config = this.config;
+        double time_step = config.time_step;
+        Fluid2D fluid = this.fluid;
+        FloatOperations2D operations = this.float_operations;
+        int size = fluid.fluid_size;
+        boolean jacobi_diffusion = config.diffusion_solver.equals("jacobi");
+        boolean jacobi_pressure = config.pressure_solver.equals("jacobi");
+        SimulationMetrics metrics = this.metrics;
+        long start;
+
+        start = metrics.begin();
+        operations.diffusion(fluid.u_prev_float, fluid.u_float, 1, time_step, size, fluid.viscosity,
+                jacobi_diffusion, this.diffusion_iter, config.solver_tolerance, config.warm_start, this.diffuse_u_stats);
+        fluid.swap_u();
+        metrics.end(SimulationMetrics.DIFFUSE_U, start);
+        start = metrics.begin();
+        operations.diffusion(fluid.v_prev_float, fluid.v_float, 2, time_step, size, fluid.viscosity,
+                jacobi_diffusion, this.diffusion_iter, config.solver_tolerance, config.warm_start, this.diffuse_v_stats);
+        fluid.swap_v();
+        metrics.end(SimulationMetrics.DIFFUSE_V, start);
+
+        start = metrics.begin();
+        operations.pressureProjection(fluid.u_float, fluid.v_float, fluid.divergence_float, fluid.pressure_float, size, time_step, fluid.density,
+                jacobi_pressure, this.pressure_iter, config.solver_tolerance, config.warm_start, this.project_stats);
+        metrics.end(SimulationMetrics.PROJECT, start);
+
+        start = metrics.begin();
+        operations.advection(fluid.u_prev_float, fluid.u_float, 1, time_step, size, fluid.u_float, fluid.v_float);
+        fluid.swap_u();
+        metrics.end(SimulationMetrics.ADVECT_U, start);
+        start = metrics.begin();
+        operations.advection(fluid.v_prev_float, fluid.v_float, 2, time_step, size, fluid.u_float, fluid.v_float);
+        fluid.swap_v();
+        metrics.end(SimulationMetrics.ADVECT_V, start);
+
+        start = metrics.begin();
+        operations.pressureProjection(fluid.u_float, fluid.v_float, fluid.divergence_float, fluid.pressure_advected_float, size, time_step, fluid.density,
+                jacobi_pressure, this.pressure_iter, config.solver_tolerance, config.warm_start, this.project_advected_stats);
+        metrics.end(SimulationMetrics.PROJECT_ADVECTED, start);
+
+        start = metrics.begin();
+        operations.diffusion(fluid.dye_prev_float, fluid.dye_float, 3, time_step, size, fluid.diffusion_rate,
+                jacobi_diffusion, this.diffusion_iter, config.solver_tolerance, config.warm_start, this.diffuse_dye_stats);
+        fluid.swap_dye();
+        metrics.end(SimulationMetrics.DIFFUSE_DYE, start);
+        start = metrics.begin();
+        operations.advection(fluid.dye_prev_float, fluid.dye_float, 3, time_step, size, fluid.u_float, fluid.v_float);
+        fluid.swap_dye();
+        metrics.end(SimulationMetrics.ADVECT_DYE, start);
+    }
+
+    private void stepOffHeap(){
+        /*
+        Same as step for a fluid stored in off heap fields
+        */
+        SimulationConfig config = this.config;
+        double time_step = config.time_step;
+        Fluid2D fluid = this.fluid;
+        SimulationMetrics metrics = this.metrics;
+        long start;
+
+        start = metrics.begin();
+        FieldOperations2D.diffusion(fluid.u_prev_field, fluid.u_field, 1, time_step, fluid.viscosity,
+                this.diffusion_iter, config.solver_tolerance, config.warm_start, this.diffuse_u_stats);
+        fluid.swap_u();
+        metrics.end(SimulationMetrics.DIFFUSE_U, start);
+        start = metrics.begin();
+        FieldOperations2D.diffusion(fluid.v_prev_field, fluid.v_field, 2, time_step, fluid.viscosity,
+                this.diffusion_iter, config.solver_tolerance, config.warm_start, this.diffuse_v_stats);
+        fluid.swap_v();
+        metrics.end(SimulationMetrics.DIFFUSE_V, start);
+
+        start = metrics.begin();
+        FieldOperations2D.pressureProjection(fluid.u_field, fluid.v_field, fluid.divergence_field, fluid.pressure_field, time_step, fluid.density,
+                this.pressure_iter, config.solver_tolerance, config.warm_start, this.project_stats);
+        metrics.end(SimulationMetrics.PROJECT, start);
+
+        start = metrics.begin();
+        FieldOperations2D.advection(fluid.u_prev_field, fluid.u_field, 1, time_step, fluid.u_field, fluid.v_field);
+        fluid.swap_u();
+        metrics.end(SimulationMetrics.ADVECT_U, start);
+        start = metrics.begin();
+        FieldOperations2D.advection(fluid.v_prev_field, fluid.v_field, 2, time_step, fluid.u_field, fluid.v_field);
+        fluid.swap_v();
+        metrics.end(SimulationMetrics.ADVECT_V, start);
+
+        start = metrics.begin();
+        FieldOperations2D.pressureProjection(fluid.u_field, fluid.v_field, fluid.divergence_field, fluid.pressure_advected_field, time_step, fluid.density,
+                this.pressure_iter, config.solver_tolerance, config.warm_start, this.project_advected_stats);
+        metrics.end(SimulationMetrics.PROJECT_ADVECTED, start);
+
+        start = metrics.begin();
+        FieldOperations2D.diffusion(fluid.dye_prev_field, fluid.dye_field, 3, time_step, fluid.diffusion_rate,
+                this.diffusion_iter, config.solver_tolerance, config.warm_start, this.diffuse_dye_stats);
+        fluid.swap_dye();
+        metrics.end(SimulationMetrics.DIFFUSE_DYE, start);
+        start = metrics.begin();
+        FieldOperations2D.advection(fluid.dye_prev_field, fluid.dye_field, 3, time_step, fluid.u_field, fluid.v_field);
+        fluid.swap_dye();
+        metrics.end(SimulationMetrics.ADVECT_DYE, start);
+    }
+
+    private void stepFused(){
+        /*
+        Same as step but with the fused passes of FusedOperations2D. The dye is diffused together with the
+        velocities and u, v and the dye are all advected with the velocity from before the advection.
+        */
+        SimulationConfig config = this.config;
+        double time_step = config.time_step;
+        Fluid2D fluid = this.fluid;
+        FusedOperations2D fused = this.fused;
+        SimulationMetrics metrics = this.metrics;
+        long start;
+
+        start = metrics.begin();
+        fused.diffusion(fluid, time_step, this.diffusion_iter, config.solver_tolerance, config.warm_start,
+                this.diffuse_u_stats, this.diffuse_v_stats, this.diffuse_dye_stats);
+        fluid.swap_uv();
+        fluid.swap_dye();
+        metrics.end(SimulationMetrics.DIFFUSE, start);
+
+        start = metrics.begin();
+        fused.pressureProjection(fluid, fluid.pressure, time_step, this.pressure_iter, config.solver_tolerance, config.warm_start, this.project_stats);
+        metrics.end(SimulationMetrics.PROJECT, start);
+
+        start = metrics.begin();
+        fused.advection(fluid, time_step);
+        fluid.swap_uv();
+        fluid.swap_dye();
+        metrics.end(SimulationMetrics.ADVECT, start);
+
+        start = metrics.begin();
+        fused.pressureProjection(fluid, fluid.pressure_advected, time_step, this.pressure_iter, config.solver_tolerance, config.warm_start,
+                this.project_advected_stats);
+        metrics.end(SimulationMetrics.PROJECT_ADVECTED, start);
+    }
+
+    private void diffuse(double[] array_new, double[] array, int diffuse_type, double time_step, double diffusion_rate, SolveStats stats){
+        SimulationConfig config = this.config;
+        if (this.sparse != null){
+            this.sparse.diffusion(array_new, array, diffuse_type, time_step, this.fluid.fluid_size, diffusion_rate,
+                    this.diffusion_iter, config.solver_tolerance, config.warm_start, stats);
+        } else if (this.parallel != null){
+            this.parallel.diffusion(array_new, array, diffuse_type, time_step, this.fluid.fluid_size, diffusion_rate,
+                    this.diffusion_solver, this.diffusion_iter, config.solver_tolerance, config.warm_start, stats);
+        } else {
+            FluidOperations2D.diffusion(array_new, array, diffuse_type, time_step, this.fluid.fluid_size, diffusion_rate,
+                    this.diffusion_solver, this.diffusion_iter, config.solver_tolerance, config.warm_start, stats);
+        }
+    }
+
+    private void project(double[] pressure, double time_step, SolveStats stats){
+        Fluid2D fluid = this.fluid;
+        SimulationConfig config = this.config;
+        if (this.sparse != null){
+            this.sparse.pressureProjection(fluid.u, fluid.v, fluid.divergence, pressure, fluid.fluid_size, time_step, fluid.density,
+                    this.pressure_solver, this.pressure_iter, config.solver_tolerance, config.warm_start, stats);
+        } else if (this.parallel != null){
+            this.parallel.pressureProjection(fluid.u, fluid.v, fluid.divergence, pressure, fluid.fluid_size, time_step, fluid.density,
+                    this.pressure_solver, this.pressure_iter, config.solver_tolerance, config.warm_start, stats);
+        } else {
+            FluidOperations2D.pressureProjection(fluid.u, fluid.v, fluid.divergence, pressure, fluid.fluid_size, time_step, fluid.density,
+                    this.pressure_solver, this.pressure_iter, config.solver_tolerance, config.warm_start, stats);
+        }
+    }
+
+    private void advect(double[] array_new, double[] array, int advect_type, double time_step){
+        if (this.sparse != null){
+            this.sparse.advection(array_new, array, advect_type, time_step, this.fluid.fluid_size, this.fluid.u, this.fluid.v);
+        } else if (this.parallel != null){
+            this.parallel.advection(array_new, array, advect_type, time_step, this.fluid.fluid_size, this.fluid.u, this.fluid.v);
+        } else {
+            FluidOperations2D.advection(array_new, array, advect_type, time_step, this.fluid.fluid_size, this.fluid.u, this.fluid.v);
+        }
+    }
+
+    public void step(int n){
+        /*
+        Advance the fluid forward by n time steps
+        */
+        for (int i = 0; i < n; i++){
+            step();
+        }
+    }
+
+    public long runFor(Duration duration){
+        /*
+        Keep stepping the fluid until the given amount of wall clock time has passed.
+        Returns the number of steps that were taken.
+        */
+        long deadline = System.nanoTime() + duration.toNanos();
+        long steps = 0;
+        do {
+            step();
+            steps++;
+        } while (System.nanoTime() < deadline);
+
+        return steps;
+    }
+
+    public SolveStats[] solveStats(){
+        /*
+        The statistics of every linear solve in a step in the order they happen
+        */
+        return new SolveStats[]{this.diffuse_u_stats, this.diffuse_v_stats, this.project_stats, this.project_advected_stats, this.diffuse_dye_stats};
+    }
+
+    public void reset(){
+        /*
+        Remove all the velocity and dye from the simulation
+        */
+        reset(this.config);
+    }
+
+    public void reset(SimulationConfig config){
+        /*
+        Start over with an empty fluid using config, reusing the buffers, solvers and threads of this solver. Only
+        the parameters that do not change what the solver allocates (density, viscosity, time_step, iterations, ...)
+        may differ from the current configuration, see SimulationConfig.sameLayout. Afterwards the solver behaves
+        exactly like a new FluidSolver(config).
+        */
+        config.validate();
+        if (!config.sameLayout(this.config)){
+            throw new IllegalArgumentException("Can only reset a solver to a configuration with the same layout");
+        }
+        if (config != this.config){
+            this.metrics.close();
+            this.metrics = new SimulationMetrics(config);
+        } else if (this.metrics.enabled){
+            this.metrics.memory.reset();
+        }
+        this.config = config;
+        this.fluid.clear();
+        this.splats.clear();
+        this.fluid.density = config.density;
+        this.fluid.viscosity = config.viscosity;
+        this.fluid.diffusion_rate = config.diffusion_rate;
+        this.fluid.gauss_seidel_iter = config.gauss_seidel_iter;
+        this.diffusion_iter = config.solverIterations(config.diffusion_solver);
+        this.pressure_iter = config.solverIterations(config.pressure_solver);
+        if (this.sparse != null){
+            this.sparse.threshold = config.active_threshold;
+            this.sparse.total_active_tiles = 0;
+            this.sparse.updates = 0;
+        }
+        if (this.dense_check != null){
+            SimulationConfig dense = config.copy();
+            dense.active_tiles = false;
+            dense.active_tiles_check = false;
+            dense.metrics = false;
+            dense.metrics_file = "";
+            this.dense_check.reset(dense);
+        }
+        this.step_count = 0;
+        this.simulated_time = 0.0;
+        this.active_tiles_error = 0.0;
+        this.max_active_tiles_error = 0.0;
+        for (SolveStats stats : solveStats()){
+            stats.reset();
+        }
+    }
+
+    public void close(){
+        /*
+        Release the worker threads (if any) and close the metrics sinks. The solver must not be stepped afterwards.
+        */
+        this.metrics.close();
+        if (this.dense_check != null){
+            this.dense_check.close();
+        }
+        if (this.parallel != null){
+            this.parallel.shutdown();
+        }
+    }
+
+    public static void main(String[] args){
+        System.out.println("Executing FluidSolver.java will do nothing. Please start the simulation via Main.java or Headless.java");
+    }
+}
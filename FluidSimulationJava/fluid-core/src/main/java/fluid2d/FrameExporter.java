@@ -0,0 +1,313 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following renders frames of a simulation to disk (or to a stream) without holding up the solver, for example
+to make a video of a headless run. export only copies the dye of the current step into a pooled frame and hands it
+to a pipeline:
+
+    colour mapping: a worker maps the dye of every cell to the colour Main would draw (see DyePalette), scaled up
+        by scale pixels per cell
+    encoding: a worker encodes the pixels as a PNG or as raw 24 bit RGB (rgb, three bytes per pixel row by row)
+    writing: a single writer thread writes the frames in the order they were exported, either as numbered files
+        (frame_000000.png, ...) into a directory or one after another into a stream, e.g. stdout piped into a
+        video encoder
+
+Both mapping and encoding run on a pool of worker threads, so several frames are mapped and encoded at the same
+time while the writer waits for them in order. The number of frames in the pipeline is bounded by the number of
+pooled frames. When every frame is in use the pipeline is behind and export either waits for the writer to hand a
+frame back (block, so every frame is exported) or drops the frame and counts it in dropped_frames. Either way the
+solver never does any colour mapping, encoding or I/O itself, and with block=false it never waits at all.
+*/
+
+package fluid2d;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+public class FrameExporter implements AutoCloseable {
+    public static final String PNG = "png";
+    public static final String RGB = "rgb";
+
+    public final Path directory;  // null when writing into a stream
+    public final int fluid_size;
+    public final int scale;  // Pixels per cell along each side
+    public final int width;  // Width and height of a frame in pixels
+    public final String format;
+    public final boolean color_mode;
+    public final boolean block;  // Wait for a free frame when the pipeline is behind instead of dropping the frame
+    public final int workers;
+    public final int buffers;
+
+    // Statistics
+    public volatile long exported_frames = 0;  // Written by the writer thread
+    public volatile long bytes_written = 0;
+    public long dropped_frames = 0;  // Only used by the thread calling export
+    public long wait_nanos = 0;  // Time export waited for a free frame
+
+    private static class EncodedBytes extends ByteArrayOutputStream {
+        byte[] bytes(){
+            return this.buf;
+        }
+    }
+
+    private static class Frame {
+        long sequence;
+        long step;
+        double[] dye;
+        int[] pixels;
+        byte[] row;  // One row of pixels as raw RGB
+        EncodedBytes encoded = new EncodedBytes();
+    }
+
+    private static final CompletableFuture<Frame> END = CompletableFuture.completedFuture(null);  // Tells the writer to finish
+
+    private final int[] palette;
+    private final OutputStream stream;  // null when writing files
+    private final ArrayBlockingQueue<Frame> free;  // Frames export can fill
+    private final LinkedBlockingQueue<CompletableFuture<Frame>> pending = new LinkedBlockingQueue<>();  // In export order
+    private final ExecutorService pool;
+    private final Thread writer;
+    private final ThreadLocal<BufferedImage> images;
+    private volatile Throwable failure;
+    private long next_sequence = 0;
+    private boolean closed = false;
+
+    public FrameExporter(Path directory, int fluid_size, String format, boolean color_mode, int scale, int workers, int buffers, boolean block){
+        this(directory, null, fluid_size, format, color_mode, scale, workers, buffers, block);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e){
+            close();
+            throw new UncheckedIOException("Could not create the export directory " + directory, e);
+        }
+    }
+
+    public FrameExporter(OutputStream stream, int fluid_size, String format, boolean color_mode, int scale, int workers, int buffers, boolean block){
+        this(null, stream, fluid_size, format, color_mode, scale, workers, buffers, block);
+    }
+
+    private FrameExporter(Path directory, OutputStream stream, int fluid_size, String format, boolean color_mode, int scale, int workers, int buffers,
+                          boolean block){
+        if (!format.equals(PNG) && !format.equals(RGB)){
+            throw new IllegalArgumentException("format must be png or rgb but was " + format);
+        }
+        if (scale < 1 || workers < 1){
+            throw new IllegalArgumentException("scale and workers must be >= 1");
+        }
+        if ((long) fluid_size * scale * fluid_size * scale * 3 > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Frames of " + fluid_size + " cells scaled by " + scale + " are too large to export");
+        }
+        this.directory = directory;
+        this.stream = stream;
+        this.fluid_size = fluid_size;
+        this.scale = scale;
+        this.width = fluid_size * scale;
+        this.format = format;
+        this.color_mode = color_mode;
+        this.block = block;
+        this.workers = workers;
+        this.buffers = (buffers > 0) ? buffers : defaultBuffers(workers);
+        this.palette = DyePalette.palette(color_mode);
+
+        this.free = new ArrayBlockingQueue<>(this.buffers);
+        for (int i = 0; i < this.buffers; i++){
+            Frame frame = new Frame();
+            frame.dye = new double[fluid_size * fluid_size];
+            frame.pixels = new int[this.width * this.width];
+            frame.row = new byte[3 * this.width];
+            this.free.add(frame);
+        }
+        int width = this.width;
+        this.images = ThreadLocal.withInitial(() -> new BufferedImage(width, width, BufferedImage.TYPE_INT_RGB));
+
+        AtomicInteger threads = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "fluid-export-" + threads.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer = new Thread(this::writeFrames, "fluid-export-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public static int defaultWorkers(){
+        /*
+        Every core but the one stepping the solver
+        */
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    }
+
+    public static int defaultBuffers(int workers){
+        /*
+        Enough frames to keep every worker busy while the writer writes one and the solver fills one
+        */
+        return 2 * workers + 2;
+    }
+
+    public boolean export(FluidSolver solver){
+        /*
+        Export the dye of the current state of the solver. Returns false if the frame was dropped because the
+        pipeline is behind (only when not blocking). Must be called by the thread that steps the solver, in between
+        steps.
+        */
+        checkFailure();
+        Frame frame = this.free.poll();
+        if (frame == null){
+            if (!this.block){
+                this.dropped_frames++;
+                return false;
+            }
+            long start = System.nanoTime();
+            try {
+                while (frame == null){
+                    frame = this.free.poll(100, TimeUnit.MILLISECONDS);
+                    checkFailure();
+                }
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the frame export", e);
+            } finally {
+                this.wait_nanos += System.nanoTime() - start;
+            }
+        }
+        solver.fluid.copy_dye(frame.dye);
+        frame.step = solver.step_count;
+        frame.sequence = this.next_sequence++;
+        Frame exported = frame;
+        this.pending.add(CompletableFuture.supplyAsync(() -> map(exported), this.pool).thenApplyAsync(this::encode, this.pool));
+        return true;
+    }
+
+    private void checkFailure(){
+        if (this.failure != null){
+            throw new IllegalStateException("The frame export has failed", this.failure);
+        }
+    }
+
+    private Frame map(Frame frame){
+        /*
+        Colour every cell, repeated scale x scale times
+        */
+        int fluid_size = this.fluid_size;
+        int scale = this.scale;
+        int width = this.width;
+        int[] palette = this.palette;
+        double[] dye = frame.dye;
+        int[] pixels = frame.pixels;
+        for (int row = 0; row < fluid_size; row++){
+            int offset = row * scale * width;
+            for (int col = 0; col < fluid_size; col++){
+                int colour = palette[DyePalette.index(dye[row * fluid_size + col])];
+                for (int repeat = 0; repeat < scale; repeat++){
+                    pixels[offset + col * scale + repeat] = colour;
+                }
+            }
+            for (int repeat = 1; repeat < scale; repeat++){
+                System.arraycopy(pixels, offset, pixels, offset + repeat * width, width);
+            }
+        }
+        return frame;
+    }
+
+    private Frame encode(Frame frame){
+        EncodedBytes encoded = frame.encoded;
+        encoded.reset();
+        int[] pixels = frame.pixels;
+        if (this.format.equals(RGB)){
+            byte[] row = frame.row;
+            for (int offset = 0; offset < pixels.length; offset += this.width){
+                for (int col = 0; col < this.width; col++){
+                    int colour = pixels[offset + col];
+                    row[3 * col] = (byte) (colour >> 16);
+                    row[3 * col + 1] = (byte) (colour >> 8);
+                    row[3 * col + 2] = (byte) colour;
+                }
+                encoded.write(row, 0, row.length);
+            }
+            return frame;
+        }
+        BufferedImage image = this.images.get();
+        image.getRaster().setDataElements(0, 0, this.width, this.width, pixels);
+        try {
+            if (!ImageIO.write(image, PNG, encoded)){
+                throw new IllegalStateException("No PNG encoder available");
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not encode frame " + frame.sequence, e);
+        }
+        return frame;
+    }
+
+    private void writeFrames(){
+        try {
+            while (true){
+                CompletableFuture<Frame> next = this.pending.take();
+                if (next == END){
+                    break;
+                }
+                Frame frame;
+                try {
+                    frame = next.join();
+                } catch (CompletionException e){
+                    throw e.getCause();
+                }
+                EncodedBytes encoded = frame.encoded;
+                if (this.stream != null){
+                    this.stream.write(encoded.bytes(), 0, encoded.size());
+                } else {
+                    Path file = this.directory.resolve(String.format("frame_%06d.%s", frame.sequence, this.format));
+                    try (OutputStream output = Files.newOutputStream(file)){
+                        output.write(encoded.bytes(), 0, encoded.size());
+                    }
+                }
+                this.bytes_written += encoded.size();
+                this.exported_frames++;
+                this.free.add(frame);
+            }
+            if (this.stream != null){
+                this.stream.flush();
+            }
+        } catch (Throwable e){
+            this.failure = e;
+        }
+    }
+
+    public void close(){
+        /*
+        Export the frames still in the pipeline and stop the threads (a stream is flushed but not closed)
+        */
+        if (this.closed){
+            return;
+        }
+        this.closed = true;
+        try {
+            this.pending.put(END);
+            this.writer.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } finally {
+            this.pool.shutdownNow();
+        }
+        checkFailure();
+    }
+}
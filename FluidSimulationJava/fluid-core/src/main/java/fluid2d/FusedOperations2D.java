@@ -0,0 +1,530 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following advances a fluid with as few passes over the grid as possible. The original step streams every
+array through memory once per operation (and once per Gauss-Seidel sweep), which is what limits the speed once
+the grid no longer fits in the cache. Here
+    - u, v and the dye are diffused together, so each pass over the grid works on all three systems
+    - the Gauss-Seidel sweeps are blocked in time: sweep_block sweeps are done in a single pass by moving a
+      wavefront down the rows (sweep s works on row r while sweep s + 1 works on row r - 1 and so on), so only
+      sweep_block + 2 rows of every array need to stay in the cache. The rows of the wavefront are updated
+      column by column, which also gives the processor several independent divisions to overlap (a single
+      row is one long chain of divisions that each wait for the previous one)
+    - the divergence of a row is computed right before the first sweep uses it
+    - u, v and the dye are advected in a single sweep that traces every cell back once
+
+The blocked sweeps read and write every cell in exactly the same order as the row by row sweeps of
+GaussSeidelSolver, so the linear solves give bit identical results. The step itself is ordered differently
+from FluidSolver.step though: the dye is diffused together with the velocities and everything is advected
+with the velocity from before the advection (the original step advects v with the already advected u and
+the dye with the velocity of the second projection).
+
+u and v are either stored in their own arrays or interleaved in a single array (u0, v0, u1, v1, ...) which
+keeps the two values every cell needs in the same cache line (see Fluid2D.interleaved). Every kernel in here
+therefore addresses an array as offset + stride * index.
+
+With a solver tolerance the residual is only checked at the end of every pass, so a solve may do up to
+sweep_block - 1 more sweeps than GaussSeidelSolver would.
+*/
+
+package fluid2d;
+
+public class FusedOperations2D {
+    public static final int ZERO = 0;  // Start a solve from zero
+    public static final int COPY = 1;  // Start a solve from the right hand side (a warm started diffusion)
+    public static final int KEEP = 2;  // Start a solve from whatever x holds (a warm started projection)
+
+    int fluid_size;
+    int sweep_block;  // Gauss-Seidel sweeps done in a single pass over the grid
+    LinearSystem[] systems = {new LinearSystem(), new LinearSystem(), new LinearSystem()};
+
+    public FusedOperations2D(int fluid_size, int sweep_block){
+        if (sweep_block < 1){
+            throw new IllegalArgumentException("sweep_block must be >= 1 but was " + sweep_block);
+        }
+        this.fluid_size = fluid_size;
+        this.sweep_block = sweep_block;
+    }
+
+    static final class LinearSystem {
+        /*
+        One system (alpha + 4 * beta) * x - beta * (sum of neighbours) = rhs together with the progress of its solve
+        */
+        double[] x;
+        double[] rhs;
+        int x_offset;
+        int rhs_offset;
+        int stride;
+        int boundary_type;
+        double beta;
+        double diagonal;
+        int start;  // ZERO, COPY or KEEP
+        SolveStats stats;
+
+        boolean measure;  // Whether the residual is needed (for the tolerance or the stats)
+        boolean active;  // Still being solved
+        boolean converged;
+        int iterations;
+        double rhs_norm;
+        double change;  // Largest change of a cell during the last sweep of the latest pass
+
+        void set(double[] x, int x_offset, double[] rhs, int rhs_offset, int stride, int boundary_type, double alpha, double beta,
+                 int start, SolveStats stats){
+            this.x = x;
+            this.x_offset = x_offset;
+            this.rhs = rhs;
+            this.rhs_offset = rhs_offset;
+            this.stride = stride;
+            this.boundary_type = boundary_type;
+            this.beta = beta;
+            this.diagonal = alpha + 4.0 * beta;
+            this.start = start;
+            this.stats = stats;
+        }
+    }
+
+
+    public void diffusion(Fluid2D fluid, double time_step, int solver_iter, double tolerance, boolean warm_start,
+                          SolveStats u_stats, SolveStats v_stats, SolveStats dye_stats){
+        /*
+        Diffuse u, v (with the viscosity) and the dye (with the diffusion rate) into their back buffers.
+        Same as three calls to FluidOperations2D.diffusion with the Gauss-Seidel solver.
+        */
+        int size = this.fluid_size;
+        double velocity_factor = fluid.viscosity * time_step * ((size - 2) * (size - 2));
+        double dye_factor = fluid.diffusion_rate * time_step * ((size - 2) * (size - 2));
+        int start = warm_start ? COPY : ZERO;
+
+        if (fluid.interleaved){
+            this.systems[0].set(fluid.uv_prev, 0, fluid.uv, 0, 2, 1, 1.0, velocity_factor, start, u_stats);
+            this.systems[1].set(fluid.uv_prev, 1, fluid.uv, 1, 2, 2, 1.0, velocity_factor, start, v_stats);
+        } else {
+            this.systems[0].set(fluid.u_prev, 0, fluid.u, 0, 1, 1, 1.0, velocity_factor, start, u_stats);
+            this.systems[1].set(fluid.v_prev, 0, fluid.v, 0, 1, 2, 1.0, velocity_factor, start, v_stats);
+        }
+        this.systems[2].set(fluid.dye_prev, 0, fluid.dye, 0, 1, 3, 1.0, dye_factor, start, dye_stats);
+
+        solve(3, solver_iter, tolerance, null, 0.0);
+    }
+
+
+    public void pressureProjection(Fluid2D fluid, double[] pressure, double time_step, int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        Same as FluidOperations2D.pressureProjection with the Gauss-Seidel solver, except that the divergence
+        is computed during the first pass of the solve instead of in a pass of its own
+        */
+        int size = this.fluid_size;
+        double particle_spacing = 1.0 / size;
+        double divergence_scale = -0.5 * particle_spacing * fluid.density / time_step;
+        double gradient_scale = (time_step / fluid.density) * (0.5 / particle_spacing);
+
+        this.systems[0].set(pressure, 0, fluid.divergence, 0, 1, 0, 0.0, 1.0, warm_start ? KEEP : ZERO, stats);
+        solve(1, solver_iter, tolerance, fluid, divergence_scale);
+
+        if (fluid.interleaved){
+            pressureGradient(fluid.uv, 0, fluid.uv, 1, 2, pressure, gradient_scale, size);
+            set_boundary_values(1, fluid.uv, 0, 2, size);
+            set_boundary_values(2, fluid.uv, 1, 2, size);
+        } else {
+            pressureGradient(fluid.u, 0, fluid.v, 0, 1, pressure, gradient_scale, size);
+            set_boundary_values(1, fluid.u, 0, 1, size);
+            set_boundary_values(2, fluid.v, 0, 1, size);
+        }
+    }
+
+
+    public void advection(Fluid2D fluid, double time_step){
+        /*
+        Advect u, v and the dye into their back buffers. Every cell is traced back once with the current
+        velocity and the three quantities are interpolated at the same position.
+        */
+        int size = this.fluid_size;
+        double scaled_time_step = time_step * (size - 2);
+        if (fluid.interleaved){
+            advectRows(fluid.uv_prev, 0, fluid.uv_prev, 1, fluid.uv, 0, fluid.uv, 1, 2, fluid.dye_prev, fluid.dye, scaled_time_step, size);
+            set_boundary_values(1, fluid.uv_prev, 0, 2, size);
+            set_boundary_values(2, fluid.uv_prev, 1, 2, size);
+        } else {
+            advectRows(fluid.u_prev, 0, fluid.v_prev, 0, fluid.u, 0, fluid.v, 0, 1, fluid.dye_prev, fluid.dye, scaled_time_step, size);
+            set_boundary_values(1, fluid.u_prev, 0, 1, size);
+            set_boundary_values(2, fluid.v_prev, 0, 1, size);
+        }
+        set_boundary_values(3, fluid.dye_prev, 0, 1, size);
+    }
+
+
+    private static void advectRows(double[] u_new, int u_new_offset, double[] v_new, int v_new_offset, double[] u, int u_offset, double[] v, int v_offset, int stride,
+                                   double[] dye_new, double[] dye, double scaled_time_step, int fluid_size){
+        /*
+        The interpolation of FluidOperations2D.advectColumns applied to u, v and the dye at once
+        */
+        double upper_limit = (fluid_size - 2) + 0.5;
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                int velocity = stride * index;
+
+                double other_row = row - (scaled_time_step * v[v_offset + velocity]);
+                double other_col = col - (scaled_time_step * u[u_offset + velocity]);
+                if (other_row < 0.5){
+                    other_row = 0.5;
+                } else if (other_row > upper_limit){
+                    other_row = upper_limit;
+                }
+                if (other_col < 0.5){
+                    other_col = 0.5;
+                } else if (other_col > upper_limit){
+                    other_col = upper_limit;
+                }
+
+                int neighbour_row_1 = (int) Math.floor(other_row);
+                int neighbour_col_1 = (int) Math.floor(other_col);
+                double weight_row_1 = other_row - neighbour_row_1;
+                double weight_row_2 = 1 - weight_row_1;
+                double weight_col_1 = other_col - neighbour_col_1;
+                double weight_col_2 = 1 - weight_col_1;
+
+                // The 4 corners are the top left corner and its neighbours to the right and below
+                int corner = FluidOperations2D.idx(neighbour_row_1, neighbour_col_1, fluid_size);
+                int below = fluid_size;
+
+                dye_new[index] = interpolate(dye, corner, 1, below, weight_row_1, weight_row_2, weight_col_1, weight_col_2);
+                u_new[u_new_offset + velocity] = interpolate(u, u_offset + stride * corner, stride, stride * below, weight_row_1, weight_row_2, weight_col_1, weight_col_2);
+                v_new[v_new_offset + velocity] = interpolate(v, v_offset + stride * corner, stride, stride * below, weight_row_1, weight_row_2, weight_col_1, weight_col_2);
+            }
+        }
+    }
+
+
+    private static double interpolate(double[] array, int corner, int right, int below, double weight_row_1, double weight_row_2, double weight_col_1, double weight_col_2){
+        // Same operations in the same order as FluidOperations2D.advectColumns
+        double value = weight_col_2 * (weight_row_2 * (array[corner]) + weight_row_1 * (array[corner + below]));
+        value += weight_col_1 * (weight_row_2 * (array[corner + right]) + weight_row_1 * (array[corner + below + right]));
+        return value;
+    }
+
+
+    private void solve(int count, int max_iterations, double tolerance, Fluid2D divergence_of, double divergence_scale){
+        /*
+        Solve the first count systems with Gauss-Seidel using passes of up to sweep_block sweeps. When divergence_of
+        is given the right hand side of the (single) system is the divergence of its velocity, computed during
+        the first pass.
+        */
+        for (int number = 0; number < count; number++){
+            LinearSystem system = this.systems[number];
+            system.measure = tolerance > 0.0 || system.stats != null;
+            system.active = true;
+            system.converged = false;
+            system.iterations = 0;
+            system.rhs_norm = 0.0;
+        }
+
+        int iterations = 0;
+        boolean first = true;
+        while (iterations < max_iterations){
+            int sweeps = Math.min(this.sweep_block, max_iterations - iterations);
+            wavefront(count, sweeps, first, divergence_of, divergence_scale);
+            iterations += sweeps;
+
+            boolean active = false;
+            for (int number = 0; number < count; number++){
+                LinearSystem system = this.systems[number];
+                if (!system.active){
+                    continue;
+                }
+                system.iterations = iterations;
+                if (first && system.measure && system.rhs_norm == 0.0){
+                    // x = 0 solves the system exactly
+                    fill(system.x, system.x_offset, system.stride, this.fluid_size);
+                    system.change = 0.0;
+                    system.converged = true;
+                    system.active = false;
+                } else if (tolerance > 0.0 && system.diagonal * system.change <= tolerance * system.rhs_norm){
+                    system.converged = true;
+                    system.active = false;
+                }
+                active |= system.active;
+            }
+            if (first && divergence_of != null){
+                FluidOperations2D.set_boundary_values(0, divergence_of.divergence, this.fluid_size);
+            }
+            first = false;
+            if (!active){
+                break;
+            }
+        }
+
+        for (int number = 0; number < count; number++){
+            LinearSystem system = this.systems[number];
+            set_boundary_values(system.boundary_type, system.x, system.x_offset, system.stride, this.fluid_size);
+            if (system.stats != null){
+                // The change of a cell times the diagonal is its residual just before it was updated
+                double residual = (system.rhs_norm == 0.0) ? 0.0 : system.diagonal * system.change / system.rhs_norm;
+                system.stats.record(system.iterations, residual, system.converged);
+            }
+        }
+    }
+
+
+    private void wavefront(int count, int sweeps, boolean first, Fluid2D divergence_of, double divergence_scale){
+        /*
+        One pass over the grid doing the given number of sweeps of every active system. At step t the first sweep
+        works on row t, the second sweep on row t - 1 and so on. Sweep s on a row reads the row above as left by
+        sweep s and the row below as left by sweep s - 1, just like consecutive row by row sweeps.
+        */
+        int size = this.fluid_size;
+        LinearSystem[] systems = this.systems;
+        for (int number = 0; number < count; number++){
+            systems[number].change = 0.0;
+        }
+        if (first){
+            for (int number = 0; number < count; number++){
+                startRow(systems[number], 1, size);
+            }
+        }
+
+        for (int step = 1; step < size - 2 + sweeps; step++){
+            if (first && step < size - 1){
+                // The first sweep of this row needs the initial guess of the row below and the right hand side of this row
+                if (divergence_of != null){
+                    divergenceRow(divergence_of, divergence_of.divergence, divergence_scale, step, size);
+                }
+                for (int number = 0; number < count; number++){
+                    LinearSystem system = systems[number];
+                    if (step + 1 < size - 1){
+                        startRow(system, step + 1, size);
+                    }
+                    if (system.measure){
+                        system.rhs_norm = Math.max(system.rhs_norm, maxAbsRow(system.rhs, system.rhs_offset, system.stride, step, size));
+                    }
+                }
+            }
+
+            // Sweep s works on row step - s, limited to the interior rows
+            int top_row = Math.max(1, step - sweeps + 1);
+            int bottom_row = Math.min(size - 2, step);
+            int last_sweep_row = (step - sweeps + 1 >= 1) ? top_row : -1;  // Row of the last sweep (if it has one in this step)
+            for (int number = 0; number < count; number++){
+                LinearSystem system = systems[number];
+                if (!system.active){
+                    continue;
+                }
+                double change = sweepDiagonal(system.x, system.x_offset, system.rhs, system.rhs_offset, system.stride, system.beta, system.diagonal,
+                        top_row, bottom_row, last_sweep_row, size);
+                system.change = Math.max(system.change, change);
+                for (int row = top_row; row <= bottom_row; row++){
+                    rowBoundary(system.boundary_type, system.x, system.x_offset, system.stride, row, size);
+                }
+            }
+        }
+    }
+
+
+    private static void startRow(LinearSystem system, int row, int fluid_size){
+        /*
+        Put the initial guess into a row (and the border cells that copy it)
+        */
+        int stride = system.stride;
+        if (system.start == ZERO){
+            int start = system.x_offset + stride * FluidOperations2D.idx(row, 0, fluid_size);
+            for (int col = 0; col < fluid_size; col++){
+                system.x[start + stride * col] = 0.0;
+            }
+            if (row == 1 || row == fluid_size - 2){
+                int border = system.x_offset + stride * FluidOperations2D.idx((row == 1) ? 0 : fluid_size - 1, 0, fluid_size);
+                for (int col = 0; col < fluid_size; col++){
+                    system.x[border + stride * col] = 0.0;
+                }
+            }
+        } else if (system.start == COPY){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = stride * FluidOperations2D.idx(row, col, fluid_size);
+                system.x[system.x_offset + index] = system.rhs[system.rhs_offset + index];
+            }
+            rowBoundary(system.boundary_type, system.x, system.x_offset, system.stride, row, fluid_size);
+        }
+    }
+
+
+    static double sweepDiagonal(double[] x, int x_offset, double[] rhs, int rhs_offset, int stride, double beta, double diagonal,
+                                int top_row, int bottom_row, int measured_row, int fluid_size){
+        /*
+        Gauss-Seidel update of the rows in [top_row, bottom_row] where every row belongs to the sweep after the one
+        of the row below it. Each row still sees the new left and top neighbours and the old right and bottom
+        neighbours of its own sweep as long as the rows are done bottom row first, or column by column within
+        a group of rows (bottom row first in every column). The rows are done in pairs like that since the two
+        updates of a column do not wait for each other, so the processor can overlap their divisions (a single
+        row is one long chain of divisions that each wait for the previous one).
+        Returns the largest change of a cell in measured_row.
+        */
+        double change = 0.0;
+        int row = bottom_row;
+        for (; row - 1 >= top_row; row -= 2){
+            change = Math.max(change, sweepRowPair(x, x_offset, rhs, rhs_offset, stride, beta, diagonal, row, measured_row, fluid_size));
+        }
+        if (row == top_row){
+            change = Math.max(change, sweepRow(x, x_offset, rhs, rhs_offset, stride, beta, diagonal, row, measured_row, fluid_size));
+        }
+        return change;
+    }
+
+
+    private static double sweepRow(double[] x, int x_offset, double[] rhs, int rhs_offset, int stride, double beta, double diagonal,
+                                   int row, int measured_row, int fluid_size){
+        /*
+        Update the interior cells of a row. Returns their largest change if row is measured_row and 0 otherwise.
+        */
+        double change = 0.0;
+        int below = stride * fluid_size;
+        int end = stride * FluidOperations2D.idx(row, fluid_size - 1, fluid_size);
+        for (int cell = stride * FluidOperations2D.idx(row, 1, fluid_size); cell < end; cell += stride){
+            int index = x_offset + cell;
+            double value = (rhs[rhs_offset + cell] + beta * (x[index - below] + x[index + below] + x[index - stride] + x[index + stride])) / diagonal;
+            if (row == measured_row){
+                change = Math.max(change, Math.abs(value - x[index]));
+            }
+            x[index] = value;
+        }
+        return change;
+    }
+
+
+    private static double sweepRowPair(double[] x, int x_offset, double[] rhs, int rhs_offset, int stride, double beta, double diagonal,
+                                       int row, int measured_row, int fluid_size){
+        /*
+        Update the interior cells of row and row - 1 column by column. Returns the largest change of the
+        cells of measured_row (0 if it is neither of them).
+        */
+        double change = 0.0;
+        int below = stride * fluid_size;
+        int end = stride * FluidOperations2D.idx(row, fluid_size - 1, fluid_size);
+        for (int cell = stride * FluidOperations2D.idx(row, 1, fluid_size); cell < end; cell += stride){
+            int index = x_offset + cell;
+            double value = (rhs[rhs_offset + cell] + beta * (x[index - below] + x[index + below] + x[index - stride] + x[index + stride])) / diagonal;
+            if (row == measured_row){
+                change = Math.max(change, Math.abs(value - x[index]));
+            }
+            x[index] = value;
+
+            int above = index - below;
+            double value_above = (rhs[rhs_offset + cell - below] + beta * (x[above - below] + x[above + below] + x[above - stride] + x[above + stride])) / diagonal;
+            if (row - 1 == measured_row){
+                change = Math.max(change, Math.abs(value_above - x[above]));
+            }
+            x[above] = value_above;
+        }
+        return change;
+    }
+
+
+    static void rowBoundary(int boundary_type, double[] x, int offset, int stride, int row, int fluid_size){
+        /*
+        Update the border cells that copy the interior cells of a row, the same values set_boundary_values gives them
+        */
+        int start = offset + stride * FluidOperations2D.idx(row, 0, fluid_size);
+        int end = offset + stride * FluidOperations2D.idx(row, fluid_size - 1, fluid_size);
+        if (boundary_type == 1){
+            x[start] = -1.0 * x[start + stride];
+            x[end] = -1.0 * x[end - stride];
+        } else {
+            x[start] = x[start + stride];
+            x[end] = x[end - stride];
+        }
+
+        if (row == 1 || row == fluid_size - 2){
+            int border = offset + stride * FluidOperations2D.idx((row == 1) ? 0 : fluid_size - 1, 0, fluid_size);
+            int interior = offset + stride * FluidOperations2D.idx(row, 0, fluid_size);
+            for (int col = 1; col < fluid_size - 1; col++){
+                if (boundary_type == 2){
+                    x[border + stride * col] = -1.0 * x[interior + stride * col];
+                } else {
+                    x[border + stride * col] = x[interior + stride * col];
+                }
+            }
+        }
+    }
+
+
+    private static void divergenceRow(Fluid2D fluid, double[] divergence, double divergence_scale, int row, int fluid_size){
+        /*
+        FluidOperations2D.divergenceRows for a single row of either velocity layout
+        */
+        double[] u = fluid.interleaved ? fluid.uv : fluid.u;
+        double[] v = fluid.interleaved ? fluid.uv : fluid.v;
+        int v_offset = fluid.interleaved ? 1 : 0;
+        int stride = fluid.interleaved ? 2 : 1;
+        int below = stride * fluid_size;
+
+        for (int col = 1; col < fluid_size - 1; col++){
+            int index = FluidOperations2D.idx(row, col, fluid_size);
+            int velocity = stride * index;
+            divergence[index] = divergence_scale * ((u[velocity + stride] - u[velocity - stride]) +
+                    (v[v_offset + velocity + below] - v[v_offset + velocity - below]));
+        }
+    }
+
+
+    private static void pressureGradient(double[] u, int u_offset, double[] v, int v_offset, int stride, double[] pressure, double gradient_scale, int fluid_size){
+        /*
+        FluidOperations2D.pressureGradientRows over every interior row of either velocity layout
+        */
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                int velocity = stride * index;
+                u[u_offset + velocity] -= gradient_scale * (pressure[index + 1] - pressure[index - 1]);
+                v[v_offset + velocity] -= gradient_scale * (pressure[index + fluid_size] - pressure[index - fluid_size]);
+            }
+        }
+    }
+
+
+    private static double maxAbsRow(double[] array, int offset, int stride, int row, int fluid_size){
+        double largest = 0.0;
+        for (int col = 1; col < fluid_size - 1; col++){
+            largest = Math.max(largest, Math.abs(array[offset + stride * FluidOperations2D.idx(row, col, fluid_size)]));
+        }
+        return largest;
+    }
+
+
+    private static void fill(double[] x, int offset, int stride, int fluid_size){
+        for (int index = 0; index < fluid_size * fluid_size; index++){
+            x[offset + stride * index] = 0.0;
+        }
+    }
+
+
+    public static void set_boundary_values(int boundary_type, double[] array, int offset, int stride, int fluid_size){
+        /*
+        FluidOperations2D.set_boundary_values for an array addressed as offset + stride * index
+        */
+        if (stride == 1 && offset == 0){
+            FluidOperations2D.set_boundary_values(boundary_type, array, fluid_size);
+            return;
+        }
+        for (int row = 1; row < fluid_size - 1; row++){
+            rowBoundary(boundary_type, array, offset, stride, row, fluid_size);
+        }
+
+        int top_left = offset;
+        int top_right = offset + stride * (fluid_size - 1);
+        int bottom_left = offset + stride * FluidOperations2D.idx(fluid_size - 1, 0, fluid_size);
+        int bottom_right = offset + stride * FluidOperations2D.idx(fluid_size - 1, fluid_size - 1, fluid_size);
+        int below = stride * fluid_size;
+        array[top_left] = (array[top_left + below] + array[top_left + stride]) * 0.5;
+        array[bottom_left] = (array[bottom_left - below] + array[bottom_left + stride]) * 0.5;
+        array[top_right] = (array[top_right - stride] + array[top_right + below]) * 0.5;
+        array[bottom_right] = (array[bottom_right - below] + array[bottom_right - stride]) * 0.5;
+    }
+
+
+    public static void main(String[] args){
+        System.out.println("Executing FusedOperations2D.java will do nothing. Please start the simulation via Main.java or Headless.java");
+    }
+}
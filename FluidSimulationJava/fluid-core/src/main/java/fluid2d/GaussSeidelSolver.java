@@ -0,0 +1,86 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is the Gauss-Seidel method the simulation has always used. Every sweep visits the interior cells
+row by row and immediately uses the new values of the cells it already visited. When a ParallelOperations2D is
+given the sweeps use red-black ordering instead so they can be split into row bands (see ParallelOperations2D).
+*/
+
+package fluid2d;
+
+import java.util.Arrays;
+
+public class GaussSeidelSolver implements LinearSolver {
+    ParallelOperations2D parallel;  // null for the original row by row ordering
+
+    public GaussSeidelSolver(ParallelOperations2D parallel){
+        this.parallel = parallel;
+    }
+
+    public void solve(double[] x, double[] rhs, double alpha, double beta, int boundary_type, int fluid_size, int max_iterations, double tolerance, SolveStats stats){
+        double diagonal = alpha + 4.0 * beta;
+
+        // Only look at the residual when someone is interested in it
+        boolean measure = tolerance > 0.0 || stats != null;
+        double rhs_norm = measure ? LinearSolver.maxAbs(rhs, fluid_size) : 0.0;
+        if (measure && rhs_norm == 0.0){
+            // x = 0 solves the system exactly
+            Arrays.fill(x, 0.0);
+            if (stats != null){
+                stats.record(0, 0.0, true);
+            }
+            return;
+        }
+        double threshold = tolerance * rhs_norm;
+        if (tolerance > 0.0){
+            // A warm started solve may not need to do anything
+            double initial = LinearSolver.residualNorm(x, rhs, alpha, beta, fluid_size);
+            if (initial <= threshold){
+                if (stats != null){
+                    stats.record(0, initial / rhs_norm, true);
+                }
+                return;
+            }
+        }
+
+        int iteration = 0;
+        double residual = Double.NaN;
+        boolean converged = false;
+        while (iteration < max_iterations){
+            double change = 0.0;  // Largest change of a cell during this sweep
+            if (this.parallel == null){
+                for (int row = 1; row < fluid_size - 1; row++){
+                    for (int col = 1; col < fluid_size - 1; col++){
+                        int index = FluidOperations2D.idx(row, col, fluid_size);
+                        double value = (rhs[index] + beta * (x[index - fluid_size] + x[index + fluid_size] + x[index - 1] + x[index + 1])) / diagonal;
+                        change = Math.max(change, Math.abs(value - x[index]));
+                        x[index] = value;
+                    }
+                }
+            } else {
+                for (int color = 0; color < 2; color++){
+                    change = Math.max(change, this.parallel.redBlackPass(x, rhs, 1.0, beta, diagonal, color, fluid_size));
+                }
+            }
+
+            FluidOperations2D.set_boundary_values(boundary_type, x, fluid_size);
+            iteration++;
+
+            // The change of a cell times the diagonal is its residual just before it was updated
+            residual = diagonal * change;
+            if (tolerance > 0.0 && residual <= threshold){
+                converged = true;
+                break;
+            }
+        }
+
+        if (stats != null){
+            stats.record(iteration, residual / rhs_norm, converged);
+        }
+    }
+}
@@ -0,0 +1,317 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following runs the simulation without any window so it can be used on machines without a display.
+It steps the fluid for a fixed number of steps (or a fixed amount of wall clock time) and reports
+the throughput in steps per second. Every parameter in SimulationConfig can be given on the command line.
+
+Example:
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size=512 --gauss_seidel_iter=30 --warmup=50 --steps=500
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size 256 --seconds 10
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size=1024 --threads=32 --deterministic=true
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size=1024 --diffusion_solver=gauss_seidel --pressure_solver=multigrid --multigrid_cycles=2
+    java --add-modules jdk.incubator.vector -cp fluid-core/target/classes fluid2d.Headless --fluid_size=1024 --simd=true --precision=float
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size=512 --pressure_solver=iccg --gauss_seidel_iter=100 --solver_tolerance=1e-4 --warm_start=true
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size=2048 --fused=true --interleaved=true --sweep_block=8
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size=512 --metrics=true --metrics_file=metrics.csv
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size=1024 --active_tiles=true --active_tiles_check=true
+    java -XX:MaxDirectMemorySize=24g -cp fluid-core/target/classes fluid2d.Headless --fluid_size=16384 --storage=offheap --warmup=0 --steps=1
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size=512 --steps=1000 --checkpoint_out=run.ckpt --record=run.rec --record_every=2
+    java -cp fluid-core/target/classes fluid2d.Headless --checkpoint_in=run.ckpt --warmup=0 --steps=1000
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size=256 --steps=600 --export=frames --export_color=true --export_scale=2
+    java -cp fluid-core/target/classes fluid2d.Headless --fluid_size=256 --steps=600 --export=- --export_format=rgb \
+        | ffmpeg -f rawvideo -pix_fmt rgb24 -s 256x256 -r 60 -i - fluid.mp4
+
+With --export=- the frames are written to stdout and everything Headless prints goes to stderr instead.
+*/
+
+package fluid2d;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class Headless {
+    public static void main(String[] args){
+        SimulationConfig config = new SimulationConfig();
+        int warmup = 20;
+        int steps = 200;
+        double seconds = -1;  // When positive we run for this many seconds instead of a fixed number of steps
+        int inject_every = 20;  // Shoot some dye and velocity into the fluid every so often so it is not empty
+        String checkpoint_in = "";  // Resume from this checkpoint instead of starting with an empty fluid
+        String checkpoint_out = "";  // Save a checkpoint here at the end of the run
+        String record = "";  // Record the measured steps into this file (see StateRecorder)
+        int record_every = 1;  // Record every this many steps
+        boolean record_velocity = false;  // Also record u and v
+        String export = "";  // Export a frame of every measured step into this directory (or to stdout for -), see FrameExporter
+        String export_format = FrameExporter.PNG;
+        boolean export_color = false;  // Colour mode of Main instead of greyscale
+        int export_scale = 1;  // Pixels per cell along each side
+        int export_every = 1;  // Export every this many steps
+        int export_workers = FrameExporter.defaultWorkers();
+        int export_buffers = 0;  // Frames in the pipeline (0 picks FrameExporter.defaultBuffers)
+        boolean export_drop = false;  // Drop frames when the pipeline is behind instead of waiting for it
+
+        try {
+            for (int i = 0; i < args.length; i++){
+                String arg = args[i];
+                if (arg.equals("-h") || arg.equals("--help")){
+                    printUsage();
+                    return;
+                }
+                if (!arg.startsWith("--")){
+                    throw new IllegalArgumentException("Unexpected argument " + arg);
+                }
+
+                // Support both --name=value and --name value
+                String name;
+                String value;
+                int equals = arg.indexOf('=');
+                if (equals >= 0){
+                    name = arg.substring(2, equals);
+                    value = arg.substring(equals + 1);
+                } else {
+                    if (i + 1 >= args.length){
+                        throw new IllegalArgumentException("Missing value for " + arg);
+                    }
+                    name = arg.substring(2);
+                    value = args[++i];
+                }
+
+                if (config.set(name, value)){
+                    continue;
+                }
+                switch (name){
+                    case "warmup":
+                        warmup = Integer.parseInt(value);
+                        break;
+                    case "steps":
+                        steps = Integer.parseInt(value);
+                        break;
+                    case "seconds":
+                        seconds = Double.parseDouble(value);
+                        break;
+                    case "inject_every":
+                        inject_every = Integer.parseInt(value);
+                        break;
+                    case "checkpoint_in":
+                        checkpoint_in = value;
+                        break;
+                    case "checkpoint_out":
+                        checkpoint_out = value;
+                        break;
+                    case "record":
+                        record = value;
+                        break;
+                    case "record_every":
+                        record_every = Integer.parseInt(value);
+                        break;
+                    case "record_velocity":
+                        record_velocity = Boolean.parseBoolean(value);
+                        break;
+                    case "export":
+                        export = value;
+                        break;
+                    case "export_format":
+                        export_format = value;
+                        break;
+                    case "export_color":
+                        export_color = Boolean.parseBoolean(value);
+                        break;
+                    case "export_scale":
+                        export_scale = Integer.parseInt(value);
+                        break;
+                    case "export_every":
+                        export_every = Integer.parseInt(value);
+                        break;
+                    case "export_workers":
+                        export_workers = Integer.parseInt(value);
+                        break;
+                    case "export_buffers":
+                        export_buffers = Integer.parseInt(value);
+                        break;
+                    case "export_drop":
+                        export_drop = Boolean.parseBoolean(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option --" + name);
+                }
+            }
+            if (record_every < 1){
+                throw new IllegalArgumentException("record_every must be >= 1 but was " + record_every);
+            }
+            if (export_every < 1){
+                throw new IllegalArgumentException("export_every must be >= 1 but was " + export_every);
+            }
+            config.validate();
+        } catch (IllegalArgumentException e){
+            System.out.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+
+        // When the frames go to stdout everything else has to go to stderr
+        OutputStream export_stream = null;
+        if (export.equals("-")){
+            export_stream = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 20);
+            System.setOut(System.err);
+        }
+
+        FluidSolver solver;
+        if (checkpoint_in.isEmpty()){
+            solver = new FluidSolver(config);
+        } else {
+            solver = Checkpoint.restore(Path.of(checkpoint_in), config);
+            config = solver.config;
+            System.out.println("Resumed " + checkpoint_in + " at step " + solver.step_count);
+        }
+        System.out.println("Running headless simulation with " + config);
+
+        // Warm up so the JIT has compiled the hot loops before we measure
+        for (int i = 0; i < warmup; i++){
+            inject(solver, inject_every);
+            solver.step();
+        }
+        for (SolveStats stats : solver.solveStats()){
+            stats.reset();
+        }
+        if (solver.metrics.enabled){
+            solver.metrics.memory.reset();
+        }
+
+        StateRecorder recorder = null;
+        if (!record.isEmpty()){
+            recorder = new StateRecorder(Path.of(record), config.fluid_size, record_velocity);
+        }
+        FrameExporter exporter = null;
+        if (export_stream != null){
+            exporter = new FrameExporter(export_stream, config.fluid_size, export_format, export_color, export_scale, export_workers, export_buffers, !export_drop);
+        } else if (!export.isEmpty()){
+            exporter = new FrameExporter(Path.of(export), config.fluid_size, export_format, export_color, export_scale, export_workers, export_buffers, !export_drop);
+        }
+
+        // Only the steps are measured, the time and allocation of recording and exporting on this thread are taken out
+        long measured_steps = 0;
+        long record_nanos = 0;
+        long record_allocated = 0;
+        long export_nanos = 0;
+        long export_allocated = 0;
+        long start_allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long deadline = (seconds > 0) ? start + Duration.ofMillis((long) (seconds * 1000)).toNanos() : 0;
+        while ((seconds > 0) ? System.nanoTime() - record_nanos - export_nanos < deadline : measured_steps < steps){
+            inject(solver, inject_every);
+            solver.step();
+            measured_steps++;
+            if (recorder != null && measured_steps % record_every == 0){
+                long output_allocated = allocatedBytes();
+                long output_start = System.nanoTime();
+                recorder.record(solver);
+                record_nanos += System.nanoTime() - output_start;
+                record_allocated += allocatedBytes() - output_allocated;
+            }
+            if (exporter != null && measured_steps % export_every == 0){
+                long output_allocated = allocatedBytes();
+                long output_start = System.nanoTime();
+                exporter.export(solver);
+                export_nanos += System.nanoTime() - output_start;
+                export_allocated += allocatedBytes() - output_allocated;
+            }
+        }
+        long elapsed = System.nanoTime() - start - record_nanos - export_nanos;
+        long allocated = allocatedBytes() - start_allocated - record_allocated - export_allocated;
+        if (recorder != null){
+            recorder.close();
+        }
+        long export_start = System.nanoTime();
+        if (exporter != null){
+            exporter.close();
+        }
+        double export_drain_seconds = (System.nanoTime() - export_start) / 1e9;
+        if (!checkpoint_out.isEmpty()){
+            Checkpoint.save(solver, Path.of(checkpoint_out));
+        }
+
+        double elapsed_seconds = elapsed / 1e9;
+        double cells = (double) (config.fluid_size - 2) * (config.fluid_size - 2);
+        System.out.printf("Steps: %d in %.3f s%n", measured_steps, elapsed_seconds);
+        System.out.printf("Throughput: %.2f steps/s (%.3f ms/step, %.2f Mcells/s)%n",
+                measured_steps / elapsed_seconds, 1000.0 * elapsed_seconds / measured_steps, measured_steps * cells / elapsed_seconds / 1e6);
+        solver.close();
+        if (start_allocated >= 0){
+            System.out.printf("Allocated: %d bytes (%.1f bytes/step)%n", allocated, (double) allocated / measured_steps);
+        }
+        for (SolveStats stats : solver.solveStats()){
+            System.out.println("  " + stats);
+        }
+        if (solver.sparse != null){
+            System.out.printf("Active tiles: %.1f%% of the grid on average%n", 100.0 * solver.sparse.activeFraction());
+        }
+        if (solver.dense_check != null){
+            System.out.printf("Largest difference to the dense step: %.3e%n", solver.max_active_tiles_error);
+        }
+        if (solver.metrics.enabled){
+            System.out.println(solver.metrics.memory.summary());
+        }
+        if (recorder != null){
+            System.out.printf("Recorded %d frames (%d dropped) into %s, %.2f bytes/cell%n", recorder.recorded_frames, recorder.dropped_frames,
+                    record, (double) recorder.bytes_written / Math.max(1, recorder.recorded_frames) / ((double) config.fluid_size * config.fluid_size));
+            System.out.printf("  Recording took %.3f s (%.3f ms/step) and %d bytes on the solver thread, not included above%n",
+                    record_nanos / 1e9, record_nanos / 1e6 / measured_steps, record_allocated);
+        }
+        if (exporter != null){
+            System.out.printf("Exported %d frames (%d dropped) of %dx%d pixels to %s, %.1f MB, the solver waited %.3f s for the pipeline and %.3f s for the last frames%n",
+                    exporter.exported_frames, exporter.dropped_frames, exporter.width, exporter.width, export.equals("-") ? "stdout" : export,
+                    exporter.bytes_written / 1e6, exporter.wait_nanos / 1e9, export_drain_seconds);
+            System.out.printf("  Exporting took %.3f s (%.3f ms/step) and %d bytes on the solver thread, not included above%n",
+                    export_nanos / 1e9, export_nanos / 1e6 / measured_steps, export_allocated);
+        }
+        if (!checkpoint_out.isEmpty()){
+            System.out.println("Saved a checkpoint at step " + solver.step_count + " to " + checkpoint_out);
+        }
+    }
+
+    public static long allocatedBytes(){
+        /*
+        Bytes allocated so far by the current thread or -1 if the JVM can not tell us
+        */
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean){
+            com.sun.management.ThreadMXBean sun_bean = (com.sun.management.ThreadMXBean) bean;
+            if (sun_bean.isThreadAllocatedMemorySupported() && sun_bean.isThreadAllocatedMemoryEnabled()){
+                return sun_bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    private static void inject(FluidSolver solver, int inject_every){
+        /*
+        Mimic pressing the up arrow key in Main every inject_every steps
+        */
+        if (inject_every <= 0 || solver.step_count % inject_every != 0){
+            return;
+        }
+        int size = solver.fluid.fluid_size;
+        solver.fluid.add_dye(1500, size - 3, size / 2);
+        solver.fluid.add_v(-15, size - 3, size / 2);
+    }
+
+    private static void printUsage(){
+        System.out.println("Usage: java fluid2d.Headless [--name=value ...]");
+        System.out.println("Simulation parameters: --fluid_size --density --viscosity --diffusion_rate --time_step --gauss_seidel_iter --diffusion_solver --pressure_solver --multigrid_cycles --solver_tolerance --warm_start --threads --deterministic --simd --precision --fused --interleaved --sweep_block --storage --storage_dir --active_tiles --tile_size --active_threshold --active_tiles_check --simulation_rate --snapshot_velocity --metrics --metrics_file --metrics_window --frame_budget_ms");
+        System.out.println("Run options: --warmup (steps, default 20) --steps (default 200) --seconds (overrides --steps) --inject_every (default 20, 0 disables)"
+                + " --checkpoint_in --checkpoint_out --record --record_every (default 1) --record_velocity (default false)"
+                + " --export (directory or - for stdout) --export_format (png or rgb) --export_color --export_scale --export_every --export_workers --export_buffers --export_drop");
+    }
+}
@@ -0,0 +1,159 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following keeps the timings of the latest window steps in ring buffers so rolling percentiles of every stage,
+the whole step and the frame can be asked for at any time. Recording only copies a few numbers, the percentiles
+are computed (by sorting a copy of the window) when they are asked for.
+*/
+
+package fluid2d;
+
+import java.util.Arrays;
+
+public class InMemoryMetricsSink implements MetricsSink {
+    public int window;
+    private int[] stages;
+    private long[][] stage_nanos;  // [stage][slot]
+    private long[] step_nanos;
+    private long[] frame_nanos;
+    private long[] render_nanos;
+    private long[] sorted;  // Scratch space for the percentiles
+    private int next = 0;  // Slot the next step is written to
+    private int count = 0;  // Number of filled slots
+    private int frame_next = 0;  // Frames have their own slots since they may be recorded separately from the steps
+    private int frame_count = 0;
+
+    // Totals since the last reset
+    public long steps = 0;
+    public long frames = 0;
+    public long over_budget_frames = 0;
+    public double max_residual = 0.0;  // Largest relative residual left by any solve
+
+    // The latest health signals
+    public long latest_step;
+    public double total_dye;
+    public double max_divergence;
+
+    public InMemoryMetricsSink(int window){
+        if (window < 1){
+            throw new IllegalArgumentException("window must be >= 1 but was " + window);
+        }
+        this.window = window;
+        this.stage_nanos = new long[SimulationMetrics.STAGES][window];
+        this.step_nanos = new long[window];
+        this.frame_nanos = new long[window];
+        this.render_nanos = new long[window];
+        this.sorted = new long[window];
+    }
+
+    public synchronized void record(StepMetrics metrics){
+        int slot = this.next;
+        this.stages = metrics.stages;
+        for (int stage : metrics.stages){
+            this.stage_nanos[stage][slot] = metrics.stage_nanos[stage];
+        }
+        this.step_nanos[slot] = metrics.step_nanos;
+        this.next = (slot + 1) % this.window;
+        this.count = Math.min(this.count + 1, this.window);
+
+        this.steps++;
+        if (metrics.hasFrame()){
+            recordFrame(metrics.frame_nanos, metrics.render_nanos, metrics.over_budget);
+        }
+        for (double residual : metrics.solve_residuals){
+            this.max_residual = Math.max(this.max_residual, residual);
+        }
+        this.latest_step = metrics.step;
+        this.total_dye = metrics.total_dye;
+        this.max_divergence = metrics.max_divergence;
+    }
+
+    public synchronized void recordFrame(long frame_nanos, long render_nanos, boolean over_budget){
+        int slot = this.frame_next;
+        this.frame_nanos[slot] = frame_nanos;
+        this.render_nanos[slot] = render_nanos;
+        this.frame_next = (slot + 1) % this.window;
+        this.frame_count = Math.min(this.frame_count + 1, this.window);
+
+        this.frames++;
+        if (over_budget){
+            this.over_budget_frames++;
+        }
+    }
+
+    public synchronized double stagePercentile(int stage, double percentile){
+        /*
+        The given percentile (0 to 100) of a stage's wall time over the window in milliseconds
+        */
+        return percentile(this.stage_nanos[stage], this.count, percentile);
+    }
+
+    public synchronized double stepPercentile(double percentile){
+        return percentile(this.step_nanos, this.count, percentile);
+    }
+
+    public synchronized double framePercentile(double percentile){
+        return percentile(this.frame_nanos, this.frame_count, percentile);
+    }
+
+    public synchronized double renderPercentile(double percentile){
+        return percentile(this.render_nanos, this.frame_count, percentile);
+    }
+
+    private double percentile(long[] ring, int count, double percentile){
+        /*
+        Nearest rank percentile of the first count values of the ring in milliseconds
+        */
+        if (count == 0){
+            return 0.0;
+        }
+        System.arraycopy(ring, 0, this.sorted, 0, count);
+        Arrays.sort(this.sorted, 0, count);
+        int rank = (int) Math.ceil(percentile / 100.0 * count);
+        return this.sorted[Math.max(0, Math.min(rank, count) - 1)] / 1e6;
+    }
+
+    public synchronized void reset(){
+        this.next = 0;
+        this.count = 0;
+        this.frame_next = 0;
+        this.frame_count = 0;
+        this.steps = 0;
+        this.frames = 0;
+        this.over_budget_frames = 0;
+        this.max_residual = 0.0;
+    }
+
+    public synchronized String summary(){
+        /*
+        A table with the p50, p95 and p99 of every stage, the step and (when there are frames) the frame and render
+        times followed by the latest health signals
+        */
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("Rolling percentiles over the last %d steps (ms):%n", this.count));
+        if (this.stages != null){
+            for (int stage : this.stages){
+                appendRow(summary, SimulationMetrics.STAGE_NAMES[stage], this.stage_nanos[stage], this.count);
+            }
+        }
+        appendRow(summary, "step", this.step_nanos, this.count);
+        if (this.frames > 0){
+            appendRow(summary, "render", this.render_nanos, this.frame_count);
+            appendRow(summary, "frame", this.frame_nanos, this.frame_count);
+            summary.append(String.format("  %d of %d frames over budget%n", this.over_budget_frames, this.frames));
+        }
+        summary.append(String.format("Health at step %d: total dye %.6e, max divergence %.3e, max residual %.3e",
+                this.latest_step, this.total_dye, this.max_divergence, this.max_residual));
+        return summary.toString();
+    }
+
+    private void appendRow(StringBuilder summary, String name, long[] ring, int count){
+        summary.append(String.format("  %-17s p50 %9.3f  p95 %9.3f  p99 %9.3f%n", name, percentile(ring, count, 50), percentile(ring, count, 95),
+                percentile(ring, count, 99)));
+    }
+}
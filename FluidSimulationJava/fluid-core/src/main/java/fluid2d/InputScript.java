@@ -0,0 +1,249 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is a scripted sequence of inputs (what the keys and the mouse do in Main) so that runs of the
+simulation can be repeated exactly, for example every run of an Ensemble. Each line of a script is one input:
+
+    <step> <dye|u|v> <amount> <row> <col> [every <steps>]
+    <step> splat <dye> <u> <v> <row> <col> <radius> [gaussian|disc] [every <steps>]
+    <step> stroke <dye> <u> <v> <row> <col> <row_end> <col_end> <radius> [gaussian|disc] [every <steps>]
+    <step> clear_dye [every <steps>]
+
+The input is applied right before the given step (and then every <steps> steps if given). Rows and columns can be
+given as a cell index, as a negative number counting from the far border (-1 is the last cell) or as center, so the
+same script works for every fluid_size. Splats and strokes are Gaussian unless disc is given, and the amounts of a
+stroke are shared by its splats (see SplatBatch).
+Every input goes into the SplatBatch of the solver, so the inputs of a step are added in a single pass. Empty lines and everything after a # are ignored. A script is immutable
+once parsed so a single instance can be shared by any number of threads.
+*/
+
+package fluid2d;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class InputScript {
+    public static final int DYE = 0;
+    public static final int U = 1;
+    public static final int V = 2;
+    public static final int CLEAR_DYE = 3;
+    public static final int SPLAT = 4;
+    public static final int STROKE = 5;
+    public static final int CENTER = Integer.MIN_VALUE;  // Row or column in the middle of the fluid
+
+    // One entry per input
+    private final long[] steps;
+    private final long[] every;  // 0 when the input only happens once
+    private final int[] types;
+    private final double[] amounts;  // The dye of splats and strokes
+    private final double[] u_amounts;  // Only for splats and strokes
+    private final double[] v_amounts;
+    private final int[] rows;
+    private final int[] cols;
+    private final int[] rows_end;  // Only for strokes
+    private final int[] cols_end;
+    private final double[] radii;  // Only for splats and strokes
+    private final int[] shapes;
+
+    private InputScript(List<String> lines, String source){
+        int count = 0;
+        String[][] inputs = new String[lines.size()][];
+        for (String line : lines){
+            int comment = line.indexOf('#');
+            String text = ((comment >= 0) ? line.substring(0, comment) : line).trim();
+            if (!text.isEmpty()){
+                inputs[count++] = text.split("\\s+");
+            }
+        }
+        this.steps = new long[count];
+        this.every = new long[count];
+        this.types = new int[count];
+        this.amounts = new double[count];
+        this.u_amounts = new double[count];
+        this.v_amounts = new double[count];
+        this.rows = new int[count];
+        this.cols = new int[count];
+        this.rows_end = new int[count];
+        this.cols_end = new int[count];
+        this.radii = new double[count];
+        this.shapes = new int[count];
+        for (int input = 0; input < count; input++){
+            String[] parts = inputs[input];
+            try {
+                parse(input, parts);
+            } catch (RuntimeException e){
+                throw new IllegalArgumentException("Invalid input \"" + String.join(" ", parts) + "\" in " + source + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void parse(int input, String[] parts){
+        this.steps[input] = Long.parseLong(parts[0]);
+        int next;
+        if (parts.length > 1 && parts[1].equals("clear_dye")){
+            this.types[input] = CLEAR_DYE;
+            next = 2;
+        } else if (parts.length > 1 && (parts[1].equals("splat") || parts[1].equals("stroke"))){
+            boolean stroke = parts[1].equals("stroke");
+            next = stroke ? 10 : 8;
+            if (parts.length < next){
+                throw new IllegalArgumentException(stroke ? "expected <step> stroke <dye> <u> <v> <row> <col> <row_end> <col_end> <radius>"
+                        : "expected <step> splat <dye> <u> <v> <row> <col> <radius>");
+            }
+            this.types[input] = stroke ? STROKE : SPLAT;
+            this.amounts[input] = Double.parseDouble(parts[2]);
+            this.u_amounts[input] = Double.parseDouble(parts[3]);
+            this.v_amounts[input] = Double.parseDouble(parts[4]);
+            this.rows[input] = cell(parts[5]);
+            this.cols[input] = cell(parts[6]);
+            if (stroke){
+                this.rows_end[input] = cell(parts[7]);
+                this.cols_end[input] = cell(parts[8]);
+            }
+            this.radii[input] = Double.parseDouble(parts[next - 1]);
+            if (!(this.radii[input] >= 0.0)){
+                throw new IllegalArgumentException("radius must be >= 0");
+            }
+            this.shapes[input] = SplatBatch.GAUSSIAN;
+            if (parts.length > next && (parts[next].equals("gaussian") || parts[next].equals("disc"))){
+                this.shapes[input] = parts[next].equals("disc") ? SplatBatch.DISC : SplatBatch.GAUSSIAN;
+                next++;
+            }
+        } else {
+            if (parts.length < 5){
+                throw new IllegalArgumentException("expected <step> <dye|u|v> <amount> <row> <col>");
+            }
+            this.types[input] = type(parts[1]);
+            this.amounts[input] = Double.parseDouble(parts[2]);
+            this.rows[input] = cell(parts[3]);
+            this.cols[input] = cell(parts[4]);
+            next = 5;
+        }
+        if (parts.length == next + 2 && parts[next].equals("every")){
+            this.every[input] = Long.parseLong(parts[next + 1]);
+            if (this.every[input] < 1){
+                throw new IllegalArgumentException("every must be >= 1");
+            }
+        } else if (parts.length != next){
+            throw new IllegalArgumentException("unexpected " + parts[next]);
+        }
+        if (this.steps[input] < 0){
+            throw new IllegalArgumentException("step must be >= 0");
+        }
+    }
+
+    private static int type(String name){
+        switch (name){
+            case "dye":
+                return DYE;
+            case "u":
+                return U;
+            case "v":
+                return V;
+            default:
+                throw new IllegalArgumentException("unknown input " + name + " (expected dye, u, v, splat, stroke or clear_dye)");
+        }
+    }
+
+    private static int cell(String value){
+        return value.equals("center") ? CENTER : Integer.parseInt(value);
+    }
+
+    public static InputScript parse(String text){
+        return new InputScript(List.of(text.split("\\R")), "the script");
+    }
+
+    public static InputScript load(Path file){
+        try {
+            return new InputScript(Files.readAllLines(file), file.toString());
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not read the input script " + file, e);
+        }
+    }
+
+    public static InputScript standard(int inject_every){
+        /*
+        The inputs Headless uses: the up arrow key in Main pressed every inject_every steps
+        */
+        if (inject_every <= 0){
+            return new InputScript(List.of(), "the standard script");
+        }
+        return parse("0 dye 1500 -3 center every " + inject_every + "\n0 v -15 -3 center every " + inject_every);
+    }
+
+    public int inputs(){
+        return this.steps.length;
+    }
+
+    public void apply(FluidSolver solver){
+        /*
+        Queue the inputs due before the next step of the solver into its SplatBatch (call right before solver.step())
+        */
+        apply(solver.step_count, solver.splats);
+    }
+
+    public void apply(DistributedSolver solver){
+        /*
+        Same as apply(FluidSolver) for a DistributedSolver
+        */
+        apply(solver.step_count, solver.splats);
+    }
+
+    public void apply(long step, SplatBatch batch){
+        /*
+        Queue the inputs due before the given step into batch
+        */
+        int fluid_size = batch.fluid_size;
+        for (int input = 0; input < this.steps.length; input++){
+            if (!due(input, step)){
+                continue;
+            }
+            int type = this.types[input];
+            if (type == CLEAR_DYE){
+                batch.clear_dye();
+                continue;
+            }
+            int row = resolve(this.rows[input], fluid_size);
+            int col = resolve(this.cols[input], fluid_size);
+            switch (type){
+                case DYE:
+                    batch.add_dye(this.amounts[input], row, col);
+                    break;
+                case U:
+                    batch.add_u(this.amounts[input], row, col);
+                    break;
+                case V:
+                    batch.add_v(this.amounts[input], row, col);
+                    break;
+                case SPLAT:
+                    batch.splat(row, col, this.radii[input], this.amounts[input], this.u_amounts[input], this.v_amounts[input], this.shapes[input]);
+                    break;
+                default:
+                    batch.stroke(row, col, resolve(this.rows_end[input], fluid_size), resolve(this.cols_end[input], fluid_size), this.radii[input],
+                            this.amounts[input], this.u_amounts[input], this.v_amounts[input], this.shapes[input]);
+                    break;
+            }
+        }
+    }
+
+    private boolean due(int input, long step){
+        long first = this.steps[input];
+        return step >= first && (this.every[input] == 0 ? step == first : (step - first) % this.every[input] == 0);
+    }
+
+    private static int resolve(int cell, int fluid_size){
+        if (cell == CENTER){
+            return fluid_size / 2;
+        }
+        int resolved = (cell < 0) ? fluid_size + cell : cell;
+        return Math.max(0, Math.min(fluid_size - 1, resolved));
+    }
+}
@@ -0,0 +1,124 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is the Jacobi method. Unlike Gauss-Seidel every cell of a sweep is computed from the values of the
+previous sweep only, so the cells can be updated in any order (and on any number of threads). It needs about
+twice as many sweeps as Gauss-Seidel for the same accuracy and a second array to hold the new values.
+*/
+
+package fluid2d;
+
+import java.util.Arrays;
+
+public class JacobiSolver implements LinearSolver {
+    ParallelOperations2D parallel;  // null to run on the calling thread
+    double[] scratch;  // Holds the values of every other sweep
+    SweepKernel kernel = new SweepKernel();  // Reused for every sweep on the bands
+
+    public JacobiSolver(int fluid_size, ParallelOperations2D parallel){
+        this.parallel = parallel;
+        this.scratch = new double[fluid_size * fluid_size];
+    }
+
+    public void solve(double[] x, double[] rhs, double alpha, double beta, int boundary_type, int fluid_size, int max_iterations, double tolerance, SolveStats stats){
+        double diagonal = alpha + 4.0 * beta;
+
+        // Only look at the residual when someone is interested in it
+        boolean measure = tolerance > 0.0 || stats != null;
+        double rhs_norm = measure ? LinearSolver.maxAbs(rhs, fluid_size) : 0.0;
+        if (measure && rhs_norm == 0.0){
+            // x = 0 solves the system exactly
+            Arrays.fill(x, 0.0);
+            if (stats != null){
+                stats.record(0, 0.0, true);
+            }
+            return;
+        }
+        double threshold = tolerance * rhs_norm;
+
+        // Ping-pong between x and the scratch array
+        double[] source = x;
+        double[] target = this.scratch;
+        int iteration = 0;
+        double residual = Double.NaN;
+        boolean converged = false;
+        while (iteration < max_iterations){
+            double change;
+            if (this.parallel == null){
+                change = sweep(target, source, rhs, beta, diagonal, 1, fluid_size - 1, fluid_size);
+            } else {
+                this.kernel.set(target, source, rhs, beta, diagonal, fluid_size, this.parallel.simd);
+                change = this.parallel.maxOverBands(fluid_size, this.kernel);
+            }
+            FluidOperations2D.set_boundary_values(boundary_type, target, fluid_size);
+            iteration++;
+
+            double[] temp = source;
+            source = target;
+            target = temp;
+
+            // The change of a cell times the diagonal is exactly the residual of the previous sweep
+            residual = diagonal * change;
+            if (tolerance > 0.0 && residual <= threshold){
+                converged = true;
+                break;
+            }
+        }
+
+        // The latest values need to end up in x
+        if (source != x){
+            System.arraycopy(source, 0, x, 0, x.length);
+        }
+
+        if (stats != null){
+            stats.record(iteration, residual / rhs_norm, converged);
+        }
+    }
+
+    static double sweep(double[] x_new, double[] x, double[] rhs, double beta, double diagonal, int row_start, int row_end, int fluid_size){
+        /*
+        One Jacobi sweep over the rows in [row_start, row_end), returns the largest change of a cell
+        */
+        double change = 0.0;
+        for (int row = row_start; row < row_end; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                x_new[index] = (rhs[index] + beta * (x[index - fluid_size] + x[index + fluid_size] + x[index - 1] + x[index + 1])) / diagonal;
+                change = Math.max(change, Math.abs(x_new[index] - x[index]));
+            }
+        }
+        return change;
+    }
+
+    static class SweepKernel implements ParallelOperations2D.RowMaximum {
+        double[] x_new;
+        double[] x;
+        double[] rhs;
+        double beta;
+        double diagonal;
+        int fluid_size;
+        boolean simd;
+
+        void set(double[] x_new, double[] x, double[] rhs, double beta, double diagonal, int fluid_size, boolean simd){
+            this.x_new = x_new;
+            this.x = x;
+            this.rhs = rhs;
+            this.beta = beta;
+            this.diagonal = diagonal;
+            this.fluid_size = fluid_size;
+            this.simd = simd;
+        }
+
+        public double run(int row_start, int row_end){
+            if (this.simd){
+                return VectorOperations2D.jacobiSweep(this.x_new, this.x, this.rhs, this.beta, this.diagonal, row_start, row_end, this.fluid_size);
+            }
+            return sweep(this.x_new, this.x, this.rhs, this.beta, this.diagonal, row_start, row_end, this.fluid_size);
+        }
+    }
+}
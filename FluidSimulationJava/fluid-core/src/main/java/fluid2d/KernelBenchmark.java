@@ -0,0 +1,255 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following compares the scalar row kernels with the SIMD ones in VectorOperations2D, in both double and
+single precision. It runs the simulation for a while to get a realistic state and then times one pass of every
+kernel over the whole grid on the calling thread. For every kernel it reports the time per pass, the throughput
+and the speed up over the scalar double version. It also checks that the vector kernels give exactly the same
+result as the scalar kernels of the same precision.
+
+The vector kernels need the Vector API. Without --add-modules jdk.incubator.vector only the scalar kernels run.
+
+Example:
+    java --add-modules jdk.incubator.vector -cp fluid-core/target/classes fluid2d.KernelBenchmark --fluid_size=1024 --repeats=20
+*/
+
+package fluid2d;
+
+public class KernelBenchmark {
+    private static final long WARMUP_MS = 300;  // Minimum untimed warm up per kernel
+
+    interface Pass {
+        void run();
+    }
+
+    public static void main(String[] args){
+        SimulationConfig config = new SimulationConfig();
+        int setup_steps = 100;
+        int repeats = 10;
+
+        for (String arg : args){
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0){
+                System.out.println("Usage: java fluid2d.KernelBenchmark [--fluid_size=N] [--setup_steps=N] [--repeats=N]");
+                System.exit(1);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            if (config.set(name, value)){
+                continue;
+            }
+            switch (name){
+                case "setup_steps":
+                    setup_steps = Integer.parseInt(value);
+                    break;
+                case "repeats":
+                    repeats = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+        config.precision = "double";
+        config.simd = false;
+        config.fused = false;
+        config.interleaved = false;
+
+        // Build a realistic state by running the simulation with some dye and velocity shot into it
+        FluidSolver solver = new FluidSolver(config);
+        int size = config.fluid_size;
+        for (int step = 0; step < setup_steps; step++){
+            if (step % 10 == 0){
+                solver.fluid.add_dye(1500, size - 3, size / 2);
+                solver.fluid.add_v(-15, size - 3, size / 2);
+                solver.fluid.add_u(15, size / 2, 3);
+            }
+            solver.step();
+        }
+        solver.close();
+
+        double time_step = config.time_step;
+        double density = config.density;
+        double[] u = solver.fluid.u;
+        double[] v = solver.fluid.v;
+        double[] dye = solver.fluid.dye;
+        double[] divergence = new double[size * size];
+        FluidOperations2D.divergence(u, v, divergence, size, time_step, density);
+        double[] pressure = new double[size * size];
+        FluidOperations2D.GAUSS_SEIDEL.solve(pressure, divergence, 0.0, 1.0, 0, size, 10);
+        double[] output = new double[size * size];
+
+        float[] u_float = toFloat(u);
+        float[] v_float = toFloat(v);
+        float[] dye_float = toFloat(dye);
+        float[] divergence_float = toFloat(divergence);
+        float[] pressure_float = toFloat(pressure);
+        float[] output_float = new float[size * size];
+
+        boolean simd = ParallelOperations2D.simdAvailable();
+        System.out.println("Kernel benchmark with fluid_size=" + size + " repeats=" + repeats);
+        if (simd){
+            System.out.println("Vector API: " + VectorOperations2D.describe());
+        } else {
+            System.out.println("Vector API not available (start java with --add-modules jdk.incubator.vector), only the scalar kernels run");
+        }
+        System.out.printf("%-12s %-14s %10s %12s %9s %10s%n", "kernel", "version", "ms/pass", "Mcells/s", "speed up", "max diff");
+
+        int last = size - 1;
+        float step_float = (float) time_step;
+        float density_float = (float) density;
+
+        // Red-black sweep (both colors) on the pressure system. The sweeps converge so repeating them is fine.
+        double base = time("red_black", "scalar double", size, repeats, 0.0, Double.NaN, () -> {
+            ParallelOperations2D.redBlackSweep(pressure, divergence, 1.0, 1.0, 4.0, 0, 1, last, size);
+            ParallelOperations2D.redBlackSweep(pressure, divergence, 1.0, 1.0, 4.0, 1, 1, last, size);
+        });
+        time("red_black", "scalar float", size, repeats, base, Double.NaN, () -> {
+            FloatOperations2D.redBlackSweep(pressure_float, divergence_float, 1.0f, 1.0f, 4.0f, 0, 1, last, size);
+            FloatOperations2D.redBlackSweep(pressure_float, divergence_float, 1.0f, 1.0f, 4.0f, 1, 1, last, size);
+        });
+        if (simd){
+            double[] scalar = pressure.clone();
+            double[] vector = pressure.clone();
+            ParallelOperations2D.redBlackSweep(scalar, divergence, 1.0, 1.0, 4.0, 0, 1, last, size);
+            VectorOperations2D.redBlackSweep(vector, divergence, 1.0, 1.0, 4.0, 0, 1, last, size);
+            time("red_black", "simd double", size, repeats, base, maxDifference(scalar, vector), () -> {
+                VectorOperations2D.redBlackSweep(pressure, divergence, 1.0, 1.0, 4.0, 0, 1, last, size);
+                VectorOperations2D.redBlackSweep(pressure, divergence, 1.0, 1.0, 4.0, 1, 1, last, size);
+            });
+            float[] scalar_float = pressure_float.clone();
+            float[] vector_float = pressure_float.clone();
+            FloatOperations2D.redBlackSweep(scalar_float, divergence_float, 1.0f, 1.0f, 4.0f, 0, 1, last, size);
+            VectorOperations2D.redBlackSweep(vector_float, divergence_float, 1.0f, 1.0f, 4.0f, 0, 1, last, size);
+            time("red_black", "simd float", size, repeats, base, maxDifference(scalar_float, vector_float), () -> {
+                VectorOperations2D.redBlackSweep(pressure_float, divergence_float, 1.0f, 1.0f, 4.0f, 0, 1, last, size);
+                VectorOperations2D.redBlackSweep(pressure_float, divergence_float, 1.0f, 1.0f, 4.0f, 1, 1, last, size);
+            });
+        }
+
+        // Jacobi sweep on the pressure system
+        base = time("jacobi", "scalar double", size, repeats, 0.0, Double.NaN, () ->
+                JacobiSolver.sweep(output, pressure, divergence, 1.0, 4.0, 1, last, size));
+        time("jacobi", "scalar float", size, repeats, base, Double.NaN, () ->
+                FloatOperations2D.jacobiSweep(output_float, pressure_float, divergence_float, 1.0f, 4.0f, 1, last, size));
+        if (simd){
+            double[] vector = new double[size * size];
+            VectorOperations2D.jacobiSweep(vector, pressure, divergence, 1.0, 4.0, 1, last, size);
+            time("jacobi", "simd double", size, repeats, base, maxDifference(output, vector), () ->
+                    VectorOperations2D.jacobiSweep(output, pressure, divergence, 1.0, 4.0, 1, last, size));
+            float[] vector_float = new float[size * size];
+            VectorOperations2D.jacobiSweep(vector_float, pressure_float, divergence_float, 1.0f, 4.0f, 1, last, size);
+            time("jacobi", "simd float", size, repeats, base, maxDifference(output_float, vector_float), () ->
+                    VectorOperations2D.jacobiSweep(output_float, pressure_float, divergence_float, 1.0f, 4.0f, 1, last, size));
+        }
+
+        // Divergence of the velocity
+        base = time("divergence", "scalar double", size, repeats, 0.0, Double.NaN, () ->
+                FluidOperations2D.divergenceRows(u, v, output, size, time_step, density, 1, last));
+        time("divergence", "scalar float", size, repeats, base, Double.NaN, () ->
+                FloatOperations2D.divergenceRows(u_float, v_float, output_float, size, step_float, density_float, 1, last));
+        if (simd){
+            double[] vector = new double[size * size];
+            VectorOperations2D.divergenceRows(u, v, vector, size, time_step, density, 1, last);
+            time("divergence", "simd double", size, repeats, base, maxDifference(output, vector), () ->
+                    VectorOperations2D.divergenceRows(u, v, output, size, time_step, density, 1, last));
+            float[] vector_float = new float[size * size];
+            VectorOperations2D.divergenceRows(u_float, v_float, vector_float, size, step_float, density_float, 1, last);
+            time("divergence", "simd float", size, repeats, base, maxDifference(output_float, vector_float), () ->
+                    VectorOperations2D.divergenceRows(u_float, v_float, output_float, size, step_float, density_float, 1, last));
+        }
+
+        // Pressure gradient (applied to copies of the velocities so the state used by advection stays the same)
+        double[] u_copy = u.clone();
+        double[] v_copy = v.clone();
+        float[] u_copy_float = u_float.clone();
+        float[] v_copy_float = v_float.clone();
+        base = time("gradient", "scalar double", size, repeats, 0.0, Double.NaN, () ->
+                FluidOperations2D.pressureGradientRows(u_copy, v_copy, pressure, size, time_step, density, 1, last));
+        time("gradient", "scalar float", size, repeats, base, Double.NaN, () ->
+                FloatOperations2D.pressureGradientRows(u_copy_float, v_copy_float, pressure_float, size, step_float, density_float, 1, last));
+        if (simd){
+            double[] scalar = u.clone();
+            double[] vector = u.clone();
+            FluidOperations2D.pressureGradientRows(scalar, v.clone(), pressure, size, time_step, density, 1, last);
+            VectorOperations2D.pressureGradientRows(vector, v.clone(), pressure, size, time_step, density, 1, last);
+            time("gradient", "simd double", size, repeats, base, maxDifference(scalar, vector), () ->
+                    VectorOperations2D.pressureGradientRows(u_copy, v_copy, pressure, size, time_step, density, 1, last));
+            float[] scalar_float = u_float.clone();
+            float[] vector_float = u_float.clone();
+            FloatOperations2D.pressureGradientRows(scalar_float, v_float.clone(), pressure_float, size, step_float, density_float, 1, last);
+            VectorOperations2D.pressureGradientRows(vector_float, v_float.clone(), pressure_float, size, step_float, density_float, 1, last);
+            time("gradient", "simd float", size, repeats, base, maxDifference(scalar_float, vector_float), () ->
+                    VectorOperations2D.pressureGradientRows(u_copy_float, v_copy_float, pressure_float, size, step_float, density_float, 1, last));
+        }
+
+        // Advection of the dye
+        base = time("advection", "scalar double", size, repeats, 0.0, Double.NaN, () ->
+                FluidOperations2D.advectRows(output, dye, time_step, size, u, v, 1, last));
+        time("advection", "scalar float", size, repeats, base, Double.NaN, () ->
+                FloatOperations2D.advectRows(output_float, dye_float, step_float, size, u_float, v_float, 1, last));
+        if (simd){
+            double[] vector = new double[size * size];
+            VectorOperations2D.advectRows(vector, dye, time_step, size, u, v, 1, last);
+            time("advection", "simd double", size, repeats, base, maxDifference(output, vector), () ->
+                    VectorOperations2D.advectRows(output, dye, time_step, size, u, v, 1, last));
+            float[] vector_float = new float[size * size];
+            VectorOperations2D.advectRows(vector_float, dye_float, step_float, size, u_float, v_float, 1, last);
+            time("advection", "simd float", size, repeats, base, maxDifference(output_float, vector_float), () ->
+                    VectorOperations2D.advectRows(output_float, dye_float, step_float, size, u_float, v_float, 1, last));
+        }
+    }
+
+    private static double time(String kernel, String version, int fluid_size, int repeats, double base, double difference, Pass pass){
+        /*
+        Best time of repeats passes in ms, printed together with the throughput and the speed up over base
+        (0 when this is the base). The kernel first runs untimed for at least WARMUP_MS and 3 * repeats passes
+        so the JIT has compiled it (and the loop has been moved out of on stack replacement code).
+        */
+        long warmup_end = System.nanoTime() + WARMUP_MS * 1_000_000L;
+        for (int repeat = 0; repeat < 3 * repeats || System.nanoTime() < warmup_end; repeat++){
+            pass.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int repeat = 0; repeat < repeats; repeat++){
+            long start = System.nanoTime();
+            pass.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        double ms = best / 1e6;
+        double cells = (double) (fluid_size - 2) * (fluid_size - 2);
+        String speed_up = (base > 0.0) ? String.format("%.2fx", base / ms) : "1.00x";
+        String diff = Double.isNaN(difference) ? "-" : String.format("%.1e", difference);
+        System.out.printf("%-12s %-14s %10.3f %12.1f %9s %10s%n", kernel, version, ms, cells / (ms * 1e3), speed_up, diff);
+        return ms;
+    }
+
+    private static float[] toFloat(double[] array){
+        float[] result = new float[array.length];
+        for (int index = 0; index < array.length; index++){
+            result[index] = (float) array[index];
+        }
+        return result;
+    }
+
+    private static double maxDifference(double[] a, double[] b){
+        double largest = 0.0;
+        for (int index = 0; index < a.length; index++){
+            largest = Math.max(largest, Math.abs(a[index] - b[index]));
+        }
+        return largest;
+    }
+
+    private static double maxDifference(float[] a, float[] b){
+        double largest = 0.0;
+        for (int index = 0; index < a.length; index++){
+            largest = Math.max(largest, Math.abs(a[index] - b[index]));
+        }
+        return largest;
+    }
+}
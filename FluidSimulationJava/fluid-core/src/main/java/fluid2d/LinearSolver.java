@@ -0,0 +1,100 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is the interface shared by every linear solver in the simulation. Both the implicit diffusion and
+the pressure projection need to solve a symmetric 5 point system of the form
+    (alpha + 4 * beta) * x[row, col] - beta * (sum of the 4 neighbours of x) = rhs[row, col]
+for the interior cells, where the 1px border of x follows FluidOperations2D.set_boundary_values(boundary_type).
+    Diffusion: alpha = 1, beta = diffusion factor, rhs = the quantity being diffused
+    Pressure:  alpha = 0, beta = 1, rhs = the (scaled) divergence
+*/
+
+package fluid2d;
+
+public interface LinearSolver {
+    String[] NAMES = {"gauss_seidel", "jacobi", "cg", "iccg", "multigrid", "fmg"};
+
+    // Improve x (which holds the initial guess and a consistent border) using at most max_iterations iterations.
+    // What counts as an iteration depends on the solver (a sweep, a conjugate gradient step or a multigrid cycle).
+    // The solve stops early once the largest residual is at most tolerance times the largest right hand side value
+    // (a tolerance of 0 always uses every iteration). stats may be null, otherwise it receives the iteration count
+    // and the final relative residual.
+    void solve(double[] x, double[] rhs, double alpha, double beta, int boundary_type, int fluid_size, int max_iterations, double tolerance, SolveStats stats);
+
+
+    default void solve(double[] x, double[] rhs, double alpha, double beta, int boundary_type, int fluid_size, int iterations){
+        /*
+        Solve using exactly the given number of iterations
+        */
+        solve(x, rhs, alpha, beta, boundary_type, fluid_size, iterations, 0.0, null);
+    }
+
+
+    static LinearSolver create(String name, int fluid_size, ParallelOperations2D parallel){
+        /*
+        Create a solver by name. parallel may be null in which case the solver runs on the calling thread.
+        */
+        switch (name){
+            case "gauss_seidel":
+                return new GaussSeidelSolver(parallel);
+            case "jacobi":
+                return new JacobiSolver(fluid_size, parallel);
+            case "cg":
+                return new ConjugateGradientSolver(fluid_size, parallel, false);
+            case "iccg":
+                return new ConjugateGradientSolver(fluid_size, parallel, true);
+            case "multigrid":
+                return new MultigridSolver(fluid_size, parallel, false);
+            case "fmg":
+                return new MultigridSolver(fluid_size, parallel, true);
+            default:
+                throw new IllegalArgumentException("Unknown linear solver " + name + " (expected one of " + String.join(", ", NAMES) + ")");
+        }
+    }
+
+
+    static boolean isKnown(String name){
+        for (String known : NAMES){
+            if (known.equals(name)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    static double maxAbs(double[] array, int fluid_size){
+        /*
+        Largest absolute value over the interior cells
+        */
+        double largest = 0.0;
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                largest = Math.max(largest, Math.abs(array[FluidOperations2D.idx(row, col, fluid_size)]));
+            }
+        }
+        return largest;
+    }
+
+
+    static double residualNorm(double[] x, double[] rhs, double alpha, double beta, int fluid_size){
+        /*
+        Largest absolute residual over the interior cells (the border of x must already be set)
+        */
+        double diagonal = alpha + 4.0 * beta;
+        double largest = 0.0;
+        for (int row = 1; row < fluid_size - 1; row++){
+            for (int col = 1; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                double residual = rhs[index] - (diagonal * x[index] - beta * (x[index - fluid_size] + x[index + fluid_size] + x[index - 1] + x[index + 1]));
+                largest = Math.max(largest, Math.abs(residual));
+            }
+        }
+        return largest;
+    }
+}
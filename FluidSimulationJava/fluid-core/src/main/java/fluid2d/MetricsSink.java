@@ -0,0 +1,25 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is where SimulationMetrics sends the metrics of every step. InMemoryMetricsSink keeps a rolling
+window for percentiles and FileMetricsSink writes every step to a CSV or JSON lines file. Anything else (e.g. a
+monitoring system) can be plugged in with SimulationMetrics.addSink.
+*/
+
+package fluid2d;
+
+public interface MetricsSink {
+    void record(StepMetrics metrics);  // Called on the simulation thread after every step (metrics is reused, copy what you keep)
+
+    default void recordFrame(long frame_nanos, long render_nanos, boolean over_budget){
+        // Called on the render thread for every frame when the simulation runs on its own thread (see SimulationLoop)
+    }
+
+    default void close(){
+    }
+}
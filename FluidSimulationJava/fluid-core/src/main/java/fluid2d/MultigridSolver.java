@@ -0,0 +1,353 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is a geometric multigrid solver for the 5 point systems that show up in the simulation.
+Gauss-Seidel only removes the error between neighbouring cells quickly, so on large grids the smooth part of
+the error (for example in the pressure) takes thousands of sweeps to go away. Multigrid removes that smooth
+error on coarser grids where it is no longer smooth, which makes the cost of a solve grow roughly linearly
+with the number of cells.
+
+Every level solves
+    (alpha + 4 * beta) * x[row, col] - beta * (sum of the 4 neighbours of x) = rhs[row, col]
+which covers the pressure equation (alpha = 0, beta = 1) and the implicit diffusion (alpha = 1, beta = diffusion factor).
+The interior of a coarse level has half as many rows and columns as the level above it (rounded up) and every
+level has the same 1px border that is filled in by FluidOperations2D.set_boundary_values. The levels are built
+once for a fluid_size and reused for every solve so a solve does not allocate.
+*/
+
+package fluid2d;
+
+import java.util.Arrays;
+
+public class MultigridSolver implements LinearSolver {
+    public static final int COARSEST_INTERIOR = 4;  // Stop coarsening once the interior is this small
+    public static final int COARSEST_SWEEPS = 40;  // Sweeps used to solve on the coarsest level
+    public static final int SMOOTHING_SWEEPS = 2;  // Sweeps before and after the coarse grid correction
+
+    int levels;
+    int[] sizes;  // The fluid_size (interior + border) of each level where level 0 is the finest
+    double[] beta_scale;  // How much smaller beta is on the next coarser level (see below)
+
+    // Weights used to move fields between a level and the next coarser one (see buildTransfers)
+    int[][] restrict_index;
+    double[][] restrict_weight;
+    int[][] prolong_index;
+    double[][] prolong_weight;
+    double[][] x;  // Solution (or correction on the coarse levels)
+    double[][] rhs;
+    double[][] residual;
+
+    ParallelOperations2D parallel;  // Used to smooth the finer levels on several threads (may be null)
+    boolean full_multigrid;  // Start every solve with a full multigrid pass instead of the initial guess
+
+    public MultigridSolver(int fluid_size, ParallelOperations2D parallel, boolean full_multigrid){
+        this.parallel = parallel;
+        this.full_multigrid = full_multigrid;
+
+        // Work out how many levels we need
+        int count = 1;
+        for (int interior = fluid_size - 2; interior > COARSEST_INTERIOR; interior = (interior + 1) / 2){
+            count++;
+        }
+        this.levels = count;
+        this.sizes = new int[count];
+        this.beta_scale = new double[count];
+        this.restrict_index = new int[count][];
+        this.restrict_weight = new double[count][];
+        this.prolong_index = new int[count][];
+        this.prolong_weight = new double[count][];
+        this.x = new double[count][];
+        this.rhs = new double[count][];
+        this.residual = new double[count][];
+
+        int interior = fluid_size - 2;
+        for (int level = 0; level < count; level++){
+            int size = interior + 2;
+            this.sizes[level] = size;
+            this.residual[level] = new double[size * size];
+            if (level > 0){
+                // The finest level works directly on the arrays given to solve()
+                this.x[level] = new double[size * size];
+                this.rhs[level] = new double[size * size];
+            }
+            // beta holds 1 / spacing^2 so it shrinks by the square of the coarsening factor. The coarse spacing is
+            // chosen so that both levels span the same domain, which is exactly 2 when the interior is even. Using 2 for
+            // odd interiors too would make the coarse domain a cell too long and overshoot the smoothest part of the error.
+            int coarse_interior = (interior + 1) / 2;
+            this.beta_scale[level] = ((double) coarse_interior * coarse_interior) / ((double) interior * interior);
+            interior = coarse_interior;
+        }
+        for (int level = 0; level < count - 1; level++){
+            buildTransfers(level);
+        }
+    }
+
+    public int levelCount(){
+        return this.levels;
+    }
+
+    public void solve(double[] solution, double[] right_hand_side, double alpha, double beta, int boundary_type, int fluid_size, int max_cycles, double tolerance, SolveStats stats){
+        /*
+        Improve solution (used as the initial guess) with up to max_cycles V-cycles. With full_multigrid
+        the initial guess is ignored and built instead by solving on the coarsest level and working up,
+        which usually gets close to the answer with a single cycle (which counts as one of the cycles).
+        */
+        if (fluid_size != this.sizes[0]){
+            throw new IllegalArgumentException("MultigridSolver was built for fluid_size " + this.sizes[0] + " but was given " + fluid_size);
+        }
+
+        // Only look at the residual when someone is interested in it
+        boolean measure = tolerance > 0.0 || stats != null;
+        double rhs_norm = measure ? LinearSolver.maxAbs(right_hand_side, fluid_size) : 0.0;
+        if (measure && rhs_norm == 0.0){
+            // x = 0 solves the system exactly
+            Arrays.fill(solution, 0.0);
+            if (stats != null){
+                stats.record(0, 0.0, true);
+            }
+            return;
+        }
+        double threshold = tolerance * rhs_norm;
+
+        this.x[0] = solution;
+        this.rhs[0] = right_hand_side;
+
+        int cycle = 0;
+        double residual = Double.NaN;
+        boolean converged = false;
+        if (tolerance > 0.0 && !this.full_multigrid){
+            // A warm started solve may not need to do anything
+            residual = LinearSolver.residualNorm(solution, right_hand_side, alpha, beta, fluid_size);
+            converged = residual <= threshold;
+        }
+        while (!converged && cycle < max_cycles){
+            if (cycle == 0 && this.full_multigrid){
+                fullMultigrid(alpha, beta, boundary_type);
+            } else {
+                vCycle(0, alpha, beta, boundary_type);
+            }
+            cycle++;
+
+            if (measure){
+                residual = LinearSolver.residualNorm(solution, right_hand_side, alpha, beta, fluid_size);
+                converged = tolerance > 0.0 && residual <= threshold;
+            }
+        }
+
+        // Do not hold on to the caller's arrays
+        this.x[0] = null;
+        this.rhs[0] = null;
+
+        if (stats != null){
+            stats.record(cycle, residual / rhs_norm, converged);
+        }
+    }
+
+
+    private void vCycle(int level, double alpha, double beta, int boundary_type){
+        if (level == this.levels - 1){
+            smooth(level, alpha, beta, boundary_type, COARSEST_SWEEPS);
+            return;
+        }
+
+        smooth(level, alpha, beta, boundary_type, SMOOTHING_SWEEPS);
+
+        // Solve for the error on the coarser level
+        computeResidual(level, alpha, beta);
+        restrict(this.residual[level], this.rhs[level + 1], level);
+        makeConsistent(this.rhs[level + 1], this.sizes[level + 1], alpha, boundary_type);
+        Arrays.fill(this.x[level + 1], 0.0);
+        vCycle(level + 1, alpha, beta * this.beta_scale[level], boundary_type);
+
+        // And use it to correct this level
+        prolong(this.x[level + 1], this.x[level], level);
+        FluidOperations2D.set_boundary_values(boundary_type, this.x[level], this.sizes[level]);
+
+        smooth(level, alpha, beta, boundary_type, SMOOTHING_SWEEPS);
+    }
+
+
+    private void fullMultigrid(double alpha, double beta, int boundary_type){
+        // Move the right hand side down to every level
+        double coarse_beta = beta;
+        for (int level = 0; level < this.levels - 1; level++){
+            restrict(this.rhs[level], this.rhs[level + 1], level);
+            makeConsistent(this.rhs[level + 1], this.sizes[level + 1], alpha, boundary_type);
+            coarse_beta *= this.beta_scale[level];
+        }
+
+        // Solve on the coarsest level and then work our way up using each solution as the next initial guess
+        int coarsest = this.levels - 1;
+        Arrays.fill(this.x[coarsest], 0.0);
+        smooth(coarsest, alpha, coarse_beta, boundary_type, COARSEST_SWEEPS);
+        for (int level = coarsest - 1; level >= 0; level--){
+            coarse_beta /= this.beta_scale[level];
+            Arrays.fill(this.x[level], 0.0);
+            prolong(this.x[level + 1], this.x[level], level);
+            FluidOperations2D.set_boundary_values(boundary_type, this.x[level], this.sizes[level]);
+            vCycle(level, alpha, coarse_beta, boundary_type);
+        }
+    }
+
+
+    private void smooth(int level, double alpha, double beta, int boundary_type, int sweeps){
+        /*
+        Red-black Gauss-Seidel sweeps (red-black is both a good smoother and can run on several threads)
+        */
+        double[] x = this.x[level];
+        double[] rhs = this.rhs[level];
+        int size = this.sizes[level];
+        double diagonal = alpha + 4.0 * beta;
+
+        for (int sweep = 0; sweep < sweeps; sweep++){
+            for (int color = 0; color < 2; color++){
+                if (this.parallel != null && size > 64){
+                    this.parallel.redBlackPass(x, rhs, 1.0, beta, diagonal, color, size);
+                } else {
+                    ParallelOperations2D.redBlackSweep(x, rhs, 1.0, beta, diagonal, color, 1, size - 1, size);
+                }
+            }
+            FluidOperations2D.set_boundary_values(boundary_type, x, size);
+        }
+    }
+
+
+    private void computeResidual(int level, double alpha, double beta){
+        double[] x = this.x[level];
+        double[] rhs = this.rhs[level];
+        double[] residual = this.residual[level];
+        int size = this.sizes[level];
+        double diagonal = alpha + 4.0 * beta;
+
+        for (int row = 1; row < size - 1; row++){
+            for (int col = 1; col < size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, size);
+                residual[index] = rhs[index] - (diagonal * x[index] - beta * (x[index - size] + x[index + size] + x[index - 1] + x[index + 1]));
+            }
+        }
+    }
+
+
+    private static void makeConsistent(double[] rhs, int size, double alpha, int boundary_type){
+        /*
+        With alpha = 0 and the border copying its neighbours (the pressure equation) adding a constant to a solution
+        gives another solution, so the system only has a solution when the right hand side sums to zero. The
+        restriction does not preserve that sum exactly when the fine interior is odd so remove
+        the average from the coarse right hand side, otherwise the coarse solve drifts instead of converging.
+        */
+        if (alpha != 0.0 || boundary_type != 0){
+            return;
+        }
+        double sum = 0.0;
+        for (int row = 1; row < size - 1; row++){
+            for (int col = 1; col < size - 1; col++){
+                sum += rhs[FluidOperations2D.idx(row, col, size)];
+            }
+        }
+        double mean = sum / ((double) (size - 2) * (size - 2));
+        for (int row = 1; row < size - 1; row++){
+            for (int col = 1; col < size - 1; col++){
+                rhs[FluidOperations2D.idx(row, col, size)] -= mean;
+            }
+        }
+    }
+
+
+    private void restrict(double[] fine, double[] coarse, int level){
+        /*
+        Move a fine field (residual or right hand side) from level to the next coarser level. Every coarse cell
+        averages the fine field at 2x2 points a quarter of a coarse cell away from its center. When the fine
+        interior is even those points are exactly the centers of the 4 fine cells it covers.
+        */
+        int fine_size = this.sizes[level];
+        int coarse_size = this.sizes[level + 1];
+        int[] index = this.restrict_index[level];
+        double[] weight = this.restrict_weight[level];
+
+        for (int row = 1; row < coarse_size - 1; row++){
+            for (int col = 1; col < coarse_size - 1; col++){
+                double sum = 0.0;
+                for (int a = 0; a < 4; a++){
+                    int fine_row = index[4 * row + a];
+                    double row_weight = weight[4 * row + a];
+                    for (int b = 0; b < 4; b++){
+                        sum += row_weight * weight[4 * col + b] * fine[FluidOperations2D.idx(fine_row, index[4 * col + b], fine_size)];
+                    }
+                }
+                coarse[FluidOperations2D.idx(row, col, coarse_size)] = sum;
+            }
+        }
+    }
+
+
+    private void prolong(double[] coarse, double[] fine, int level){
+        /*
+        Bilinearly interpolate the coarse values of level + 1 (including their border) at the fine cell centers and
+        add them to level. When the fine interior is even a fine cell takes 9/16 of the coarse cell it sits in,
+        3/16 of the two coarse cells next to it on its side and 1/16 of the diagonal one.
+        */
+        int fine_size = this.sizes[level];
+        int coarse_size = this.sizes[level + 1];
+        int[] index = this.prolong_index[level];
+        double[] weight = this.prolong_weight[level];
+
+        for (int row = 1; row < fine_size - 1; row++){
+            int coarse_row = index[row];
+            double row_weight = weight[row];
+            for (int col = 1; col < fine_size - 1; col++){
+                int coarse_col = index[col];
+                double col_weight = weight[col];
+
+                fine[FluidOperations2D.idx(row, col, fine_size)] += row_weight * (col_weight * coarse[FluidOperations2D.idx(coarse_row, coarse_col, coarse_size)]
+                        + (1.0 - col_weight) * coarse[FluidOperations2D.idx(coarse_row, coarse_col + 1, coarse_size)])
+                        + (1.0 - row_weight) * (col_weight * coarse[FluidOperations2D.idx(coarse_row + 1, coarse_col, coarse_size)]
+                        + (1.0 - col_weight) * coarse[FluidOperations2D.idx(coarse_row + 1, coarse_col + 1, coarse_size)]);
+            }
+        }
+    }
+
+
+    private void buildTransfers(int level){
+        /*
+        Both levels span the same domain. Measured in cells of the fine level, coarse cell I is centered at
+        (I - 0.5) * ratio + 0.5 where ratio = fine interior / coarse interior (fine cell i is centered at i).
+        The rows and columns use the same weights so we only store them once per index.
+        */
+        int fine_interior = this.sizes[level] - 2;
+        int coarse_interior = this.sizes[level + 1] - 2;
+        double ratio = (double) fine_interior / coarse_interior;
+
+        // Restriction: sample the fine level at 2 points per direction around every coarse center
+        this.restrict_index[level] = new int[4 * (coarse_interior + 2)];
+        this.restrict_weight[level] = new double[4 * (coarse_interior + 2)];
+        for (int coarse = 1; coarse <= coarse_interior; coarse++){
+            double center = (coarse - 0.5) * ratio + 0.5;
+            for (int sample = 0; sample < 2; sample++){
+                double position = center + ((sample == 0) ? -0.25 : 0.25) * ratio;
+                position = Math.max(1.0, Math.min(position, fine_interior));  // Stay on the interior
+
+                int lower = Math.min((int) Math.floor(position), fine_interior - 1);
+                double upper_weight = position - lower;
+                this.restrict_index[level][4 * coarse + 2 * sample] = lower;
+                this.restrict_weight[level][4 * coarse + 2 * sample] = 0.5 * (1.0 - upper_weight);
+                this.restrict_index[level][4 * coarse + 2 * sample + 1] = lower + 1;
+                this.restrict_weight[level][4 * coarse + 2 * sample + 1] = 0.5 * upper_weight;
+            }
+        }
+
+        // Prolongation: the coarse border is included so every fine center lies between two coarse values
+        this.prolong_index[level] = new int[fine_interior + 2];
+        this.prolong_weight[level] = new double[fine_interior + 2];
+        for (int fine = 1; fine <= fine_interior; fine++){
+            double position = (fine - 0.5) / ratio + 0.5;
+            int lower = (int) Math.floor(position);
+            this.prolong_index[level][fine] = lower;
+            this.prolong_weight[level][fine] = 1.0 - (position - lower);
+        }
+    }
+}
@@ -0,0 +1,484 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following provides multi-core versions of the operations in FluidOperations2D. The interior rows
+of the grid are split into bands and the bands are processed concurrently by a set of worker threads.
+
+Plain Gauss-Seidel can not be split this way since every cell reads neighbours that were just updated.
+Instead we use red-black (checkerboard) ordering where a cell is red when row + col is even and black
+otherwise. Every neighbour of a red cell is black and vice versa so all the red cells can be updated at
+once followed by all the black cells. The result of a sweep therefore does not depend on how the rows
+are split up or on the number of threads.
+
+The bands of a sweep are handed out to threads - 1 worker threads and the calling thread, which all take the next
+band that nobody has taken yet until none are left. The workers park in between sweeps. Every operation below
+has a kernel object that is filled in with the arguments of a call and reused for every sweep, so apart from
+waking the workers a sweep costs no allocation at all. This also means one ParallelOperations2D must not be used
+by several threads at the same time.
+
+Advection and the divergence/gradient loops of the pressure projection have no such dependency and simply
+use the same bands.
+
+With simd set every band is processed with the vector kernels in VectorOperations2D instead of the scalar ones.
+They produce exactly the same results. simd can also be used with a single thread.
+*/
+
+package fluid2d;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+public class ParallelOperations2D {
+    public static final int DETERMINISTIC_BAND_ROWS = 16;  // Rows per band when the band layout must not depend on the thread count
+    public static final int SPINS = 1 << 10;  // How often a waiting thread checks for work before it parks
+    static final int BAND_BITS = 20;  // A sweep has fewer than 2^20 bands
+    static final long BAND_MASK = (1L << BAND_BITS) - 1;
+
+    int threads;
+    boolean deterministic;
+    boolean simd;  // Use the kernels in VectorOperations2D
+    Thread[] workers;  // The threads - 1 threads helping the calling thread, null when everything runs on the calling thread
+    LinearSolver red_black;  // Red-black Gauss-Seidel running on these bands
+
+    // The current sweep. The kernel and fluid_size are written before claims is set and do not change until every band
+    // of the sweep has finished.
+    private RowKernel kernel;
+    private RowMaximum maximum;  // Instead of kernel for sweeps that return a value
+    private int fluid_size;
+    private volatile Thread caller;
+    private int sequence = 0;
+    private final AtomicLong claims = new AtomicLong();  // Sweep sequence << 40 | number of bands << 20 | next band nobody has taken
+    private final AtomicInteger finished = new AtomicInteger();  // Bands of the current sweep that are done
+    private final AtomicLong largest = new AtomicLong();  // Bits of the largest value a band of the current sweep returned
+    private volatile int generation = 0;  // Incremented for every sweep so parked workers know there is work
+    private volatile Throwable failure;
+    private volatile boolean stopped = false;
+
+    // Kernels of the operations below
+    private final ProjectionKernel projection = new ProjectionKernel();
+    private final AdvectionKernel advection = new AdvectionKernel();
+    private final SweepKernel sweep = new SweepKernel();
+
+    public ParallelOperations2D(int threads, boolean deterministic){
+        this(threads, deterministic, false);
+    }
+
+    public ParallelOperations2D(int threads, boolean deterministic, boolean simd){
+        if (threads < 1){
+            throw new IllegalArgumentException("threads must be >= 1 but was " + threads);
+        }
+        if (simd && !simdAvailable()){
+            throw new IllegalArgumentException("simd needs the Vector API, start java with --add-modules jdk.incubator.vector");
+        }
+        this.threads = threads;
+        this.deterministic = deterministic;
+        this.simd = simd;
+        this.red_black = new GaussSeidelSolver(this);
+        if (threads > 1){
+            this.workers = new Thread[threads - 1];
+            for (int i = 0; i < this.workers.length; i++){
+                this.workers[i] = new Thread(this::work, "fluid-band-" + i);
+                this.workers[i].setDaemon(true);
+                this.workers[i].start();
+            }
+        }
+    }
+
+    public interface RowKernel {
+        /*
+        Process the rows in [row_start, row_end)
+        */
+        void run(int row_start, int row_end);
+    }
+
+    public interface RowMaximum {
+        /*
+        Process the rows in [row_start, row_end) and return the largest value of something (e.g. a residual)
+        */
+        double run(int row_start, int row_end);
+    }
+
+    public int bandCount(int fluid_size){
+        /*
+        The number of bands the interior rows are split into. A few bands per thread keeps the threads
+        busy when some bands finish early. In deterministic mode the layout only depends on the grid size.
+        */
+        int rows = fluid_size - 2;
+        int bands;
+        if (this.deterministic){
+            bands = (rows + DETERMINISTIC_BAND_ROWS - 1) / DETERMINISTIC_BAND_ROWS;
+        } else {
+            bands = this.threads * 4;
+        }
+        return Math.max(1, Math.min(bands, rows));
+    }
+
+    public void forEachBand(int fluid_size, RowKernel kernel){
+        /*
+        Run the kernel over every interior row, one band at a time
+        */
+        int bands = bandCount(fluid_size);
+        if (this.workers == null || bands == 1){
+            // Still walk the bands in order so the work is identical to the parallel case
+            for (int band = 0; band < bands; band++){
+                kernel.run(bandStart(band, bands, fluid_size), bandStart(band + 1, bands, fluid_size));
+            }
+            return;
+        }
+        runSweep(kernel, null, bands, fluid_size);
+    }
+
+    public double maxOverBands(int fluid_size, RowMaximum kernel){
+        /*
+        Same as forEachBand but returns the largest value any band returned. The largest value does not depend
+        on the order the bands finish in so this is deterministic.
+        */
+        int bands = bandCount(fluid_size);
+        if (this.workers == null || bands == 1){
+            double largest = 0.0;
+            for (int band = 0; band < bands; band++){
+                largest = Math.max(largest, kernel.run(bandStart(band, bands, fluid_size), bandStart(band + 1, bands, fluid_size)));
+            }
+            return largest;
+        }
+        return runSweep(null, kernel, bands, fluid_size);
+    }
+
+    private double runSweep(RowKernel kernel, RowMaximum maximum, int bands, int fluid_size){
+        /*
+        Hand the bands out to the workers and the calling thread and wait until all of them are done
+        */
+        this.kernel = kernel;
+        this.maximum = maximum;
+        this.fluid_size = fluid_size;
+        this.caller = Thread.currentThread();
+        this.finished.set(0);
+        this.largest.set(Double.doubleToRawLongBits(0.0));
+        this.sequence++;
+        // The sequence makes sure a worker that read the claims of an earlier sweep can not take a band of this one
+        this.claims.set(((long) (this.sequence & 0xFFFFFF) << (2 * BAND_BITS)) | ((long) bands << BAND_BITS));
+        this.generation++;
+        for (Thread worker : this.workers){
+            LockSupport.unpark(worker);
+        }
+
+        while (runBand()){
+            // The calling thread takes bands as well
+        }
+        int spins = 0;
+        while (this.finished.get() < bands){
+            if (spins < SPINS){
+                spins++;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.park(this);
+            }
+        }
+        this.kernel = null;
+        this.maximum = null;
+
+        Throwable failure = this.failure;
+        if (failure != null){
+            this.failure = null;
+            throw new IllegalStateException("A band of the sweep failed", failure);
+        }
+        return Double.longBitsToDouble(this.largest.get());
+    }
+
+    private boolean runBand(){
+        /*
+        Take the next band of the current sweep and run it. Returns false when every band has been taken.
+        */
+        long claim;
+        do {
+            claim = this.claims.get();
+            if ((claim & BAND_MASK) >= ((claim >>> BAND_BITS) & BAND_MASK)){
+                return false;
+            }
+        } while (!this.claims.compareAndSet(claim, claim + 1));
+
+        // The sweep can not finish before this band so the kernel is the one of the sweep the band was taken from
+        int band = (int) (claim & BAND_MASK);
+        int bands = (int) ((claim >>> BAND_BITS) & BAND_MASK);
+        int fluid_size = this.fluid_size;
+        int row_start = bandStart(band, bands, fluid_size);
+        int row_end = bandStart(band + 1, bands, fluid_size);
+        try {
+            if (this.maximum != null){
+                double value = this.maximum.run(row_start, row_end);
+                long bits;
+                do {
+                    bits = this.largest.get();
+                } while (!this.largest.compareAndSet(bits, Double.doubleToRawLongBits(Math.max(Double.longBitsToDouble(bits), value))));
+            } else {
+                this.kernel.run(row_start, row_end);
+            }
+        } catch (Throwable e){
+            this.failure = e;
+        }
+
+        if (this.finished.incrementAndGet() == bands){
+            Thread caller = this.caller;
+            if (caller != Thread.currentThread()){
+                LockSupport.unpark(caller);
+            }
+        }
+        return true;
+    }
+
+    private void work(){
+        /*
+        What a worker thread does: take bands until there are none left, then wait for the next sweep
+        */
+        while (!this.stopped){
+            int generation = this.generation;
+            if (runBand()){
+                continue;
+            }
+            int spins = 0;
+            while (this.generation == generation && !this.stopped){
+                if (spins < SPINS){
+                    spins++;
+                    Thread.onSpinWait();
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+        }
+    }
+
+    public static boolean simdAvailable(){
+        /*
+        Whether the Vector API (an incubator module that has to be added with --add-modules) can be used
+        */
+        return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    }
+
+    public static int bandStart(int band, int bands, int fluid_size){
+        /*
+        First row of a band (bands evenly divide the rows 1 to fluid_size - 2)
+        */
+        int rows = fluid_size - 2;
+        return 1 + (int) ((long) band * rows / bands);
+    }
+
+    public void shutdown(){
+        if (this.workers != null){
+            this.stopped = true;
+            for (Thread worker : this.workers){
+                LockSupport.unpark(worker);
+            }
+        }
+    }
+
+
+    public void diffusion(double[] array_new, double[] array, int diffuse_type, double time_step, int fluid_size, double diffusion_rate, int gauss_seidel_iter){
+        /*
+        Same as FluidOperations2D.diffusion but the linear system is solved with red-black Gauss-Seidel
+        */
+        diffusion(array_new, array, diffuse_type, time_step, fluid_size, diffusion_rate, this.red_black, gauss_seidel_iter, 0.0, false, null);
+    }
+
+
+    public void diffusion(double[] array_new, double[] array, int diffuse_type, double time_step, int fluid_size, double diffusion_rate,
+                          LinearSolver solver, int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        The linear solve is done by the solver (which should itself be created with this ParallelOperations2D
+        to run on several threads) so diffusion is the same as FluidOperations2D.diffusion
+        */
+        FluidOperations2D.diffusion(array_new, array, diffuse_type, time_step, fluid_size, diffusion_rate, solver, solver_iter, tolerance, warm_start, stats);
+    }
+
+
+    public void pressureProjection(double[] u, double[] v, double[] divergence, double[] pressure, int fluid_size, double time_step, double density, int gauss_seidel_iter){
+        /*
+        Same as FluidOperations2D.pressureProjection but every loop runs on the row bands and the
+        pressure is solved with red-black Gauss-Seidel
+        */
+        pressureProjection(u, v, divergence, pressure, fluid_size, time_step, density, this.red_black, gauss_seidel_iter, 0.0, false, null);
+    }
+
+
+    public void pressureProjection(double[] u, double[] v, double[] divergence, double[] pressure, int fluid_size, double time_step, double density,
+                                   LinearSolver solver, int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        Same as FluidOperations2D.pressureProjection but the divergence and gradient loops run on the row bands
+        */
+        if (!warm_start){
+            Arrays.fill(pressure, 0.0);
+        }
+
+        // First compute the divergence of the velocity field at each cell
+        divergence(u, v, divergence, fluid_size, time_step, density);
+
+        // Now compute the pressures
+        solver.solve(pressure, divergence, 0.0, 1.0, 0, fluid_size, solver_iter, tolerance, stats);
+
+        // Finally update the velocities
+        pressureGradient(u, v, pressure, fluid_size, time_step, density);
+    }
+
+
+    public void divergence(double[] u, double[] v, double[] divergence, int fluid_size, double time_step, double density){
+        /*
+        Compute the right hand side of the pressure equation (including its border values)
+        */
+        this.projection.set(false, u, v, divergence, fluid_size, time_step, density);
+        forEachBand(fluid_size, this.projection);
+        FluidOperations2D.set_boundary_values(0, divergence, fluid_size);
+    }
+
+
+    public void pressureGradient(double[] u, double[] v, double[] pressure, int fluid_size, double time_step, double density){
+        /*
+        Subtract the pressure gradient from the velocities and fix up their border values
+        */
+        this.projection.set(true, u, v, pressure, fluid_size, time_step, density);
+        forEachBand(fluid_size, this.projection);
+        FluidOperations2D.set_boundary_values(1, u, fluid_size);
+        FluidOperations2D.set_boundary_values(2, v, fluid_size);
+    }
+
+
+    public void advection(double[] array_new, double[] array, int advect_type, double time_step, int fluid_size, double[] u, double[] v){
+        /*
+        Same as FluidOperations2D.advection but the rows are split into bands
+        */
+        this.advection.set(array_new, array, time_step, fluid_size, u, v);
+        forEachBand(fluid_size, this.advection);
+
+        FluidOperations2D.set_boundary_values(advect_type, array_new, fluid_size);
+    }
+
+
+    public double redBlackPass(double[] x, double[] rhs, double rhs_scale, double neighbour_scale, double diagonal, int color, int fluid_size){
+        /*
+        Update the cells of one color on every band (see redBlackSweep). Returns the largest change of a cell.
+        */
+        this.sweep.set(x, rhs, rhs_scale, neighbour_scale, diagonal, color, fluid_size);
+        return maxOverBands(fluid_size, this.sweep);
+    }
+
+
+    public static double redBlackSweep(double[] x, double[] rhs, double rhs_scale, double neighbour_scale, double diagonal, int color, int row_start, int row_end, int fluid_size){
+        /*
+        Update the cells of one color in the rows [row_start, row_end) where the new value of a cell is
+        (rhs_scale * rhs + neighbour_scale * (sum of the 4 neighbours)) / diagonal.
+        Returns the largest change of a cell.
+        */
+        double change = 0.0;
+        for (int row = row_start; row < row_end; row++){
+            int col_start = 1 + ((row + 1 + color) & 1);  // First interior column where (row + col) % 2 == color
+            for (int col = col_start; col < fluid_size - 1; col += 2){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                double value = (rhs_scale * rhs[index] + neighbour_scale * (x[index - fluid_size] + x[index + fluid_size]
+                        + x[index - 1] + x[index + 1])) / diagonal;
+                change = Math.max(change, Math.abs(value - x[index]));
+                x[index] = value;
+            }
+        }
+        return change;
+    }
+
+
+    private class ProjectionKernel implements RowKernel {
+        /*
+        The divergence or the pressure gradient loop of the pressure projection
+        */
+        boolean gradient;
+        double[] u;
+        double[] v;
+        double[] field;  // The divergence or the pressure
+        int fluid_size;
+        double time_step;
+        double density;
+
+        void set(boolean gradient, double[] u, double[] v, double[] field, int fluid_size, double time_step, double density){
+            this.gradient = gradient;
+            this.u = u;
+            this.v = v;
+            this.field = field;
+            this.fluid_size = fluid_size;
+            this.time_step = time_step;
+            this.density = density;
+        }
+
+        public void run(int row_start, int row_end){
+            if (this.gradient && simd){
+                VectorOperations2D.pressureGradientRows(this.u, this.v, this.field, this.fluid_size, this.time_step, this.density, row_start, row_end);
+            } else if (this.gradient){
+                FluidOperations2D.pressureGradientRows(this.u, this.v, this.field, this.fluid_size, this.time_step, this.density, row_start, row_end);
+            } else if (simd){
+                VectorOperations2D.divergenceRows(this.u, this.v, this.field, this.fluid_size, this.time_step, this.density, row_start, row_end);
+            } else {
+                FluidOperations2D.divergenceRows(this.u, this.v, this.field, this.fluid_size, this.time_step, this.density, row_start, row_end);
+            }
+        }
+    }
+
+
+    private class AdvectionKernel implements RowKernel {
+        double[] array_new;
+        double[] array;
+        double time_step;
+        int fluid_size;
+        double[] u;
+        double[] v;
+
+        void set(double[] array_new, double[] array, double time_step, int fluid_size, double[] u, double[] v){
+            this.array_new = array_new;
+            this.array = array;
+            this.time_step = time_step;
+            this.fluid_size = fluid_size;
+            this.u = u;
+            this.v = v;
+        }
+
+        public void run(int row_start, int row_end){
+            if (simd){
+                VectorOperations2D.advectRows(this.array_new, this.array, this.time_step, this.fluid_size, this.u, this.v, row_start, row_end);
+            } else {
+                FluidOperations2D.advectRows(this.array_new, this.array, this.time_step, this.fluid_size, this.u, this.v, row_start, row_end);
+            }
+        }
+    }
+
+
+    private class SweepKernel implements RowMaximum {
+        /*
+        One color of a red-black Gauss-Seidel sweep
+        */
+        double[] x;
+        double[] rhs;
+        double rhs_scale;
+        double neighbour_scale;
+        double diagonal;
+        int color;
+        int fluid_size;
+
+        void set(double[] x, double[] rhs, double rhs_scale, double neighbour_scale, double diagonal, int color, int fluid_size){
+            this.x = x;
+            this.rhs = rhs;
+            this.rhs_scale = rhs_scale;
+            this.neighbour_scale = neighbour_scale;
+            this.diagonal = diagonal;
+            this.color = color;
+            this.fluid_size = fluid_size;
+        }
+
+        public double run(int row_start, int row_end){
+            if (simd){
+                return VectorOperations2D.redBlackSweep(this.x, this.rhs, this.rhs_scale, this.neighbour_scale, this.diagonal, this.color,
+                        row_start, row_end, this.fluid_size);
+            }
+            return redBlackSweep(this.x, this.rhs, this.rhs_scale, this.neighbour_scale, this.diagonal, this.color, row_start, row_end, this.fluid_size);
+        }
+    }
+}
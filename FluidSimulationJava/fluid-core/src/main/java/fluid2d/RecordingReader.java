@@ -0,0 +1,301 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following reads the recordings written by StateRecorder. The index at the end of the file gives the step and
+position of every frame so any frame can be found without reading the frames before it. When the index is missing
+(the recorder was not closed, e.g. the program crashed) it is rebuilt by walking the frame headers, and a frame cut
+short at the end of the file is ignored.
+
+Frames only store the difference to the frame before them, so reading a frame decodes from the keyframe before it.
+The values of the last frame read are kept, so reading the frames in order only decodes each frame once. The
+values read back are within half a quantum of the recorded ones.
+*/
+
+package fluid2d;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class RecordingReader implements AutoCloseable {
+    private static final int FRAME_HEADER_BYTES = Integer.BYTES + Long.BYTES + Double.BYTES + 1 + Integer.BYTES;
+    private static final int INDEX_ENTRY_BYTES = Long.BYTES + Long.BYTES + 1;
+
+    public Path path;
+    public int fluid_size;
+    public double dye_quantum;
+    public double velocity_quantum;
+    public int keyframe_interval;
+    public boolean velocity;  // Whether the recording holds u and v as well as the dye
+    public boolean indexed;  // Whether the index was read from the file (false when it had to be rebuilt)
+
+    private final FileChannel channel;
+    private long[] steps;
+    private long[] positions;
+    private boolean[] keyframes;
+
+    // The quantised values of the last frame decoded (-1 when none)
+    private int current = -1;
+    private long[] current_dye;
+    private long[] current_u;
+    private long[] current_v;
+    private double current_time;
+    private ByteBuffer input = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+    public RecordingReader(Path path){
+        this.path = path;
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            ByteBuffer header = read(0, StateRecorder.HEADER_BYTES);
+            if (header.remaining() < StateRecorder.HEADER_BYTES || header.getInt() != StateRecorder.MAGIC){
+                throw new IllegalArgumentException(path + " is not a recording");
+            }
+            int version = header.getInt();
+            if (version != StateRecorder.VERSION){
+                throw new IllegalArgumentException("Unsupported recording version " + version + " in " + path);
+            }
+            this.fluid_size = header.getInt();
+            this.dye_quantum = header.getDouble();
+            this.velocity_quantum = header.getDouble();
+            this.keyframe_interval = header.getInt();
+            this.velocity = header.get() != 0;
+
+            int cells = this.fluid_size * this.fluid_size;
+            this.current_dye = new long[cells];
+            if (this.velocity){
+                this.current_u = new long[cells];
+                this.current_v = new long[cells];
+            }
+
+            this.indexed = readIndex();
+            if (!this.indexed){
+                rebuildIndex();
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not read the recording " + path, e);
+        }
+    }
+
+    public int frames(){
+        return this.steps.length;
+    }
+
+    public long step(int frame){
+        /*
+        The simulation step a frame was recorded at
+        */
+        return this.steps[frame];
+    }
+
+    public int frameOf(long step){
+        /*
+        The last frame recorded at or before the given step (-1 if the recording starts after it)
+        */
+        int found = Arrays.binarySearch(this.steps, step);
+        return (found >= 0) ? found : -found - 2;
+    }
+
+    public double readStep(long step, double[] dye, double[] u, double[] v){
+        /*
+        Read the last frame recorded at or before step, see readFrame
+        */
+        int frame = frameOf(step);
+        if (frame < 0){
+            throw new IllegalArgumentException("The recording starts after step " + step);
+        }
+        return readFrame(frame, dye, u, v);
+    }
+
+    public double readFrame(int frame, double[] dye, double[] u, double[] v){
+        /*
+        Decode a frame into the given arrays (fluid_size * fluid_size cells each) and return its simulated time.
+        u and v may be null, they are only filled in when the recording holds the velocities.
+        */
+        if (frame < 0 || frame >= frames()){
+            throw new IllegalArgumentException("Frame " + frame + " is not in the recording (" + frames() + " frames)");
+        }
+        try {
+            // Start from the keyframe before the frame unless we can continue from the last frame decoded
+            int start = frame;
+            while (!this.keyframes[start]){
+                start--;
+            }
+            if (this.current >= start && this.current <= frame){
+                start = this.current + 1;
+            }
+            for (int next = start; next <= frame; next++){
+                decodeFrame(next);
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not read frame " + frame + " of " + this.path, e);
+        }
+
+        dequantise(this.current_dye, this.dye_quantum, dye);
+        if (this.velocity && u != null && v != null){
+            dequantise(this.current_u, this.velocity_quantum, u);
+            dequantise(this.current_v, this.velocity_quantum, v);
+        }
+        return this.current_time;
+    }
+
+    private void decodeFrame(int frame) throws IOException {
+        ByteBuffer header = read(this.positions[frame], FRAME_HEADER_BYTES);
+        if (header.getInt() != StateRecorder.FRAME_MAGIC){
+            throw new IllegalArgumentException("The recording " + this.path + " is corrupt at frame " + frame);
+        }
+        header.getLong();  // The step, already in the index
+        double simulated_time = header.getDouble();
+        boolean keyframe = header.get() != 0;
+        int length = header.getInt();
+
+        ByteBuffer payload = read(this.positions[frame] + FRAME_HEADER_BYTES, length);
+        this.current = -1;  // In case decoding fails half way
+        decode(payload, this.current_dye, keyframe);
+        if (this.velocity){
+            decode(payload, this.current_u, keyframe);
+            decode(payload, this.current_v, keyframe);
+        }
+        this.current = frame;
+        this.current_time = simulated_time;
+    }
+
+    private static void decode(ByteBuffer payload, long[] values, boolean keyframe){
+        /*
+        Apply the differences of one field (see StateRecorder.encode) to values
+        */
+        int index = 0;
+        while (index < values.length){
+            long token = getVarint(payload);
+            if ((token & 1) != 0){
+                long zeros = token >>> 1;
+                if (keyframe){
+                    Arrays.fill(values, index, (int) (index + zeros), 0L);
+                }
+                index += (int) zeros;
+            } else {
+                long zigzag = token >>> 1;
+                long delta = (zigzag >>> 1) ^ -(zigzag & 1);
+                values[index] = keyframe ? delta : values[index] + delta;
+                index++;
+            }
+        }
+    }
+
+    private static long getVarint(ByteBuffer payload){
+        long value = 0;
+        int shift = 0;
+        while (true){
+            byte next = payload.get();
+            value |= (long) (next & 0x7F) << shift;
+            if ((next & 0x80) == 0){
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static void dequantise(long[] quantised, double quantum, double[] values){
+        for (int index = 0; index < quantised.length; index++){
+            values[index] = quantised[index] * quantum;
+        }
+    }
+
+    private boolean readIndex() throws IOException {
+        /*
+        Read the index from the end of the file, returns false if there is no valid index
+        */
+        long size = this.channel.size();
+        if (size < StateRecorder.HEADER_BYTES + Long.BYTES + Integer.BYTES){
+            return false;
+        }
+        ByteBuffer trailer = read(size - Long.BYTES - Integer.BYTES, Long.BYTES + Integer.BYTES);
+        long index_position = trailer.getLong();
+        if (trailer.getInt() != StateRecorder.INDEX_MAGIC || index_position < StateRecorder.HEADER_BYTES || index_position >= size){
+            return false;
+        }
+        int frames = read(index_position, Integer.BYTES).getInt();
+        if (index_position + Integer.BYTES + (long) frames * INDEX_ENTRY_BYTES + Long.BYTES + Integer.BYTES != size){
+            return false;
+        }
+        ByteBuffer entries = read(index_position + Integer.BYTES, frames * INDEX_ENTRY_BYTES);
+        this.steps = new long[frames];
+        this.positions = new long[frames];
+        this.keyframes = new boolean[frames];
+        for (int frame = 0; frame < frames; frame++){
+            this.steps[frame] = entries.getLong();
+            this.positions[frame] = entries.getLong();
+            this.keyframes[frame] = entries.get() != 0;
+        }
+        return true;
+    }
+
+    private void rebuildIndex() throws IOException {
+        /*
+        Walk the frame headers from the start of the file until the end or the first incomplete frame
+        */
+        ArrayList<long[]> entries = new ArrayList<>();
+        long size = this.channel.size();
+        long position = StateRecorder.HEADER_BYTES;
+        while (position + FRAME_HEADER_BYTES <= size){
+            ByteBuffer header = read(position, FRAME_HEADER_BYTES);
+            if (header.getInt() != StateRecorder.FRAME_MAGIC){
+                break;
+            }
+            long step = header.getLong();
+            header.getDouble();
+            boolean keyframe = header.get() != 0;
+            long end = position + FRAME_HEADER_BYTES + header.getInt();
+            if (end > size){
+                break;
+            }
+            entries.add(new long[]{step, position, keyframe ? 1 : 0});
+            position = end;
+        }
+        this.steps = new long[entries.size()];
+        this.positions = new long[entries.size()];
+        this.keyframes = new boolean[entries.size()];
+        for (int frame = 0; frame < entries.size(); frame++){
+            this.steps[frame] = entries.get(frame)[0];
+            this.positions[frame] = entries.get(frame)[1];
+            this.keyframes[frame] = entries.get(frame)[2] != 0;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        /*
+        Read length bytes at position into the reusable input buffer (fewer if the file ends first)
+        */
+        if (this.input.capacity() < length){
+            this.input = ByteBuffer.allocate(Math.max(length, 2 * this.input.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer buffer = this.input;
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()){
+            if (this.channel.read(buffer, position + buffer.position()) < 0){
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    public void close(){
+        try {
+            this.channel.close();
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not close the recording " + this.path, e);
+        }
+    }
+}
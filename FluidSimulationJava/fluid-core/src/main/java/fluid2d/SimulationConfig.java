@@ -0,0 +1,346 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following holds every parameter required to run the simulation. These used to be hardcoded
+fields in Main but now live here so that the same values can drive both the Processing front end
+and the headless solver. The defaults match the values Main has always used.
+*/
+
+package fluid2d;
+
+public class SimulationConfig {
+    /* Hyperparameters (Feel free to change these accordingly) */
+    // Grid Constants
+    public int fluid_size = 150;  // The size of the fluid we are simulating (includes the 1px thick border)
+
+    // Fluid Constants
+    public double density = 0.01;
+    public double viscosity = 0.00005;
+    public double diffusion_rate = 0.00005;  // Be careful to not set this too high otherwise the fluid will diffuse to quickly for you to see the animation
+
+    // Simulation Constants
+    public double time_step = 0.15;  // You can lower it to get slow motion animation
+    public int gauss_seidel_iter = 30;  // Iterations per solve for gauss_seidel, jacobi, cg and iccg
+
+    // Linear solvers (gauss_seidel, jacobi, cg, iccg, multigrid or fmg, see LinearSolver)
+    public String diffusion_solver = "gauss_seidel";
+    public String pressure_solver = "gauss_seidel";
+    public int multigrid_cycles = 2;  // Cycles per solve for multigrid and fmg
+    public double solver_tolerance = 0.0;  // Stop a solve once the largest residual is this fraction of the largest right hand side value (0 always uses every iteration)
+    public boolean warm_start = false;  // Start the solves from the previous frame's solution instead of zero
+
+    // Execution Constants
+    public int threads = 1;  // Number of threads used to advance the fluid (more than 1 switches to red-black Gauss-Seidel)
+    public boolean deterministic = false;  // Produce bit identical results for any number of threads (always uses red-black Gauss-Seidel)
+    public boolean simd = false;  // Use the Vector API kernels (needs --add-modules jdk.incubator.vector and always uses red-black Gauss-Seidel)
+    public String precision = "double";  // Store the fluid in double or float arrays (float only supports the gauss_seidel and jacobi solvers)
+    public boolean fused = false;  // Advance the fluid with the fused passes of FusedOperations2D (single threaded double precision gauss_seidel only)
+    public boolean interleaved = false;  // Store u and v interleaved in a single array (needs fused)
+    public int sweep_block = 8;  // Gauss-Seidel sweeps done in a single pass over the grid when fused
+    public String storage = "heap";  // Store the fluid in heap arrays, off heap (offheap) or in memory mapped files (mapped), see Field2D
+    public String storage_dir = "";  // Directory for the memory mapped files (the temporary directory when empty)
+
+    // Active tiles (see SparseOperations2D, single threaded double precision simulation with gauss_seidel diffusion only)
+    public boolean active_tiles = false;  // Only process the tiles of the grid that hold velocity or dye
+    public int tile_size = 32;  // Width and height of a tile in cells
+    public double active_threshold = 1e-4;  // A tile is active when |u|, |v| or the dye of one of its cells is above this
+    public boolean active_tiles_check = false;  // Also run the dense step every step and record the largest difference
+
+    // Threading Constants (see SimulationLoop, only used when the simulation runs on its own thread like in Main)
+    public double simulation_rate = 60.0;  // Steps per second (0 steps as fast as possible)
+    public boolean snapshot_velocity = false;  // Also copy the velocities into the snapshots handed to the renderer
+
+    // Metrics Constants (see SimulationMetrics)
+    public boolean metrics = false;  // Time every stage and record the solver and health statistics of every step
+    public String metrics_file = "";  // Also write the metrics of every step to this file (.json or .jsonl for JSON lines, CSV otherwise)
+    public int metrics_window = 256;  // Number of steps the rolling percentiles are computed over
+    public double frame_budget_ms = 1000.0 / 60.0;  // Frames taking longer than this are counted as over budget
+
+    public SimulationConfig(){
+    }
+
+    public SimulationConfig copy(){
+        /*
+        Returns an independent copy of this configuration
+        */
+        SimulationConfig other = new SimulationConfig();
+        other.fluid_size = this.fluid_size;
+        other.density = this.density;
+        other.viscosity = this.viscosity;
+        other.diffusion_rate = this.diffusion_rate;
+        other.time_step = this.time_step;
+        other.gauss_seidel_iter = this.gauss_seidel_iter;
+        other.diffusion_solver = this.diffusion_solver;
+        other.pressure_solver = this.pressure_solver;
+        other.multigrid_cycles = this.multigrid_cycles;
+        other.solver_tolerance = this.solver_tolerance;
+        other.warm_start = this.warm_start;
+        other.threads = this.threads;
+        other.deterministic = this.deterministic;
+        other.simd = this.simd;
+        other.precision = this.precision;
+        other.fused = this.fused;
+        other.interleaved = this.interleaved;
+        other.sweep_block = this.sweep_block;
+        other.storage = this.storage;
+        other.storage_dir = this.storage_dir;
+        other.active_tiles = this.active_tiles;
+        other.tile_size = this.tile_size;
+        other.active_threshold = this.active_threshold;
+        other.active_tiles_check = this.active_tiles_check;
+        other.simulation_rate = this.simulation_rate;
+        other.snapshot_velocity = this.snapshot_velocity;
+        other.metrics = this.metrics;
+        other.metrics_file = this.metrics_file;
+        other.metrics_window = this.metrics_window;
+        other.frame_budget_ms = this.frame_budget_ms;
+        return other;
+    }
+
+    public void validate(){
+        /*
+        Ensure the configuration describes a simulation we can actually run
+        */
+        if (this.fluid_size < 10){
+            throw new IllegalArgumentException("fluid_size must be >= 10 but was " + this.fluid_size);
+        }
+        if (this.density <= 0.0){
+            throw new IllegalArgumentException("density must be > 0 but was " + this.density);
+        }
+        if (this.time_step <= 0.0){
+            throw new IllegalArgumentException("time_step must be > 0 but was " + this.time_step);
+        }
+        if (this.viscosity < 0.0 || this.diffusion_rate < 0.0){
+            throw new IllegalArgumentException("viscosity and diffusion_rate must be >= 0");
+        }
+        if (this.gauss_seidel_iter < 1){
+            throw new IllegalArgumentException("gauss_seidel_iter must be >= 1 but was " + this.gauss_seidel_iter);
+        }
+        if (!LinearSolver.isKnown(this.diffusion_solver)){
+            throw new IllegalArgumentException("Unknown diffusion_solver " + this.diffusion_solver + " (expected one of " + String.join(", ", LinearSolver.NAMES) + ")");
+        }
+        if (!LinearSolver.isKnown(this.pressure_solver)){
+            throw new IllegalArgumentException("Unknown pressure_solver " + this.pressure_solver + " (expected one of " + String.join(", ", LinearSolver.NAMES) + ")");
+        }
+        if (this.multigrid_cycles < 1){
+            throw new IllegalArgumentException("multigrid_cycles must be >= 1 but was " + this.multigrid_cycles);
+        }
+        if (this.solver_tolerance < 0.0){
+            throw new IllegalArgumentException("solver_tolerance must be >= 0 but was " + this.solver_tolerance);
+        }
+        if (this.threads < 1){
+            throw new IllegalArgumentException("threads must be >= 1 but was " + this.threads);
+        }
+        if (!this.precision.equals("double") && !this.precision.equals("float")){
+            throw new IllegalArgumentException("precision must be double or float but was " + this.precision);
+        }
+        if (singlePrecision() && !(isSimpleSolver(this.diffusion_solver) && isSimpleSolver(this.pressure_solver))){
+            throw new IllegalArgumentException("precision=float only supports the gauss_seidel and jacobi solvers");
+        }
+        if (this.sweep_block < 1){
+            throw new IllegalArgumentException("sweep_block must be >= 1 but was " + this.sweep_block);
+        }
+        if (this.interleaved && !this.fused){
+            throw new IllegalArgumentException("interleaved needs fused=true");
+        }
+        if (this.fused && (this.threads > 1 || this.deterministic || this.simd || singlePrecision()
+                || !this.diffusion_solver.equals("gauss_seidel") || !this.pressure_solver.equals("gauss_seidel"))){
+            throw new IllegalArgumentException("fused only supports the single threaded double precision simulation with the gauss_seidel solvers");
+        }
+        if (!this.storage.equals("heap") && !this.storage.equals("offheap") && !this.storage.equals("mapped")){
+            throw new IllegalArgumentException("storage must be heap, offheap or mapped but was " + this.storage);
+        }
+        // Field2D storage only has the plain Gauss-Seidel operations of FieldOperations2D. Putting every other set of
+        // operations and solvers behind a row accessor would mean rewriting all of them, which is not worth it while
+        // grids that need more than 2^31 cells are too large to step fast anyway.
+        if (!this.storage.equals("heap") && (this.threads > 1 || this.deterministic || this.simd || singlePrecision() || this.fused || this.active_tiles
+                || !this.diffusion_solver.equals("gauss_seidel") || !this.pressure_solver.equals("gauss_seidel"))){
+            throw new IllegalArgumentException("storage=" + this.storage + " only supports the single threaded double precision simulation with the gauss_seidel solvers");
+        }
+        long cells_per_array = (this.interleaved ? 2L : 1L) * this.fluid_size * this.fluid_size;  // Interleaved arrays hold both u and v
+        if (cells_per_array > Integer.MAX_VALUE && this.storage.equals("heap")){
+            throw new IllegalArgumentException("fluid_size " + this.fluid_size + " has too many cells for arrays, use "
+                    + (this.interleaved ? "interleaved=false" : "storage=offheap or storage=mapped"));
+        }
+        if (this.tile_size < 1){
+            throw new IllegalArgumentException("tile_size must be >= 1 but was " + this.tile_size);
+        }
+        if (this.active_threshold < 0.0){
+            throw new IllegalArgumentException("active_threshold must be >= 0 but was " + this.active_threshold);
+        }
+        if (this.active_tiles_check && !this.active_tiles){
+            throw new IllegalArgumentException("active_tiles_check needs active_tiles=true");
+        }
+        if (this.active_tiles && (this.threads > 1 || this.deterministic || this.simd || singlePrecision() || this.fused
+                || !this.diffusion_solver.equals("gauss_seidel"))){
+            throw new IllegalArgumentException("active_tiles only supports the single threaded double precision simulation with the gauss_seidel diffusion solver");
+        }
+        if (this.simulation_rate < 0.0){
+            throw new IllegalArgumentException("simulation_rate must be >= 0 but was " + this.simulation_rate);
+        }
+        if (this.metrics_window < 1){
+            throw new IllegalArgumentException("metrics_window must be >= 1 but was " + this.metrics_window);
+        }
+        if (this.frame_budget_ms <= 0.0){
+            throw new IllegalArgumentException("frame_budget_ms must be > 0 but was " + this.frame_budget_ms);
+        }
+        if (!this.metrics_file.isEmpty() && !this.metrics){
+            throw new IllegalArgumentException("metrics_file needs metrics=true");
+        }
+    }
+
+    public boolean sameLayout(SimulationConfig other){
+        /*
+        Whether a solver created for other can be reset to this configuration (see FluidSolver.reset), that is
+        everything that decides which buffers, solvers and threads a solver allocates is the same
+        */
+        return this.fluid_size == other.fluid_size && this.diffusion_solver.equals(other.diffusion_solver)
+                && this.pressure_solver.equals(other.pressure_solver) && this.threads == other.threads
+                && this.deterministic == other.deterministic && this.simd == other.simd && this.precision.equals(other.precision)
+                && this.fused == other.fused && this.interleaved == other.interleaved && this.sweep_block == other.sweep_block
+                && this.storage.equals(other.storage) && this.storage_dir.equals(other.storage_dir)
+                && this.active_tiles == other.active_tiles && this.tile_size == other.tile_size
+                && this.active_tiles_check == other.active_tiles_check;
+    }
+
+    public boolean singlePrecision(){
+        return this.precision.equals("float");
+    }
+
+    private static boolean isSimpleSolver(String solver){
+        return solver.equals("gauss_seidel") || solver.equals("jacobi");
+    }
+
+    public int solverIterations(String solver){
+        /*
+        The number of iterations a solve with the named solver gets
+        */
+        if (solver.equals("multigrid") || solver.equals("fmg")){
+            return this.multigrid_cycles;
+        }
+        return this.gauss_seidel_iter;
+    }
+
+    public boolean set(String name, String value){
+        /*
+        Set a parameter by name (the same name as the field). Returns false if the name
+        is not a known parameter so that callers can handle their own options.
+        */
+        switch (name){
+            case "fluid_size":
+                this.fluid_size = Integer.parseInt(value);
+                return true;
+            case "density":
+                this.density = Double.parseDouble(value);
+                return true;
+            case "viscosity":
+                this.viscosity = Double.parseDouble(value);
+                return true;
+            case "diffusion_rate":
+                this.diffusion_rate = Double.parseDouble(value);
+                return true;
+            case "time_step":
+                this.time_step = Double.parseDouble(value);
+                return true;
+            case "gauss_seidel_iter":
+                this.gauss_seidel_iter = Integer.parseInt(value);
+                return true;
+            case "diffusion_solver":
+                this.diffusion_solver = value;
+                return true;
+            case "pressure_solver":
+                this.pressure_solver = value;
+                return true;
+            case "multigrid_cycles":
+                this.multigrid_cycles = Integer.parseInt(value);
+                return true;
+            case "solver_tolerance":
+                this.solver_tolerance = Double.parseDouble(value);
+                return true;
+            case "warm_start":
+                this.warm_start = Boolean.parseBoolean(value);
+                return true;
+            case "threads":
+                this.threads = Integer.parseInt(value);
+                return true;
+            case "deterministic":
+                this.deterministic = Boolean.parseBoolean(value);
+                return true;
+            case "simd":
+                this.simd = Boolean.parseBoolean(value);
+                return true;
+            case "precision":
+                this.precision = value;
+                return true;
+            case "fused":
+                this.fused = Boolean.parseBoolean(value);
+                return true;
+            case "interleaved":
+                this.interleaved = Boolean.parseBoolean(value);
+                return true;
+            case "sweep_block":
+                this.sweep_block = Integer.parseInt(value);
+                return true;
+            case "storage":
+                this.storage = value;
+                return true;
+            case "storage_dir":
+                this.storage_dir = value;
+                return true;
+            case "active_tiles":
+                this.active_tiles = Boolean.parseBoolean(value);
+                return true;
+            case "tile_size":
+                this.tile_size = Integer.parseInt(value);
+                return true;
+            case "active_threshold":
+                this.active_threshold = Double.parseDouble(value);
+                return true;
+            case "active_tiles_check":
+                this.active_tiles_check = Boolean.parseBoolean(value);
+                return true;
+            case "simulation_rate":
+                this.simulation_rate = Double.parseDouble(value);
+                return true;
+            case "snapshot_velocity":
+                this.snapshot_velocity = Boolean.parseBoolean(value);
+                return true;
+            case "metrics":
+                this.metrics = Boolean.parseBoolean(value);
+                return true;
+            case "metrics_file":
+                this.metrics_file = value;
+                return true;
+            case "metrics_window":
+                this.metrics_window = Integer.parseInt(value);
+                return true;
+            case "frame_budget_ms":
+                this.frame_budget_ms = Double.parseDouble(value);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public String toString(){
+        return "fluid_size=" + this.fluid_size + " density=" + this.density + " viscosity=" + this.viscosity
+                + " diffusion_rate=" + this.diffusion_rate + " time_step=" + this.time_step
+                + " gauss_seidel_iter=" + this.gauss_seidel_iter + " diffusion_solver=" + this.diffusion_solver
+                + " pressure_solver=" + this.pressure_solver
+                + " multigrid_cycles=" + this.multigrid_cycles + " solver_tolerance=" + this.solver_tolerance
+                + " warm_start=" + this.warm_start + " threads=" + this.threads
+                + " deterministic=" + this.deterministic + " simd=" + this.simd + " precision=" + this.precision
+                + " fused=" + this.fused + " interleaved=" + this.interleaved + " sweep_block=" + this.sweep_block
+                + " storage=" + this.storage + (this.storage_dir.isEmpty() ? "" : " storage_dir=" + this.storage_dir)
+                + " active_tiles=" + this.active_tiles + " tile_size=" + this.tile_size + " active_threshold=" + this.active_threshold
+                + " active_tiles_check=" + this.active_tiles_check
+                + " simulation_rate=" + this.simulation_rate + " snapshot_velocity=" + this.snapshot_velocity
+                + " metrics=" + this.metrics + (this.metrics_file.isEmpty() ? "" : " metrics_file=" + this.metrics_file)
+                + " metrics_window=" + this.metrics_window + " frame_budget_ms=" + this.frame_budget_ms;
+    }
+}
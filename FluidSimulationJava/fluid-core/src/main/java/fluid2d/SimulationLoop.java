@@ -0,0 +1,101 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following runs a FluidSolver on its own thread at a fixed number of steps per second (config.simulation_rate)
+so the simulation does not depend on how fast (or how often) the window is redrawn. Only the simulation thread
+touches the solver. Before every step it moves the sources queued in sources into the SplatBatch of the solver
+and after every step it publishes a snapshot of the fluid through snapshots, which the renderer reads at its own
+rate.
+
+When a step takes longer than the rate allows the loop falls behind and simply carries on from the current time
+rather than trying to catch up, so a slow machine runs the simulation in slow motion instead of stalling.
+*/
+
+package fluid2d;
+
+import java.util.concurrent.locks.LockSupport;
+
+public class SimulationLoop implements Runnable {
+    public FluidSolver solver;  // Owned by the simulation thread once started
+    public SourceQueue sources = new SourceQueue();
+    public SnapshotBuffer snapshots;
+    public long step_period_nanos;  // 0 steps as fast as possible
+
+    private volatile boolean running = false;
+    private Thread thread;
+    public volatile Throwable failure;  // Whatever stopped the simulation thread (null while it is fine)
+
+    public SimulationLoop(FluidSolver solver){
+        this.solver = solver;
+        this.snapshots = new SnapshotBuffer(solver.fluid.fluid_size, solver.config.snapshot_velocity);
+        double rate = solver.config.simulation_rate;
+        this.step_period_nanos = (rate > 0.0) ? (long) (1e9 / rate) : 0;
+    }
+
+    public void start(){
+        /*
+        Start stepping the solver on a new thread
+        */
+        if (this.thread != null){
+            throw new IllegalStateException("The simulation loop has already been started");
+        }
+        this.running = true;
+        this.thread = new Thread(this, "fluid-simulation");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public void stop(){
+        /*
+        Stop the simulation thread and wait for it to finish its current step
+        */
+        this.running = false;
+        if (this.thread == null){
+            return;
+        }
+        LockSupport.unpark(this.thread);
+        try {
+            this.thread.join();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void run(){
+        FluidSolver solver = this.solver;
+        long period = this.step_period_nanos;
+        long next_step = System.nanoTime();
+        try {
+            while (this.running){
+                this.sources.drain(solver.splats);
+                solver.step();
+                this.snapshots.back().capture(solver);
+                this.snapshots.publish();
+
+                if (period > 0){
+                    next_step += period;
+                    long now = System.nanoTime();
+                    if (now - next_step > period){
+                        next_step = now;  // Fell behind, do not try to catch up
+                    }
+                    while (this.running && (now = System.nanoTime()) < next_step){
+                        LockSupport.parkNanos(next_step - now);
+                    }
+                }
+            }
+        } catch (RuntimeException | Error e){
+            this.failure = e;
+            this.running = false;
+            throw e;
+        }
+    }
+
+    public boolean isRunning(){
+        return this.running;
+    }
+}
@@ -0,0 +1,224 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following measures how long every stage of a step takes along with the solver iterations and residuals, the
+total dye and the largest divergence. FluidSolver times every operation it calls with begin and end. A caller that
+steps and draws on the same thread can also time the whole frame and the rendering with beginFrame and endFrame,
+a renderer running on another thread than the solver (see SimulationLoop) reports its frames with recordFrame.
+At the end of every step (or frame) the numbers go to every MetricsSink and to the JFR events in FluidEvents.
+
+Metrics are off unless config.metrics is set. While off begin returns 0 without reading the clock and everything
+else returns straight away, so the only cost left is a branch per stage.
+*/
+
+package fluid2d;
+
+import java.util.ArrayList;
+
+public class SimulationMetrics {
+    // The stages of a step. The fused step diffuses and advects u, v and the dye together so it has its own stages.
+    public static final int DIFFUSE_U = 0;
+    public static final int DIFFUSE_V = 1;
+    public static final int PROJECT = 2;
+    public static final int ADVECT_U = 3;
+    public static final int ADVECT_V = 4;
+    public static final int PROJECT_ADVECTED = 5;
+    public static final int DIFFUSE_DYE = 6;
+    public static final int ADVECT_DYE = 7;
+    public static final int DIFFUSE = 8;
+    public static final int ADVECT = 9;
+    public static final int STAGES = 10;
+    public static final String[] STAGE_NAMES = {"diffuse_u", "diffuse_v", "project", "advect_u", "advect_v", "project_advected",
+            "diffuse_dye", "advect_dye", "diffuse", "advect"};
+
+    public boolean enabled;
+    public StepMetrics latest;  // The metrics of the latest step (null when disabled)
+    public InMemoryMetricsSink memory;  // Rolling window of the latest steps (null when disabled)
+    private ArrayList<MetricsSink> sinks = new ArrayList<>();
+    private long frame_budget_nanos;
+    private boolean in_frame = false;  // Steps inside beginFrame and endFrame are published by endFrame
+
+    public SimulationMetrics(SimulationConfig config){
+        this.enabled = config.metrics;
+        this.frame_budget_nanos = (long) (config.frame_budget_ms * 1e6);
+        if (!this.enabled){
+            return;
+        }
+        this.latest = new StepMetrics(stagesFor(config), new String[]{"diffuse_u", "diffuse_v", "project", "project_advected", "diffuse_dye"});
+        this.latest.frame_budget_nanos = this.frame_budget_nanos;
+        this.memory = new InMemoryMetricsSink(config.metrics_window);
+        addSink(this.memory);
+        if (!config.metrics_file.isEmpty()){
+            addSink(new FileMetricsSink(config.metrics_file));
+        }
+    }
+
+    public static int[] stagesFor(SimulationConfig config){
+        /*
+        The stages a step of the configured simulation goes through in the order they happen
+        */
+        if (config.fused){
+            return new int[]{DIFFUSE, PROJECT, ADVECT, PROJECT_ADVECTED};
+        }
+        return new int[]{DIFFUSE_U, DIFFUSE_V, PROJECT, ADVECT_U, ADVECT_V, PROJECT_ADVECTED, DIFFUSE_DYE, ADVECT_DYE};
+    }
+
+    public void addSink(MetricsSink sink){
+        if (!this.enabled){
+            throw new IllegalStateException("Metrics are disabled (set metrics=true in the SimulationConfig)");
+        }
+        this.sinks.add(sink);
+    }
+
+    public long begin(){
+        /*
+        Start timing something. Pass the returned value to end, endStep or endFrame.
+        */
+        return this.enabled ? System.nanoTime() : 0;
+    }
+
+    public void end(int stage, long start){
+        /*
+        Finish timing a stage of the current step
+        */
+        if (!this.enabled){
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        this.latest.stage_nanos[stage] = elapsed;
+
+        FluidEvents.StageEvent event = new FluidEvents.StageEvent();
+        if (event.isEnabled()){
+            event.stage = STAGE_NAMES[stage];
+            event.step = this.latest.step + 1;
+            event.time = elapsed;
+            event.commit();
+        }
+    }
+
+    public void endStep(FluidSolver solver, long start){
+        /*
+        Finish the step started at start. Collects the solve statistics and health signals and publishes the step
+        unless it is part of a frame.
+        */
+        if (!this.enabled){
+            return;
+        }
+        StepMetrics metrics = this.latest;
+        metrics.step_nanos = System.nanoTime() - start;
+        metrics.step = solver.step_count;
+        metrics.simulated_time = solver.simulated_time;
+
+        SolveStats[] solves = {solver.diffuse_u_stats, solver.diffuse_v_stats, solver.project_stats, solver.project_advected_stats, solver.diffuse_dye_stats};
+        int iterations = 0;
+        double residual = 0.0;
+        for (int i = 0; i < solves.length; i++){
+            metrics.solve_iterations[i] = solves[i].iterations;
+            metrics.solve_residuals[i] = solves[i].residual;
+            iterations += solves[i].iterations;
+            residual = Math.max(residual, solves[i].residual);
+        }
+        metrics.total_dye = solver.fluid.total_dye();
+        metrics.max_divergence = solver.fluid.max_divergence();
+
+        FluidEvents.StepEvent event = new FluidEvents.StepEvent();
+        if (event.isEnabled()){
+            event.step = metrics.step;
+            event.time = metrics.step_nanos;
+            event.iterations = iterations;
+            event.residual = residual;
+            event.total_dye = metrics.total_dye;
+            event.max_divergence = metrics.max_divergence;
+            event.commit();
+        }
+
+        if (!this.in_frame){
+            publish();
+        }
+    }
+
+    public long beginFrame(){
+        /*
+        Start a frame. The step taken during the frame is published together with the frame time by endFrame.
+        */
+        if (!this.enabled){
+            return 0;
+        }
+        this.in_frame = true;
+        return System.nanoTime();
+    }
+
+    public void endFrame(long frame_start, long render_start){
+        /*
+        Finish a frame started at frame_start whose rendering started at render_start (both from begin)
+        */
+        if (!this.enabled){
+            return;
+        }
+        long now = System.nanoTime();
+        StepMetrics metrics = this.latest;
+        metrics.frame_nanos = now - frame_start;
+        metrics.render_nanos = now - render_start;
+        metrics.over_budget = metrics.frame_nanos > this.frame_budget_nanos;
+        this.in_frame = false;
+
+        FluidEvents.FrameEvent event = new FluidEvents.FrameEvent();
+        if (event.isEnabled()){
+            event.step = metrics.step;
+            event.time = metrics.frame_nanos;
+            event.render = metrics.render_nanos;
+            event.budget = this.frame_budget_nanos;
+            event.over_budget = metrics.over_budget;
+            event.commit();
+        }
+        publish();
+    }
+
+    public void recordFrame(long step, long frame_start, long render_start){
+        /*
+        Report a frame drawn on a different thread than the one stepping the solver (step is the step it showed).
+        It only goes to MetricsSink.recordFrame and the frame event since the step has already been published.
+        */
+        if (!this.enabled){
+            return;
+        }
+        long now = System.nanoTime();
+        long frame_nanos = now - frame_start;
+        long render_nanos = now - render_start;
+        boolean over_budget = frame_nanos > this.frame_budget_nanos;
+
+        FluidEvents.FrameEvent event = new FluidEvents.FrameEvent();
+        if (event.isEnabled()){
+            event.step = step;
+            event.time = frame_nanos;
+            event.render = render_nanos;
+            event.budget = this.frame_budget_nanos;
+            event.over_budget = over_budget;
+            event.commit();
+        }
+        for (int i = 0; i < this.sinks.size(); i++){
+            this.sinks.get(i).recordFrame(frame_nanos, render_nanos, over_budget);
+        }
+    }
+
+    private void publish(){
+        StepMetrics metrics = this.latest;
+        for (int i = 0; i < this.sinks.size(); i++){
+            this.sinks.get(i).record(metrics);
+        }
+    }
+
+    public void close(){
+        /*
+        Close every sink (this completes the metrics file)
+        */
+        for (MetricsSink sink : this.sinks){
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is a lock free triple buffer of FluidSnapshots between a single writer (the simulation thread) and
+a single reader (the render thread). The writer fills the back snapshot and publishes it by swapping it with the
+middle one, the reader takes the middle one (if a newer one was published) by swapping it with the front one.
+Neither side ever waits for the other and the reader always sees a complete snapshot (so there is no tearing).
+Only the index of the middle snapshot is shared. It is swapped atomically, which also makes the writes to the
+snapshot visible to the reader.
+*/
+
+package fluid2d;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SnapshotBuffer {
+    private static final int INDEX = 3;  // The index of the middle snapshot is stored in the lowest 2 bits
+    private static final int FRESH = 4;  // Set when the middle snapshot has not been read yet
+
+    private final FluidSnapshot[] snapshots = new FluidSnapshot[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;  // Only used by the writer
+    private int front = 2;  // Only used by the reader
+
+    public SnapshotBuffer(int fluid_size, boolean velocity){
+        for (int i = 0; i < 3; i++){
+            this.snapshots[i] = new FluidSnapshot(fluid_size, velocity);
+        }
+    }
+
+    public FluidSnapshot back(){
+        /*
+        The snapshot the writer should fill in next
+        */
+        return this.snapshots[this.back];
+    }
+
+    public void publish(){
+        /*
+        Make the filled in back snapshot the newest one (the writer then gets a different snapshot from back)
+        */
+        int previous = this.middle.getAndSet(this.back | FRESH);
+        this.back = previous & INDEX;
+    }
+
+    public FluidSnapshot read(){
+        /*
+        The newest published snapshot. It stays untouched by the writer until the next call to read.
+        */
+        if ((this.middle.get() & FRESH) != 0){
+            int previous = this.middle.getAndSet(this.front);
+            this.front = previous & INDEX;
+        }
+        return this.snapshots[this.front];
+    }
+}
@@ -0,0 +1,55 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following records how a linear solve went. A LinearSolver fills it in at the end of every solve so the
+caller can see how many iterations were needed and how far from converged the solution still is.
+*/
+
+package fluid2d;
+
+public class SolveStats {
+    public String name;  // Which solve these numbers belong to (e.g. diffuse_u)
+
+    // The latest solve
+    public int iterations;  // Iterations actually performed
+    public double residual;  // Largest remaining residual relative to the largest right hand side value
+    public boolean converged;  // Whether the solve stopped because it reached the tolerance
+
+    // Totals over every solve since the last reset
+    public long solves;
+    public long total_iterations;
+
+    public SolveStats(String name){
+        this.name = name;
+    }
+
+    public void record(int iterations, double residual, boolean converged){
+        this.iterations = iterations;
+        this.residual = residual;
+        this.converged = converged;
+        this.solves++;
+        this.total_iterations += iterations;
+    }
+
+    public double averageIterations(){
+        return (this.solves == 0) ? 0.0 : (double) this.total_iterations / this.solves;
+    }
+
+    public void reset(){
+        this.iterations = 0;
+        this.residual = 0.0;
+        this.converged = false;
+        this.solves = 0;
+        this.total_iterations = 0;
+    }
+
+    public String toString(){
+        return String.format("%s: %d iterations (avg %.1f), residual %.3e%s", this.name, this.iterations, averageIterations(),
+                this.residual, this.converged ? " (converged)" : "");
+    }
+}
@@ -0,0 +1,126 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following compares the linear solvers on the two systems the simulation actually solves. It runs the
+simulation for a while to get a realistic state, then times every solver on the pressure equation (right hand
+side = divergence of the velocity) and on the viscosity diffusion of u for a range of iteration counts. For each
+run it reports the time per solve and the largest remaining residual relative to the largest right hand side
+value, which makes it easy to pick the combination with the best accuracy per millisecond.
+
+Example:
+    java -cp fluid-core/target/classes fluid2d.SolverBenchmark --fluid_size=256 --solvers=gauss_seidel,cg,iccg,multigrid --iterations=1,2,5,10,30
+*/
+
+package fluid2d;
+
+public class SolverBenchmark {
+    public static void main(String[] args){
+        SimulationConfig config = new SimulationConfig();
+        String[] solvers = LinearSolver.NAMES;
+        int[] iterations = {1, 2, 5, 10, 30, 100};
+        int setup_steps = 100;
+        int repeats = 5;
+
+        for (String arg : args){
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0){
+                System.out.println("Usage: java fluid2d.SolverBenchmark [--fluid_size=N] [--threads=N] [--solvers=a,b] [--iterations=1,2,5] [--setup_steps=N] [--repeats=N]");
+                System.exit(1);
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            if (config.set(name, value)){
+                continue;
+            }
+            switch (name){
+                case "solvers":
+                    solvers = value.split(",");
+                    break;
+                case "iterations":
+                    String[] parts = value.split(",");
+                    iterations = new int[parts.length];
+                    for (int i = 0; i < parts.length; i++){
+                        iterations[i] = Integer.parseInt(parts[i]);
+                    }
+                    break;
+                case "setup_steps":
+                    setup_steps = Integer.parseInt(value);
+                    break;
+                case "repeats":
+                    repeats = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+
+        if (config.singlePrecision()){
+            System.out.println("The linear solvers only work in double precision, use KernelBenchmark to compare float kernels");
+            System.exit(1);
+        }
+        if (config.fused){
+            System.out.println("The fused simulation always uses its own Gauss-Seidel passes, run SolverBenchmark without --fused");
+            System.exit(1);
+        }
+
+        // Build a realistic state by running the simulation with some dye and velocity shot into it
+        FluidSolver solver = new FluidSolver(config);
+        int size = config.fluid_size;
+        for (int step = 0; step < setup_steps; step++){
+            if (step % 10 == 0){
+                solver.fluid.add_dye(1500, size - 3, size / 2);
+                solver.fluid.add_v(-15, size - 3, size / 2);
+                solver.fluid.add_u(15, size / 2, 3);
+            }
+            solver.step();
+        }
+
+        // The two right hand sides
+        Fluid2D fluid = solver.fluid;
+        double[] divergence = new double[size * size];
+        FluidOperations2D.divergence(fluid.u, fluid.v, divergence, size, config.time_step, fluid.density);
+        double[] velocity = fluid.u.clone();
+        double diffusion_factor = fluid.viscosity * config.time_step * ((size - 2) * (size - 2));
+
+        System.out.println("Solver benchmark with " + config);
+        System.out.printf("%-10s %-14s %6s %12s %14s%n", "system", "solver", "iter", "ms/solve", "rel residual");
+        ParallelOperations2D parallel = solver.parallel;
+        for (String name : solvers){
+            LinearSolver linear_solver = LinearSolver.create(name, size, parallel);
+            for (int iteration : iterations){
+                run("pressure", name, linear_solver, divergence, 0.0, 1.0, 0, size, iteration, repeats);
+                run("diffusion", name, linear_solver, velocity, 1.0, diffusion_factor, 1, size, iteration, repeats);
+            }
+        }
+        solver.close();
+    }
+
+    private static void run(String system, String name, LinearSolver solver, double[] rhs, double alpha, double beta, int boundary_type, int fluid_size, int iterations, int repeats){
+        double[] x = new double[fluid_size * fluid_size];
+        double rhs_norm = 0.0;
+        for (double value : rhs){
+            rhs_norm = Math.max(rhs_norm, Math.abs(value));
+        }
+
+        // One untimed solve so the JIT has seen the code, then the timed ones
+        long best = Long.MAX_VALUE;
+        for (int repeat = 0; repeat <= repeats; repeat++){
+            java.util.Arrays.fill(x, 0.0);
+            long start = System.nanoTime();
+            solver.solve(x, rhs, alpha, beta, boundary_type, fluid_size, iterations);
+            long elapsed = System.nanoTime() - start;
+            if (repeat > 0){
+                best = Math.min(best, elapsed);
+            }
+        }
+
+        FluidOperations2D.set_boundary_values(boundary_type, x, fluid_size);
+        double residual = LinearSolver.residualNorm(x, rhs, alpha, beta, fluid_size);
+        System.out.printf("%-10s %-14s %6d %12.3f %14.3e%n", system, name, iterations, best / 1e6, residual / Math.max(rhs_norm, 1e-300));
+    }
+}
@@ -0,0 +1,100 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following collects the sources of dye and velocity (mouse drags and key presses) from any thread and hands
+them to the simulation thread in between steps. It has the same add_u, add_v, add_dye and clear_dye methods as
+Fluid2D plus the splat and stroke of SplatBatch, so input handlers can use it in place of the fluid without ever
+touching the fluid's arrays. The sources are moved into the SplatBatch of the solver, which adds all of them at
+the start of the next step in a single pass.
+*/
+
+package fluid2d;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class SourceQueue {
+    private static final int SPLAT = 0;
+    private static final int STROKE = 1;
+    private static final int CLEAR_DYE = 2;
+
+    private static class Source {
+        int kind;
+        double row;
+        double col;
+        double row_end;  // Only for strokes
+        double col_end;
+        double radius;
+        int shape;
+        double dye;
+        double u;
+        double v;
+
+        Source(int kind, double row, double col, double row_end, double col_end, double radius, int shape, double dye, double u, double v){
+            this.kind = kind;
+            this.row = row;
+            this.col = col;
+            this.row_end = row_end;
+            this.col_end = col_end;
+            this.radius = radius;
+            this.shape = shape;
+            this.dye = dye;
+            this.u = u;
+            this.v = v;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Source> sources = new ConcurrentLinkedQueue<>();
+
+    public void add_u(double amount, int row, int col){
+        this.sources.add(new Source(SPLAT, row, col, row, col, 0.0, SplatBatch.DISC, 0.0, amount, 0.0));
+    }
+
+    public void add_v(double amount, int row, int col){
+        this.sources.add(new Source(SPLAT, row, col, row, col, 0.0, SplatBatch.DISC, 0.0, 0.0, amount));
+    }
+
+    public void add_dye(double amount, int row, int col){
+        this.sources.add(new Source(SPLAT, row, col, row, col, 0.0, SplatBatch.DISC, amount, 0.0, 0.0));
+    }
+
+    public void splat(double row, double col, double radius, double dye, double u, double v, int shape){
+        this.sources.add(new Source(SPLAT, row, col, row, col, radius, shape, dye, u, v));
+    }
+
+    public void stroke(double row_start, double col_start, double row_end, double col_end, double radius, double dye, double u, double v, int shape){
+        this.sources.add(new Source(STROKE, row_start, col_start, row_end, col_end, radius, shape, dye, u, v));
+    }
+
+    public void clear_dye(){
+        this.sources.add(new Source(CLEAR_DYE, 0, 0, 0, 0, 0.0, SplatBatch.DISC, 0.0, 0.0, 0.0));
+    }
+
+    public int drain(SplatBatch batch){
+        /*
+        Move every queued source into batch in the order they were added. Must only be called by the thread that
+        steps the fluid (the batch is not thread safe). Returns the number of sources moved.
+        */
+        int drained = 0;
+        Source source;
+        while ((source = this.sources.poll()) != null){
+            switch (source.kind){
+                case SPLAT:
+                    batch.splat(source.row, source.col, source.radius, source.dye, source.u, source.v, source.shape);
+                    break;
+                case STROKE:
+                    batch.stroke(source.row, source.col, source.row_end, source.col_end, source.radius, source.dye, source.u, source.v, source.shape);
+                    break;
+                default:
+                    batch.clear_dye();
+                    break;
+            }
+            drained++;
+        }
+        return drained;
+    }
+}
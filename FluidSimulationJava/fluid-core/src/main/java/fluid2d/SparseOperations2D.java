@@ -0,0 +1,390 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following provides versions of the operations in FluidOperations2D that skip the quiet parts of the grid.
+The interior cells are split into tile_size x tile_size tiles. At the start of every step update marks a tile as
+active when |u|, |v| or the dye of any of its cells is above threshold and then grows the active area by the
+distance the fluid can travel in a step (the CFL reach of advection) plus a halo of at least one tile. Diffusion,
+advection and the divergence and gradient passes of the pressure projection then only process the active tiles.
+The cells of the inactive tiles keep their values (they are copied into the back buffer instead).
+
+Every pass goes over the active cells in the same row by row order as FluidOperations2D, so when every tile is
+active the results are exactly the same as the dense operations. Otherwise anything below the threshold that would
+have moved into or out of the quiet area is ignored, which is why FluidSolver can check the results against the
+dense step (active_tiles_check).
+
+The pressure is still solved over the whole grid with the configured solver since the pressure of a cell depends
+on the divergence everywhere. It does benefit from the sparse right hand side though, as the divergence is only
+computed for the active tiles (and is 0 everywhere else) which lets a warm started or tolerance based solve stop
+much sooner. Diffusion always uses Gauss-Seidel.
+*/
+
+package fluid2d;
+
+import java.util.Arrays;
+
+public class SparseOperations2D {
+    public int fluid_size;
+    public int tile_size;
+    public double threshold;  // A tile is active when a value of one of its cells is larger than this
+    public int tiles_per_side;
+
+    boolean[] active;  // [tile_row * tiles_per_side + tile_col] after growing the active area
+    private boolean[] marked;  // Tiles that are active on their own (before growing)
+    private boolean[] grown;  // Scratch space for growing the active area
+
+    // The active and inactive cells of every tile row as [col_start, col_end) column ranges
+    private int[][] active_spans;
+    private int[] active_span_count;
+    private int[][] inactive_spans;
+    private int[] inactive_span_count;
+
+    // Statistics
+    public int active_tiles;  // Active tiles after the latest update
+    public long total_active_tiles;  // Sum of active_tiles over every update (for the average)
+    public long updates;
+
+    public SparseOperations2D(int fluid_size, int tile_size, double threshold){
+        if (tile_size < 1){
+            throw new IllegalArgumentException("tile_size must be >= 1 but was " + tile_size);
+        }
+        this.fluid_size = fluid_size;
+        this.tile_size = tile_size;
+        this.threshold = threshold;
+        this.tiles_per_side = (fluid_size - 2 + tile_size - 1) / tile_size;
+
+        int tiles = this.tiles_per_side * this.tiles_per_side;
+        this.active = new boolean[tiles];
+        this.marked = new boolean[tiles];
+        this.grown = new boolean[tiles];
+        this.active_spans = new int[this.tiles_per_side][this.tiles_per_side + 1];
+        this.active_span_count = new int[this.tiles_per_side];
+        this.inactive_spans = new int[this.tiles_per_side][this.tiles_per_side + 1];
+        this.inactive_span_count = new int[this.tiles_per_side];
+        Arrays.fill(this.active, true);
+        buildSpans();
+        this.total_active_tiles = 0;
+        this.updates = 0;
+    }
+
+    public void update(Fluid2D fluid, double time_step){
+        /*
+        Find the active tiles of the fluid (u, v and dye must be in the default double precision layout)
+        */
+        int fluid_size = this.fluid_size;
+        int tile_size = this.tile_size;
+        int tiles_per_side = this.tiles_per_side;
+        double threshold = this.threshold;
+        double[] u = fluid.u;
+        double[] v = fluid.v;
+        double[] dye = fluid.dye;
+
+        // Mark every tile with a value above the threshold and find the fastest velocity in them
+        double max_velocity = 0.0;
+        for (int tile_row = 0; tile_row < tiles_per_side; tile_row++){
+            int row_start = 1 + tile_row * tile_size;
+            int row_end = Math.min(row_start + tile_size, fluid_size - 1);
+            for (int tile_col = 0; tile_col < tiles_per_side; tile_col++){
+                int col_start = 1 + tile_col * tile_size;
+                int col_end = Math.min(col_start + tile_size, fluid_size - 1);
+                double velocity = 0.0;
+                double amount = 0.0;
+                for (int row = row_start; row < row_end; row++){
+                    for (int index = row * fluid_size + col_start; index < row * fluid_size + col_end; index++){
+                        velocity = Math.max(velocity, Math.max(Math.abs(u[index]), Math.abs(v[index])));
+                        amount = Math.max(amount, Math.abs(dye[index]));
+                    }
+                }
+                boolean marked = velocity > threshold || amount > threshold;
+                this.marked[tile_row * tiles_per_side + tile_col] = marked;
+                if (marked){
+                    max_velocity = Math.max(max_velocity, velocity);
+                }
+            }
+        }
+
+        // Grow the active area by the number of cells a particle can travel in one step (plus the two cells the
+        // interpolation and the stencils reach) rounded up to whole tiles
+        double reach = max_velocity * time_step * (fluid_size - 2) + 2.0;
+        int halo = (int) Math.min(tiles_per_side, Math.max(1.0, Math.ceil(reach / tile_size)));
+        grow(halo);
+        buildSpans();
+    }
+
+    private void grow(int halo){
+        /*
+        active = marked grown by halo tiles in every direction (a square neighbourhood, done one axis at a time)
+        */
+        int tiles_per_side = this.tiles_per_side;
+        for (int tile_row = 0; tile_row < tiles_per_side; tile_row++){
+            for (int tile_col = 0; tile_col < tiles_per_side; tile_col++){
+                boolean any = false;
+                for (int other = Math.max(0, tile_col - halo); other <= Math.min(tiles_per_side - 1, tile_col + halo) && !any; other++){
+                    any = this.marked[tile_row * tiles_per_side + other];
+                }
+                this.grown[tile_row * tiles_per_side + tile_col] = any;
+            }
+        }
+        for (int tile_row = 0; tile_row < tiles_per_side; tile_row++){
+            for (int tile_col = 0; tile_col < tiles_per_side; tile_col++){
+                boolean any = false;
+                for (int other = Math.max(0, tile_row - halo); other <= Math.min(tiles_per_side - 1, tile_row + halo) && !any; other++){
+                    any = this.grown[other * tiles_per_side + tile_col];
+                }
+                this.active[tile_row * tiles_per_side + tile_col] = any;
+            }
+        }
+    }
+
+    private void buildSpans(){
+        /*
+        Turn the active tiles of every tile row into column ranges (neighbouring active tiles are merged)
+        */
+        int tiles_per_side = this.tiles_per_side;
+        int active_tiles = 0;
+        for (int tile_row = 0; tile_row < tiles_per_side; tile_row++){
+            int[] active_spans = this.active_spans[tile_row];
+            int[] inactive_spans = this.inactive_spans[tile_row];
+            int active_count = 0;
+            int inactive_count = 0;
+            int tile_col = 0;
+            while (tile_col < tiles_per_side){
+                boolean state = this.active[tile_row * tiles_per_side + tile_col];
+                int first = tile_col;
+                while (tile_col < tiles_per_side && this.active[tile_row * tiles_per_side + tile_col] == state){
+                    tile_col++;
+                }
+                int col_start = 1 + first * this.tile_size;
+                int col_end = Math.min(1 + tile_col * this.tile_size, this.fluid_size - 1);
+                if (state){
+                    active_spans[active_count++] = col_start;
+                    active_spans[active_count++] = col_end;
+                    active_tiles += tile_col - first;
+                } else {
+                    inactive_spans[inactive_count++] = col_start;
+                    inactive_spans[inactive_count++] = col_end;
+                }
+            }
+            this.active_span_count[tile_row] = active_count;
+            this.inactive_span_count[tile_row] = inactive_count;
+        }
+        this.active_tiles = active_tiles;
+        this.total_active_tiles += active_tiles;
+        this.updates++;
+    }
+
+    public double activeFraction(){
+        /*
+        Fraction of the tiles that were active on average since the tracker was created
+        */
+        return (this.updates == 0) ? 1.0 : (double) this.total_active_tiles / this.updates / (this.tiles_per_side * this.tiles_per_side);
+    }
+
+    private void copyInactive(double[] array_new, double[] array){
+        /*
+        Carry the values of the inactive cells over into the back buffer
+        */
+        int fluid_size = this.fluid_size;
+        for (int row = 1; row < fluid_size - 1; row++){
+            int tile_row = (row - 1) / this.tile_size;
+            int[] spans = this.inactive_spans[tile_row];
+            for (int span = 0; span < this.inactive_span_count[tile_row]; span += 2){
+                System.arraycopy(array, row * fluid_size + spans[span], array_new, row * fluid_size + spans[span], spans[span + 1] - spans[span]);
+            }
+        }
+    }
+
+    private double maxAbsActive(double[] array){
+        double largest = 0.0;
+        int fluid_size = this.fluid_size;
+        for (int row = 1; row < fluid_size - 1; row++){
+            int tile_row = (row - 1) / this.tile_size;
+            int[] spans = this.active_spans[tile_row];
+            for (int span = 0; span < this.active_span_count[tile_row]; span += 2){
+                for (int index = row * fluid_size + spans[span]; index < row * fluid_size + spans[span + 1]; index++){
+                    largest = Math.max(largest, Math.abs(array[index]));
+                }
+            }
+        }
+        return largest;
+    }
+
+    private double residualNormActive(double[] x, double[] rhs, double alpha, double beta){
+        double diagonal = alpha + 4.0 * beta;
+        double largest = 0.0;
+        int fluid_size = this.fluid_size;
+        for (int row = 1; row < fluid_size - 1; row++){
+            int tile_row = (row - 1) / this.tile_size;
+            int[] spans = this.active_spans[tile_row];
+            for (int span = 0; span < this.active_span_count[tile_row]; span += 2){
+                for (int index = row * fluid_size + spans[span]; index < row * fluid_size + spans[span + 1]; index++){
+                    double residual = rhs[index] - (diagonal * x[index] - beta * (x[index - fluid_size] + x[index + fluid_size] + x[index - 1] + x[index + 1]));
+                    largest = Math.max(largest, Math.abs(residual));
+                }
+            }
+        }
+        return largest;
+    }
+
+    private void fillActive(double[] array, double value){
+        int fluid_size = this.fluid_size;
+        for (int row = 1; row < fluid_size - 1; row++){
+            int tile_row = (row - 1) / this.tile_size;
+            int[] spans = this.active_spans[tile_row];
+            for (int span = 0; span < this.active_span_count[tile_row]; span += 2){
+                Arrays.fill(array, row * fluid_size + spans[span], row * fluid_size + spans[span + 1], value);
+            }
+        }
+    }
+
+    private static void fillBorder(double[] array, int fluid_size, double value){
+        Arrays.fill(array, 0, fluid_size, value);
+        Arrays.fill(array, (fluid_size - 1) * fluid_size, fluid_size * fluid_size, value);
+        for (int row = 1; row < fluid_size - 1; row++){
+            array[row * fluid_size] = value;
+            array[row * fluid_size + fluid_size - 1] = value;
+        }
+    }
+
+    public void diffusion(double[] array_new, double[] array, int diffuse_type, double time_step, int fluid_size, double diffusion_rate,
+                          int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        Same as FluidOperations2D.diffusion with Gauss-Seidel but only the cells of the active tiles are solved for.
+        The inactive cells keep the value they had in array.
+        */
+        double diffusion_factor = diffusion_rate * time_step * ((fluid_size - 2) * (fluid_size - 2));
+        double beta = diffusion_factor;
+        double diagonal = 1.0 + 4.0 * beta;
+        double[] x = array_new;
+        double[] rhs = array;
+
+        if (warm_start){
+            System.arraycopy(array, 0, array_new, 0, array_new.length);
+            FluidOperations2D.set_boundary_values(diffuse_type, array_new, fluid_size);
+        } else {
+            copyInactive(array_new, array);
+            fillActive(array_new, 0.0);
+            fillBorder(array_new, fluid_size, 0.0);
+        }
+
+        // The same stopping rules as GaussSeidelSolver with the residuals measured over the active cells
+        boolean measure = tolerance > 0.0 || stats != null;
+        double rhs_norm = measure ? maxAbsActive(rhs) : 0.0;
+        if (measure && rhs_norm == 0.0){
+            fillActive(x, 0.0);
+            fillBorder(x, fluid_size, 0.0);
+            if (stats != null){
+                stats.record(0, 0.0, true);
+            }
+            return;
+        }
+        double threshold = tolerance * rhs_norm;
+        if (tolerance > 0.0){
+            double initial = residualNormActive(x, rhs, 1.0, beta);
+            if (initial <= threshold){
+                if (stats != null){
+                    stats.record(0, initial / rhs_norm, true);
+                }
+                return;
+            }
+        }
+
+        int iteration = 0;
+        double residual = Double.NaN;
+        boolean converged = false;
+        while (iteration < solver_iter){
+            double change = 0.0;
+            for (int row = 1; row < fluid_size - 1; row++){
+                int tile_row = (row - 1) / this.tile_size;
+                int[] spans = this.active_spans[tile_row];
+                for (int span = 0; span < this.active_span_count[tile_row]; span += 2){
+                    for (int index = row * fluid_size + spans[span]; index < row * fluid_size + spans[span + 1]; index++){
+                        double value = (rhs[index] + beta * (x[index - fluid_size] + x[index + fluid_size] + x[index - 1] + x[index + 1])) / diagonal;
+                        change = Math.max(change, Math.abs(value - x[index]));
+                        x[index] = value;
+                    }
+                }
+            }
+
+            FluidOperations2D.set_boundary_values(diffuse_type, x, fluid_size);
+            iteration++;
+
+            residual = diagonal * change;
+            if (tolerance > 0.0 && residual <= threshold){
+                converged = true;
+                break;
+            }
+        }
+
+        if (stats != null){
+            stats.record(iteration, residual / rhs_norm, converged);
+        }
+    }
+
+    public void pressureProjection(double[] u, double[] v, double[] divergence, double[] pressure, int fluid_size, double time_step, double density,
+                                   LinearSolver solver, int solver_iter, double tolerance, boolean warm_start, SolveStats stats){
+        /*
+        Same as FluidOperations2D.pressureProjection but the divergence is only computed (and the pressure gradient
+        only applied) for the active tiles. The pressure itself is solved over the whole grid.
+        */
+        if (!warm_start){
+            Arrays.fill(pressure, 0.0);
+        }
+
+        double particle_spacing = 1.0 / fluid_size;
+        double divergence_scale = -0.5 * particle_spacing * density / time_step;
+        double gradient_scale = (time_step / density) * (0.5 / particle_spacing);
+
+        // The divergence of the inactive cells is taken to be 0
+        for (int row = 1; row < fluid_size - 1; row++){
+            int tile_row = (row - 1) / this.tile_size;
+            int[] spans = this.active_spans[tile_row];
+            for (int span = 0; span < this.active_span_count[tile_row]; span += 2){
+                for (int index = row * fluid_size + spans[span]; index < row * fluid_size + spans[span + 1]; index++){
+                    divergence[index] = divergence_scale * ((u[index + 1] - u[index - 1]) + (v[index + fluid_size] - v[index - fluid_size]));
+                }
+            }
+            spans = this.inactive_spans[tile_row];
+            for (int span = 0; span < this.inactive_span_count[tile_row]; span += 2){
+                Arrays.fill(divergence, row * fluid_size + spans[span], row * fluid_size + spans[span + 1], 0.0);
+            }
+        }
+        FluidOperations2D.set_boundary_values(0, divergence, fluid_size);
+
+        solver.solve(pressure, divergence, 0.0, 1.0, 0, fluid_size, solver_iter, tolerance, stats);
+
+        for (int row = 1; row < fluid_size - 1; row++){
+            int tile_row = (row - 1) / this.tile_size;
+            int[] spans = this.active_spans[tile_row];
+            for (int span = 0; span < this.active_span_count[tile_row]; span += 2){
+                for (int index = row * fluid_size + spans[span]; index < row * fluid_size + spans[span + 1]; index++){
+                    u[index] -= gradient_scale * (pressure[index + 1] - pressure[index - 1]);
+                    v[index] -= gradient_scale * (pressure[index + fluid_size] - pressure[index - fluid_size]);
+                }
+            }
+        }
+        FluidOperations2D.set_boundary_values(1, u, fluid_size);
+        FluidOperations2D.set_boundary_values(2, v, fluid_size);
+    }
+
+    public void advection(double[] array_new, double[] array, int advect_type, double time_step, int fluid_size, double[] u, double[] v){
+        /*
+        Same as FluidOperations2D.advection for the active tiles. The inactive cells keep the value they had in array.
+        */
+        double scaled_time_step = time_step * (fluid_size - 2);
+        for (int row = 1; row < fluid_size - 1; row++){
+            int tile_row = (row - 1) / this.tile_size;
+            int[] spans = this.active_spans[tile_row];
+            for (int span = 0; span < this.active_span_count[tile_row]; span += 2){
+                FluidOperations2D.advectColumns(array_new, array, scaled_time_step, fluid_size, u, v, row, spans[span], spans[span + 1]);
+            }
+        }
+        copyInactive(array_new, array);
+        FluidOperations2D.set_boundary_values(advect_type, array_new, fluid_size);
+    }
+}
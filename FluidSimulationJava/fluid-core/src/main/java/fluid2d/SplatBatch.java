@@ -0,0 +1,448 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following collects the sources of dye and velocity for the next step as splats and adds all of them to the
+fluid in a single pass. A splat adds dye, u and v around a point with a given radius, either with a Gaussian
+falloff (amount * exp(-d^2 / radius^2), cut off GAUSSIAN_EXTENT radii from the centre in each direction) or with
+the same amount everywhere in a disc. The amounts are the values added at the centre (totalWeight converts a total
+amount into one), and splats entirely outside the fluid are ignored. A splat with a radius below 0.5 only touches
+the cell closest to its centre, so add_u, add_v and add_dye add exactly what the methods of Fluid2D with the same
+name do (except that cells outside the fluid are ignored).
+A stroke is a line of splats from one point to another, spaced one radius (at least one cell) apart, so fast mouse
+drags leave a continuous trail instead of isolated cells. The start point is left out since it is the end point of
+the previous stroke of a drag, and the amounts are shared by the splats of the stroke.
+
+Splats are coalesced before they touch the fluid. Splats with the same centre, radius and shape are merged into
+one by adding their amounts (found with an open addressing hash table of primitives), and every splat is then
+rasterised into delta rows. Only the rows a splat touches get one, taken from a pool of rows that is reused between
+steps, so two splats at opposite ends of a large grid cost two footprints and not the rows in between. A Gaussian
+is separable so its rows are a scaled copy of one precomputed column profile. apply then adds the deltas to the
+fluid with one contiguous pass per field over every touched row, so thousands of splats cost about one pass over
+the area they cover. Sources that overlap are summed before they are added, so the result can differ in the last
+bit from adding them one by one. clear_dye drops the dye of the splats queued before it and clears the dye of the
+fluid before the deltas are added.
+
+A batch is not thread safe. FluidSolver owns one (FluidSolver.splats) that is applied at the start of every step,
+and SourceQueue moves the sources of other threads into it.
+*/
+
+package fluid2d;
+
+import java.util.Arrays;
+
+public class SplatBatch {
+    public static final int GAUSSIAN = 0;
+    public static final int DISC = 1;
+    public static final double GAUSSIAN_EXTENT = 3.0;  // Gaussians are cut off this many radii from their centre (exp(-9) of the amount)
+
+    public final int fluid_size;
+
+    // One entry per splat
+    private double[] rows = new double[16];
+    private double[] cols = new double[16];
+    private double[] radii = new double[16];
+    private int[] shapes = new int[16];
+    private double[] dye = new double[16];
+    private double[] u = new double[16];
+    private double[] v = new double[16];
+    private int count = 0;
+    private boolean clear_dye = false;
+
+    // Open addressing hash table of the splats (linear probing, at most half full)
+    private long[] merge_keys = new long[32];  // Hash of the centre, radius and shape of the splat in the same slot
+    private int[] merge_slots = new int[32];  // Index + 1 of a splat, 0 for an empty slot
+
+    // Pool of delta rows (fluid_size values each), reused between steps. Slots 0 to used_slots - 1 hold the rows
+    // touched by the latest rasterise.
+    private int[] row_slots = new int[0];  // Slot + 1 of every row of the fluid, 0 for a row without a delta row
+    private int[] slot_rows = new int[16];  // Row of the fluid in every slot
+    private double[][] dye_delta = new double[16][];
+    private double[][] u_delta = new double[16][];
+    private double[][] v_delta = new double[16][];
+    private int used_slots = 0;
+    private double[] profile = new double[0];  // Column profile of the current Gaussian
+
+    // Statistics
+    public long splats;  // Splats added (including the merged ones)
+    public long merged;  // Splats merged into an earlier one
+    public long applied;  // Batches applied
+
+    public SplatBatch(int fluid_size){
+        this.fluid_size = fluid_size;
+    }
+
+    public void splat(double row, double col, double radius, double dye, double u, double v, int shape){
+        /*
+        Queue a splat centred on (row, col), the position may be anywhere in between cells
+        */
+        if (shape != GAUSSIAN && shape != DISC){
+            throw new IllegalArgumentException("Unknown splat shape " + shape);
+        }
+        if (!(radius >= 0.0) || Double.isInfinite(radius)){
+            throw new IllegalArgumentException("Splat radius must be >= 0 but was " + radius);
+        }
+        if (radius < 0.5){
+            // A single cell, merge it with every other single cell splat on the same cell
+            row = Math.round(row);
+            col = Math.round(col);
+            radius = 0.0;
+            shape = DISC;
+        }
+        this.splats++;
+        double extent = (shape == GAUSSIAN) ? GAUSSIAN_EXTENT * radius : radius;
+        if (row + extent < 0 || row - extent > this.fluid_size - 1 || col + extent < 0 || col - extent > this.fluid_size - 1){
+            return;  // Entirely outside of the fluid
+        }
+
+        long key = key(row, col, radius, shape);
+        int mask = this.merge_keys.length - 1;
+        int slot = slot(key, mask);
+        while (this.merge_slots[slot] != 0){
+            int index = this.merge_slots[slot] - 1;
+            if (this.merge_keys[slot] == key && this.rows[index] == row && this.cols[index] == col && this.radii[index] == radius
+                    && this.shapes[index] == shape){
+                this.dye[index] += dye;
+                this.u[index] += u;
+                this.v[index] += v;
+                this.merged++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        this.merge_keys[slot] = key;
+        this.merge_slots[slot] = this.count + 1;
+
+        if (this.count == this.rows.length){
+            int capacity = 2 * this.count;
+            this.rows = Arrays.copyOf(this.rows, capacity);
+            this.cols = Arrays.copyOf(this.cols, capacity);
+            this.radii = Arrays.copyOf(this.radii, capacity);
+            this.shapes = Arrays.copyOf(this.shapes, capacity);
+            this.dye = Arrays.copyOf(this.dye, capacity);
+            this.u = Arrays.copyOf(this.u, capacity);
+            this.v = Arrays.copyOf(this.v, capacity);
+        }
+        int index = this.count++;
+        this.rows[index] = row;
+        this.cols[index] = col;
+        this.radii[index] = radius;
+        this.shapes[index] = shape;
+        this.dye[index] = dye;
+        this.u[index] = u;
+        this.v[index] = v;
+        if (2 * this.count > this.merge_keys.length){
+            growMergeTable();
+        }
+    }
+
+    public void splat(double row, double col, double radius, double dye, double u, double v){
+        splat(row, col, radius, dye, u, v, GAUSSIAN);
+    }
+
+    public void stroke(double row_start, double col_start, double row_end, double col_end, double radius, double dye, double u, double v, int shape){
+        /*
+        Queue splats along the line from (row_start, col_start) to (row_end, col_end). The start is left out (it is
+        the end of the previous stroke of a drag) unless the stroke has no length, in which case there is a single
+        splat at the end. dye, u and v are shared evenly by the splats, so a stroke adds as much as a single splat
+        with those amounts no matter how long it is.
+        */
+        double length = Math.hypot(row_end - row_start, col_end - col_start);
+        int segments = (int) Math.ceil(length / Math.max(1.0, radius));
+        if (!(length >= 0.0) || segments > 16 * this.fluid_size){
+            throw new IllegalArgumentException("Stroke from (" + row_start + ", " + col_start + ") to (" + row_end + ", " + col_end + ") is too long");
+        }
+        int splats = Math.max(1, segments);
+        double share = 1.0 / splats;
+        for (int segment = 1; segment <= splats; segment++){
+            double t = (double) segment / splats;
+            splat(row_start + t * (row_end - row_start), col_start + t * (col_end - col_start), radius, dye * share, u * share, v * share, shape);
+        }
+    }
+
+    public static double totalWeight(double radius, int shape){
+        /*
+        The sum of the weights of a splat over the cells it covers when it is centred on a cell away from the walls,
+        so a splat with an amount of total / totalWeight adds total to the fluid (1 for a single cell)
+        */
+        if (radius < 0.5){
+            return 1.0;
+        }
+        if (shape == GAUSSIAN){
+            // Separable, so the sum over the square is the square of the sum over a row
+            int extent = (int) Math.floor(GAUSSIAN_EXTENT * radius);
+            double sum = 0.0;
+            for (int d = -extent; d <= extent; d++){
+                sum += Math.exp(-d * d / (radius * radius));
+            }
+            return sum * sum;
+        }
+        int extent = (int) Math.floor(radius);
+        double cells = 0.0;
+        for (int d = -extent; d <= extent; d++){
+            cells += 2 * (int) Math.floor(Math.sqrt(radius * radius - d * d)) + 1;
+        }
+        return cells;
+    }
+
+    public void add_u(double amount, int row, int col){
+        splat(row, col, 0.0, 0.0, amount, 0.0, DISC);
+    }
+
+    public void add_v(double amount, int row, int col){
+        splat(row, col, 0.0, 0.0, 0.0, amount, DISC);
+    }
+
+    public void add_dye(double amount, int row, int col){
+        splat(row, col, 0.0, amount, 0.0, 0.0, DISC);
+    }
+
+    public void clear_dye(){
+        /*
+        Remove all of the dye, including the dye of the splats queued so far
+        */
+        for (int index = 0; index < this.count; index++){
+            this.dye[index] = 0.0;
+        }
+        this.clear_dye = true;
+    }
+
+    public boolean isEmpty(){
+        return this.count == 0 && !this.clear_dye;
+    }
+
+    public int size(){
+        return this.count;
+    }
+
+    public void clear(){
+        /*
+        Drop every queued splat without applying it
+        */
+        if (this.count > 0){
+            Arrays.fill(this.merge_slots, 0);
+        }
+        this.count = 0;
+        this.clear_dye = false;
+    }
+
+    public void apply(Fluid2D fluid){
+        /*
+        Add every queued splat to the fluid and empty the batch
+        */
+        if (fluid.fluid_size != this.fluid_size){
+            throw new IllegalArgumentException("SplatBatch of size " + this.fluid_size + " can not be applied to a fluid of size " + fluid.fluid_size);
+        }
+        if (this.clear_dye){
+            fluid.clear_dye();
+        }
+        if (this.count > 0){
+            rasterise();
+            boolean dye = anyNonZero(this.dye);
+            boolean u = anyNonZero(this.u);
+            boolean v = anyNonZero(this.v);
+            for (int slot = 0; slot < this.used_slots; slot++){
+                fluid.add_row(this.slot_rows[slot], dye ? this.dye_delta[slot] : null, u ? this.u_delta[slot] : null, v ? this.v_delta[slot] : null);
+            }
+            resetDeltas();
+        }
+        this.applied++;
+        clear();
+    }
+
+    public void apply(DistributedSolver solver){
+        /*
+        Queue every splat as cell sources of the next step of a DistributedSolver and empty the batch
+        */
+        int fluid_size = this.fluid_size;
+        if (this.clear_dye){
+            solver.clear_dye();
+        }
+        if (this.count > 0){
+            rasterise();
+            for (int slot = 0; slot < this.used_slots; slot++){
+                int row = this.slot_rows[slot];
+                double[] dye_row = this.dye_delta[slot];
+                double[] u_row = this.u_delta[slot];
+                double[] v_row = this.v_delta[slot];
+                for (int col = 0; col < fluid_size; col++){
+                    if (dye_row[col] != 0.0){
+                        solver.add_dye(dye_row[col], row, col);
+                    }
+                    if (u_row[col] != 0.0){
+                        solver.add_u(u_row[col], row, col);
+                    }
+                    if (v_row[col] != 0.0){
+                        solver.add_v(v_row[col], row, col);
+                    }
+                }
+            }
+            resetDeltas();
+        }
+        this.applied++;
+        clear();
+    }
+
+    private void rasterise(){
+        /*
+        Sum every splat into the delta rows of the rows it touches
+        */
+        int fluid_size = this.fluid_size;
+        if (this.row_slots.length < fluid_size){
+            this.row_slots = new int[fluid_size];
+            this.profile = new double[fluid_size];
+        }
+
+        double[] profile = this.profile;
+        for (int index = 0; index < this.count; index++){
+            double row = this.rows[index];
+            double col = this.cols[index];
+            double radius = this.radii[index];
+            double dye = this.dye[index];
+            double u = this.u[index];
+            double v = this.v[index];
+            if (radius == 0.0){
+                int slot = deltaSlot((int) row);
+                this.dye_delta[slot][(int) col] += dye;
+                this.u_delta[slot][(int) col] += u;
+                this.v_delta[slot][(int) col] += v;
+                continue;
+            }
+            double extent = extent(index);
+            int row_start = clamp(Math.ceil(row - extent));
+            int row_end = clamp(Math.floor(row + extent));
+            int col_start = clamp(Math.ceil(col - extent));
+            int col_end = clamp(Math.floor(col + extent));
+            if (this.shapes[index] == GAUSSIAN){
+                // exp(-(dr^2 + dc^2) / r^2) = exp(-dr^2 / r^2) * exp(-dc^2 / r^2)
+                double scale = 1.0 / (radius * radius);
+                for (int c = col_start; c <= col_end; c++){
+                    profile[c] = Math.exp(-(c - col) * (c - col) * scale);
+                }
+                for (int r = row_start; r <= row_end; r++){
+                    double weight = Math.exp(-(r - row) * (r - row) * scale);
+                    int slot = deltaSlot(r);
+                    double[] dye_row = this.dye_delta[slot];
+                    double[] u_row = this.u_delta[slot];
+                    double[] v_row = this.v_delta[slot];
+                    double row_dye = dye * weight;
+                    double row_u = u * weight;
+                    double row_v = v * weight;
+                    for (int c = col_start; c <= col_end; c++){
+                        dye_row[c] += row_dye * profile[c];
+                        u_row[c] += row_u * profile[c];
+                        v_row[c] += row_v * profile[c];
+                    }
+                }
+            } else {
+                for (int r = row_start; r <= row_end; r++){
+                    // Columns of the disc in this row
+                    double half_width = Math.sqrt(Math.max(0.0, radius * radius - (r - row) * (r - row)));
+                    int start = Math.max(col_start, (int) Math.ceil(col - half_width));
+                    int end = Math.min(col_end, (int) Math.floor(col + half_width));
+                    if (start > end){
+                        continue;
+                    }
+                    int slot = deltaSlot(r);
+                    double[] dye_row = this.dye_delta[slot];
+                    double[] u_row = this.u_delta[slot];
+                    double[] v_row = this.v_delta[slot];
+                    for (int c = start; c <= end; c++){
+                        dye_row[c] += dye;
+                        u_row[c] += u;
+                        v_row[c] += v;
+                    }
+                }
+            }
+        }
+    }
+
+    private int deltaSlot(int row){
+        /*
+        The slot of the delta rows of a row of the fluid, taking the next free one from the pool the first time the
+        row is touched
+        */
+        int slot = this.row_slots[row] - 1;
+        if (slot >= 0){
+            return slot;
+        }
+        slot = this.used_slots++;
+        if (slot == this.slot_rows.length){
+            int capacity = 2 * slot;
+            this.slot_rows = Arrays.copyOf(this.slot_rows, capacity);
+            this.dye_delta = Arrays.copyOf(this.dye_delta, capacity);
+            this.u_delta = Arrays.copyOf(this.u_delta, capacity);
+            this.v_delta = Arrays.copyOf(this.v_delta, capacity);
+        }
+        if (this.dye_delta[slot] == null){
+            this.dye_delta[slot] = new double[this.fluid_size];
+            this.u_delta[slot] = new double[this.fluid_size];
+            this.v_delta[slot] = new double[this.fluid_size];
+        }
+        this.slot_rows[slot] = row;
+        this.row_slots[row] = slot + 1;
+        return slot;
+    }
+
+    private void resetDeltas(){
+        /*
+        Zero the delta rows in use and hand them back to the pool
+        */
+        for (int slot = 0; slot < this.used_slots; slot++){
+            Arrays.fill(this.dye_delta[slot], 0.0);
+            Arrays.fill(this.u_delta[slot], 0.0);
+            Arrays.fill(this.v_delta[slot], 0.0);
+            this.row_slots[this.slot_rows[slot]] = 0;
+        }
+        this.used_slots = 0;
+    }
+
+    private static long key(double row, double col, double radius, int shape){
+        return ((Double.doubleToLongBits(row) * 31 + Double.doubleToLongBits(col)) * 31 + Double.doubleToLongBits(radius)) * 31 + shape;
+    }
+
+    private static int slot(long key, int mask){
+        // Fibonacci hashing spreads keys that only differ in their low bits
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void growMergeTable(){
+        /*
+        Double the hash table and put every splat back in
+        */
+        int capacity = 2 * this.merge_keys.length;
+        this.merge_keys = new long[capacity];
+        this.merge_slots = new int[capacity];
+        int mask = capacity - 1;
+        for (int index = 0; index < this.count; index++){
+            long key = key(this.rows[index], this.cols[index], this.radii[index], this.shapes[index]);
+            int slot = slot(key, mask);
+            while (this.merge_slots[slot] != 0){
+                slot = (slot + 1) & mask;
+            }
+            this.merge_keys[slot] = key;
+            this.merge_slots[slot] = index + 1;
+        }
+    }
+
+    private double extent(int index){
+        return (this.shapes[index] == GAUSSIAN) ? GAUSSIAN_EXTENT * this.radii[index] : this.radii[index];
+    }
+
+    private boolean anyNonZero(double[] amounts){
+        for (int index = 0; index < this.count; index++){
+            if (amounts[index] != 0.0){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int clamp(double cell){
+        return (int) Math.max(0, Math.min(this.fluid_size - 1, cell));
+    }
+}
@@ -0,0 +1,297 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following records the evolution of a simulation into a compact file that RecordingReader can seek through.
+record only copies the dye (and optionally the velocities) of the current step into a free buffer and hands it to
+a background writer thread, so the solver never waits for the disk. When the writer falls so far behind that no
+buffer is free the frame is dropped (and counted in dropped_frames) rather than blocking the solver.
+
+The writer quantises every value to a multiple of its quantum (dye_quantum for the dye and velocity_quantum for
+u and v) and stores the difference to the quantised value of the previous frame. Most cells change little from one
+frame to the next so the differences are small or 0. They are written as zigzag varints with runs of zeros
+collapsed into a single varint, which is typically a byte or less per cell. Every keyframe_interval frames the
+differences are taken against 0 instead, so a reader never has to decode more than that many frames to reach a
+frame. On close an index of every frame (step and file position) is appended to the file.
+
+File layout (little endian):
+    header: magic, version, fluid_size, dye_quantum, velocity_quantum, keyframe_interval, has_velocity
+    frames: frame magic, step, simulated_time, keyframe flag, payload length, payload
+    index:  frame count, (step, position, keyframe flag) per frame, index position, index magic
+*/
+
+package fluid2d;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class StateRecorder implements AutoCloseable {
+    public static final int MAGIC = 0x464C5243;  // "FLRC"
+    public static final int FRAME_MAGIC = 0x46524D45;  // "FRME"
+    public static final int INDEX_MAGIC = 0x494E4458;  // "INDX"
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 64;
+    public static final double DEFAULT_DYE_QUANTUM = 0.01;
+    public static final double DEFAULT_VELOCITY_QUANTUM = 1e-4;
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 30;
+    public static final int DEFAULT_BUFFERS = 4;
+
+    public Path path;
+    public int fluid_size;
+    public double dye_quantum;
+    public double velocity_quantum;
+    public int keyframe_interval;
+    public boolean velocity;  // Whether u and v are recorded as well as the dye
+
+    // Statistics
+    public volatile long recorded_frames = 0;  // Written by the writer thread
+    public volatile long bytes_written = 0;
+    public long dropped_frames = 0;  // Only used by the thread calling record
+
+    private static class Frame {
+        long step;
+        double simulated_time;
+        double[] dye;
+        double[] u;
+        double[] v;
+    }
+
+    private static final Frame END = new Frame();  // Tells the writer to finish
+
+    private final ArrayBlockingQueue<Frame> free;  // Buffers the solver can fill
+    private final ArrayBlockingQueue<Frame> pending;  // Filled buffers waiting for the writer
+    private final Thread writer;
+    private final FileChannel channel;
+    private volatile Throwable failure;
+    private boolean closed = false;
+
+    // Only used by the writer thread
+    private long[] previous_dye;
+    private long[] previous_u;
+    private long[] previous_v;
+    private ByteBuffer output = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+    private long position;
+    private ArrayList<long[]> index = new ArrayList<>();  // {step, position, keyframe}
+
+    public StateRecorder(Path path, int fluid_size, double dye_quantum, double velocity_quantum, int keyframe_interval, boolean velocity, int buffers){
+        if ((long) fluid_size * fluid_size > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("fluid_size " + fluid_size + " is too large to record");
+        }
+        if (dye_quantum <= 0.0 || velocity_quantum <= 0.0){
+            throw new IllegalArgumentException("The quanta must be > 0");
+        }
+        if (keyframe_interval < 1 || buffers < 1){
+            throw new IllegalArgumentException("keyframe_interval and buffers must be >= 1");
+        }
+        this.path = path;
+        this.fluid_size = fluid_size;
+        this.dye_quantum = dye_quantum;
+        this.velocity_quantum = velocity_quantum;
+        this.keyframe_interval = keyframe_interval;
+        this.velocity = velocity;
+
+        int cells = fluid_size * fluid_size;
+        this.free = new ArrayBlockingQueue<>(buffers);
+        this.pending = new ArrayBlockingQueue<>(buffers + 1);
+        for (int i = 0; i < buffers; i++){
+            Frame frame = new Frame();
+            frame.dye = new double[cells];
+            if (velocity){
+                frame.u = new double[cells];
+                frame.v = new double[cells];
+            }
+            this.free.add(frame);
+        }
+        this.previous_dye = new long[cells];
+        if (velocity){
+            this.previous_u = new long[cells];
+            this.previous_v = new long[cells];
+        }
+
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putInt(fluid_size);
+            header.putDouble(dye_quantum);
+            header.putDouble(velocity_quantum);
+            header.putInt(keyframe_interval);
+            header.put((byte) (velocity ? 1 : 0));
+            header.clear();
+            writeFully(header);
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not create the recording " + path, e);
+        }
+
+        this.writer = new Thread(this::writeFrames, "fluid-recorder");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public StateRecorder(Path path, int fluid_size, boolean velocity){
+        this(path, fluid_size, DEFAULT_DYE_QUANTUM, DEFAULT_VELOCITY_QUANTUM, DEFAULT_KEYFRAME_INTERVAL, velocity, DEFAULT_BUFFERS);
+    }
+
+    public boolean record(FluidSolver solver){
+        /*
+        Record the current state of the solver. Returns false if the frame had to be dropped because the writer
+        is behind. Must be called by the thread that steps the solver, in between steps.
+        */
+        if (this.failure != null){
+            throw new IllegalStateException("The recorder has failed", this.failure);
+        }
+        Frame frame = this.free.poll();
+        if (frame == null){
+            this.dropped_frames++;
+            return false;
+        }
+        frame.step = solver.step_count;
+        frame.simulated_time = solver.simulated_time;
+        solver.fluid.copy_dye(frame.dye);
+        if (this.velocity){
+            solver.fluid.copy_velocity(frame.u, frame.v);
+        }
+        this.pending.add(frame);
+        return true;
+    }
+
+    private void writeFrames(){
+        try {
+            long frames = 0;
+            while (true){
+                Frame frame = this.pending.take();
+                if (frame == END){
+                    break;
+                }
+                boolean keyframe = frames % this.keyframe_interval == 0;
+                writeFrame(frame, keyframe);
+                frames++;
+                this.recorded_frames = frames;
+                this.free.add(frame);
+            }
+            writeIndex();
+        } catch (Throwable e){
+            this.failure = e;
+        }
+    }
+
+    private void writeFrame(Frame frame, boolean keyframe) throws IOException {
+        ByteBuffer output = this.output;
+        output.clear();
+        output.putInt(FRAME_MAGIC);
+        output.putLong(frame.step);
+        output.putDouble(frame.simulated_time);
+        output.put((byte) (keyframe ? 1 : 0));
+        int length_position = output.position();
+        output.putInt(0);  // Payload length, filled in below
+
+        encode(frame.dye, this.previous_dye, this.dye_quantum, keyframe);
+        if (this.velocity){
+            encode(frame.u, this.previous_u, this.velocity_quantum, keyframe);
+            encode(frame.v, this.previous_v, this.velocity_quantum, keyframe);
+        }
+        output = this.output;  // encode may have grown the buffer
+        output.putInt(length_position, output.position() - length_position - Integer.BYTES);
+        output.flip();
+
+        this.index.add(new long[]{frame.step, this.position, keyframe ? 1 : 0});
+        writeFully(output);
+    }
+
+    private void encode(double[] values, long[] previous, double quantum, boolean keyframe){
+        /*
+        Append the quantised differences of values to previous (or to 0 for a keyframe) and remember the
+        quantised values for the next frame
+        */
+        long zeros = 0;
+        for (int index = 0; index < values.length; index++){
+            long quantised = Math.round(values[index] / quantum);
+            long delta = keyframe ? quantised : quantised - previous[index];
+            previous[index] = quantised;
+            if (delta == 0){
+                zeros++;
+                continue;
+            }
+            if (zeros > 0){
+                putVarint((zeros << 1) | 1);
+                zeros = 0;
+            }
+            putVarint(((delta << 1) ^ (delta >> 63)) << 1);  // Zigzag so small negative differences stay small
+        }
+        if (zeros > 0){
+            putVarint((zeros << 1) | 1);
+        }
+    }
+
+    private void putVarint(long value){
+        if (this.output.remaining() < 10){
+            ByteBuffer larger = ByteBuffer.allocate(this.output.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            this.output.flip();
+            larger.put(this.output);
+            this.output = larger;
+        }
+        while ((value & ~0x7FL) != 0){
+            this.output.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        this.output.put((byte) value);
+    }
+
+    private void writeIndex() throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(Integer.BYTES + this.index.size() * 17 + Long.BYTES + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long index_position = this.position;
+        index.putInt(this.index.size());
+        for (long[] entry : this.index){
+            index.putLong(entry[0]);
+            index.putLong(entry[1]);
+            index.put((byte) entry[2]);
+        }
+        index.putLong(index_position);
+        index.putInt(INDEX_MAGIC);
+        index.flip();
+        writeFully(index);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        int bytes = buffer.remaining();
+        while (buffer.hasRemaining()){
+            this.channel.write(buffer);
+        }
+        this.position += bytes;
+        this.bytes_written = this.position;
+    }
+
+    public void close(){
+        /*
+        Write the frames still waiting and the index and close the file
+        */
+        if (this.closed){
+            return;
+        }
+        this.closed = true;
+        try {
+            this.pending.put(END);
+            this.writer.join();
+            this.channel.close();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not close the recording " + this.path, e);
+        }
+        if (this.failure != null){
+            throw new IllegalStateException("Writing the recording " + this.path + " failed", this.failure);
+        }
+    }
+}
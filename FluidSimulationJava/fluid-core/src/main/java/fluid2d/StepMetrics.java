@@ -0,0 +1,51 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following holds everything SimulationMetrics measured for a single step (and the frame it was drawn in).
+A single instance is reused for every step so recording metrics does not allocate. Sinks must copy out whatever
+they want to keep since the values are overwritten by the next step.
+*/
+
+package fluid2d;
+
+public class StepMetrics {
+    public long step;  // step_count of the solver after the step
+    public double simulated_time;
+    public long step_nanos;  // Wall time of the whole step
+
+    // Wall time of every stage (indexed by the stage constants in SimulationMetrics). Only the stages listed
+    // in stages are run by this simulation, the others stay 0.
+    public int[] stages;
+    public long[] stage_nanos = new long[SimulationMetrics.STAGES];
+
+    // How every linear solve of the step went (in the order of FluidSolver.solveStats)
+    public String[] solve_names;
+    public int[] solve_iterations;
+    public double[] solve_residuals;
+
+    // Health signals
+    public double total_dye;  // Sum of the dye over the whole grid
+    public double max_divergence;  // Largest divergence of the velocity left after the step (should stay close to 0)
+
+    // The frame the step was drawn in. All 0 when the solver is not driven frame by frame (e.g. Headless).
+    public long frame_nanos;  // Wall time of the whole frame (step and render)
+    public long render_nanos;  // Wall time spent rendering the fluid
+    public long frame_budget_nanos;
+    public boolean over_budget;
+
+    public StepMetrics(int[] stages, String[] solve_names){
+        this.stages = stages;
+        this.solve_names = solve_names;
+        this.solve_iterations = new int[solve_names.length];
+        this.solve_residuals = new double[solve_names.length];
+    }
+
+    public boolean hasFrame(){
+        return this.frame_nanos > 0;
+    }
+}
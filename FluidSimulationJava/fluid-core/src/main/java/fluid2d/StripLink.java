@@ -0,0 +1,204 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is one end of a local socket connection between the processes of a DistributedSolver. Messages have no
+framing, both ends always know how many values the next message holds because they run the same sequence of
+operations. Values are sent as raw doubles in native byte order (both ends are on the same machine).
+
+A link between two neighbouring strips sends asynchronously: send copies the values into a pooled buffer and a
+sender thread writes it to the socket. Neighbours send to each other at the same time (e.g. both hand over their
+border rows after a sweep) and with blocking writes both could wait for the other to read once the socket buffers
+are full. Reads always block until the whole message has arrived.
+*/
+
+package fluid2d;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class StripLink implements AutoCloseable {
+    private static final ByteBuffer CLOSE = ByteBuffer.allocate(0);  // Tells the sender thread to stop
+
+    public final SocketChannel channel;
+    private ByteBuffer receive_buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.nativeOrder());
+    private ByteBuffer send_buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.nativeOrder());  // Only used when sending synchronously
+
+    // Asynchronous sending (null when sending synchronously)
+    private final LinkedBlockingQueue<ByteBuffer> outgoing;
+    private final ConcurrentLinkedQueue<ByteBuffer> free;
+    private final Thread sender;
+    private volatile IOException send_failure;
+
+    public StripLink(SocketChannel channel, boolean asynchronous){
+        this.channel = channel;
+        try {
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+        if (asynchronous){
+            this.outgoing = new LinkedBlockingQueue<>();
+            this.free = new ConcurrentLinkedQueue<>();
+            this.sender = new Thread(this::sendQueued, "fluid-strip-sender");
+            this.sender.setDaemon(true);
+            this.sender.start();
+        } else {
+            this.outgoing = null;
+            this.free = null;
+            this.sender = null;
+        }
+    }
+
+    public void send(double[] values, int offset, int length){
+        ByteBuffer buffer = sendBuffer(length * Double.BYTES);
+        buffer.asDoubleBuffer().put(values, offset, length);
+        buffer.limit(length * Double.BYTES);
+        write(buffer);
+    }
+
+    public void send(double... values){
+        send(values, 0, values.length);
+    }
+
+    public void sendString(String text){
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = sendBuffer(Integer.BYTES + bytes.length);
+        buffer.putInt(bytes.length).put(bytes).flip();
+        write(buffer);
+    }
+
+    private ByteBuffer sendBuffer(int bytes){
+        /*
+        A cleared buffer of at least the given size to fill with the next message
+        */
+        if (this.outgoing == null){
+            if (this.send_buffer.capacity() < bytes){
+                this.send_buffer = ByteBuffer.allocateDirect(Math.max(bytes, 2 * this.send_buffer.capacity())).order(ByteOrder.nativeOrder());
+            }
+            this.send_buffer.clear();
+            return this.send_buffer;
+        }
+        if (this.send_failure != null){
+            throw new UncheckedIOException("Sending to a neighbouring strip failed", this.send_failure);
+        }
+        ByteBuffer buffer = this.free.poll();
+        if (buffer == null || buffer.capacity() < bytes){
+            buffer = ByteBuffer.allocateDirect(Math.max(bytes, 1 << 12)).order(ByteOrder.nativeOrder());
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void write(ByteBuffer buffer){
+        if (this.outgoing != null){
+            this.outgoing.add(buffer);
+            return;
+        }
+        try {
+            writeFully(buffer);
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not send to " + describe(), e);
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()){
+            this.channel.write(buffer);
+        }
+    }
+
+    private void sendQueued(){
+        try {
+            while (true){
+                ByteBuffer buffer = this.outgoing.take();
+                if (buffer == CLOSE){
+                    return;
+                }
+                writeFully(buffer);
+                this.free.add(buffer);
+            }
+        } catch (IOException e){
+            this.send_failure = e;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void receive(double[] values, int offset, int length){
+        ByteBuffer buffer = read(length * Double.BYTES);
+        buffer.asDoubleBuffer().get(values, offset, length);
+    }
+
+    public double receiveDouble(){
+        return read(Double.BYTES).getDouble(0);
+    }
+
+    public String receiveString(){
+        int length = read(Integer.BYTES).getInt(0);
+        ByteBuffer buffer = read(length);
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer read(int bytes){
+        /*
+        Block until the next message of the given size has arrived, it is returned flipped in the receive buffer
+        */
+        if (this.receive_buffer.capacity() < bytes){
+            this.receive_buffer = ByteBuffer.allocateDirect(Math.max(bytes, 2 * this.receive_buffer.capacity())).order(ByteOrder.nativeOrder());
+        }
+        ByteBuffer buffer = this.receive_buffer;
+        buffer.clear();
+        buffer.limit(bytes);
+        try {
+            while (buffer.hasRemaining()){
+                if (this.channel.read(buffer) < 0){
+                    throw new EOFException("Connection closed by " + describe());
+                }
+            }
+        } catch (IOException e){
+            throw new UncheckedIOException("Could not receive from " + describe(), e);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private String describe(){
+        try {
+            return String.valueOf(this.channel.getRemoteAddress());
+        } catch (IOException e){
+            return "a closed connection";
+        }
+    }
+
+    public void close(){
+        /*
+        Send whatever is still queued and close the connection
+        */
+        try {
+            if (this.sender != null){
+                this.outgoing.add(CLOSE);
+                this.sender.join();
+            }
+            this.channel.close();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        } catch (IOException e){
+            // Nothing useful to do when closing fails
+        }
+    }
+}
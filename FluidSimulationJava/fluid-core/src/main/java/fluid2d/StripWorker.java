@@ -0,0 +1,651 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following is a worker process of a DistributedSolver. It owns a horizontal strip of whole rows of the fluid
+(rows first to last) plus one halo row above and below, and advances its strip with the same arithmetic as
+FieldOperations2D (and so FluidOperations2D with the gauss_seidel solvers). It is connected to the coordinator, which
+sends the commands and combines the reductions, and to the workers owning the strips above and below.
+
+    Divergence and pressure gradient: the neighbours exchange their border rows before the stencil is applied.
+    Advection: the fluid can come from up to time_step * (fluid_size - 2) * max |v| rows away, so the largest |v| is
+        reduced over every strip first and that many halo rows (the CFL width) are exchanged. When a strip is
+        thinner than the halo the rows are passed on from strip to strip.
+    Gauss-Seidel: a sweep goes through the rows in order and every row uses the row above from the current sweep
+        and the row below from the previous one. Each strip waits for the last row of the strip above from the
+        current sweep and the first row of the strip below from the previous sweep, so the strips work on
+        successive sweeps at the same time (a pipeline) and compute exactly the same values as a single process.
+        The pipeline only keeps every strip busy once the sweeps have reached the last strip and every sweep
+        still crosses the strips one after another, so with few sweeps it is mostly serial.
+    Red-black Gauss-Seidel (deterministic): the cells where row + col is even (red) only depend on black cells and
+        the other way round, like in ParallelOperations2D. Every strip updates its red cells, exchanges its border
+        rows and updates its black cells, so all the strips sweep at the same time with two halo exchanges per
+        sweep. The values are exactly those of FluidSolver with deterministic=true.
+        The largest right hand side, the initial residual and (with a solver_tolerance) the change of every sweep
+        are reduced over every strip through the coordinator so every strip stops after the same sweep.
+
+Because every operation is exactly the one of the single process simulation (with the same Gauss-Seidel
+ordering) the results are identical to it.
+*/
+
+package fluid2d;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+
+public class StripWorker {
+    // Commands from the coordinator
+    public static final double STEP = 1;
+    public static final double GATHER = 2;
+    public static final double SCATTER = 3;
+    public static final double CLEAR = 4;
+    public static final double STOP = 5;
+
+    // Messages to the coordinator while stepping
+    public static final double REDUCE = 10;  // Followed by a value, the coordinator answers with the largest value of every strip
+    public static final double DONE = 11;  // Followed by the iterations, residual and convergence of every solve
+
+    // Source types in a STEP command
+    public static final int SOURCE_U = 0;
+    public static final int SOURCE_V = 1;
+    public static final int SOURCE_DYE = 2;
+    public static final int SOURCE_CLEAR_DYE = 3;
+
+    public static final int SOLVES = 5;  // In the order of FluidSolver.solveStats
+
+    SimulationConfig config;
+    int fluid_size;
+    int rank;
+    int count;  // Number of strips
+    int[] strip_first;  // First and last row of every strip
+    int[] strip_last;
+    int first;
+    int last;
+    int rows;  // Rows owned by this strip
+
+    StripLink coordinator;
+    StripLink above;  // null for the first strip
+    StripLink below;  // null for the last strip
+
+    // (rows + 2) * fluid_size values each: the halo row above, the rows of the strip and the halo row below
+    double[] u;
+    double[] v;
+    double[] u_prev;
+    double[] v_prev;
+    double[] dye;
+    double[] dye_prev;
+    double[] divergence;
+    double[] pressure;
+    double[] pressure_advected;
+
+    // The wider halos used by the advection
+    double[] halo_above = new double[0];
+    double[] halo_below = new double[0];
+    int halo_above_rows;
+    int halo_below_rows;
+
+    // Statistics of the solves of the current step
+    double[] solve_stats = new double[3 * SOLVES];
+
+    StripWorker(SimulationConfig config, int rank, int[] strip_first, int[] strip_last, StripLink coordinator, StripLink above, StripLink below){
+        this.config = config;
+        this.fluid_size = config.fluid_size;
+        this.rank = rank;
+        this.count = strip_first.length;
+        this.strip_first = strip_first;
+        this.strip_last = strip_last;
+        this.first = strip_first[rank];
+        this.last = strip_last[rank];
+        this.rows = this.last - this.first + 1;
+        this.coordinator = coordinator;
+        this.above = above;
+        this.below = below;
+
+        int size = (this.rows + 2) * this.fluid_size;
+        this.u = new double[size];
+        this.v = new double[size];
+        this.u_prev = new double[size];
+        this.v_prev = new double[size];
+        this.dye = new double[size];
+        this.dye_prev = new double[size];
+        this.divergence = new double[size];
+        this.pressure = new double[size];
+        this.pressure_advected = new double[size];
+    }
+
+    int index(int row, int col){
+        /*
+        Index of a cell given by its global row (first - 1 to last + 1) in the strip arrays
+        */
+        return (row - this.first + 1) * this.fluid_size + col;
+    }
+
+    void run(){
+        /*
+        Serve the commands of the coordinator until told to stop
+        */
+        int own_start = index(this.first, 0);
+        int own_size = this.rows * this.fluid_size;
+        while (true){
+            double command = this.coordinator.receiveDouble();
+            if (command == STEP){
+                int sources = (int) this.coordinator.receiveDouble();
+                double[] values = new double[4 * sources];
+                this.coordinator.receive(values, 0, values.length);
+                applySources(values, sources);
+                step();
+                this.coordinator.send(DONE);
+                this.coordinator.send(this.solve_stats);
+            } else if (command == GATHER){
+                this.coordinator.send(this.u, own_start, own_size);
+                this.coordinator.send(this.v, own_start, own_size);
+                this.coordinator.send(this.dye, own_start, own_size);
+            } else if (command == SCATTER){
+                for (double[] array : new double[][]{this.u, this.v, this.dye, this.pressure, this.pressure_advected}){
+                    this.coordinator.receive(array, own_start, own_size);
+                }
+            } else if (command == CLEAR){
+                for (double[] array : new double[][]{this.u, this.v, this.u_prev, this.v_prev, this.dye, this.dye_prev, this.divergence,
+                        this.pressure, this.pressure_advected}){
+                    Arrays.fill(array, 0.0);
+                }
+            } else if (command == STOP){
+                return;
+            } else {
+                throw new IllegalStateException("Unknown command " + command);
+            }
+        }
+    }
+
+    void applySources(double[] values, int sources){
+        for (int source = 0; source < sources; source++){
+            int type = (int) values[4 * source];
+            double amount = values[4 * source + 1];
+            int row = (int) values[4 * source + 2];
+            int col = (int) values[4 * source + 3];
+            if (type == SOURCE_CLEAR_DYE){
+                Arrays.fill(this.dye, 0.0);
+                continue;
+            }
+            if (row < this.first || row > this.last){
+                continue;  // Another strip owns the cell
+            }
+            switch (type){
+                case SOURCE_U:
+                    this.u[index(row, col)] += amount;
+                    break;
+                case SOURCE_V:
+                    this.v[index(row, col)] += amount;
+                    break;
+                default:
+                    this.dye[index(row, col)] += amount;
+                    break;
+            }
+        }
+    }
+
+    void step(){
+        /*
+        Same as FluidSolver.step for the strip
+        */
+        SimulationConfig config = this.config;
+        double time_step = config.time_step;
+        double[] swap;
+
+        diffusion(this.u_prev, this.u, 1, time_step, config.viscosity, 0);
+        swap = this.u; this.u = this.u_prev; this.u_prev = swap;
+        diffusion(this.v_prev, this.v, 2, time_step, config.viscosity, 1);
+        swap = this.v; this.v = this.v_prev; this.v_prev = swap;
+
+        pressureProjection(this.pressure, time_step, 2);
+
+        advection(this.u_prev, this.u, 1, time_step);
+        swap = this.u; this.u = this.u_prev; this.u_prev = swap;
+        advection(this.v_prev, this.v, 2, time_step);
+        swap = this.v; this.v = this.v_prev; this.v_prev = swap;
+
+        pressureProjection(this.pressure_advected, time_step, 3);
+
+        diffusion(this.dye_prev, this.dye, 3, time_step, config.diffusion_rate, 4);
+        swap = this.dye; this.dye = this.dye_prev; this.dye_prev = swap;
+        advection(this.dye_prev, this.dye, 3, time_step);
+        swap = this.dye; this.dye = this.dye_prev; this.dye_prev = swap;
+    }
+
+    void diffusion(double[] array_new, double[] array, int diffuse_type, double time_step, double diffusion_rate, int solve){
+        int fluid_size = this.fluid_size;
+        double diffusion_factor = diffusion_rate * time_step * ((fluid_size - 2) * (fluid_size - 2));
+
+        if (this.config.warm_start){
+            System.arraycopy(array, index(this.first, 0), array_new, index(this.first, 0), this.rows * fluid_size);
+            set_boundary_values(diffuse_type, array_new);
+        } else {
+            Arrays.fill(array_new, 0.0);
+        }
+        solve(array_new, array, 1.0, diffusion_factor, diffuse_type, this.config.solverIterations(this.config.diffusion_solver), solve);
+    }
+
+    void pressureProjection(double[] pressure, double time_step, int solve){
+        int fluid_size = this.fluid_size;
+        double density = this.config.density;
+        if (!this.config.warm_start){
+            Arrays.fill(pressure, 0.0);
+        }
+        double particle_spacing = 1.0 / fluid_size;
+        double[] u = this.u;
+        double[] v = this.v;
+
+        // First compute the divergence of the velocity field at each cell
+        exchangeHalo(v);
+        double divergence_scale = -0.5 * particle_spacing * density / time_step;
+        for (int row = Math.max(this.first, 1); row <= Math.min(this.last, fluid_size - 2); row++){
+            int offset = index(row, 0);
+            for (int col = 1; col < fluid_size - 1; col++){
+                this.divergence[offset + col] = divergence_scale * ((u[offset + col + 1] - u[offset + col - 1]) +
+                        (v[offset + fluid_size + col] - v[offset - fluid_size + col]));
+            }
+        }
+        set_boundary_values(0, this.divergence);
+
+        // Now compute the pressures
+        solve(pressure, this.divergence, 0.0, 1.0, 0, this.config.solverIterations(this.config.pressure_solver), solve);
+
+        // Finally update the velocities
+        exchangeHalo(pressure);
+        double gradient_scale = (time_step / density) * (0.5 / particle_spacing);
+        for (int row = Math.max(this.first, 1); row <= Math.min(this.last, fluid_size - 2); row++){
+            int offset = index(row, 0);
+            for (int col = 1; col < fluid_size - 1; col++){
+                u[offset + col] = u[offset + col] - gradient_scale * (pressure[offset + col + 1] - pressure[offset + col - 1]);
+                v[offset + col] = v[offset + col] - gradient_scale * (pressure[offset + fluid_size + col] - pressure[offset - fluid_size + col]);
+            }
+        }
+        set_boundary_values(1, u);
+        set_boundary_values(2, v);
+    }
+
+    void advection(double[] array_new, double[] array, int advect_type, double time_step){
+        int fluid_size = this.fluid_size;
+        double scaled_time_step = time_step * (fluid_size - 2);
+        double[] u = this.u;
+        double[] v = this.v;
+
+        // The rows the fluid of this strip can come from
+        double max_v = 0.0;
+        for (int row = Math.max(this.first, 1); row <= Math.min(this.last, fluid_size - 2); row++){
+            int offset = index(row, 0);
+            for (int col = 1; col < fluid_size - 1; col++){
+                max_v = Math.max(max_v, Math.abs(v[offset + col]));
+            }
+        }
+        double reach = scaled_time_step * allReduceMax(max_v);
+        int halo = Double.isFinite(reach) ? (int) Math.min(fluid_size, Math.ceil(reach) + 1) : fluid_size;
+        exchangeHalo(array, halo);
+
+        for (int row = Math.max(this.first, 1); row <= Math.min(this.last, fluid_size - 2); row++){
+            int offset = index(row, 0);
+            for (int col = 1; col < fluid_size - 1; col++){
+                // Compute the cell of where the fluid particle would have came from (clamped to the simulation border)
+                double other_row = row - (scaled_time_step * v[offset + col]);
+                double other_col = col - (scaled_time_step * u[offset + col]);
+                if (other_row < 0.5){
+                    other_row = 0.5;
+                } else if (other_row > ((fluid_size - 2) + 0.5)){
+                    other_row = ((fluid_size - 2) + 0.5);
+                }
+                if (other_col < 0.5){
+                    other_col = 0.5;
+                } else if (other_col > ((fluid_size - 2) + 0.5)){
+                    other_col = ((fluid_size - 2) + 0.5);
+                }
+
+                int neighbour_row_1 = (int) Math.floor(other_row);
+                int neighbour_row_2 = neighbour_row_1 + 1;
+                int neighbour_col_1 = (int) Math.floor(other_col);
+                int neighbour_col_2 = neighbour_col_1 + 1;
+
+                double weight_row_1 = other_row - neighbour_row_1;
+                double weight_row_2 = 1 - weight_row_1;
+                double weight_col_1 = other_col - neighbour_col_1;
+                double weight_col_2 = 1 - weight_col_1;
+
+                // Linearly interpolate the advected quantity
+                double[] row_1 = rowArray(array, neighbour_row_1);
+                int offset_1 = rowOffset(neighbour_row_1);
+                double[] row_2 = rowArray(array, neighbour_row_2);
+                int offset_2 = rowOffset(neighbour_row_2);
+                double value = weight_col_2 * (weight_row_2 * (row_1[offset_1 + neighbour_col_1]) + weight_row_1 * (row_2[offset_2 + neighbour_col_1]));
+                value += weight_col_1 * (weight_row_2 * (row_1[offset_1 + neighbour_col_2]) + weight_row_1 * (row_2[offset_2 + neighbour_col_2]));
+                array_new[offset + col] = value;
+            }
+        }
+        set_boundary_values(advect_type, array_new);
+    }
+
+    private double[] rowArray(double[] array, int row){
+        /*
+        The array holding a row during an advection: the strip itself or one of the wide halos
+        */
+        if (row < this.first){
+            return this.halo_above;
+        }
+        return (row > this.last) ? this.halo_below : array;
+    }
+
+    private int rowOffset(int row){
+        if (row < this.first){
+            return (row - (this.first - this.halo_above_rows)) * this.fluid_size;
+        }
+        return (row > this.last) ? (row - this.last - 1) * this.fluid_size : index(row, 0);
+    }
+
+    void set_boundary_values(int diffuse_type, double[] array_new){
+        /*
+        Same as FluidOperations2D.set_boundary_values for the rows of the strip
+        */
+        int fluid_size = this.fluid_size;
+        int last = fluid_size - 1;
+        for (int row = Math.max(this.first, 1); row <= Math.min(this.last, fluid_size - 2); row++){
+            // Left and right border
+            int offset = index(row, 0);
+            if (diffuse_type == 1){
+                array_new[offset] = -1.0 * array_new[offset + 1];
+                array_new[offset + last] = -1.0 * array_new[offset + last - 1];
+            } else {
+                array_new[offset] = array_new[offset + 1];
+                array_new[offset + last] = array_new[offset + last - 1];
+            }
+        }
+
+        // Top and bottom border and their corners (the 4 corners are the average of their two closest non diagonal neighbours)
+        if (this.first == 0){
+            int top = index(0, 0);
+            for (int col = 1; col < last; col++){
+                array_new[top + col] = (diffuse_type == 2) ? -1.0 * array_new[top + fluid_size + col] : array_new[top + fluid_size + col];
+            }
+            array_new[top] = (array_new[top + fluid_size] + array_new[top + 1]) * 0.5;
+            array_new[top + last] = (array_new[top + last - 1] + array_new[top + fluid_size + last]) * 0.5;
+        }
+        if (this.last == last){
+            int bottom = index(last, 0);
+            for (int col = 1; col < last; col++){
+                array_new[bottom + col] = (diffuse_type == 2) ? -1.0 * array_new[bottom - fluid_size + col] : array_new[bottom - fluid_size + col];
+            }
+            array_new[bottom] = (array_new[bottom - fluid_size] + array_new[bottom + 1]) * 0.5;
+            array_new[bottom + last] = (array_new[bottom - fluid_size + last] + array_new[bottom + last - 1]) * 0.5;
+        }
+    }
+
+    void solve(double[] x, double[] rhs, double alpha, double beta, int boundary_type, int max_iterations, int solve){
+        /*
+        Same as GaussSeidelSolver.solve, either pipelined over the strips or with red-black ordering when
+        deterministic (see above)
+        */
+        int fluid_size = this.fluid_size;
+        double diagonal = alpha + 4.0 * beta;
+        double tolerance = this.config.solver_tolerance;
+
+        double rhs_norm = allReduceMax(maxAbs(rhs));
+        if (rhs_norm == 0.0){
+            Arrays.fill(x, 0.0);
+            record(solve, 0, 0.0, true);
+            return;
+        }
+        double threshold = tolerance * rhs_norm;
+        if (tolerance > 0.0){
+            exchangeHalo(x);
+            double initial = allReduceMax(residualNorm(x, rhs, alpha, beta));
+            if (initial <= threshold){
+                record(solve, 0, initial / rhs_norm, true);
+                return;
+            }
+        }
+
+        int row_start = Math.max(this.first, 1);
+        int row_end = Math.min(this.last, fluid_size - 2);
+        boolean red_black = this.config.deterministic;
+        if (!red_black && this.above != null){
+            this.above.send(x, index(this.first, 0), fluid_size);  // The strip above needs our first row before its first sweep
+        }
+        int iteration = 0;
+        double residual = Double.NaN;
+        boolean converged = false;
+        while (true){
+            double change = 0.0;
+            if (red_black){
+                for (int color = 0; color < 2; color++){
+                    exchangeHalo(x);  // The other color of the border rows of the neighbours
+                    for (int row = row_start; row <= row_end; row++){
+                        int offset = index(row, 0);
+                        for (int col = 1 + ((row + 1 + color) & 1); col < fluid_size - 1; col += 2){
+                            int cell = offset + col;
+                            double value = (rhs[cell] + beta * (x[cell - fluid_size] + x[cell + fluid_size] + x[cell - 1] + x[cell + 1])) / diagonal;
+                            change = Math.max(change, Math.abs(value - x[cell]));
+                            x[cell] = value;
+                        }
+                    }
+                }
+            } else {
+                if (this.above != null){
+                    this.above.receive(x, index(this.first - 1, 0), fluid_size);  // Last row of the strip above after this sweep
+                }
+                if (this.below != null){
+                    this.below.receive(x, index(this.last + 1, 0), fluid_size);  // First row of the strip below before this sweep
+                }
+                for (int row = row_start; row <= row_end; row++){
+                    int offset = index(row, 0);
+                    for (int col = 1; col < fluid_size - 1; col++){
+                        int cell = offset + col;
+                        double value = (rhs[cell] + beta * (x[cell - fluid_size] + x[cell + fluid_size] + x[cell - 1] + x[cell + 1])) / diagonal;
+                        change = Math.max(change, Math.abs(value - x[cell]));
+                        x[cell] = value;
+                    }
+                }
+            }
+            set_boundary_values(boundary_type, x);
+            iteration++;
+            if (!red_black && this.below != null){
+                this.below.send(x, index(this.last, 0), fluid_size);
+            }
+
+            boolean more = iteration < max_iterations;
+            if (tolerance > 0.0){
+                residual = diagonal * allReduceMax(change);
+                if (residual <= threshold){
+                    converged = true;
+                    more = false;
+                }
+            } else if (!more){
+                residual = diagonal * allReduceMax(change);
+            }
+            if (!more){
+                break;
+            }
+            if (!red_black && this.above != null){
+                this.above.send(x, index(this.first, 0), fluid_size);
+            }
+        }
+        record(solve, iteration, residual / rhs_norm, converged);
+    }
+
+    private void record(int solve, int iterations, double residual, boolean converged){
+        this.solve_stats[3 * solve] = iterations;
+        this.solve_stats[3 * solve + 1] = residual;
+        this.solve_stats[3 * solve + 2] = converged ? 1.0 : 0.0;
+    }
+
+    double maxAbs(double[] field){
+        /*
+        Largest absolute value over the interior cells of the strip
+        */
+        double largest = 0.0;
+        for (int row = Math.max(this.first, 1); row <= Math.min(this.last, this.fluid_size - 2); row++){
+            int offset = index(row, 0);
+            for (int col = 1; col < this.fluid_size - 1; col++){
+                largest = Math.max(largest, Math.abs(field[offset + col]));
+            }
+        }
+        return largest;
+    }
+
+    double residualNorm(double[] x, double[] rhs, double alpha, double beta){
+        /*
+        Largest absolute residual over the interior cells of the strip (the halo rows of x must be up to date)
+        */
+        int fluid_size = this.fluid_size;
+        double diagonal = alpha + 4.0 * beta;
+        double largest = 0.0;
+        for (int row = Math.max(this.first, 1); row <= Math.min(this.last, fluid_size - 2); row++){
+            int offset = index(row, 0);
+            for (int col = 1; col < fluid_size - 1; col++){
+                int cell = offset + col;
+                double residual = rhs[cell] - (diagonal * x[cell] - beta * (x[cell - fluid_size] + x[cell + fluid_size] + x[cell - 1] + x[cell + 1]));
+                largest = Math.max(largest, Math.abs(residual));
+            }
+        }
+        return largest;
+    }
+
+    double allReduceMax(double value){
+        /*
+        The largest value over every strip (every strip must call this at the same point)
+        */
+        this.coordinator.send(REDUCE, value);
+        return this.coordinator.receiveDouble();
+    }
+
+    void exchangeHalo(double[] array){
+        /*
+        Fill the halo rows of array with the border rows of the neighbouring strips
+        */
+        int fluid_size = this.fluid_size;
+        if (this.above != null){
+            this.above.send(array, index(this.first, 0), fluid_size);
+        }
+        if (this.below != null){
+            this.below.send(array, index(this.last, 0), fluid_size);
+        }
+        if (this.above != null){
+            this.above.receive(array, index(this.first - 1, 0), fluid_size);
+        }
+        if (this.below != null){
+            this.below.receive(array, index(this.last + 1, 0), fluid_size);
+        }
+    }
+
+    void exchangeHalo(double[] array, int halo){
+        /*
+        Fill halo_above and halo_below with up to halo rows of array above and below the strip. A strip thinner than
+        the halo passes on the rows it received from one neighbour to the other.
+        */
+        int fluid_size = this.fluid_size;
+        int rows = this.rows;
+        this.halo_above_rows = Math.min(halo, this.first);
+        this.halo_below_rows = Math.min(halo, fluid_size - 1 - this.last);
+        if (this.halo_above.length < this.halo_above_rows * fluid_size){
+            this.halo_above = new double[this.halo_above_rows * fluid_size];
+        }
+        if (this.halo_below.length < this.halo_below_rows * fluid_size){
+            this.halo_below = new double[this.halo_below_rows * fluid_size];
+        }
+        // Rows wanted by the strip below (the last ones down to ours) and by the strip above (the first ones from ours)
+        int send_down = (this.below != null) ? Math.min(halo, this.last + 1) : 0;
+        int send_up = (this.above != null) ? Math.min(halo, fluid_size - this.first) : 0;
+
+        boolean sent_down = false;
+        boolean sent_up = false;
+        if (this.below != null && send_down <= rows){
+            this.below.send(array, index(this.last + 1 - send_down, 0), send_down * fluid_size);
+            sent_down = true;
+        }
+        if (this.above != null && send_up <= rows){
+            this.above.send(array, index(this.first, 0), send_up * fluid_size);
+            sent_up = true;
+        }
+        if (this.above != null){
+            this.above.receive(this.halo_above, 0, this.halo_above_rows * fluid_size);
+        }
+        if (this.below != null && !sent_down){
+            int passed = send_down - rows;
+            this.below.send(this.halo_above, (this.halo_above_rows - passed) * fluid_size, passed * fluid_size);
+            this.below.send(array, index(this.first, 0), rows * fluid_size);
+        }
+        if (this.below != null){
+            this.below.receive(this.halo_below, 0, this.halo_below_rows * fluid_size);
+        }
+        if (this.above != null && !sent_up){
+            this.above.send(array, index(this.first, 0), rows * fluid_size);
+            this.above.send(this.halo_below, 0, (send_up - rows) * fluid_size);
+        }
+    }
+
+    public static void main(String[] args){
+        /*
+        Started by DistributedSolver with the port of the coordinator and the rank of the strip
+        */
+        if (args.length != 2){
+            System.out.println("Worker of DistributedSolver, not meant to be started by hand. Usage: java fluid2d.StripWorker <coordinator port> <rank>");
+            System.exit(1);
+        }
+        try {
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            int rank = Integer.parseInt(args[1]);
+            ServerSocketChannel server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(loopback, 0));
+
+            StripLink coordinator = new StripLink(SocketChannel.open(new InetSocketAddress(loopback, Integer.parseInt(args[0]))), false);
+            coordinator.send(rank, server.socket().getLocalPort());
+
+            // The coordinator answers with the configuration, the strips and the port of the strip above
+            SimulationConfig config = new SimulationConfig();
+            for (String parameter : coordinator.receiveString().split(" ")){
+                int equals = parameter.indexOf('=');
+                config.set(parameter.substring(0, equals), parameter.substring(equals + 1));
+            }
+            int count = (int) coordinator.receiveDouble();
+            double[] strips = new double[2 * count + 1];
+            coordinator.receive(strips, 0, strips.length);
+            int[] strip_first = new int[count];
+            int[] strip_last = new int[count];
+            for (int strip = 0; strip < count; strip++){
+                strip_first[strip] = (int) strips[strip];
+                strip_last[strip] = (int) strips[count + strip];
+            }
+            int above_port = (int) strips[2 * count];
+
+            // Connect to the strip above and wait for the strip below to connect to us
+            StripLink above = null;
+            StripLink below = null;
+            if (rank > 0){
+                above = new StripLink(SocketChannel.open(new InetSocketAddress(loopback, above_port)), true);
+            }
+            if (rank < count - 1){
+                below = new StripLink(server.accept(), true);
+            }
+            server.close();
+
+            StripWorker worker = new StripWorker(config, rank, strip_first, strip_last, coordinator, above, below);
+            coordinator.send(DONE);  // Ready
+            worker.run();
+
+            if (above != null){
+                above.close();
+            }
+            if (below != null){
+                below.close();
+            }
+            coordinator.close();
+        } catch (IOException | RuntimeException e){
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,513 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following are SIMD versions of the row kernels in FluidOperations2D, ParallelOperations2D, JacobiSolver and
+FloatOperations2D written with the Java Vector API (jdk.incubator.vector). Each kernel processes as many
+neighbouring cells of a row at once as fit in a vector register and finishes the end of the row with the scalar
+code. Every kernel performs exactly the same floating point operations in the same order as its scalar version
+so the results are bit identical, only faster.
+
+The Vector API is still an incubator module, so this class is only loaded when the simulation runs with
+simd = true and the JVM was started with --add-modules jdk.incubator.vector (see ParallelOperations2D.simdAvailable).
+
+Red-black sweeps update every other cell of a row. The vector version computes the new value of every cell in
+the vector and blends the old value back into the cells of the other color before storing the whole vector.
+Those cells are only read during the sweep (a cell of one color only depends on cells of the other color) so
+writing their old value back does not change anything.
+
+Advection reads the advected quantity at positions that depend on the velocity. The positions, weights and
+indices are computed with vectors, the 4 corners of the interpolation are then loaded one lane at a time into
+small per thread arrays and the interpolation is done with vectors again. JDK 17 does have gathers but with an
+index array they allocate on every call and crashed the C2 compiler on our test machine, so they are avoided.
+Converting a floating point vector to integers is not compiled to vector instructions either (it falls back to
+slow code that allocates), so the positions are rounded down with the usual trick of adding and subtracting 2^52
+(2^23 for floats) and the integer indices are read straight out of the bits of position + 2^52. Both are exact
+for any position on the grid. For doubles the bits are stored as longs and cast to int one lane at a time rather
+than narrowed with convertShape, and the scalars are broadcast outside the loop. Every convertShape and broadcast
+adds type checks that can deoptimise, and once a method has hit too many of them C2 compiles it with fewer vector
+intrinsics, which left the final store as a call that allocates a vector on every iteration.
+
+Once C2 has compiled them none of the kernels allocate. The kernels are called through the reused kernel objects
+of ParallelOperations2D, FloatOperations2D and JacobiSolver, so a whole simd step does not allocate either
+(Headless prints the bytes allocated per step). Before C2 gets to them the vectors are real objects, so the first
+few hundred steps do allocate.
+*/
+
+package fluid2d;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+public class VectorOperations2D {
+    static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    // Adding and subtracting these rounds a (small enough) non negative value to the nearest integer
+    static final double DOUBLE_ROUNDING = 4503599627370496.0;  // 2^52
+    static final float FLOAT_ROUNDING = 8388608.0f;  // 2^23
+    static final int FLOAT_ROUNDING_BITS = 0x4B000000;  // Bits of 2^23 as a float
+
+    // Lanes 0, 2, 4, ... and lanes 1, 3, 5, ... (for the red-black sweeps)
+    static final VectorMask<Double> DOUBLE_EVEN_LANES = VectorMask.fromLong(DOUBLES, 0x5555555555555555L);
+    static final VectorMask<Double> DOUBLE_ODD_LANES = VectorMask.fromLong(DOUBLES, 0xAAAAAAAAAAAAAAAAL);
+    static final VectorMask<Float> FLOAT_EVEN_LANES = VectorMask.fromLong(FLOATS, 0x5555555555555555L);
+    static final VectorMask<Float> FLOAT_ODD_LANES = VectorMask.fromLong(FLOATS, 0xAAAAAAAAAAAAAAAAL);
+
+    // Constants of the double advection, broadcast once rather than in every iteration
+    static final DoubleVector DOUBLE_ONES = DoubleVector.broadcast(DOUBLES, 1.0);
+    static final DoubleVector DOUBLE_HALVES = DoubleVector.broadcast(DOUBLES, 0.5);
+    static final DoubleVector DOUBLE_ROUNDINGS = DoubleVector.broadcast(DOUBLES, DOUBLE_ROUNDING);
+
+    // Column offset of every lane
+    static final DoubleVector DOUBLE_LANE_OFFSETS = DoubleVector.fromArray(DOUBLES, laneOffsets(DOUBLES.length()), 0);
+    static final FloatVector FLOAT_LANE_OFFSETS = FloatVector.fromArray(FLOATS, floatLaneOffsets(FLOATS.length()), 0);
+
+    // Holds the corner indices and values of the current thread so the advection does not allocate
+    static final ThreadLocal<Corners> CORNERS = ThreadLocal.withInitial(Corners::new);
+
+
+    public static String describe(){
+        /*
+        Short description of the vector sizes used on this machine
+        */
+        return DOUBLES.length() + " doubles / " + FLOATS.length() + " floats per vector (" + DOUBLES.vectorBitSize() + " bit)";
+    }
+
+
+    public static double redBlackSweep(double[] x, double[] rhs, double rhs_scale, double neighbour_scale, double diagonal, int color, int row_start, int row_end, int fluid_size){
+        /*
+        Vector version of ParallelOperations2D.redBlackSweep
+        */
+        int lanes = DOUBLES.length();
+        int vector_end = 1 + DOUBLES.loopBound(fluid_size - 2);  // Columns before this one are done with whole vectors
+        double change = 0.0;
+
+        for (int row = row_start; row < row_end; row++){
+            // A vector carried over from one row to the next ends up on the heap, so every row has its own
+            DoubleVector changes = DoubleVector.zero(DOUBLES);
+            // Lane i is at column col + i so it has the current color when (row + col + i) % 2 == color.
+            // The number of lanes is even so the same lanes have the current color in every vector of the row.
+            VectorMask<Double> mask = (((row + 1 + color) & 1) == 0) ? DOUBLE_EVEN_LANES : DOUBLE_ODD_LANES;
+            int col = 1;
+            for (; col < vector_end; col += lanes){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+
+                DoubleVector old_value = DoubleVector.fromArray(DOUBLES, x, index);
+                DoubleVector neighbours = DoubleVector.fromArray(DOUBLES, x, index - fluid_size)
+                        .add(DoubleVector.fromArray(DOUBLES, x, index + fluid_size))
+                        .add(DoubleVector.fromArray(DOUBLES, x, index - 1))
+                        .add(DoubleVector.fromArray(DOUBLES, x, index + 1));
+                DoubleVector value = DoubleVector.fromArray(DOUBLES, rhs, index).mul(rhs_scale)
+                        .add(neighbours.mul(neighbour_scale))
+                        .div(diagonal);
+
+                value = old_value.blend(value, mask);
+                changes = changes.max(value.sub(old_value).abs());
+                value.intoArray(x, index);
+            }
+            change = Math.max(change, changes.reduceLanes(VectorOperators.MAX));
+
+            // The rest of the row
+            for (col += (row + col + color) & 1; col < fluid_size - 1; col += 2){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                double value = (rhs_scale * rhs[index] + neighbour_scale * (x[index - fluid_size] + x[index + fluid_size]
+                        + x[index - 1] + x[index + 1])) / diagonal;
+                change = Math.max(change, Math.abs(value - x[index]));
+                x[index] = value;
+            }
+        }
+        return change;
+    }
+
+
+    public static double jacobiSweep(double[] x_new, double[] x, double[] rhs, double beta, double diagonal, int row_start, int row_end, int fluid_size){
+        /*
+        Vector version of JacobiSolver.sweep
+        */
+        int lanes = DOUBLES.length();
+        int vector_end = 1 + DOUBLES.loopBound(fluid_size - 2);
+        double change = 0.0;
+
+        for (int row = row_start; row < row_end; row++){
+            // A vector carried over from one row to the next ends up on the heap, so every row has its own
+            DoubleVector changes = DoubleVector.zero(DOUBLES);
+            int col = 1;
+            for (; col < vector_end; col += lanes){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                DoubleVector neighbours = DoubleVector.fromArray(DOUBLES, x, index - fluid_size)
+                        .add(DoubleVector.fromArray(DOUBLES, x, index + fluid_size))
+                        .add(DoubleVector.fromArray(DOUBLES, x, index - 1))
+                        .add(DoubleVector.fromArray(DOUBLES, x, index + 1));
+                DoubleVector value = DoubleVector.fromArray(DOUBLES, rhs, index).add(neighbours.mul(beta)).div(diagonal);
+                changes = changes.max(value.sub(DoubleVector.fromArray(DOUBLES, x, index)).abs());
+                value.intoArray(x_new, index);
+            }
+            change = Math.max(change, changes.reduceLanes(VectorOperators.MAX));
+            for (; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                x_new[index] = (rhs[index] + beta * (x[index - fluid_size] + x[index + fluid_size] + x[index - 1] + x[index + 1])) / diagonal;
+                change = Math.max(change, Math.abs(x_new[index] - x[index]));
+            }
+        }
+        return change;
+    }
+
+
+    public static void divergenceRows(double[] u, double[] v, double[] divergence, int fluid_size, double time_step, double density, int row_start, int row_end){
+        /*
+        Vector version of FluidOperations2D.divergenceRows
+        */
+        double particle_spacing = 1.0 / fluid_size;
+        double divergence_scale = -0.5 * particle_spacing * density / time_step;
+        int lanes = DOUBLES.length();
+        int vector_end = 1 + DOUBLES.loopBound(fluid_size - 2);
+
+        for (int row = row_start; row < row_end; row++){
+            int col = 1;
+            for (; col < vector_end; col += lanes){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                DoubleVector du = DoubleVector.fromArray(DOUBLES, u, index + 1).sub(DoubleVector.fromArray(DOUBLES, u, index - 1));
+                DoubleVector dv = DoubleVector.fromArray(DOUBLES, v, index + fluid_size).sub(DoubleVector.fromArray(DOUBLES, v, index - fluid_size));
+                du.add(dv).mul(divergence_scale).intoArray(divergence, index);
+            }
+            for (; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                divergence[index] = divergence_scale * ((u[index + 1] - u[index - 1]) + (v[index + fluid_size] - v[index - fluid_size]));
+            }
+        }
+    }
+
+
+    public static void pressureGradientRows(double[] u, double[] v, double[] pressure, int fluid_size, double time_step, double density, int row_start, int row_end){
+        /*
+        Vector version of FluidOperations2D.pressureGradientRows
+        */
+        double particle_spacing = 1.0 / fluid_size;
+        double gradient_scale = (time_step / density) * (0.5 / particle_spacing);
+        int lanes = DOUBLES.length();
+        int vector_end = 1 + DOUBLES.loopBound(fluid_size - 2);
+
+        for (int row = row_start; row < row_end; row++){
+            int col = 1;
+            for (; col < vector_end; col += lanes){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                DoubleVector dp_col = DoubleVector.fromArray(DOUBLES, pressure, index + 1).sub(DoubleVector.fromArray(DOUBLES, pressure, index - 1));
+                DoubleVector dp_row = DoubleVector.fromArray(DOUBLES, pressure, index + fluid_size).sub(DoubleVector.fromArray(DOUBLES, pressure, index - fluid_size));
+                DoubleVector.fromArray(DOUBLES, u, index).sub(dp_col.mul(gradient_scale)).intoArray(u, index);
+                DoubleVector.fromArray(DOUBLES, v, index).sub(dp_row.mul(gradient_scale)).intoArray(v, index);
+            }
+            for (; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                u[index] -= gradient_scale * (pressure[index + 1] - pressure[index - 1]);
+                v[index] -= gradient_scale * (pressure[index + fluid_size] - pressure[index - fluid_size]);
+            }
+        }
+    }
+
+
+    public static void advectRows(double[] array_new, double[] array, double time_step, int fluid_size, double[] u, double[] v, int row_start, int row_end){
+        /*
+        Vector version of FluidOperations2D.advectRows
+        */
+        double scaled_time_step = time_step * (fluid_size - 2);
+        double upper_limit = (fluid_size - 2) + 0.5;
+        int lanes = DOUBLES.length();
+        int vector_end = 1 + DOUBLES.loopBound(fluid_size - 2);
+        Corners corners = CORNERS.get();
+        long[] index_bits = corners.index_bits;
+        DoubleVector time_steps = DoubleVector.broadcast(DOUBLES, scaled_time_step);
+        DoubleVector upper_limits = DoubleVector.broadcast(DOUBLES, upper_limit);
+        DoubleVector row_sizes = DoubleVector.broadcast(DOUBLES, fluid_size);
+
+        for (int row = row_start; row < row_end; row++){
+            DoubleVector rows = DoubleVector.broadcast(DOUBLES, row);
+            int col = 1;
+            for (; col < vector_end; col += lanes){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+
+                // Where the fluid particle came from clamped to the simulation border
+                DoubleVector other_row = rows
+                        .sub(DoubleVector.fromArray(DOUBLES, v, index).mul(time_steps))
+                        .max(DOUBLE_HALVES).min(upper_limits);
+                DoubleVector other_col = DoubleVector.broadcast(DOUBLES, col).add(DOUBLE_LANE_OFFSETS)
+                        .sub(DoubleVector.fromArray(DOUBLES, u, index).mul(time_steps))
+                        .max(DOUBLE_HALVES).min(upper_limits);
+
+                // Round the positions down to get the neighbouring particles
+                DoubleVector neighbour_row_1 = floor(other_row);
+                DoubleVector neighbour_col_1 = floor(other_col);
+                DoubleVector weight_row_1 = other_row.sub(neighbour_row_1);
+                DoubleVector weight_row_2 = DOUBLE_ONES.sub(weight_row_1);
+                DoubleVector weight_col_1 = other_col.sub(neighbour_col_1);
+                DoubleVector weight_col_2 = DOUBLE_ONES.sub(weight_col_1);
+
+                // Load the 4 corners around every position. The index is an integer below 2^52 so its
+                // lowest 32 bits are the lowest 32 bits of index + 2^52.
+                neighbour_row_1.mul(row_sizes).add(neighbour_col_1).add(DOUBLE_ROUNDINGS).reinterpretAsLongs().intoArray(index_bits, 0);
+                for (int lane = 0; lane < lanes; lane++){
+                    int corner = (int) index_bits[lane];
+                    corners.top_left[lane] = array[corner];
+                    corners.bottom_left[lane] = array[corner + fluid_size];
+                    corners.top_right[lane] = array[corner + 1];
+                    corners.bottom_right[lane] = array[corner + fluid_size + 1];
+                }
+                DoubleVector top_left = DoubleVector.fromArray(DOUBLES, corners.top_left, 0);
+                DoubleVector bottom_left = DoubleVector.fromArray(DOUBLES, corners.bottom_left, 0);
+                DoubleVector top_right = DoubleVector.fromArray(DOUBLES, corners.top_right, 0);
+                DoubleVector bottom_right = DoubleVector.fromArray(DOUBLES, corners.bottom_right, 0);
+
+                DoubleVector left = weight_row_2.mul(top_left).add(weight_row_1.mul(bottom_left)).mul(weight_col_2);
+                DoubleVector right = weight_row_2.mul(top_right).add(weight_row_1.mul(bottom_right)).mul(weight_col_1);
+                left.add(right).intoArray(array_new, index);
+            }
+            if (col < fluid_size - 1){
+                FluidOperations2D.advectColumns(array_new, array, scaled_time_step, fluid_size, u, v, row, col, fluid_size - 1);
+            }
+        }
+    }
+
+
+    public static float redBlackSweep(float[] x, float[] rhs, float rhs_scale, float neighbour_scale, float diagonal, int color, int row_start, int row_end, int fluid_size){
+        /*
+        Vector version of FloatOperations2D.redBlackSweep
+        */
+        int lanes = FLOATS.length();
+        int vector_end = 1 + FLOATS.loopBound(fluid_size - 2);
+        float change = 0.0f;
+
+        for (int row = row_start; row < row_end; row++){
+            // A vector carried over from one row to the next ends up on the heap, so every row has its own
+            FloatVector changes = FloatVector.zero(FLOATS);
+            // Lane i is at column col + i so it has the current color when (row + col + i) % 2 == color.
+            // The number of lanes is even so the same lanes have the current color in every vector of the row.
+            VectorMask<Float> mask = (((row + 1 + color) & 1) == 0) ? FLOAT_EVEN_LANES : FLOAT_ODD_LANES;
+            int col = 1;
+            for (; col < vector_end; col += lanes){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+
+                FloatVector old_value = FloatVector.fromArray(FLOATS, x, index);
+                FloatVector neighbours = FloatVector.fromArray(FLOATS, x, index - fluid_size)
+                        .add(FloatVector.fromArray(FLOATS, x, index + fluid_size))
+                        .add(FloatVector.fromArray(FLOATS, x, index - 1))
+                        .add(FloatVector.fromArray(FLOATS, x, index + 1));
+                FloatVector value = FloatVector.fromArray(FLOATS, rhs, index).mul(rhs_scale)
+                        .add(neighbours.mul(neighbour_scale))
+                        .div(diagonal);
+
+                value = old_value.blend(value, mask);
+                changes = changes.max(value.sub(old_value).abs());
+                value.intoArray(x, index);
+            }
+            change = Math.max(change, changes.reduceLanes(VectorOperators.MAX));
+            for (col += (row + col + color) & 1; col < fluid_size - 1; col += 2){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                float value = (rhs_scale * rhs[index] + neighbour_scale * (x[index - fluid_size] + x[index + fluid_size]
+                        + x[index - 1] + x[index + 1])) / diagonal;
+                change = Math.max(change, Math.abs(value - x[index]));
+                x[index] = value;
+            }
+        }
+        return change;
+    }
+
+
+    public static float jacobiSweep(float[] x_new, float[] x, float[] rhs, float beta, float diagonal, int row_start, int row_end, int fluid_size){
+        /*
+        Vector version of FloatOperations2D.jacobiSweep
+        */
+        int lanes = FLOATS.length();
+        int vector_end = 1 + FLOATS.loopBound(fluid_size - 2);
+        float change = 0.0f;
+
+        for (int row = row_start; row < row_end; row++){
+            // A vector carried over from one row to the next ends up on the heap, so every row has its own
+            FloatVector changes = FloatVector.zero(FLOATS);
+            int col = 1;
+            for (; col < vector_end; col += lanes){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                FloatVector neighbours = FloatVector.fromArray(FLOATS, x, index - fluid_size)
+                        .add(FloatVector.fromArray(FLOATS, x, index + fluid_size))
+                        .add(FloatVector.fromArray(FLOATS, x, index - 1))
+                        .add(FloatVector.fromArray(FLOATS, x, index + 1));
+                FloatVector value = FloatVector.fromArray(FLOATS, rhs, index).add(neighbours.mul(beta)).div(diagonal);
+                changes = changes.max(value.sub(FloatVector.fromArray(FLOATS, x, index)).abs());
+                value.intoArray(x_new, index);
+            }
+            change = Math.max(change, changes.reduceLanes(VectorOperators.MAX));
+            for (; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                x_new[index] = (rhs[index] + beta * (x[index - fluid_size] + x[index + fluid_size] + x[index - 1] + x[index + 1])) / diagonal;
+                change = Math.max(change, Math.abs(x_new[index] - x[index]));
+            }
+        }
+        return change;
+    }
+
+
+    public static void divergenceRows(float[] u, float[] v, float[] divergence, int fluid_size, float time_step, float density, int row_start, int row_end){
+        /*
+        Vector version of FloatOperations2D.divergenceRows
+        */
+        float particle_spacing = 1.0f / fluid_size;
+        float divergence_scale = -0.5f * particle_spacing * density / time_step;
+        int lanes = FLOATS.length();
+        int vector_end = 1 + FLOATS.loopBound(fluid_size - 2);
+
+        for (int row = row_start; row < row_end; row++){
+            int col = 1;
+            for (; col < vector_end; col += lanes){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                FloatVector du = FloatVector.fromArray(FLOATS, u, index + 1).sub(FloatVector.fromArray(FLOATS, u, index - 1));
+                FloatVector dv = FloatVector.fromArray(FLOATS, v, index + fluid_size).sub(FloatVector.fromArray(FLOATS, v, index - fluid_size));
+                du.add(dv).mul(divergence_scale).intoArray(divergence, index);
+            }
+            for (; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                divergence[index] = divergence_scale * ((u[index + 1] - u[index - 1]) + (v[index + fluid_size] - v[index - fluid_size]));
+            }
+        }
+    }
+
+
+    public static void pressureGradientRows(float[] u, float[] v, float[] pressure, int fluid_size, float time_step, float density, int row_start, int row_end){
+        /*
+        Vector version of FloatOperations2D.pressureGradientRows
+        */
+        float particle_spacing = 1.0f / fluid_size;
+        float gradient_scale = (time_step / density) * (0.5f / particle_spacing);
+        int lanes = FLOATS.length();
+        int vector_end = 1 + FLOATS.loopBound(fluid_size - 2);
+
+        for (int row = row_start; row < row_end; row++){
+            int col = 1;
+            for (; col < vector_end; col += lanes){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                FloatVector dp_col = FloatVector.fromArray(FLOATS, pressure, index + 1).sub(FloatVector.fromArray(FLOATS, pressure, index - 1));
+                FloatVector dp_row = FloatVector.fromArray(FLOATS, pressure, index + fluid_size).sub(FloatVector.fromArray(FLOATS, pressure, index - fluid_size));
+                FloatVector.fromArray(FLOATS, u, index).sub(dp_col.mul(gradient_scale)).intoArray(u, index);
+                FloatVector.fromArray(FLOATS, v, index).sub(dp_row.mul(gradient_scale)).intoArray(v, index);
+            }
+            for (; col < fluid_size - 1; col++){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+                u[index] -= gradient_scale * (pressure[index + 1] - pressure[index - 1]);
+                v[index] -= gradient_scale * (pressure[index + fluid_size] - pressure[index - fluid_size]);
+            }
+        }
+    }
+
+
+    public static void advectRows(float[] array_new, float[] array, float time_step, int fluid_size, float[] u, float[] v, int row_start, int row_end){
+        /*
+        Vector version of FloatOperations2D.advectRows
+        */
+        float scaled_time_step = time_step * (fluid_size - 2);
+        float upper_limit = (fluid_size - 2) + 0.5f;
+        int lanes = FLOATS.length();
+        int vector_end = 1 + FLOATS.loopBound(fluid_size - 2);
+        Corners corners = CORNERS.get();
+        int[] indices = corners.indices;
+
+        for (int row = row_start; row < row_end; row++){
+            int col = 1;
+            for (; col < vector_end; col += lanes){
+                int index = FluidOperations2D.idx(row, col, fluid_size);
+
+                FloatVector other_row = FloatVector.broadcast(FLOATS, row)
+                        .sub(FloatVector.fromArray(FLOATS, v, index).mul(scaled_time_step))
+                        .max(0.5f).min(upper_limit);
+                FloatVector other_col = FloatVector.broadcast(FLOATS, col).add(FLOAT_LANE_OFFSETS)
+                        .sub(FloatVector.fromArray(FLOATS, u, index).mul(scaled_time_step))
+                        .max(0.5f).min(upper_limit);
+
+                FloatVector neighbour_row_1 = floor(other_row);
+                FloatVector neighbour_col_1 = floor(other_col);
+                FloatVector weight_row_1 = other_row.sub(neighbour_row_1);
+                FloatVector weight_row_2 = FloatVector.broadcast(FLOATS, 1.0f).sub(weight_row_1);
+                FloatVector weight_col_1 = other_col.sub(neighbour_col_1);
+                FloatVector weight_col_2 = FloatVector.broadcast(FLOATS, 1.0f).sub(weight_col_1);
+
+                // A float can not hold every index exactly, so the row and column are turned into integers first
+                // (the bits of value + 2^23 are the bits of 2^23 plus the value)
+                IntVector row_1 = neighbour_row_1.add(FLOAT_ROUNDING).reinterpretAsInts().sub(FLOAT_ROUNDING_BITS);
+                IntVector col_1 = neighbour_col_1.add(FLOAT_ROUNDING).reinterpretAsInts().sub(FLOAT_ROUNDING_BITS);
+                row_1.mul(fluid_size).add(col_1).intoArray(indices, 0);
+                for (int lane = 0; lane < lanes; lane++){
+                    int corner = indices[lane];
+                    corners.top_left_float[lane] = array[corner];
+                    corners.bottom_left_float[lane] = array[corner + fluid_size];
+                    corners.top_right_float[lane] = array[corner + 1];
+                    corners.bottom_right_float[lane] = array[corner + fluid_size + 1];
+                }
+                FloatVector top_left = FloatVector.fromArray(FLOATS, corners.top_left_float, 0);
+                FloatVector bottom_left = FloatVector.fromArray(FLOATS, corners.bottom_left_float, 0);
+                FloatVector top_right = FloatVector.fromArray(FLOATS, corners.top_right_float, 0);
+                FloatVector bottom_right = FloatVector.fromArray(FLOATS, corners.bottom_right_float, 0);
+
+                FloatVector left = weight_row_2.mul(top_left).add(weight_row_1.mul(bottom_left)).mul(weight_col_2);
+                FloatVector right = weight_row_2.mul(top_right).add(weight_row_1.mul(bottom_right)).mul(weight_col_1);
+                left.add(right).intoArray(array_new, index);
+            }
+            if (col < fluid_size - 1){
+                FloatOperations2D.advectColumns(array_new, array, scaled_time_step, fluid_size, u, v, row, col, fluid_size - 1);
+            }
+        }
+    }
+
+
+    static DoubleVector floor(DoubleVector value){
+        /*
+        Round non negative values below 2^52 down to an integer (Math.floor of every lane)
+        */
+        DoubleVector nearest = value.add(DOUBLE_ROUNDINGS).sub(DOUBLE_ROUNDINGS);
+        return nearest.sub(DOUBLE_ONES, nearest.compare(VectorOperators.GT, value));
+    }
+
+    static FloatVector floor(FloatVector value){
+        /*
+        Round non negative values below 2^22 down to an integer (Math.floor of every lane)
+        */
+        FloatVector nearest = value.add(FLOAT_ROUNDING).sub(FLOAT_ROUNDING);
+        return nearest.sub(FloatVector.broadcast(FLOATS, 1.0f), nearest.compare(VectorOperators.GT, value));
+    }
+
+    static final class Corners {
+        /*
+        The 4 corners of one vector of advected positions (one of these per thread)
+        */
+        final int[] indices = new int[FLOATS.length()];
+        final long[] index_bits = new long[DOUBLES.length()];
+        final double[] top_left = new double[DOUBLES.length()];
+        final double[] bottom_left = new double[DOUBLES.length()];
+        final double[] top_right = new double[DOUBLES.length()];
+        final double[] bottom_right = new double[DOUBLES.length()];
+        final float[] top_left_float = new float[FLOATS.length()];
+        final float[] bottom_left_float = new float[FLOATS.length()];
+        final float[] top_right_float = new float[FLOATS.length()];
+        final float[] bottom_right_float = new float[FLOATS.length()];
+    }
+
+    private static double[] laneOffsets(int lanes){
+        double[] offsets = new double[lanes];
+        for (int lane = 0; lane < lanes; lane++){
+            offsets[lane] = lane;
+        }
+        return offsets;
+    }
+
+    private static float[] floatLaneOffsets(int lanes){
+        float[] offsets = new float[lanes];
+        for (int lane = 0; lane < lanes; lane++){
+            offsets[lane] = lane;
+        }
+        return offsets;
+    }
+}
@@ -0,0 +1,84 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following checks the active tiles (SparseOperations2D) against the dense simulation. With every tile active the
+results must be exactly the same. With one small source on a large grid most tiles stay inactive, which exercises
+the copying of the inactive tiles, the spans, growing the active area and the early end of the pressure solve.
+There the results may only differ by values below the threshold that were ignored.
+*/
+
+package fluid2d;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class ActiveTilesTest {
+    static final int STEPS = 40;
+    static final int SPARSE_FLUID_SIZE = 160;
+    static final int SPARSE_STEPS = 30;
+    static final double MAX_SPARSE_ERROR = 1e-3;  // Ten times the default active_threshold
+
+    @Test
+    void everyTileActiveMatchesDense(){
+        SimulationConfig dense_config = Simulations.config();
+        SimulationConfig sparse_config = Simulations.config();
+        sparse_config.active_tiles = true;
+        sparse_config.active_threshold = 0.0;
+        sparse_config.tile_size = 8;
+        sparse_config.active_tiles_check = true;
+
+        FluidSolver dense = new FluidSolver(dense_config);
+        FluidSolver sparse = new FluidSolver(sparse_config);
+        // Some dye in every cell keeps every tile active
+        for (FluidSolver solver : new FluidSolver[]{dense, sparse}){
+            for (int row = 1; row < Simulations.FLUID_SIZE - 1; row++){
+                for (int col = 1; col < Simulations.FLUID_SIZE - 1; col++){
+                    solver.fluid.add_dye(1.0, row, col);
+                }
+            }
+        }
+        InputScript script = InputScript.standard(Simulations.INJECT_EVERY);
+        Simulations.run(dense, script, STEPS);
+        Simulations.run(sparse, script, STEPS);
+
+        Simulations.assertIdentical(Simulations.state(dense), Simulations.state(sparse));
+        assertEquals(0.0, sparse.max_active_tiles_error);
+        dense.close();
+        sparse.close();
+    }
+
+    @Test
+    void smallSourceKeepsMostTilesInactive(){
+        SimulationConfig config = Simulations.config();
+        config.fluid_size = SPARSE_FLUID_SIZE;
+        config.active_tiles = true;
+        config.tile_size = 8;
+        config.active_tiles_check = true;
+        config.warm_start = true;
+        config.solver_tolerance = 1e-4;
+
+        FluidSolver sparse = new FluidSolver(config);
+        int tiles = sparse.sparse.tiles_per_side * sparse.sparse.tiles_per_side;
+        int centre = SPARSE_FLUID_SIZE / 2;
+        for (int step = 0; step < SPARSE_STEPS; step++){
+            if (step % Simulations.INJECT_EVERY == 0){
+                sparse.fluid.add_dye(50.0, centre, centre);
+                sparse.fluid.add_v(-0.5, centre, centre);
+            }
+            sparse.step();
+            int active_tiles = sparse.sparse.active_tiles;
+            assertTrue(active_tiles < tiles, () -> active_tiles + " of " + tiles + " tiles active");
+        }
+
+        assertTrue(sparse.sparse.activeFraction() < 0.5, () -> "active fraction " + sparse.sparse.activeFraction());
+        assertTrue(sparse.max_active_tiles_error < MAX_SPARSE_ERROR, () -> "max_active_tiles_error " + sparse.max_active_tiles_error);
+        sparse.close();
+    }
+}
@@ -0,0 +1,107 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following checks that a step does not allocate once the JIT has compiled it, so a long running simulation never
+triggers the garbage collector. Allocations are counted per thread, which covers the thread stepping the solver.
+How long the JIT takes varies from run to run, so the steps are measured in windows until one window is allocation
+free. A step that does allocate fails every window.
+*/
+
+package fluid2d;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import org.junit.jupiter.api.Test;
+
+class AllocationTest {
+    static final int FLUID_SIZE = 48;
+    static final int WARMUP = 200;
+    static final int STEPS = 200;  // Steps per window
+    static final int WINDOWS = 20;  // Windows before giving up on the JIT (the vectors are real objects until C2 compiles the kernels)
+    static final long OVERHEAD = 1024;  // Bytes measuring the allocation may itself allocate
+
+    @Test
+    void defaultStep(){
+        assertStepsDoNotAllocate(config());
+    }
+
+    @Test
+    void threadedStep(){
+        SimulationConfig config = config();
+        config.threads = 2;
+        assertStepsDoNotAllocate(config);
+    }
+
+    @Test
+    void deterministicStep(){
+        SimulationConfig config = config();
+        config.deterministic = true;
+        assertStepsDoNotAllocate(config);
+    }
+
+    @Test
+    void simdStep(){
+        assumeTrue(ParallelOperations2D.simdAvailable(), "the Vector API is not available");
+        SimulationConfig config = config();
+        config.simd = true;
+        assertStepsDoNotAllocate(config);
+    }
+
+    @Test
+    void threadedSimdFloatStep(){
+        assumeTrue(ParallelOperations2D.simdAvailable(), "the Vector API is not available");
+        SimulationConfig config = config();
+        config.threads = 2;
+        config.simd = true;
+        config.precision = "float";
+        assertStepsDoNotAllocate(config);
+    }
+
+    private static SimulationConfig config(){
+        SimulationConfig config = new SimulationConfig();
+        config.fluid_size = FLUID_SIZE;
+        return config;
+    }
+
+    private static void assertStepsDoNotAllocate(SimulationConfig config){
+        assumeTrue(Headless.allocatedBytes() >= 0, "the JVM does not count allocations");
+        FluidSolver solver = new FluidSolver(config);
+        try {
+            for (int i = 0; i < WARMUP; i++){
+                inject(solver);
+                solver.step();
+            }
+            long allocated = Long.MAX_VALUE;
+            for (int window = 0; window < WINDOWS && allocated > OVERHEAD; window++){
+                long start = Headless.allocatedBytes();
+                for (int i = 0; i < STEPS; i++){
+                    inject(solver);
+                    solver.step();
+                }
+                allocated = Headless.allocatedBytes() - start;
+            }
+            long last = allocated;
+            assertTrue(allocated <= OVERHEAD, () -> STEPS + " steps allocated " + last + " bytes with " + config);
+        } finally {
+            solver.close();
+        }
+    }
+
+    private static void inject(FluidSolver solver){
+        /*
+        The up arrow key of Main, straight into the fluid like Headless does
+        */
+        if (solver.step_count % Simulations.INJECT_EVERY != 0){
+            return;
+        }
+        int size = solver.fluid.fluid_size;
+        solver.fluid.add_dye(1500, size - 3, size / 2);
+        solver.fluid.add_v(-15, size - 3, size / 2);
+    }
+}
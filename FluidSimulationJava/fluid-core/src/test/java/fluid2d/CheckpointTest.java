@@ -0,0 +1,50 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following checks that a simulation restored from a checkpoint continues exactly like the one that was saved.
+*/
+
+package fluid2d;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CheckpointTest {
+    static final int STEPS = 20;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoredSolverContinuesIdentically(){
+        // The warm start makes the saved pressures matter as well
+        SimulationConfig config = Simulations.config();
+        config.warm_start = true;
+        config.solver_tolerance = 1e-3;
+        InputScript script = InputScript.standard(Simulations.INJECT_EVERY);
+
+        FluidSolver original = new FluidSolver(config);
+        Simulations.run(original, script, STEPS);
+        Path file = this.directory.resolve("run.ckpt");
+        Checkpoint.save(original, file);
+
+        FluidSolver restored = Checkpoint.restore(file, config);
+        assertEquals(original.step_count, restored.step_count);
+        assertEquals(original.simulated_time, restored.simulated_time);
+        Simulations.assertIdentical(Simulations.state(original), Simulations.state(restored));
+
+        Simulations.run(original, script, STEPS);
+        Simulations.run(restored, script, STEPS);
+        Simulations.assertIdentical(Simulations.state(original), Simulations.state(restored));
+        original.close();
+        restored.close();
+    }
+}
@@ -0,0 +1,64 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following checks that the DistributedSolver gives exactly the results of the single process simulation
+(what DistributedSolver --compare=true prints), both with the pipelined row by row sweeps and with the red-black
+sweeps of deterministic=true. Every test starts its worker JVMs from the test class path.
+*/
+
+package fluid2d;
+
+import org.junit.jupiter.api.Test;
+
+class DistributedSolverTest {
+    static final int STEPS = 20;
+
+    @Test
+    void twoProcessesMatchSingleProcess(){
+        assertMatchesSingleProcess(Simulations.config(), 2);
+    }
+
+    @Test
+    void threeProcessesWithToleranceMatchSingleProcess(){
+        SimulationConfig config = Simulations.config();
+        config.solver_tolerance = 1e-3;
+        config.warm_start = true;
+        assertMatchesSingleProcess(config, 3);
+    }
+
+    @Test
+    void redBlackMatchesDeterministicSingleProcess(){
+        SimulationConfig config = Simulations.config();
+        config.deterministic = true;
+        assertMatchesSingleProcess(config, 3);
+    }
+
+    @Test
+    void redBlackWithToleranceMatchesDeterministicSingleProcess(){
+        SimulationConfig config = Simulations.config();
+        config.deterministic = true;
+        config.solver_tolerance = 1e-3;
+        config.warm_start = true;
+        assertMatchesSingleProcess(config, 4);
+    }
+
+    private static void assertMatchesSingleProcess(SimulationConfig config, int processes){
+        InputScript script = InputScript.standard(Simulations.INJECT_EVERY);
+        FluidSolver single = new FluidSolver(config);
+        Simulations.run(single, script, STEPS);
+
+        try (DistributedSolver distributed = new DistributedSolver(config, processes)){
+            for (int i = 0; i < STEPS; i++){
+                script.apply(distributed);
+                distributed.step();
+            }
+            Simulations.assertIdentical(Simulations.state(single), Simulations.state(distributed));
+        }
+        single.close();
+    }
+}
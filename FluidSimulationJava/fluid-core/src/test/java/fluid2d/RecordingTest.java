@@ -0,0 +1,139 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following checks that a recording (StateRecorder) reads back (RecordingReader) within half a quantum of the
+live simulation. The keyframe interval is small so seeking backwards and into the middle of a chain of differences
+both decode from a keyframe, and some steps are left out the way dropped frames are. A recording whose index was
+never written (the recorder did not get to close) must still be readable by walking the frames.
+*/
+
+package fluid2d;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RecordingTest {
+    static final int STEPS = 30;
+    static final int KEYFRAME_INTERVAL = 4;
+    static final int BUFFERS = 64;  // Enough that the writer never drops a frame of such a small grid
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackTheRecordedSteps() throws IOException {
+        Path file = this.directory.resolve("run.rec");
+        ArrayList<Long> steps = new ArrayList<>();
+        ArrayList<double[][]> states = new ArrayList<>();
+        record(file, steps, states);
+
+        try (RecordingReader reader = new RecordingReader(file)){
+            assertTrue(reader.indexed);
+            assertEquals(steps.size(), reader.frames());
+            assertEquals(-1, reader.frameOf(steps.get(0) - 1));
+
+            // Backwards, so every frame is decoded again from the keyframe before it
+            for (int frame = steps.size() - 1; frame >= 0; frame--){
+                assertEquals((long) steps.get(frame), reader.step(frame));
+                assertFrame(reader, steps.get(frame), states.get(frame));
+            }
+            // Into the middle of a chain of differences after reading a later frame
+            int middle = KEYFRAME_INTERVAL + KEYFRAME_INTERVAL / 2;
+            assertFrame(reader, steps.get(steps.size() - 1), states.get(steps.size() - 1));
+            assertFrame(reader, steps.get(middle), states.get(middle));
+
+            // A step that was not recorded reads the frame before it
+            for (int frame = 1; frame < steps.size(); frame++){
+                for (long step = steps.get(frame - 1) + 1; step < steps.get(frame); step++){
+                    assertEquals(frame - 1, reader.frameOf(step));
+                    assertFrame(reader, step, states.get(frame - 1));
+                }
+            }
+        }
+    }
+
+    @Test
+    void rebuildsTheIndexOfATruncatedRecording() throws IOException {
+        Path file = this.directory.resolve("run.rec");
+        ArrayList<Long> steps = new ArrayList<>();
+        ArrayList<double[][]> states = new ArrayList<>();
+        record(file, steps, states);
+
+        // Cut off the index and the last few bytes of the last frame
+        int frames = steps.size();
+        long index_bytes = Integer.BYTES + frames * (2L * Long.BYTES + 1) + Long.BYTES + Integer.BYTES;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)){
+            channel.truncate(Files.size(file) - index_bytes - 3);
+        }
+
+        try (RecordingReader reader = new RecordingReader(file)){
+            assertFalse(reader.indexed);
+            assertEquals(frames - 1, reader.frames());
+            for (int frame = reader.frames() - 1; frame >= 0; frame--){
+                assertEquals((long) steps.get(frame), reader.step(frame));
+                assertFrame(reader, steps.get(frame), states.get(frame));
+            }
+            assertEquals(frames - 2, reader.frameOf(steps.get(frames - 1)));
+        }
+    }
+
+    private static void record(Path file, ArrayList<Long> steps, ArrayList<double[][]> states){
+        /*
+        Record every step but those that leave a gap (as dropped frames do), keeping the live state of every
+        recorded step
+        */
+        SimulationConfig config = Simulations.config();
+        FluidSolver solver = new FluidSolver(config);
+        InputScript script = InputScript.standard(Simulations.INJECT_EVERY);
+        StateRecorder recorder = new StateRecorder(file, config.fluid_size, StateRecorder.DEFAULT_DYE_QUANTUM, StateRecorder.DEFAULT_VELOCITY_QUANTUM,
+                KEYFRAME_INTERVAL, true, BUFFERS);
+        for (int i = 0; i < STEPS; i++){
+            script.apply(solver);
+            solver.step();
+            if (i % 7 == 3 || i % 11 == 5){
+                continue;
+            }
+            if (recorder.record(solver)){
+                steps.add(solver.step_count);
+                states.add(Simulations.state(solver));
+            }
+        }
+        recorder.close();
+        solver.close();
+        assertEquals(0, recorder.dropped_frames);
+        assertEquals(steps.size(), recorder.recorded_frames);
+    }
+
+    private static void assertFrame(RecordingReader reader, long step, double[][] expected){
+        int cells = reader.fluid_size * reader.fluid_size;
+        double[] u = new double[cells];
+        double[] v = new double[cells];
+        double[] dye = new double[cells];
+        reader.readStep(step, dye, u, v);
+        assertWithinHalfQuantum(expected[0], u, reader.velocity_quantum, "u", step);
+        assertWithinHalfQuantum(expected[1], v, reader.velocity_quantum, "v", step);
+        assertWithinHalfQuantum(expected[2], dye, reader.dye_quantum, "dye", step);
+    }
+
+    private static void assertWithinHalfQuantum(double[] expected, double[] actual, double quantum, String name, long step){
+        double tolerance = 0.5 * quantum * (1.0 + 1e-9);
+        for (int index = 0; index < expected.length; index++){
+            assertEquals(expected[index], actual[index], tolerance, name + " of cell " + index + " at step " + step);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following are the helpers the tests share: a small configuration, the inputs Headless uses and a copy of the
+state of a fluid that can be compared bit for bit.
+*/
+
+package fluid2d;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+final class Simulations {
+    static final int FLUID_SIZE = 40;
+    static final int INJECT_EVERY = 5;
+
+    private Simulations(){
+    }
+
+    static SimulationConfig config(){
+        SimulationConfig config = new SimulationConfig();
+        config.fluid_size = FLUID_SIZE;
+        config.gauss_seidel_iter = 20;
+        return config;
+    }
+
+    static void run(FluidSolver solver, InputScript script, int steps){
+        for (int i = 0; i < steps; i++){
+            script.apply(solver);
+            solver.step();
+        }
+    }
+
+    static double[][] state(FluidSolver solver){
+        /*
+        u, v and the dye of every cell
+        */
+        int cells = solver.fluid.fluid_size * solver.fluid.fluid_size;
+        double[][] state = {new double[cells], new double[cells], new double[cells]};
+        solver.fluid.copy_velocity(state[0], state[1]);
+        solver.fluid.copy_dye(state[2]);
+        return state;
+    }
+
+    static double[][] state(DistributedSolver solver){
+        int cells = solver.config.fluid_size * solver.config.fluid_size;
+        double[][] state = {new double[cells], new double[cells], new double[cells]};
+        solver.gather(state[0], state[1], state[2]);
+        return state;
+    }
+
+    static void assertIdentical(double[][] expected, double[][] actual){
+        String[] names = {"u", "v", "dye"};
+        for (int field = 0; field < names.length; field++){
+            assertArrayEquals(expected[field], actual[field], names[field] + " differs");
+        }
+    }
+}
@@ -0,0 +1,85 @@
+// CSC417: Final Project
+// Real-time 2D Fluid Simulation
+
+/*
+Implementation is based on the paper here https://www.researchgate.net/publication/2560062_Real-Time_Fluid_Dynamics_for_Games by Jos Stam
+ */
+
+/*
+The following checks that storing the fluid off heap or in memory mapped files (Field2D) gives exactly the same
+results as the heap arrays, and that a fluid with more than 2^31 cells is still indexed correctly. The large fluid
+is memory mapped and only a few rows of it are touched, so its files stay sparse and the test needs little memory
+or disk.
+*/
+
+package fluid2d;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class StorageTest {
+    static final int STEPS = 40;
+    static final int LARGE_FLUID_SIZE = 46400;  // More than 2^31 cells, which overflows an int
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void offHeapMatchesHeap(){
+        assertMatchesHeap("offheap");
+    }
+
+    @Test
+    void mappedMatchesHeap(){
+        assertMatchesHeap("mapped");
+    }
+
+    @Test
+    void diffusionFactorDoesNotOverflow(){
+        assertEquals(0.5 * 0.01 * (46398.0 * 46398.0), FieldOperations2D.diffusionFactor(0.5, 0.01, LARGE_FLUID_SIZE));
+        assertEquals(0.5 * 0.01 * ((Simulations.FLUID_SIZE - 2) * (Simulations.FLUID_SIZE - 2)),
+                FieldOperations2D.diffusionFactor(0.5, 0.01, Simulations.FLUID_SIZE));
+    }
+
+    @Test
+    void largeMappedFluidIndexesEveryCell(){
+        assumeFalse(System.getProperty("os.name").startsWith("Windows"), "memory mapped files are not sparse on Windows");
+        int size = LARGE_FLUID_SIZE;
+        Fluid2D fluid = new Fluid2D(size, 1.0, 0.0, 0.0, 20, false, false, "mapped", this.directory.toString());
+
+        int last = size - 2;
+        long index = (long) last * size + last;
+        assertTrue(index > Integer.MAX_VALUE);
+        fluid.add_dye(7.0, last, last);
+        assertEquals(7.0, fluid.dye_field.get(index));
+        assertEquals(7.0, fluid.dye_field.get(last, last));
+        assertEquals(0.0, fluid.dye_field.get(index - 1));
+
+        double[] u_delta = new double[size];
+        u_delta[5] = 3.0;
+        fluid.add_row(size - 2, null, u_delta, null);
+        assertEquals(3.0, fluid.u_field.get((long) (size - 2) * size + 5));
+        assertEquals(0.0, fluid.u_field.get((long) (size - 3) * size + 5));
+    }
+
+    private void assertMatchesHeap(String storage){
+        SimulationConfig config = Simulations.config();
+        config.storage = storage;
+        config.storage_dir = this.directory.toString();
+
+        FluidSolver heap = new FluidSolver(Simulations.config());
+        FluidSolver stored = new FluidSolver(config);
+        InputScript script = InputScript.standard(Simulations.INJECT_EVERY);
+        Simulations.run(heap, script, STEPS);
+        Simulations.run(stored, script, STEPS);
+
+        Simulations.assertIdentical(Simulations.state(heap), Simulations.state(stored));
+        heap.close();
+        stored.close();
+    }
+}